@@ -29,6 +29,7 @@ import java.io.ObjectOutput;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -39,6 +40,13 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.granite.clustering.DistributedDataFactory;
 import org.granite.config.api.Configuration;
@@ -46,14 +54,19 @@ import org.granite.context.GraniteContext;
 import org.granite.logging.Logger;
 import org.granite.messaging.amf.RemoteClass;
 import org.granite.messaging.amf.io.AMF3Deserializer;
+import org.granite.messaging.amf.io.AMF3DeserializerLimits;
 import org.granite.messaging.amf.io.AMF3DeserializerSecurizer;
 import org.granite.messaging.amf.io.AMF3Serializer;
 import org.granite.messaging.amf.io.convert.Converter;
 import org.granite.messaging.amf.io.convert.Converters;
 import org.granite.messaging.amf.io.util.ActionScriptClassDescriptor;
 import org.granite.messaging.amf.io.util.ClassGetter;
+import org.granite.messaging.amf.io.util.DefaultActionScriptClassDescriptor;
 import org.granite.messaging.amf.io.util.DefaultClassGetter;
+import org.granite.messaging.amf.io.util.DefaultJavaClassDescriptor;
+import org.granite.messaging.amf.io.util.FieldProperty;
 import org.granite.messaging.amf.io.util.JavaClassDescriptor;
+import org.granite.messaging.amf.io.util.UnsafeFieldProperty;
 import org.granite.messaging.amf.io.util.externalizer.BigDecimalExternalizer;
 import org.granite.messaging.amf.io.util.externalizer.BigIntegerExternalizer;
 import org.granite.messaging.amf.io.util.externalizer.Externalizer;
@@ -113,6 +126,8 @@ public class GraniteConfig implements ScannedItemHandler {
     private Constructor<AMF3Deserializer> amf3DeserializerConstructor = null;
     
     private AMF3DeserializerSecurizer amf3DeserializerSecurizer = null;
+    
+    private AMF3DeserializerLimits amf3DeserializerLimits = AMF3DeserializerLimits.NONE;
 
     // Custom AMF3 message interceptor configuration.
     private AMF3MessageInterceptor amf3MessageInterceptor = null;
@@ -147,6 +162,25 @@ public class GraniteConfig implements ScannedItemHandler {
         = new ConcurrentHashMap<String, Class<? extends JavaClassDescriptor>>();
     private final Map<String, String> javaDescriptorsByInstanceOf = new HashMap<String, String>();
 
+    // Java descriptor instances, shared by all AMF3Serializer instances (distinct caches for
+    // Java clients because of forced number/map externalizers).
+    private final ConcurrentHashMap<Class<?>, JavaClassDescriptor> javaDescriptorsCache
+        = new ConcurrentHashMap<Class<?>, JavaClassDescriptor>();
+    private final ConcurrentHashMap<Class<?>, JavaClassDescriptor> javaClientJavaDescriptorsCache
+        = new ConcurrentHashMap<Class<?>, JavaClassDescriptor>();
+
+    // AS3 descriptor instances (with their defined properties), shared by all AMF3Deserializer
+    // instances and keyed by client type, alias, encoding and property names.
+    private static final int MAX_CACHED_AS3_DESCRIPTORS = 2048;
+    private final ConcurrentHashMap<String, ActionScriptClassDescriptor> as3DescriptorsCache
+        = new ConcurrentHashMap<String, ActionScriptClassDescriptor>();
+
+    // Field access configuration ("reflection" or "unsafe").
+    private boolean unsafeFieldAccess = false;
+    
+    // Concurrent execution of batched AMF0 bodies (null: sequential execution).
+    private ExecutorService amf0BatchExecutor = null;
+
     // AS3 descriptors configuration.
     private final ConcurrentHashMap<String, Class<? extends ActionScriptClassDescriptor>> as3DescriptorsByType
         = new ConcurrentHashMap<String, Class<? extends ActionScriptClassDescriptor>>();
@@ -377,6 +411,14 @@ public class GraniteConfig implements ScannedItemHandler {
 		return amf3DeserializerConstructor;
 	}
 
+    public AMF3DeserializerLimits getAmf3DeserializerLimits() {
+    	return amf3DeserializerLimits;
+    }
+    
+    public void setAmf3DeserializerLimits(AMF3DeserializerLimits amf3DeserializerLimits) {
+    	this.amf3DeserializerLimits = (amf3DeserializerLimits != null ? amf3DeserializerLimits : AMF3DeserializerLimits.NONE);
+    }
+    
     public AMF3DeserializerSecurizer getAmf3DeserializerSecurizer() {
 		return amf3DeserializerSecurizer;
 	}
@@ -499,7 +541,121 @@ public class GraniteConfig implements ScannedItemHandler {
 
     public Map<String, String> getJavaDescriptorsByInstanceOf() {
     	return javaDescriptorsByInstanceOf;
-    }    
+    }
+    
+    public boolean isUnsafeFieldAccess() {
+    	return unsafeFieldAccess;
+    }
+    
+    public FieldProperty newFieldProperty(Converters converters, Field field) {
+    	if (unsafeFieldAccess) {
+    		try {
+    			return new UnsafeFieldProperty(converters, field);
+    		}
+    		catch (Exception e) {
+    			log.debug(e, "Could not use unsafe access for field %s (using reflection)", field);
+    		}
+    	}
+    	return new FieldProperty(converters, field);
+    }
+    
+    public ExecutorService getAmf0BatchExecutor() {
+    	return amf0BatchExecutor;
+    }
+    
+    public void shutdownAmf0BatchExecutor() {
+    	ExecutorService executor = amf0BatchExecutor;
+    	amf0BatchExecutor = null;
+    	if (executor != null)
+    		executor.shutdown();
+    }
+    
+    public JavaClassDescriptor getJavaClassDescriptor(Class<?> type) {
+    	ConcurrentHashMap<Class<?>, JavaClassDescriptor> cache = (
+    		"java".equals(GraniteContext.getCurrentInstance().getClientType()) ?
+    		javaClientJavaDescriptorsCache :
+    		javaDescriptorsCache
+    	);
+    	
+    	JavaClassDescriptor desc = cache.get(type);
+    	if (desc == null) {
+    		desc = newJavaClassDescriptor(type);
+    		if (desc.isCacheable()) {
+    			JavaClassDescriptor previous = cache.putIfAbsent(type, desc);
+    			if (previous != null)
+    				desc = previous;
+    		}
+    	}
+    	return desc;
+    }
+    
+    public int getJavaClassDescriptorsCacheSize() {
+    	return javaDescriptorsCache.size() + javaClientJavaDescriptorsCache.size();
+    }
+    
+    public ActionScriptClassDescriptor getActionScriptClassDescriptor(String className, byte encoding, String[] propertyNames) {
+    	StringBuilder sb = new StringBuilder(64);
+    	sb.append(GraniteContext.getCurrentInstance().getClientType()).append('\0');
+    	sb.append(className).append('\0').append(encoding);
+    	for (String propertyName : propertyNames)
+    		sb.append('\0').append(propertyName);
+    	String key = sb.toString();
+    	
+    	ActionScriptClassDescriptor desc = as3DescriptorsCache.get(key);
+    	if (desc == null) {
+    		desc = newActionScriptClassDescriptor(className, encoding);
+    		for (String propertyName : propertyNames)
+    			desc.defineProperty(propertyName);
+    		
+    		// Property names are client supplied: don't let the cache grow unbounded.
+    		if (desc.isCacheable() && as3DescriptorsCache.size() < MAX_CACHED_AS3_DESCRIPTORS) {
+    			ActionScriptClassDescriptor previous = as3DescriptorsCache.putIfAbsent(key, desc);
+    			if (previous != null)
+    				desc = previous;
+    		}
+    	}
+    	return desc;
+    }
+    
+    public int getActionScriptClassDescriptorsCacheSize() {
+    	return as3DescriptorsCache.size();
+    }
+    
+    public void clearDescriptorsCache() {
+    	javaDescriptorsCache.clear();
+    	javaClientJavaDescriptorsCache.clear();
+    	as3DescriptorsCache.clear();
+    }
+    
+    protected ActionScriptClassDescriptor newActionScriptClassDescriptor(String className, byte encoding) {
+        Class<? extends ActionScriptClassDescriptor> descriptorType = null;
+        if (!"".equals(className))
+            descriptorType = getActionScriptDescriptor(className);
+        if (descriptorType != null) {
+            Class<?>[] argsDef = new Class[]{String.class, byte.class};
+            Object[] argsVal = new Object[]{className, Byte.valueOf(encoding)};
+            try {
+                return TypeUtil.newInstance(descriptorType, argsDef, argsVal);
+            } catch (Exception e) {
+                throw new RuntimeException("Could not instantiate AS descriptor: " + descriptorType, e);
+            }
+        }
+        return new DefaultActionScriptClassDescriptor(className, encoding);
+    }
+    
+    protected JavaClassDescriptor newJavaClassDescriptor(Class<?> type) {
+        Class<? extends JavaClassDescriptor> descriptorType = getJavaDescriptor(type.getName());
+        if (descriptorType != null) {
+            Class<?>[] argsDef = new Class[]{Class.class};
+            Object[] argsVal = new Object[]{type};
+            try {
+                return TypeUtil.newInstance(descriptorType, argsDef, argsVal);
+            } catch (Exception e) {
+                throw new RuntimeException("Could not instantiate Java descriptor: " + descriptorType);
+            }
+        }
+        return new DefaultJavaClassDescriptor(type);
+    }
     
     
     public boolean isComponentTideEnabled(String componentName, Set<Class<?>> componentClasses, Object instance) {
@@ -579,15 +735,21 @@ public class GraniteConfig implements ScannedItemHandler {
         return messageSelectorConstructor;
     }
     public Externalizer setExternalizersByType(String type, String externalizerType) {
-    	return externalizersByType.put(type, EXTERNALIZER_FACTORY.getInstance(externalizerType, this));
+    	Externalizer previous = externalizersByType.put(type, EXTERNALIZER_FACTORY.getInstance(externalizerType, this));
+    	clearDescriptorsCache();
+    	return previous;
     }
 
     public String putExternalizersByInstanceOf(String instanceOf, String externalizerType) {
-    	return externalizersByInstanceOf.put(instanceOf, externalizerType);
+    	String previous = externalizersByInstanceOf.put(instanceOf, externalizerType);
+    	clearDescriptorsCache();
+    	return previous;
     }
 
     public String putExternalizersByAnnotatedWith(String annotatedWith, String externalizerType) {
-    	return externalizersByAnnotatedWith.put(annotatedWith, externalizerType);
+    	String previous = externalizersByAnnotatedWith.put(annotatedWith, externalizerType);
+    	clearDescriptorsCache();
+    	return previous;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -600,6 +762,7 @@ public class GraniteConfig implements ScannedItemHandler {
 
         loadCustomAMF3Serializer(element, custom);
         loadCustomAMF3DeserializerSecurizer(element, custom);
+        loadCustomAMF3DeserializerLimits(element, custom);
         loadCustomAMF3MessageInterceptor(element, custom);
         loadCustomConverters(element, custom);
         loadCustomMethodMatcher(element, custom);
@@ -608,6 +771,8 @@ public class GraniteConfig implements ScannedItemHandler {
         loadCustomClassGetter(element, custom);
         loadCustomExternalizers(element, custom);
         loadCustomDescriptors(element, custom);
+        loadCustomPropertyAccess(element, custom);
+        loadCustomAmf0Batch(element, custom);
         loadCustomExceptionConverters(element, custom);
         loadCustomTideComponents(element, custom);
         loadCustomSecurity(element, custom);
@@ -663,6 +828,34 @@ public class GraniteConfig implements ScannedItemHandler {
         }
     }
 
+    private void loadCustomAMF3DeserializerLimits(XMap element, boolean custom) {
+        XMap limits = element.getOne("amf3-deserializer-limits");
+        if (limits != null) {
+        	amf3DeserializerLimits = new AMF3DeserializerLimits(
+        		getLimit(limits, "@max-string-length"),
+        		getLimit(limits, "@max-array-length"),
+        		getLimit(limits, "@max-byte-array-length"),
+        		getLimit(limits, "@max-stored-objects")
+        	);
+        	log.info("Using %s", amf3DeserializerLimits);
+        }
+    }
+    
+    private static int getLimit(XMap element, String attribute) {
+    	String value = element.get(attribute);
+    	if (value == null || value.trim().length() == 0)
+    		return AMF3DeserializerLimits.UNLIMITED;
+    	try {
+    		int limit = Integer.parseInt(value.trim());
+    		if (limit < 0)
+    			throw new NumberFormatException();
+    		return limit;
+    	}
+    	catch (NumberFormatException e) {
+    		throw new GraniteConfigException("Illegal amf3-deserializer-limits " + attribute.substring(1) + ": " + value, e);
+    	}
+    }
+
     private void loadCustomAMF3MessageInterceptor(XMap element, boolean custom) {
         XMap interceptor = element.getOne("amf3-message-interceptor");
         if (interceptor != null) {
@@ -831,6 +1024,64 @@ public class GraniteConfig implements ScannedItemHandler {
         }
     }
     
+    private void loadCustomPropertyAccess(XMap element, boolean custom) {
+        XMap propertyAccess = element.getOne("property-access");
+        if (propertyAccess != null) {
+            String type = propertyAccess.get("@type");
+            if ("unsafe".equals(type)) {
+            	unsafeFieldAccess = UnsafeFieldProperty.isAvailable();
+            	if (!unsafeFieldAccess)
+            		log.warn("Unsafe field access is not available in this JVM, using reflection");
+            }
+            else if ("reflection".equals(type))
+            	unsafeFieldAccess = false;
+            else
+                throw new GraniteConfigException("Unknown property access type: " + type);
+        }
+    }
+    
+    private void loadCustomAmf0Batch(XMap element, boolean custom) {
+        XMap amf0Batch = element.getOne("amf0-batch");
+        if (amf0Batch != null) {
+        	int threads;
+        	try {
+        		threads = Integer.parseInt(amf0Batch.get("@threads"));
+        	}
+        	catch (NumberFormatException e) {
+        		throw new GraniteConfigException("Illegal amf0-batch threads: " + amf0Batch.get("@threads"), e);
+        	}
+        	
+        	shutdownAmf0BatchExecutor();
+        	
+        	if (threads > 1) {
+        		log.info("Using up to %d threads for batched AMF0 bodies", threads);
+        		
+        		// Idle threads die after one minute; when all threads are busy (or after a shutdown
+        		// caused by a configuration reload), the request thread executes the body itself.
+        		ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        			threads, threads, 60L, TimeUnit.SECONDS,
+        			new SynchronousQueue<Runnable>(),
+        			new ThreadFactory() {
+        				private final AtomicInteger count = new AtomicInteger();
+        				
+        				public Thread newThread(Runnable r) {
+        					Thread thread = new Thread(r, "GraniteDS-AMF0Batch-" + count.incrementAndGet());
+        					thread.setDaemon(true);
+        					return thread;
+        				}
+        			},
+        			new RejectedExecutionHandler() {
+        				public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+        					r.run();
+        				}
+        			}
+        		);
+        		executor.allowCoreThreadTimeOut(true);
+        		amf0BatchExecutor = executor;
+        	}
+        }
+    }
+    
     public String getTypeForAlias(String alias) {
     	return aliases.containsKey(alias) ? aliases.get(alias) : alias;
     }
@@ -139,6 +139,9 @@ public class GraniteConfigListener implements ServletContextListener, HttpSessio
         if (ServletParams.get(context, GRANITE_MBEANS_ATTRIBUTE, Boolean.TYPE, false))
         	GraniteMBeanInitializer.unregisterMBeans(context);
 
+        if (ServletGraniteConfig.getServletConfig(context) != null)
+        	ServletGraniteConfig.getConfig(context).shutdownAmf0BatchExecutor();
+
         log.info("GraniteDS stopped");
     }
 
@@ -32,10 +32,12 @@ import javax.servlet.ServletException;
 import org.granite.config.api.Configuration;
 import org.granite.jmx.MBeanUtil;
 import org.granite.logging.Logger;
+import org.granite.messaging.amf.io.RegexAMF3DeserializerSecurizer;
 import org.granite.messaging.amf.io.convert.Converter;
 import org.granite.messaging.amf.io.util.ActionScriptClassDescriptor;
 import org.granite.messaging.amf.io.util.JavaClassDescriptor;
 import org.granite.messaging.amf.io.util.externalizer.Externalizer;
+import org.granite.messaging.service.DefaultMethodMatcher;
 import org.granite.util.ServletParams;
 import org.granite.util.StreamUtil;
 
@@ -179,6 +181,14 @@ public class ServletGraniteConfig implements ServletGraniteConfigMBean {
 		try {
 	    	context.removeAttribute(GRANITE_CONFIG_KEY);
 	    	GraniteConfig config = loadConfig(context);
+	    	
+	    	// Release descriptors built with the old configuration (converters, externalizers)
+	    	// and its batched AMF0 threads.
+	    	if (oldConfig != null) {
+	    		oldConfig.config.clearDescriptorsCache();
+	    		oldConfig.config.shutdownAmf0BatchExecutor();
+	    	}
+	    	
 	    	for (GraniteConfigReloadListener listener : reloadListeners) {
 	    		try {
 	    			listener.onReload(context, config);
@@ -266,6 +276,45 @@ public class ServletGraniteConfig implements ServletGraniteConfigMBean {
 		);
 	}
 
+	public long getMethodMatcherCacheHits() {
+		if (config.getMethodMatcher() instanceof DefaultMethodMatcher)
+			return ((DefaultMethodMatcher)config.getMethodMatcher()).getCacheHits();
+		return 0L;
+	}
+
+	public long getMethodMatcherCacheMisses() {
+		if (config.getMethodMatcher() instanceof DefaultMethodMatcher)
+			return ((DefaultMethodMatcher)config.getMethodMatcher()).getCacheMisses();
+		return 0L;
+	}
+	
+	public void clearMethodMatcherCache() {
+		if (config.getMethodMatcher() instanceof DefaultMethodMatcher)
+			((DefaultMethodMatcher)config.getMethodMatcher()).clearCache();
+	}
+
+	public long getAmf3DeserializerSecurizerRejectedCount() {
+		if (config.getAmf3DeserializerSecurizer() instanceof RegexAMF3DeserializerSecurizer)
+			return ((RegexAMF3DeserializerSecurizer)config.getAmf3DeserializerSecurizer()).getRejectedCount();
+		return 0L;
+	}
+
+	public String showAmf3DeserializerSecurizerRejects() {
+		if (!(config.getAmf3DeserializerSecurizer() instanceof RegexAMF3DeserializerSecurizer))
+			return null;
+		Map<String, Long> rejects = ((RegexAMF3DeserializerSecurizer)config.getAmf3DeserializerSecurizer()).getRejectedClassNames();
+		String[] names = new String[rejects.size()];
+		int i = 0;
+		for (Map.Entry<String, Long> e : rejects.entrySet())
+			names[i++] = e.getKey() + "=" + e.getValue();
+		return MBeanUtil.format(names, true);
+	}
+
+	public void clearAmf3DeserializerSecurizerStatistics() {
+		if (config.getAmf3DeserializerSecurizer() instanceof RegexAMF3DeserializerSecurizer)
+			((RegexAMF3DeserializerSecurizer)config.getAmf3DeserializerSecurizer()).clearStatistics();
+	}
+
 	public String getSecurityServiceClass() {
 		return MBeanUtil.format(
 			config.getSecurityService() != null ?
@@ -282,6 +331,18 @@ public class ServletGraniteConfig implements ServletGraniteConfigMBean {
 		);
 	}
 
+	public int getJavaClassDescriptorsCacheSize() {
+		return config.getJavaClassDescriptorsCacheSize();
+	}
+
+	public int getActionScriptClassDescriptorsCacheSize() {
+		return config.getActionScriptClassDescriptorsCacheSize();
+	}
+	
+	public void clearDescriptorsCache() {
+		config.clearDescriptorsCache();
+	}
+
 	public String showStandardConfig() throws IOException {
 		String s = StreamUtil.getResourceAsString("org/granite/config/granite-config.xml", getClass().getClassLoader());
 		return MBeanUtil.format(s);
@@ -53,6 +53,12 @@ public interface ServletGraniteConfigMBean {
     
     @MBeanAttribute(description="The MethodMatcher class")
     public String getMethodMatcherClass();
+    
+    @MBeanAttribute(description="The number of service method lookups found in the method matcher cache (DefaultMethodMatcher only)")
+    public long getMethodMatcherCacheHits();
+    
+    @MBeanAttribute(description="The number of service method lookups not found in the method matcher cache (DefaultMethodMatcher only)")
+    public long getMethodMatcherCacheMisses();
 
     @MBeanAttribute(description="The ServiceInvocationListener class")
     public String getServiceInvocationListenerClass();
@@ -66,6 +72,15 @@ public interface ServletGraniteConfigMBean {
     @MBeanAttribute(description="The MessageSelector class")
     public String getMessageSelectorClass();
     
+    @MBeanAttribute(description="The number of cached (shared) Java class descriptors")
+    public int getJavaClassDescriptorsCacheSize();
+    
+    @MBeanAttribute(description="The number of cached (shared) ActionScript class descriptors")
+    public int getActionScriptClassDescriptorsCacheSize();
+    
+    @MBeanAttribute(description="The number of class instantiations rejected by the AMF3DeserializerSecurizer (RegexAMF3DeserializerSecurizer only)")
+    public long getAmf3DeserializerSecurizerRejectedCount();
+    
 	///////////////////////////////////////////////////////////////////////////
 	// Operations.
     
@@ -165,6 +180,30 @@ public interface ServletGraniteConfigMBean {
     )
     public String showTideComponentMatchers();
     
+    @MBeanOperation(
+    	description="Clears the cache of shared class descriptors",
+    	impact=Impact.ACTION
+    )
+    public void clearDescriptorsCache();
+    
+    @MBeanOperation(
+    	description="Clears the cache of resolved service methods (DefaultMethodMatcher only)",
+    	impact=Impact.ACTION
+    )
+    public void clearMethodMatcherCache();
+    
+    @MBeanOperation(
+    	description="Shows rejected class names with their reject counts (RegexAMF3DeserializerSecurizer only)",
+    	impact=Impact.INFO
+    )
+    public String showAmf3DeserializerSecurizerRejects();
+    
+    @MBeanOperation(
+    	description="Resets the AMF3DeserializerSecurizer reject statistics (RegexAMF3DeserializerSecurizer only)",
+    	impact=Impact.ACTION
+    )
+    public void clearAmf3DeserializerSecurizerStatistics();
+    
 	@MBeanOperation(
     	description="Reload the granite-config.xml file",
     	impact=Impact.ACTION
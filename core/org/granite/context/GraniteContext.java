@@ -21,6 +21,7 @@
 package org.granite.context;
 
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.granite.config.GraniteConfig;
 import org.granite.config.flex.ServicesConfig;
@@ -67,6 +68,32 @@ public abstract class GraniteContext {
     public static void release() {
         instance.set(null);
     }
+    
+    /**
+     * Returns a new context for one body of a batched AMF0 request, processed concurrently with
+     * the other bodies: it has its own AMF context and must not share mutable request state
+     * with this context. Returns null if this context cannot be split, in which case all bodies
+     * are processed in the request thread.
+     */
+    public GraniteContext newBatchBodyContext() {
+    	return null;
+    }
+    
+    /**
+     * Calls the given task with this context bound to the current thread. The previous binding
+     * of the current thread is restored afterwards.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+    	GraniteContext previousContext = instance.get();
+    	
+    	instance.set(this);
+    	try {
+    		return task.call();
+    	}
+    	finally {
+    		instance.set(previousContext);
+    	}
+    }
 
     public ServicesConfig getServicesConfig() {
         return servicesConfig;
@@ -37,10 +37,8 @@ import org.granite.context.GraniteContext;
 import org.granite.logging.Logger;
 import org.granite.messaging.amf.AMF3Constants;
 import org.granite.messaging.amf.io.util.ActionScriptClassDescriptor;
-import org.granite.messaging.amf.io.util.DefaultActionScriptClassDescriptor;
 import org.granite.messaging.amf.io.util.externalizer.Externalizer;
 import org.granite.messaging.amf.io.util.instantiator.AbstractInstantiator;
-import org.granite.util.TypeUtil;
 import org.granite.util.XMLUtil;
 import org.granite.util.XMLUtilFactory;
 import org.w3c.dom.Document;
@@ -55,6 +53,9 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
 
     protected static final Logger log = Logger.getLogger(AMF3Deserializer.class);
     protected static final Logger logMore = Logger.getLogger(AMF3Deserializer.class.getName() + "_MORE");
+    
+    // Larger byte arrays and vectors are grown while reading, instead of being allocated upfront.
+    private static final int MAX_PREALLOCATED_SIZE = 8192;
 
     protected final List<String> storedStrings = new ArrayList<String>();
     protected final List<Object> storedObjects = new ArrayList<Object>();
@@ -63,6 +64,16 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
     protected final GraniteContext context = GraniteContext.getCurrentInstance();
 
     protected final AMF3DeserializerSecurizer securizer = context.getGraniteConfig().getAmf3DeserializerSecurizer();
+    
+    protected final AMF3DeserializerLimits limits = context.getGraniteConfig().getAmf3DeserializerLimits();
+    
+    // Scratch buffers for UTF-8 decoding, reused for all strings of the stream.
+    private byte[] utfBytes = new byte[256];
+    private char[] utfChars = new char[256];
+    
+    // Announced sizes of the dense arrays being read whose Object[] is not allocated yet with
+    // its full size, by index in storedObjects.
+    private Map<Integer, Integer> growingArraySizes = null;
 
     protected final XMLUtil xmlUtil = XMLUtilFactory.getXMLUtil();
 
@@ -195,11 +206,11 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
             if (debugMore) logMore.debug("readAMF3String() - length=%d", length);
 
             if (length > 0) {
-
-                byte[] utfBytes = new byte[length];
-                char[] utfChars = new char[length];
-
-                readFully(utfBytes);
+            	limits.checkStringLength(length);
+            	
+            	readUTFBytes(length);
+            	final byte[] utfBytes = this.utfBytes;
+            	final char[] utfChars = this.utfChars;
 
                 int c, c2, c3, iBytes = 0, iChars = 0;
                 while (iBytes < length) {
@@ -209,12 +220,16 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
                     else {
                         switch (c >> 4) {
                         case 12: case 13:
+                            if (iBytes + 1 > length)
+                                throw new UTFDataFormatException("Malformed input: partial character at end");
                             c2 = utfBytes[iBytes++];
                             if ((c2 & 0xC0) != 0x80)
                                 throw new UTFDataFormatException("Malformed input around byte " + (iBytes-2));
                             utfChars[iChars++] = (char)(((c & 0x1F) << 6) | (c2 & 0x3F));
                             break;
                         case 14:
+                            if (iBytes + 2 > length)
+                                throw new UTFDataFormatException("Malformed input: partial character at end");
                             c2 = utfBytes[iBytes++];
                             c3 = utfBytes[iBytes++];
                             if (((c2 & 0xC0) != 0x80) || ((c3 & 0xC0) != 0x80))
@@ -265,14 +280,30 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
             result = getFromStoredObjects(type >> 1);
         else {
             final int size = type >> 1;
+            limits.checkArrayLength(size);
 
             String key = readAMF3String();
             if (key.length() == 0) {
-                Object[] objects = new Object[size];
-                addToStoredObjects(objects);
-
-                for (int i = 0; i < size; i++)
-                    objects[i] = readObject();
+                Object[] objects = new Object[Math.min(size, MAX_PREALLOCATED_SIZE)];
+                int index = addToStoredObjects(objects);
+                if (objects.length < size)
+                	growingArraySizes().put(Integer.valueOf(index), Integer.valueOf(size));
+
+                for (int i = 0; i < size; i++) {
+                    Object o = readObject();
+                    
+                    // The array may have been expanded by a reference to itself (see getFromStoredObjects).
+                    objects = (Object[])storedObjects.get(index);
+                    if (i == objects.length) {
+                    	Object[] newObjects = new Object[(int)Math.min((long)size, (long)objects.length << 1)];
+                    	System.arraycopy(objects, 0, newObjects, 0, i);
+                    	objects = newObjects;
+                    	storedObjects.set(index, objects);
+                    }
+                    objects[i] = o;
+                }
+                if (growingArraySizes != null)
+                	growingArraySizes.remove(Integer.valueOf(index));
 
                 result = objects;
             }
@@ -304,7 +335,8 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
         	result = getFromStoredObjects(type >> 1);
         else {
         	final int length = type >> 1;
-            List<Integer> vector = new ArrayList<Integer>(length);
+        	limits.checkArrayLength(length);
+            List<Integer> vector = new ArrayList<Integer>(Math.min(length, MAX_PREALLOCATED_SIZE));
             
             addToStoredObjects(result);
             
@@ -329,7 +361,8 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
         	result = getFromStoredObjects(type >> 1);
         else {
         	final int length = type >> 1;
-            List<Long> vector = new ArrayList<Long>(length);
+        	limits.checkArrayLength(length);
+            List<Long> vector = new ArrayList<Long>(Math.min(length, MAX_PREALLOCATED_SIZE));
             
             addToStoredObjects(result);
             
@@ -354,7 +387,8 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
         	result = getFromStoredObjects(type >> 1);
         else {
         	final int length = type >> 1;
-            List<Double> vector = new ArrayList<Double>(length);
+        	limits.checkArrayLength(length);
+            List<Double> vector = new ArrayList<Double>(Math.min(length, MAX_PREALLOCATED_SIZE));
             
             addToStoredObjects(result);
             
@@ -379,7 +413,8 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
         	result = getFromStoredObjects(type >> 1);
         else {
         	final int length = type >> 1;
-            List<Object> vector = new ArrayList<Object>(length);
+        	limits.checkArrayLength(length);
+            List<Object> vector = new ArrayList<Object>(Math.min(length, MAX_PREALLOCATED_SIZE));
             
             addToStoredObjects(result);
             
@@ -428,32 +463,18 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
                 if (securizer != null && !securizer.allowInstantiation(className))
                 	throw new SecurityException("Illegal attempt to instantiate class: " + className + ", securizer: " + securizer.getClass());
 
-                // try to find out custom AS3 class descriptor
-                Class<? extends ActionScriptClassDescriptor> descriptorType = null;
-                if (!"".equals(className))
-                    descriptorType = context.getGraniteConfig().getActionScriptDescriptor(className);
-                if (debug) log.debug("readAMF3Object() - descriptorType=%s", descriptorType);
-
-                if (descriptorType != null) {
-                    // instantiate descriptor
-                    Class<?>[] argsDef = new Class[]{String.class, byte.class};
-                    Object[] argsVal = new Object[]{className, Byte.valueOf(encoding)};
-                    try {
-                        desc = TypeUtil.newInstance(descriptorType, argsDef, argsVal);
-                    } catch (Exception e) {
-                        throw new RuntimeException("Could not instantiate AS descriptor: " + descriptorType, e);
-                    }
-                }
-                if (desc == null)
-                    desc = new DefaultActionScriptClassDescriptor(className, encoding);
-                addToStoredClassDescriptors(desc);
-
-                if (debug) log.debug("readAMF3Object() - defining %d properties...", propertiesCount);
+                if (debug) log.debug("readAMF3Object() - reading %d property names...", propertiesCount);
+                limits.checkArrayLength(propertiesCount);
+                List<String> propertyNamesList = new ArrayList<String>(Math.min(propertiesCount, MAX_PREALLOCATED_SIZE));
                 for (int i = 0; i < propertiesCount; i++) {
-                    String name = readAMF3String();
-                    if (debug) log.debug("readAMF3Object() - defining property name=%s", name);
-                    desc.defineProperty(name);
+                    propertyNamesList.add(readAMF3String());
+                    if (debug) log.debug("readAMF3Object() - property name=%s", propertyNamesList.get(i));
                 }
+                String[] propertyNames = propertyNamesList.toArray(new String[propertiesCount]);
+
+                // get a shared (possibly cached) descriptor with all properties defined.
+                desc = context.getGraniteConfig().getActionScriptClassDescriptor(className, encoding, propertyNames);
+                addToStoredClassDescriptors(desc);
             } else
                 desc = getFromStoredClassDescriptors(type >> 2);
 
@@ -573,7 +594,10 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
         if ((type & 0x01) == 0) // stored String
             result = getFromStoredStrings(type >> 1);
         else {
-            byte[] bytes = readBytes(type >> 1);
+            final int length = type >> 1;
+            limits.checkStringLength(length);
+            
+            byte[] bytes = readBytes(length);
             result = new String(bytes, "UTF-8");
             addToStoredStrings(result);
         }
@@ -590,7 +614,10 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
         if ((type & 0x01) == 0) // stored object.
             result = (byte[])getFromStoredObjects(type >> 1);
         else {
-            result = readBytes(type >> 1);
+            final int length = type >> 1;
+            limits.checkByteArrayLength(length);
+            
+            result = readBytes(length);
             addToStoredObjects(result);
         }
 
@@ -602,7 +629,8 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
     ///////////////////////////////////////////////////////////////////////////
     // Cached objects methods.
 
-    protected void addToStoredStrings(String s) {
+    protected void addToStoredStrings(String s) throws IOException {
+        limits.checkStoredObjects(storedStrings.size());
         if (debug) log.debug("addToStoredStrings(s=%s) at index=%d", s, storedStrings.size());
         storedStrings.add(s);
     }
@@ -614,7 +642,8 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
         return s;
     }
 
-    protected int addToStoredObjects(Object o) {
+    protected int addToStoredObjects(Object o) throws IOException {
+        limits.checkStoredObjects(storedObjects.size());
         int index = storedObjects.size();
         if (debug) log.debug("addToStoredObjects(o=%s) at index=%d", o, index);
         storedObjects.add(o);
@@ -629,11 +658,25 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
     protected Object getFromStoredObjects(int index) {
         if (debug) log.debug("getFromStoredObjects(index=%d)", index);
         Object o = storedObjects.get(index);
+        
+        // Reference to a dense array still being read and grown: allocate it with its full
+        // size now, so that this reference stays valid.
+        if (growingArraySizes != null) {
+        	Integer size = growingArraySizes.remove(Integer.valueOf(index));
+        	if (size != null) {
+        		Object[] objects = new Object[size.intValue()];
+        		System.arraycopy(o, 0, objects, 0, ((Object[])o).length);
+        		storedObjects.set(index, objects);
+        		o = objects;
+        	}
+        }
+        
         if (debug) log.debug("getFromStoredObjects() -> %s", o);
         return o;
     }
 
-    protected void addToStoredClassDescriptors(ActionScriptClassDescriptor desc) {
+    protected void addToStoredClassDescriptors(ActionScriptClassDescriptor desc) throws IOException {
+        limits.checkStoredObjects(storedClassDescriptors.size());
         if (debug) log.debug("addToStoredClassDescriptors(desc=%s) at index=%d", desc, storedClassDescriptors.size());
         storedClassDescriptors.add(desc);
     }
@@ -648,16 +691,50 @@ public class AMF3Deserializer extends DataInputStream implements ObjectInput, AM
     ///////////////////////////////////////////////////////////////////////////
     // Utilities.
 
+    private Map<Integer, Integer> growingArraySizes() {
+    	if (growingArraySizes == null)
+    		growingArraySizes = new HashMap<Integer, Integer>();
+    	return growingArraySizes;
+    }
+    
+    // Reads count bytes into the utfBytes scratch buffer, growing it (and utfChars) only as
+    // bytes are actually received.
+    private void readUTFBytes(int count) throws IOException {
+        int offset = 0;
+        while (offset < count) {
+        	if (offset == utfBytes.length) {
+        		byte[] newBytes = new byte[(int)Math.min((long)count, (long)utfBytes.length << 1)];
+        		System.arraycopy(utfBytes, 0, newBytes, 0, offset);
+        		utfBytes = newBytes;
+        	}
+        	
+        	int read = in.read(utfBytes, offset, Math.min(count, utfBytes.length) - offset);
+        	if (read == -1)
+        		throw new EOFException();
+        	offset += read;
+        }
+        
+        if (utfChars.length < count)
+        	utfChars = new char[utfBytes.length];
+    }
+
     protected byte[] readBytes(int count) throws IOException {
-        byte[] bytes = new byte[count];
-        //readFully(bytes);
+    	// Grow the result while reading, so that a (bogus) large count does not allocate
+    	// anything before the corresponding bytes are actually received.
+        byte[] bytes = new byte[Math.min(count, MAX_PREALLOCATED_SIZE)];
         
-        int b = -1;
-        for (int i = 0; i < count; i++) {
-        	b = in.read();
-        	if (b == -1)
+        int offset = 0;
+        while (offset < count) {
+        	if (offset == bytes.length) {
+        		byte[] newBytes = new byte[(int)Math.min((long)count, (long)bytes.length << 1)];
+        		System.arraycopy(bytes, 0, newBytes, 0, offset);
+        		bytes = newBytes;
+        	}
+        	
+        	int read = in.read(bytes, offset, bytes.length - offset);
+        	if (read == -1)
         		throw new EOFException();
-        	bytes[i] = (byte)b;
+        	offset += read;
         }
         return bytes;
     }
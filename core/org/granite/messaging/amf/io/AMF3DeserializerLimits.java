@@ -0,0 +1,96 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.amf.io;
+
+/**
+ * Maximum sizes accepted by {@link AMF3Deserializer}. Sizes announced by the incoming
+ * stream are checked against these limits before anything is allocated, so that hostile
+ * or oversized requests fail early instead of filling the heap.
+ */
+public class AMF3DeserializerLimits {
+	
+	public static final int UNLIMITED = Integer.MAX_VALUE;
+	
+	public static final AMF3DeserializerLimits NONE = new AMF3DeserializerLimits(UNLIMITED, UNLIMITED, UNLIMITED, UNLIMITED);
+
+	private final int maxStringLength;
+	private final int maxArrayLength;
+	private final int maxByteArrayLength;
+	private final int maxStoredObjects;
+	
+	/**
+	 * @param maxStringLength maximum length (in UTF-8 bytes) of a string or XML string.
+	 * @param maxArrayLength maximum length of an array or vector.
+	 * @param maxByteArrayLength maximum length of a byte array.
+	 * @param maxStoredObjects maximum size of each reference table (strings, objects and
+	 * 		class descriptors).
+	 */
+	public AMF3DeserializerLimits(int maxStringLength, int maxArrayLength, int maxByteArrayLength, int maxStoredObjects) {
+		this.maxStringLength = maxStringLength;
+		this.maxArrayLength = maxArrayLength;
+		this.maxByteArrayLength = maxByteArrayLength;
+		this.maxStoredObjects = maxStoredObjects;
+	}
+
+	public int getMaxStringLength() {
+		return maxStringLength;
+	}
+
+	public int getMaxArrayLength() {
+		return maxArrayLength;
+	}
+
+	public int getMaxByteArrayLength() {
+		return maxByteArrayLength;
+	}
+
+	public int getMaxStoredObjects() {
+		return maxStoredObjects;
+	}
+	
+	public void checkStringLength(int length) throws AMF3SerializationException {
+		if (length > maxStringLength)
+			throw new AMF3SerializationException("String length " + length + " exceeds the configured limit: " + maxStringLength);
+	}
+	
+	public void checkArrayLength(int length) throws AMF3SerializationException {
+		if (length > maxArrayLength)
+			throw new AMF3SerializationException("Array length " + length + " exceeds the configured limit: " + maxArrayLength);
+	}
+	
+	public void checkByteArrayLength(int length) throws AMF3SerializationException {
+		if (length > maxByteArrayLength)
+			throw new AMF3SerializationException("Byte array length " + length + " exceeds the configured limit: " + maxByteArrayLength);
+	}
+	
+	public void checkStoredObjects(int count) throws AMF3SerializationException {
+		if (count >= maxStoredObjects)
+			throw new AMF3SerializationException("Reference table size exceeds the configured limit: " + maxStoredObjects);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + " {maxStringLength=" + maxStringLength +
+			", maxArrayLength=" + maxArrayLength +
+			", maxByteArrayLength=" + maxByteArrayLength +
+			", maxStoredObjects=" + maxStoredObjects + "}";
+	}
+}
@@ -0,0 +1,99 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.amf.io;
+
+/**
+ * An immutable, pre-encoded AMF3 value that may be written by any number of {@link AMF3Serializer}
+ * instances without being serialized again (see {@link AMF3Serializer#addSegment(Object, AMF3Segment)}).
+ * <br>
+ * Segments are encoded with their own reference tables: each string, object or class descriptor
+ * reference found in the encoded data is recorded so it can be shifted by the sizes of the target
+ * serializer tables when the segment is copied.
+ */
+public final class AMF3Segment {
+
+	public static final int STRING_REFERENCE = 0;
+	public static final int OBJECT_REFERENCE = 1;
+	public static final int CLASS_DESCRIPTOR_REFERENCE = 2;
+
+	private final byte[] data;
+	private final int[] relocations;
+	private final int storedStringsCount;
+	private final int storedObjectsCount;
+	private final int storedClassDescriptorsCount;
+
+	AMF3Segment(byte[] data, int[] relocations, int storedStringsCount, int storedObjectsCount, int storedClassDescriptorsCount) {
+		this.data = data;
+		this.relocations = relocations;
+		this.storedStringsCount = storedStringsCount;
+		this.storedObjectsCount = storedObjectsCount;
+		this.storedClassDescriptorsCount = storedClassDescriptorsCount;
+	}
+
+	public int getLength() {
+		return data.length;
+	}
+
+	public int getRelocationsCount() {
+		return relocations.length / 3;
+	}
+
+	/**
+	 * Encoded data, not copied: must never be modified.
+	 */
+	byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * Reference locations as (position, kind, index) triplets, sorted by position.
+	 */
+	int[] getRelocations() {
+		return relocations;
+	}
+
+	public int getStoredStringsCount() {
+		return storedStringsCount;
+	}
+
+	public int getStoredObjectsCount() {
+		return storedObjectsCount;
+	}
+
+	public int getStoredClassDescriptorsCount() {
+		return storedClassDescriptorsCount;
+	}
+
+	static int lengthOfAMF3IntegerData(int i) {
+		if (i < 0 || i >= 0x200000)
+			return 4;
+		if (i >= 0x4000)
+			return 3;
+		if (i >= 0x80)
+			return 2;
+		return 1;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + " {length=" + data.length + ", relocations=" + getRelocationsCount() + "}";
+	}
+}
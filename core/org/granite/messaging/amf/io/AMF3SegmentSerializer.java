@@ -0,0 +1,81 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.amf.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Serializer used to encode {@link AMF3Segment}s: it records the position of each reference
+ * written to the underlying stream.
+ */
+class AMF3SegmentSerializer extends AMF3Serializer {
+
+	private final ByteArrayOutputStream bytes;
+	private int[] relocations = new int[3 * 16];
+	private int relocationsLength = 0;
+
+	public AMF3SegmentSerializer(ByteArrayOutputStream bytes) {
+		super(bytes);
+		this.bytes = bytes;
+	}
+
+	@Override
+	protected void writeAMF3StringReference(int index) throws IOException {
+		addRelocation(AMF3Segment.STRING_REFERENCE, index);
+		super.writeAMF3StringReference(index);
+	}
+
+	@Override
+	protected void writeAMF3ObjectReference(int index) throws IOException {
+		addRelocation(AMF3Segment.OBJECT_REFERENCE, index);
+		super.writeAMF3ObjectReference(index);
+	}
+
+	@Override
+	protected void writeAMF3ClassDescriptorReference(int index) throws IOException {
+		addRelocation(AMF3Segment.CLASS_DESCRIPTOR_REFERENCE, index);
+		super.writeAMF3ClassDescriptorReference(index);
+	}
+
+	private void addRelocation(int kind, int index) {
+		if (relocationsLength == relocations.length) {
+			int[] tmp = new int[relocations.length * 2];
+			System.arraycopy(relocations, 0, tmp, 0, relocationsLength);
+			relocations = tmp;
+		}
+		relocations[relocationsLength++] = size();
+		relocations[relocationsLength++] = kind;
+		relocations[relocationsLength++] = index;
+	}
+
+	public AMF3Segment toSegment() {
+		int[] relocations = new int[relocationsLength];
+		System.arraycopy(this.relocations, 0, relocations, 0, relocationsLength);
+		return new AMF3Segment(
+			bytes.toByteArray(),
+			relocations,
+			storedStringsCount,
+			storedObjectsCount,
+			storedClassDescriptorsCount
+		);
+	}
+}
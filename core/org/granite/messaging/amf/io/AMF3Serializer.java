@@ -20,6 +20,7 @@
 
 package org.granite.messaging.amf.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
@@ -41,11 +42,9 @@ import org.granite.logging.Logger;
 import org.granite.messaging.amf.AMF3Constants;
 import org.granite.messaging.amf.io.convert.Converters;
 import org.granite.messaging.amf.io.util.ClassGetter;
-import org.granite.messaging.amf.io.util.DefaultJavaClassDescriptor;
 import org.granite.messaging.amf.io.util.IndexedJavaClassDescriptor;
 import org.granite.messaging.amf.io.util.JavaClassDescriptor;
 import org.granite.messaging.amf.io.util.externalizer.Externalizer;
-import org.granite.util.TypeUtil;
 import org.granite.util.XMLUtil;
 import org.granite.util.XMLUtilFactory;
 import org.w3c.dom.Document;
@@ -67,6 +66,15 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
     protected final Map<Object, Integer> storedObjects = new IdentityHashMap<Object, Integer>();
     protected final Map<String, IndexedJavaClassDescriptor> storedClassDescriptors
     	= new HashMap<String, IndexedJavaClassDescriptor>();
+    protected final Map<Class<?>, IndexedJavaClassDescriptor> storedClassDescriptorsByType
+    	= new IdentityHashMap<Class<?>, IndexedJavaClassDescriptor>();
+
+    // Reference tables sizes (may be greater than stored maps sizes after segments copies).
+    protected int storedStringsCount = 0;
+    protected int storedObjectsCount = 0;
+    protected int storedClassDescriptorsCount = 0;
+
+    protected Map<Object, AMF3Segment> segments = null;
 
     protected final GraniteContext context = GraniteContext.getCurrentInstance();
     protected final Converters converters = context.getGraniteConfig().getConverters();
@@ -85,11 +93,17 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
 
     protected Channel channel = null;
 
+    // Top-level writeObject calls are buffered (pooled buffer) and flushed to the underlying stream on return.
+    private final BufferedOutput bufferedOut;
+    private int depth = 0;
+
     ///////////////////////////////////////////////////////////////////////////
     // Constructor.
 
     public AMF3Serializer(OutputStream out) {
-        super(out);
+        super(new BufferedOutput(out));
+
+        this.bufferedOut = (BufferedOutput)this.out;
 
         if (debugMore) logMore.debug("new AMF3Serializer(out=%s)", out);
     }
@@ -100,9 +114,13 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
     public void writeObject(Object o) throws IOException {
         if (debugMore) logMore.debug("writeObject(o=%s)", o);
 
+        if (depth++ == 0)
+        	bufferedOut.begin();
         try {
 	        if (o == null)
 	            write(AMF3_NULL);
+	        else if (segments != null && segments.containsKey(o))
+	        	writeAMF3Segment(segments.get(o));
 	        else if (!(o instanceof Externalizable)) {
 	
 	            if (converters.hasReverters())
@@ -151,6 +169,28 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
         catch (Exception e) {
         	throw new AMF3SerializationException(e);
         }
+        finally {
+        	if (--depth == 0)
+        		bufferedOut.end();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // DataOutputStream overridden methods (unsynchronized, the underlying stream is a buffer).
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (++written < 0)
+            written = Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+        if (written < 0)
+            written = Integer.MAX_VALUE;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -213,7 +253,7 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
         int index = indexOfStoredStrings(s);
 
         if (index >= 0)
-            writeAMF3IntegerData(index << 1);
+            writeAMF3StringReference(index);
         else {
             addToStoredStrings(s);
 
@@ -232,7 +272,13 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
             }
             writeAMF3IntegerData((uLength << 1) | 0x01);
 
-            // Write modified UTF-8 bytes.
+            // Write modified UTF-8 bytes (directly into the output buffer if possible).
+            if (bufferedOut.writeModifiedUTF8(s, uLength)) {
+                written += uLength;
+                if (written < 0)
+                    written = Integer.MAX_VALUE;
+                return;
+            }
             for (int i = 0; i < sLength; i++) {
                 int c = s.charAt(i);
                 if ((c >= 0x0001) && (c <= 0x007F)) {
@@ -260,7 +306,7 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
 
         int index = indexOfStoredObjects(doc);
         if (index >= 0)
-            writeAMF3IntegerData(index << 1);
+            writeAMF3ObjectReference(index);
         else {
             addToStoredObjects(doc);
 
@@ -277,7 +323,7 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
 
         int index = indexOfStoredObjects(date);
         if (index >= 0)
-            writeAMF3IntegerData(index << 1);
+            writeAMF3ObjectReference(index);
         else {
             addToStoredObjects(date);
             writeAMF3IntegerData(0x01);
@@ -292,7 +338,7 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
 
         int index = indexOfStoredObjects(array);
         if (index >= 0)
-            writeAMF3IntegerData(index << 1);
+            writeAMF3ObjectReference(index);
         else {
             addToStoredObjects(array);
 
@@ -311,15 +357,12 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
 
         int index = indexOfStoredObjects(bytes);
         if (index >= 0)
-            writeAMF3IntegerData(index << 1);
+            writeAMF3ObjectReference(index);
         else {
             addToStoredObjects(bytes);
 
             writeAMF3IntegerData(bytes.length << 1 | 0x01);
-            //write(bytes);
-
-            for (int i = 0; i < bytes.length; i++)
-            	out.write(bytes[i]);
+            write(bytes, 0, bytes.length);
         }
     }
 
@@ -342,7 +385,7 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
 
         int index = indexOfStoredObjects(o);
         if (index >= 0)
-            writeAMF3IntegerData(index << 1);
+            writeAMF3ObjectReference(index);
         else {
             addToStoredObjects(o);
 
@@ -358,7 +401,7 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
             IndexedJavaClassDescriptor iDesc = getFromStoredClassDescriptors(oClass);
             if (iDesc != null) {
                 desc = iDesc.getDescriptor();
-                writeAMF3IntegerData(iDesc.getIndex() << 2 | 0x01);
+                writeAMF3ClassDescriptorReference(iDesc.getIndex());
             }
             else {
                 iDesc = addToStoredClassDescriptors(oClass);
@@ -424,12 +467,94 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
         if (debug) log.debug("writeAMF3Object(o=%s) - Done", o);
     }
 
+    protected void writeAMF3StringReference(int index) throws IOException {
+        writeAMF3IntegerData(index << 1);
+    }
+
+    protected void writeAMF3ObjectReference(int index) throws IOException {
+        writeAMF3IntegerData(index << 1);
+    }
+
+    protected void writeAMF3ClassDescriptorReference(int index) throws IOException {
+        writeAMF3IntegerData(index << 2 | 0x01);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Pre-encoded segments.
+
+    /**
+     * Encodes the supplied value with a fresh set of reference tables. The returned segment may
+     * then be written by any serializer with the same {@link #getSegmentKey()}.
+     */
+    public AMF3Segment encodeSegment(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        AMF3SegmentSerializer serializer = new AMF3SegmentSerializer(bytes);
+        serializer.writeObject(o);
+        serializer.flush();
+        return serializer.toSegment();
+    }
+
+    /**
+     * Returns a key identifying the parameters that may change the encoding of a given value
+     * (serializer class, client type and channel).
+     */
+    public String getSegmentKey() {
+        return getClass().getName() + ':' + context.getClientType() + ':' + context.getAMFContext().getChannelId();
+    }
+
+    /**
+     * Registers a pre-encoded segment for the supplied value: any further occurrence of this
+     * value (compared by identity) will be written as a copy of the segment.
+     */
+    public void addSegment(Object o, AMF3Segment segment) {
+        if (o == null || segment == null)
+            throw new NullPointerException("Value and segment cannot be null");
+        if (segments == null)
+            segments = new IdentityHashMap<Object, AMF3Segment>();
+        segments.put(o, segment);
+    }
+
+    protected void writeAMF3Segment(AMF3Segment segment) throws IOException {
+        if (debug) log.debug("writeAMF3Segment(segment=%s)", segment);
+
+        final byte[] data = segment.getData();
+        final int[] relocations = segment.getRelocations();
+
+        int offset = 0;
+        for (int i = 0; i < relocations.length; i += 3) {
+            int position = relocations[i];
+            int index = relocations[i + 2];
+
+            write(data, offset, position - offset);
+            switch (relocations[i + 1]) {
+                case AMF3Segment.STRING_REFERENCE:
+                    writeAMF3StringReference(storedStringsCount + index);
+                    offset = position + AMF3Segment.lengthOfAMF3IntegerData(index << 1);
+                    break;
+                case AMF3Segment.OBJECT_REFERENCE:
+                    writeAMF3ObjectReference(storedObjectsCount + index);
+                    offset = position + AMF3Segment.lengthOfAMF3IntegerData(index << 1);
+                    break;
+                default:
+                    writeAMF3ClassDescriptorReference(storedClassDescriptorsCount + index);
+                    offset = position + AMF3Segment.lengthOfAMF3IntegerData(index << 2 | 0x01);
+                    break;
+            }
+        }
+        write(data, offset, data.length - offset);
+
+        // Reserve slots for all references created by the segment on the reader side.
+        storedStringsCount += segment.getStoredStringsCount();
+        storedObjectsCount += segment.getStoredObjectsCount();
+        storedClassDescriptorsCount += segment.getStoredClassDescriptorsCount();
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // Cached objects methods.
 
     protected void addToStoredStrings(String s) {
         if (!storedStrings.containsKey(s)) {
-            Integer index = Integer.valueOf(storedStrings.size());
+            Integer index = Integer.valueOf(storedStringsCount++);
             if (debug) log.debug("addToStoredStrings(s=%s) at index=%d", s, index);
             storedStrings.put(s, index);
         }
@@ -443,7 +568,7 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
 
     protected void addToStoredObjects(Object o) {
         if (o != null && !storedObjects.containsKey(o)) {
-            Integer index = Integer.valueOf(storedObjects.size());
+            Integer index = Integer.valueOf(storedObjectsCount++);
             if (debug) log.debug("addToStoredObjects(o=%s) at index=%d", o, index);
             storedObjects.put(o, index);
         }
@@ -456,39 +581,24 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
     }
 
     protected IndexedJavaClassDescriptor addToStoredClassDescriptors(Class<?> clazz) {
-        final String name = JavaClassDescriptor.getClassName(clazz);
-
         if (debug) log.debug("addToStoredClassDescriptors(clazz=%s)", clazz);
 
+        // get shared (possibly custom) class descriptor from config
+        JavaClassDescriptor desc = context.getGraniteConfig().getJavaClassDescriptor(clazz);
+        final String name = desc.getName();
+
         if (storedClassDescriptors.containsKey(name))
             throw new RuntimeException(
                 "Descriptor of \"" + name + "\" is already stored at index: " +
                 getFromStoredClassDescriptors(clazz).getIndex()
             );
 
-        // find custom class descriptor and instantiate if any
-        JavaClassDescriptor desc = null;
-
-        Class<? extends JavaClassDescriptor> descriptorType
-            = context.getGraniteConfig().getJavaDescriptor(clazz.getName());
-        if (descriptorType != null) {
-            Class<?>[] argsDef = new Class[]{Class.class};
-            Object[] argsVal = new Object[]{clazz};
-            try {
-                desc = TypeUtil.newInstance(descriptorType, argsDef, argsVal);
-            } catch (Exception e) {
-                throw new RuntimeException("Could not instantiate Java descriptor: " + descriptorType);
-            }
-        }
-
-        if (desc == null)
-            desc = new DefaultJavaClassDescriptor(clazz);
-
-        IndexedJavaClassDescriptor iDesc = new IndexedJavaClassDescriptor(storedClassDescriptors.size(), desc);
+        IndexedJavaClassDescriptor iDesc = new IndexedJavaClassDescriptor(storedClassDescriptorsCount++, desc);
 
         if (debug) log.debug("addToStoredClassDescriptors() - putting: name=%s, iDesc=%s", name, iDesc);
 
         storedClassDescriptors.put(name, iDesc);
+        storedClassDescriptorsByType.put(clazz, iDesc);
 
         return iDesc;
     }
@@ -496,8 +606,13 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
     protected IndexedJavaClassDescriptor getFromStoredClassDescriptors(Class<?> clazz) {
         if (debug) log.debug("getFromStoredClassDescriptors(clazz=%s)", clazz);
 
-        String name = JavaClassDescriptor.getClassName(clazz);
-        IndexedJavaClassDescriptor iDesc = storedClassDescriptors.get(name);
+        IndexedJavaClassDescriptor iDesc = storedClassDescriptorsByType.get(clazz);
+        if (iDesc == null) {
+            String name = JavaClassDescriptor.getClassName(clazz);
+            iDesc = storedClassDescriptors.get(name);
+            if (iDesc != null)
+                storedClassDescriptorsByType.put(clazz, iDesc);
+        }
 
         if (debug) log.debug("getFromStoredClassDescriptors() -> %s", iDesc);
 
@@ -517,4 +632,130 @@ public class AMF3Serializer extends DataOutputStream implements ObjectOutput, AM
         }
         return channel;
     }
+
+    /**
+     * Output stream buffering writes between {@link #begin()} and {@link #end()} calls (writes
+     * go straight to the underlying stream otherwise). Buffers are reused by each thread.
+     */
+    private static final class BufferedOutput extends OutputStream {
+
+        private static final int BUFFER_SIZE = 8192;
+        private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+        private final OutputStream out;
+        private byte[] buffer = null;
+        private int count = 0;
+
+        public BufferedOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        public void begin() {
+            if (buffer == null) {
+                buffer = buffers.get();
+                if (buffer != null)
+                    buffers.set(null);
+                else
+                    buffer = new byte[BUFFER_SIZE];
+            }
+        }
+
+        public void end() throws IOException {
+            if (buffer != null) {
+                try {
+                    flushBuffer();
+                }
+                finally {
+                    buffers.set(buffer);
+                    buffer = null;
+                    count = 0;
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (buffer == null)
+                out.write(b);
+            else {
+                if (count == buffer.length)
+                    flushBuffer();
+                buffer[count++] = (byte)b;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer == null)
+                out.write(b, off, len);
+            else if (len > buffer.length - count) {
+                flushBuffer();
+                if (len >= buffer.length)
+                    out.write(b, off, len);
+                else {
+                    System.arraycopy(b, off, buffer, 0, len);
+                    count = len;
+                }
+            }
+            else {
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+        }
+
+        /**
+         * Encodes the supplied string (modified UTF-8, uLength bytes) directly into the buffer.
+         * 
+         * @return false if the string doesn't fit in the buffer (nothing is written).
+         */
+        public boolean writeModifiedUTF8(String s, int uLength) throws IOException {
+            if (buffer == null || uLength > buffer.length)
+                return false;
+            if (uLength > buffer.length - count)
+                flushBuffer();
+
+            final byte[] buffer = this.buffer;
+            final int sLength = s.length();
+            int position = count;
+            for (int i = 0; i < sLength; i++) {
+                int c = s.charAt(i);
+                if ((c >= 0x0001) && (c <= 0x007F))
+                    buffer[position++] = (byte)c;
+                else if (c > 0x07FF) {
+                    buffer[position++] = (byte)(0xE0 | ((c >> 12) & 0x0F));
+                    buffer[position++] = (byte)(0x80 | ((c >>  6) & 0x3F));
+                    buffer[position++] = (byte)(0x80 | ((c >>  0) & 0x3F));
+                }
+                else {
+                    buffer[position++] = (byte)(0xC0 | ((c >>  6) & 0x1F));
+                    buffer[position++] = (byte)(0x80 | ((c >>  0) & 0x3F));
+                }
+            }
+            count = position;
+            return true;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBuffer();
+            }
+            finally {
+                out.close();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                out.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
 }
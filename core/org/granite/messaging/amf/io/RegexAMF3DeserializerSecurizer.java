@@ -20,20 +20,39 @@ along with this library; if not, see <http://www.gnu.org/licenses/>.
 
 package org.granite.messaging.amf.io;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
  * A default implementation of the securizer interface that prevents arbitrary class
  * instantiation based on a regex pattern.
  * 
+ * <p>
+ * Top-level alternatives of the pattern that are plain class names (eg.
+ * <code>com\.myapp\.MyClass</code>) or package prefixes (eg. <code>com\.myapp\..*</code>)
+ * are compiled into a prefix tree: only the remaining alternatives are evaluated as a
+ * regex. Both allowed and denied decisions are cached (up to {@link #getMaxCacheSize()}
+ * class names) and rejected class names are counted.
+ * </p>
+ * 
  * @author Franck WOLFF
  */
 public class RegexAMF3DeserializerSecurizer implements AMF3DeserializerSecurizer {
 
-	private Pattern allow = null;
-	private ConcurrentMap<String, Boolean> cache = new ConcurrentHashMap<String, Boolean>();
+	public static final int DEFAULT_MAX_CACHE_SIZE = 10000;
+	
+	private volatile Rules rules = null;
+	private volatile ConcurrentMap<String, Boolean> cache = new ConcurrentHashMap<String, Boolean>();
+	private volatile ConcurrentMap<String, AtomicLong> rejects = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
 
 	/**
 	 * Checks if the given class name isn't matched by the configured pattern. Note
@@ -44,14 +63,35 @@ public class RegexAMF3DeserializerSecurizer implements AMF3DeserializerSecurizer
 	 * 		instantiated, <code>false</code> otherwise.
 	 */
 	public boolean allowInstantiation(String className) {
-		if (allow == null || className == null || className.length() == 0)
-			return true;
-		if (cache.containsKey(className))
+		Rules rules = this.rules;
+		if (rules == null || className == null || className.length() == 0)
 			return true;
-		boolean allowed = allow.matcher(className).matches();
-		if (allowed)
-			cache.putIfAbsent(className, Boolean.TRUE);
-		return allowed;
+		
+		Boolean allowed = cache.get(className);
+		if (allowed == null) {
+			allowed = Boolean.valueOf(rules.matches(className));
+			if (cache.size() < maxCacheSize)
+				cache.putIfAbsent(className, allowed);
+		}
+		
+		if (!allowed.booleanValue())
+			reject(className);
+		return allowed.booleanValue();
+	}
+	
+	private void reject(String className) {
+		rejectedCount.incrementAndGet();
+		
+		AtomicLong count = rejects.get(className);
+		if (count == null) {
+			if (rejects.size() >= maxCacheSize)
+				return;
+			count = new AtomicLong();
+			AtomicLong previous = rejects.putIfAbsent(className, count);
+			if (previous != null)
+				count = previous;
+		}
+		count.incrementAndGet();
 	}
 
 	/**
@@ -64,16 +104,17 @@ public class RegexAMF3DeserializerSecurizer implements AMF3DeserializerSecurizer
 	 */
 	public void setParam(String param) {
 		if (param == null || param.length() == 0)
-			allow = null;
+			rules = null;
 		else {
 			StringBuilder sb = new StringBuilder(param.length());
 			for (String s : param.split("\\s", -1)) {
 				if (s.length() > 0)
 					sb.append(s);
 			}
-			allow = Pattern.compile(sb.toString());
+			rules = new Rules(sb.toString());
 		}
 		cache = new ConcurrentHashMap<String, Boolean>();
+		rejects = new ConcurrentHashMap<String, AtomicLong>();
 	}
 	
 
@@ -83,6 +124,215 @@ public class RegexAMF3DeserializerSecurizer implements AMF3DeserializerSecurizer
 	 * @return this securizer pattern.
 	 */
 	public String getParam() {
-		return (allow != null ? allow.pattern() : null);
+		Rules rules = this.rules;
+		return (rules != null ? rules.pattern : null);
+	}
+	
+	public int getMaxCacheSize() {
+		return maxCacheSize;
+	}
+
+	public void setMaxCacheSize(int maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+	}
+
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns the total number of rejected instantiations.
+	 * 
+	 * @return the total number of rejected instantiations.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Returns a snapshot of rejected class names with their reject counts.
+	 * 
+	 * @return a map of rejected class names to reject counts.
+	 */
+	public Map<String, Long> getRejectedClassNames() {
+		Map<String, Long> snapshot = new HashMap<String, Long>(rejects.size());
+		for (Map.Entry<String, AtomicLong> e : rejects.entrySet())
+			snapshot.put(e.getKey(), Long.valueOf(e.getValue().get()));
+		return snapshot;
+	}
+	
+	public void clearStatistics() {
+		rejectedCount.set(0L);
+		rejects.clear();
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	// Compiled pattern.
+	
+	private static final class Rules {
+		
+		final String pattern;
+		final PrefixTree tree;
+		final Pattern regex;
+		
+		Rules(String pattern) {
+			Pattern regex = Pattern.compile(pattern);
+			
+			this.pattern = pattern;
+			this.tree = new PrefixTree();
+			
+			// Embedded flags may apply to several alternatives and quoted sections (\Q...\E)
+			// may contain '|' characters: keep the regex as is.
+			if (pattern.indexOf("(?") != -1 || pattern.indexOf("\\Q") != -1) {
+				this.regex = regex;
+				return;
+			}
+			
+			StringBuilder remaining = new StringBuilder();
+			for (String alternative : splitAlternatives(pattern)) {
+				if (!tree.add(alternative)) {
+					if (remaining.length() > 0)
+						remaining.append('|');
+					remaining.append(alternative);
+				}
+			}
+			this.regex = (remaining.length() > 0 ? Pattern.compile(remaining.toString()) : null);
+		}
+		
+		boolean matches(String className) {
+			return tree.matches(className) || (regex != null && regex.matcher(className).matches());
+		}
+		
+		private static List<String> splitAlternatives(String pattern) {
+			List<String> alternatives = new ArrayList<String>();
+			
+			int depth = 0, start = 0;
+			boolean charClass = false;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = pattern.charAt(i);
+				if (c == '\\')
+					i++;
+				else if (charClass)
+					charClass = (c != ']');
+				else if (c == '[')
+					charClass = true;
+				else if (c == '(')
+					depth++;
+				else if (c == ')')
+					depth--;
+				else if (c == '|' && depth == 0) {
+					alternatives.add(pattern.substring(start, i));
+					start = i + 1;
+				}
+			}
+			alternatives.add(pattern.substring(start));
+			
+			return alternatives;
+		}
+	}
+	
+	private static final class PrefixTree {
+		
+		private final Node root = new Node();
+		
+		/**
+		 * Adds a class name (<code>a\.b\.C</code>) or a prefix (<code>a\.b\..*</code>)
+		 * alternative to this tree.
+		 * 
+		 * @return <code>false</code> if the alternative isn't a literal class name or prefix.
+		 */
+		boolean add(String alternative) {
+			StringBuilder literal = new StringBuilder(alternative.length());
+			boolean prefix = false;
+			
+			int length = alternative.length();
+			for (int i = 0; i < length; i++) {
+				char c = alternative.charAt(i);
+				if (c == '\\') {
+					if (i + 1 == length)
+						return false;
+					c = alternative.charAt(++i);
+					if (c != '.' && c != '$')
+						return false;
+					literal.append(c);
+				}
+				else if (c == '.' && i == length - 2 && alternative.charAt(i + 1) == '*') {
+					prefix = true;
+					break;
+				}
+				else if (c != '$' && Character.isJavaIdentifierPart(c))
+					literal.append(c);
+				else
+					return false;
+			}
+			if (literal.length() == 0)
+				return false;
+			
+			Node node = root;
+			for (int i = 0; i < literal.length(); i++)
+				node = node.getOrAddChild(literal.charAt(i));
+			if (prefix)
+				node.prefix = true;
+			else
+				node.terminal = true;
+			return true;
+		}
+		
+		boolean matches(String className) {
+			Node node = root;
+			for (int i = 0; i < className.length(); i++) {
+				node = node.getChild(className.charAt(i));
+				if (node == null)
+					return false;
+				if (node.prefix)
+					return !hasLineTerminator(className, i + 1);
+			}
+			return node.terminal;
+		}
+		
+		// The regex '.*' of a prefix doesn't match line terminators (embedded flags, such as
+		// DOTALL, disable the prefix tree).
+		private static boolean hasLineTerminator(String s, int start) {
+			for (int i = start; i < s.length(); i++) {
+				switch (s.charAt(i)) {
+				case '\n': case '\r': case '\u0085': case '\u2028': case '\u2029':
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private static final class Node {
+			
+			char[] keys = new char[0];
+			Node[] children = new Node[0];
+			boolean terminal = false;
+			boolean prefix = false;
+			
+			Node getChild(char c) {
+				int index = Arrays.binarySearch(keys, c);
+				return (index >= 0 ? children[index] : null);
+			}
+			
+			Node getOrAddChild(char c) {
+				int index = Arrays.binarySearch(keys, c);
+				if (index >= 0)
+					return children[index];
+				
+				index = -(index + 1);
+				char[] keys = new char[this.keys.length + 1];
+				Node[] children = new Node[this.children.length + 1];
+				System.arraycopy(this.keys, 0, keys, 0, index);
+				System.arraycopy(this.children, 0, children, 0, index);
+				System.arraycopy(this.keys, index, keys, index + 1, this.keys.length - index);
+				System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+				keys[index] = c;
+				children[index] = new Node();
+				
+				this.keys = keys;
+				this.children = children;
+				return children[index];
+			}
+		}
 	}
 }
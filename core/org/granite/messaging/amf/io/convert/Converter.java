@@ -60,6 +60,19 @@ public abstract class Converter {
     
     protected abstract boolean internalCanConvert(Object value, Type targetType);
 
+    /**
+     * Tells if the result of {@link #canConvert(Object, Type)} may depend on the value itself and
+     * not only on its class. {@link Converters} memoizes lookups by (value class, target type):
+     * converters returning true here are tested again for each value.
+     *
+     * @param valueClass the class of the value to be converted (never null).
+     * @param targetType the target type (null when this converter is queried as a {@link Reverter}).
+     * @return true if canConvert must be called for each value, false otherwise (default).
+     */
+    public boolean isValueDependent(Class<?> valueClass, Type targetType) {
+    	return false;
+    }
+
     /**
      * Converts the supplied object to the supplied target type.
      *
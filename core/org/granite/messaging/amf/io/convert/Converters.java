@@ -26,6 +26,8 @@ import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.granite.util.TypeUtil;
 
@@ -43,6 +45,9 @@ public class Converters {
     /** Array of all configured reverters */
     private Reverter[] reverters;
 
+    /** Resolved converters and reverters, rebuilt each time the converter chain changes */
+    private volatile Resolutions resolutions;
+
     /**
      * Constructs a new Converters instance with the supplied list of converters (possibly reverters).
      *
@@ -74,6 +79,7 @@ public class Converters {
 
         this.converters = converters.toArray(new Converter[converters.size()]);
         this.reverters = reverters.toArray(new Reverter[reverters.size()]);
+        this.resolutions = new Resolutions(this.converters, this.reverters);
     }
     
     public void addConverter(Class<? extends Converter> converterClass) 
@@ -91,6 +97,8 @@ public class Converters {
         	reverters[0] = (Reverter)converters[0];
         	this.reverters = reverters;
         }
+        
+        this.resolutions = new Resolutions(this.converters, this.reverters);
     }
 
     /**
@@ -125,10 +133,9 @@ public class Converters {
     	if (targetType instanceof TypeVariable<?>)
     		targetType = TypeUtil.getBoundType((TypeVariable<?>)targetType);
     	
-        for (Converter converter : converters) {
-            if (converter.canConvert(value, targetType))
-                return converter;
-        }
+    	Converter converter = resolutions.getConverter(value, targetType);
+    	if (converter != null)
+    		return converter;
 
         if (!throwNotFoundException)
             return null;
@@ -168,11 +175,8 @@ public class Converters {
      * @return the reverted value (same instance if none of the configured reverters apply).
      */
     public Object revert(Object value) {
-        for (Reverter reverter : reverters) {
-            if (reverter.canRevert(value))
-                return reverter.revert(value);
-        }
-        return value;
+    	Reverter reverter = resolutions.getReverter(value);
+    	return (reverter != null ? reverter.revert(value) : value);
     }
     
     public Converter[] getConverters() {
@@ -180,4 +184,157 @@ public class Converters {
     	System.arraycopy(converters, 0, copy, 0, converters.length);
     	return copy;
     }
+    
+    /**
+     * Returns the number of (value class, target type) and value class entries currently
+     * memoized for converters and reverters lookups.
+     * 
+     * @return the number of memoized lookups.
+     */
+    public int getResolutionsCacheSize() {
+    	Resolutions resolutions = this.resolutions;
+    	return resolutions.convertersCache.size() + resolutions.revertersCache.size();
+    }
+    
+    /**
+     * Memoizes converter (resp. reverter) lookups by (value class, target type) (resp. value class).
+     * Each entry keeps, in chain order, the value dependent candidates that must still be tested
+     * against the actual value, followed by the first class based match (if any). Converters
+     * answering false based on classes only are never tested again for the same key.
+     */
+    private static final class Resolutions {
+    	
+    	private static final Object NULL_VALUE_KEY = new Object();
+    	private static final Converter[] NO_CONVERTER = new Converter[0];
+    	private static final Reverter[] NO_REVERTER = new Reverter[0];
+    	
+    	private final Converter[] converters;
+    	private final Reverter[] reverters;
+    	
+    	private final ConcurrentMap<ConverterKey, ConverterResolution> convertersCache
+    		= new ConcurrentHashMap<ConverterKey, ConverterResolution>();
+    	private final ConcurrentMap<Object, ReverterResolution> revertersCache
+    		= new ConcurrentHashMap<Object, ReverterResolution>();
+    	
+    	public Resolutions(Converter[] converters, Reverter[] reverters) {
+    		this.converters = converters;
+    		this.reverters = reverters;
+    	}
+    	
+    	public Converter getConverter(Object value, Type targetType) {
+    		Class<?> valueClass = (value != null ? value.getClass() : null);
+    		ConverterKey key = new ConverterKey(valueClass, targetType);
+    		
+    		ConverterResolution resolution = convertersCache.get(key);
+    		if (resolution == null) {
+    			List<Converter> candidates = null;
+    			Converter match = null;
+    			for (Converter converter : converters) {
+    				if (valueClass != null && converter.isValueDependent(valueClass, targetType)) {
+    					if (candidates == null)
+    						candidates = new ArrayList<Converter>();
+    					candidates.add(converter);
+    				}
+    				else if (converter.canConvert(value, targetType)) {
+    					match = converter;
+    					break;
+    				}
+    			}
+    			resolution = new ConverterResolution(
+    				candidates != null ? candidates.toArray(new Converter[candidates.size()]) : NO_CONVERTER,
+    				match
+    			);
+    			convertersCache.putIfAbsent(key, resolution);
+    		}
+    		
+    		for (Converter candidate : resolution.candidates) {
+    			if (candidate.canConvert(value, targetType))
+    				return candidate;
+    		}
+    		return resolution.match;
+    	}
+    	
+    	public Reverter getReverter(Object value) {
+    		Class<?> valueClass = (value != null ? value.getClass() : null);
+    		Object key = (valueClass != null ? valueClass : NULL_VALUE_KEY);
+    		
+    		ReverterResolution resolution = revertersCache.get(key);
+    		if (resolution == null) {
+    			List<Reverter> candidates = null;
+    			Reverter match = null;
+    			for (Reverter reverter : reverters) {
+    				if (valueClass != null && reverter instanceof Converter && ((Converter)reverter).isValueDependent(valueClass, null)) {
+    					if (candidates == null)
+    						candidates = new ArrayList<Reverter>();
+    					candidates.add(reverter);
+    				}
+    				else if (reverter.canRevert(value)) {
+    					match = reverter;
+    					break;
+    				}
+    			}
+    			resolution = new ReverterResolution(
+    				candidates != null ? candidates.toArray(new Reverter[candidates.size()]) : NO_REVERTER,
+    				match
+    			);
+    			revertersCache.putIfAbsent(key, resolution);
+    		}
+    		
+    		for (Reverter candidate : resolution.candidates) {
+    			if (candidate.canRevert(value))
+    				return candidate;
+    		}
+    		return resolution.match;
+    	}
+    }
+    
+    private static final class ConverterResolution {
+    	
+    	public final Converter[] candidates;
+    	public final Converter match;
+    	
+    	public ConverterResolution(Converter[] candidates, Converter match) {
+    		this.candidates = candidates;
+    		this.match = match;
+    	}
+    }
+    
+    private static final class ReverterResolution {
+    	
+    	public final Reverter[] candidates;
+    	public final Reverter match;
+    	
+    	public ReverterResolution(Reverter[] candidates, Reverter match) {
+    		this.candidates = candidates;
+    		this.match = match;
+    	}
+    }
+    
+    private static final class ConverterKey {
+    	
+    	private final Class<?> valueClass;
+    	private final Type targetType;
+    	private final int hash;
+    	
+    	public ConverterKey(Class<?> valueClass, Type targetType) {
+    		this.valueClass = valueClass;
+    		this.targetType = targetType;
+    		this.hash = (valueClass != null ? valueClass.hashCode() * 31 : 0) + (targetType != null ? targetType.hashCode() : 0);
+    	}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+			if (!(obj instanceof ConverterKey))
+				return false;
+			ConverterKey key = (ConverterKey)obj;
+			return valueClass == key.valueClass && (targetType == null ? key.targetType == null : targetType.equals(key.targetType));
+		}
+    }
 }
@@ -71,6 +71,11 @@ public class Array2Array extends Converter {
         return true;
     }
 
+    @Override
+	public boolean isValueDependent(Class<?> valueClass, Type targetType) {
+        return targetType != null && valueClass.isArray() && ArrayUtil.getComponentType(targetType) != null;
+    }
+
     @Override
 	protected Object internalConvert(Object value, Type targetType) {
 
@@ -73,6 +73,11 @@ public class Array2Collection extends Converter {
         return true;
     }
 
+    @Override
+	public boolean isValueDependent(Class<?> valueClass, Type targetType) {
+        return targetType != null && valueClass.isArray() && CollectionUtil.getComponentType(targetType) != null;
+    }
+
     @Override
 	protected Object internalConvert(Object value, Type targetType) {
 
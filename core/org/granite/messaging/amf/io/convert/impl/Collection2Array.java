@@ -69,6 +69,11 @@ public class Collection2Array extends Converter {
         return true;
     }
 
+    @Override
+	public boolean isValueDependent(Class<?> valueClass, Type targetType) {
+        return targetType != null && Collection.class.isAssignableFrom(valueClass) && ArrayUtil.getComponentType(targetType) != null;
+    }
+
     @Override
 	protected Object internalConvert(Object value, Type targetType) {
 
@@ -70,6 +70,11 @@ public class Collection2Collection extends Converter {
         return true;
     }
 
+    @Override
+	public boolean isValueDependent(Class<?> valueClass, Type targetType) {
+        return targetType != null && Collection.class.isAssignableFrom(valueClass) && CollectionUtil.getComponentType(targetType) != null;
+    }
+
     @Override
 	protected Object internalConvert(Object value, Type targetType) {
 
@@ -82,6 +82,11 @@ public class Map2Map extends Converter {
         return true;
     }
 
+    @Override
+	public boolean isValueDependent(Class<?> valueClass, Type targetType) {
+        return targetType != null && Map.class.isAssignableFrom(valueClass) && MapUtil.getComponentTypes(targetType) != null;
+    }
+
     @Override
 	protected Object internalConvert(Object value, Type targetType) {
 
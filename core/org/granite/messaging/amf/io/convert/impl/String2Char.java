@@ -41,6 +41,11 @@ public class String2Char extends Converter {
             (value == null || (value instanceof String && ((String)value).length() <= 1));
     }
 
+    @Override
+	public boolean isValueDependent(Class<?> valueClass, Type targetType) {
+        return valueClass == String.class && targetType != null;
+    }
+
     @Override
 	protected Object internalConvert(Object value, Type targetType) {
         final String s = (String)value;
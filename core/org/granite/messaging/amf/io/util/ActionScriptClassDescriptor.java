@@ -26,6 +26,7 @@ import java.util.List;
 import org.granite.config.GraniteConfig;
 import org.granite.context.GraniteContext;
 import org.granite.messaging.amf.io.convert.Converters;
+import org.granite.messaging.amf.io.util.externalizer.DefaultExternalizer;
 import org.granite.messaging.amf.io.util.externalizer.Externalizer;
 import org.granite.messaging.amf.io.util.instantiator.AbstractInstantiator;
 
@@ -81,6 +82,10 @@ public abstract class ActionScriptClassDescriptor {
         return encoding == 0x02;
     }
 
+    public boolean isCacheable() {
+    	return !(externalizer instanceof DefaultExternalizer && ((DefaultExternalizer)externalizer).isDynamicClass());
+    }
+
     public abstract void defineProperty(String name);
     public abstract Object newJavaInstance();
 
@@ -24,6 +24,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 
+import org.granite.context.GraniteContext;
 import org.granite.util.TypeUtil;
 import org.granite.util.Introspector;
 import org.granite.util.PropertyDescriptor;
@@ -58,7 +59,7 @@ public class DefaultActionScriptClassDescriptor extends ActionScriptClassDescrip
                 // Try to find public field.
                 Field field = clazz.getField(name);
                 if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()))
-                    properties.add(new FieldProperty(converters, field));
+                    properties.add(GraniteContext.getCurrentInstance().getGraniteConfig().newFieldProperty(converters, field));
 
             }
             catch (NoSuchFieldException e) {
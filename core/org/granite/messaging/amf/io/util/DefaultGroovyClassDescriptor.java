@@ -41,6 +41,12 @@ public class DefaultGroovyClassDescriptor extends JavaClassDescriptor {
         super(type);
     }
 
+    @Override
+    public boolean isCacheable() {
+    	// The Groovy class could be modified at runtime.
+    	return false;
+    }
+
     @Override
     protected List<Property> introspectProperties() {
         List<Property> properties = null;
@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.granite.config.GraniteConfig;
+import org.granite.context.GraniteContext;
 import org.granite.util.Introspector;
 import org.granite.util.PropertyDescriptor;
 
@@ -63,13 +65,14 @@ public class DefaultJavaClassDescriptor extends JavaClassDescriptor {
                 }
 
                 // Add other public fields.
+                GraniteConfig config = GraniteContext.getCurrentInstance().getGraniteConfig();
                 Field[] fields = type.getFields();
                 for (Field field : fields) {
                     String propertyName = field.getName();
                     if (!propertyNames.contains(propertyName) &&
                         !Modifier.isStatic(field.getModifiers()) &&
                         !Modifier.isTransient(field.getModifiers())) {
-                        properties.add(new FieldProperty(converters, field));
+                        properties.add(config.newFieldProperty(converters, field));
                         propertyNames.add(propertyName);
                     }
                 }
@@ -36,6 +36,12 @@ public class FieldProperty extends Property {
     public FieldProperty(Converters converters, Field field) {
         super(converters, field.getName());
         this.field = field;
+        
+        try {
+        	field.setAccessible(true);
+        } catch (Exception e) {
+        	// fall down (access will be checked for each get/set)...
+        }
     }
 
     @Override
@@ -61,7 +67,6 @@ public class FieldProperty extends Property {
     @Override
     public void setProperty(Object instance, Object value, boolean convert) {
         try {
-            field.setAccessible(true);
             field.set(instance, convert ? convert(value) : value);
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -71,7 +76,6 @@ public class FieldProperty extends Property {
     @Override
     public Object getProperty(Object instance) {
         try {
-            field.setAccessible(true);
             return field.get(instance);
         } catch (Exception e) {
             throw new RuntimeException(e);
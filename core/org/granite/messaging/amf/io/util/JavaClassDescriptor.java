@@ -21,6 +21,7 @@
 package org.granite.messaging.amf.io.util;
 
 import java.io.Externalizable;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +29,7 @@ import org.granite.config.GraniteConfig;
 import org.granite.context.GraniteContext;
 import org.granite.messaging.amf.RemoteClass;
 import org.granite.messaging.amf.io.convert.Converters;
+import org.granite.messaging.amf.io.util.externalizer.DefaultExternalizer;
 import org.granite.messaging.amf.io.util.externalizer.Externalizer;
 
 /**
@@ -49,7 +51,9 @@ public abstract class JavaClassDescriptor {
         this.externalizer = config.getExternalizer(type.getName());
         this.converters = config.getConverters();
         this.encoding = findEncoding(type);
-        this.properties = introspectProperties();
+        
+        List<Property> properties = introspectProperties();
+        this.properties = (properties != null ? Collections.unmodifiableList(properties) : null);
     }
 
     private byte findEncoding(Class<?> type) {
@@ -72,6 +76,15 @@ public abstract class JavaClassDescriptor {
         return alias != null ? alias.value() : clazz.getName();
     }
     
+    /**
+     * Tells if this descriptor may be shared by all serializations of its type (see
+     * {@link GraniteConfig#getJavaClassDescriptor(Class)}). Descriptors of classes that
+     * may be modified at runtime (eg. dynamic-class externalizers) must not be cached.
+     */
+    public boolean isCacheable() {
+    	return !(externalizer instanceof DefaultExternalizer && ((DefaultExternalizer)externalizer).isDynamicClass());
+    }
+    
     public Class<?> getType() {
         return type;
     }
@@ -33,6 +33,8 @@ import org.granite.util.TypeUtil.DeclaredAnnotation;
  */
 public class MethodProperty extends Property {
 
+    private static final Object[] NO_ARGS = new Object[0];
+
     private final Method setter;
     private final Method getter;
     private final Type type;
@@ -106,7 +108,7 @@ public class MethodProperty extends Property {
     @Override
     public Object getProperty(Object instance) {
         try {
-            return getter.invoke(instance, new Object[0]);
+            return getter.invoke(instance, NO_ARGS);
         } catch (Throwable e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,190 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.amf.io.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.granite.messaging.amf.io.convert.Converters;
+
+import sun.misc.Unsafe;
+
+/**
+ * A {@link FieldProperty} that reads and writes instance fields directly at their memory
+ * offset (<tt>sun.misc.Unsafe</tt>), bypassing <tt>Field.get/set</tt> access checks.
+ * Values that do not match exactly the field type are delegated to reflection, so that
+ * type checks and widening conversions stay unchanged.
+ */
+public class UnsafeFieldProperty extends FieldProperty {
+
+	private static final Unsafe unsafe = getUnsafe();
+	
+	private static final int OBJECT = 0;
+	private static final int BOOLEAN = 1;
+	private static final int CHAR = 2;
+	private static final int BYTE = 3;
+	private static final int SHORT = 4;
+	private static final int INT = 5;
+	private static final int LONG = 6;
+	private static final int FLOAT = 7;
+	private static final int DOUBLE = 8;
+
+	private final Class<?> fieldType;
+	private final long offset;
+	private final int kind;
+
+    public UnsafeFieldProperty(Converters converters, Field field) {
+        super(converters, field);
+        
+        if (unsafe == null)
+        	throw new UnsupportedOperationException("sun.misc.Unsafe is not available");
+        if ((field.getModifiers() & (Modifier.STATIC | Modifier.VOLATILE)) != 0)
+        	throw new IllegalArgumentException("Static or volatile field: " + field);
+        
+        this.fieldType = field.getType();
+        this.offset = unsafe.objectFieldOffset(field);
+        this.kind = getKind(fieldType);
+    }
+    
+    public static boolean isAvailable() {
+    	return unsafe != null;
+    }
+
+    @Override
+    public void setProperty(Object instance, Object value, boolean convert) {
+    	if (convert)
+    		value = convert(value);
+    	
+    	if (!getDeclaringClass().isInstance(instance)) {
+    		super.setProperty(instance, value, false);
+    		return;
+    	}
+
+    	switch (kind) {
+    	case OBJECT:
+    		if (value != null && !fieldType.isInstance(value))
+    			break;
+    		unsafe.putObject(instance, offset, value);
+    		return;
+    	case BOOLEAN:
+    		if (!(value instanceof Boolean))
+    			break;
+    		unsafe.putBoolean(instance, offset, ((Boolean)value).booleanValue());
+    		return;
+    	case CHAR:
+    		if (!(value instanceof Character))
+    			break;
+    		unsafe.putChar(instance, offset, ((Character)value).charValue());
+    		return;
+    	case BYTE:
+    		if (!(value instanceof Byte))
+    			break;
+    		unsafe.putByte(instance, offset, ((Byte)value).byteValue());
+    		return;
+    	case SHORT:
+    		if (!(value instanceof Short))
+    			break;
+    		unsafe.putShort(instance, offset, ((Short)value).shortValue());
+    		return;
+    	case INT:
+    		if (!(value instanceof Integer))
+    			break;
+    		unsafe.putInt(instance, offset, ((Integer)value).intValue());
+    		return;
+    	case LONG:
+    		if (!(value instanceof Long))
+    			break;
+    		unsafe.putLong(instance, offset, ((Long)value).longValue());
+    		return;
+    	case FLOAT:
+    		if (!(value instanceof Float))
+    			break;
+    		unsafe.putFloat(instance, offset, ((Float)value).floatValue());
+    		return;
+    	case DOUBLE:
+    		if (!(value instanceof Double))
+    			break;
+    		unsafe.putDouble(instance, offset, ((Double)value).doubleValue());
+    		return;
+    	}
+    	
+    	// Let reflection handle widening conversions or report illegal values.
+    	super.setProperty(instance, value, false);
+    }
+
+    @Override
+    public Object getProperty(Object instance) {
+    	if (!getDeclaringClass().isInstance(instance))
+    		return super.getProperty(instance);
+    	
+    	switch (kind) {
+    	case BOOLEAN:
+    		return Boolean.valueOf(unsafe.getBoolean(instance, offset));
+    	case CHAR:
+    		return Character.valueOf(unsafe.getChar(instance, offset));
+    	case BYTE:
+    		return Byte.valueOf(unsafe.getByte(instance, offset));
+    	case SHORT:
+    		return Short.valueOf(unsafe.getShort(instance, offset));
+    	case INT:
+    		return Integer.valueOf(unsafe.getInt(instance, offset));
+    	case LONG:
+    		return Long.valueOf(unsafe.getLong(instance, offset));
+    	case FLOAT:
+    		return Float.valueOf(unsafe.getFloat(instance, offset));
+    	case DOUBLE:
+    		return Double.valueOf(unsafe.getDouble(instance, offset));
+    	default:
+    		return unsafe.getObject(instance, offset);
+    	}
+    }
+    
+    private static int getKind(Class<?> type) {
+    	if (!type.isPrimitive())
+    		return OBJECT;
+    	if (type == Boolean.TYPE)
+    		return BOOLEAN;
+    	if (type == Character.TYPE)
+    		return CHAR;
+    	if (type == Byte.TYPE)
+    		return BYTE;
+    	if (type == Short.TYPE)
+    		return SHORT;
+    	if (type == Integer.TYPE)
+    		return INT;
+    	if (type == Long.TYPE)
+    		return LONG;
+    	if (type == Float.TYPE)
+    		return FLOAT;
+    	return DOUBLE;
+    }
+    
+    private static Unsafe getUnsafe() {
+    	try {
+    		Field field = Unsafe.class.getDeclaredField("theUnsafe");
+    		field.setAccessible(true);
+    		return (Unsafe)field.get(null);
+    	}
+    	catch (Throwable t) {
+    		return null;
+    	}
+    }
+}
@@ -39,10 +39,10 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.granite.collections.BasicMap;
+import org.granite.config.GraniteConfig;
 import org.granite.context.GraniteContext;
 import org.granite.logging.Logger;
 import org.granite.messaging.amf.io.convert.Converters;
-import org.granite.messaging.amf.io.util.FieldProperty;
 import org.granite.messaging.amf.io.util.MethodProperty;
 import org.granite.messaging.amf.io.util.Property;
 import org.granite.messaging.amf.io.util.externalizer.annotation.ExternalizedBean;
@@ -82,6 +82,10 @@ public class DefaultExternalizer implements Externalizer {
     	}
     }
     
+    public boolean isDynamicClass() {
+    	return dynamicClass;
+    }
+    
     public Object newInstance(final String type, ObjectInput in)
         throws IOException, ClassNotFoundException, InstantiationException,
                InvocationTargetException, IllegalAccessException {
@@ -173,7 +177,8 @@ public class DefaultExternalizer implements Externalizer {
         		Introspector.flushFromCaches(clazz);
             
         	PropertyDescriptor[] propertyDescriptors = TypeUtil.getProperties(clazz);
-            Converters converters = GraniteContext.getCurrentInstance().getGraniteConfig().getConverters();
+            GraniteConfig config = GraniteContext.getCurrentInstance().getGraniteConfig();
+            Converters converters = config.getConverters();
 
             fields = new ArrayList<Property>();
 
@@ -201,7 +206,7 @@ public class DefaultExternalizer implements Externalizer {
                     		}
                     	}
                 		if (!found)
-                    		newFields.add(new FieldProperty(converters, field));
+                    		newFields.add(config.newFieldProperty(converters, field));
                     }
                     allFieldNames.add(field.getName());
                 }
@@ -20,19 +20,29 @@
 
 package org.granite.messaging.amf.process;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.granite.config.flex.Destination;
 import org.granite.context.AMFContextImpl;
 import org.granite.context.GraniteContext;
 import org.granite.logging.Logger;
 import org.granite.messaging.amf.AMF0Body;
 import org.granite.messaging.amf.AMF0Message;
 import org.granite.messaging.amf.AMF3Object;
+import org.granite.messaging.service.security.SecurityContextPropagator;
+import org.granite.messaging.service.security.SecurityService;
 import org.granite.util.UUIDUtil;
 
 import flex.messaging.messages.ErrorMessage;
 import flex.messaging.messages.Message;
+import flex.messaging.messages.RemotingMessage;
 
 /**
  * @author Franck WOLFF
@@ -48,11 +58,8 @@ public abstract class AMF0MessageProcessor {
         GraniteContext context = GraniteContext.getCurrentInstance();
         AMFContextImpl amf = (AMFContextImpl)context.getAMFContext();
 
-        AMF0Message amf0ResponseMessage = new AMF0Message();
-        amf0ResponseMessage.setVersion(amf0RequestMessage.getVersion());
-
-        ErrorMessage loginError = null;
-        String dsId = null;
+        List<AMF0Body> requestBodies = new ArrayList<AMF0Body>();
+        List<Message> amf3RequestMessages = new ArrayList<Message>();
         for (Iterator<AMF0Body> bodies = amf0RequestMessage.getBodies(); bodies.hasNext(); ) {
             AMF0Body requestBody = bodies.next();
 
@@ -65,45 +72,213 @@ public abstract class AMF0MessageProcessor {
             else
             	amf3RequestMessage = (Message)((Object[])value)[0];           	            	
             
-            log.debug(">> Processing AMF3 request:\n%s", amf3RequestMessage);
+            requestBodies.add(requestBody);
+            amf3RequestMessages.add(amf3RequestMessage);
+        }
+        
+        Message[] amf3ResponseMessages = new Message[amf3RequestMessages.size()];
+        AtomicReference<String> dsId = new AtomicReference<String>();
+        
+        ExecutorService executor = context.getGraniteConfig().getAmf0BatchExecutor();
+        if (executor == null || amf3RequestMessages.size() < 2)
+        	processSequentially(amf, amf3RequestMessages, amf3ResponseMessages, dsId);
+        else
+        	processConcurrently(context, amf, executor, amf3RequestMessages, amf3ResponseMessages, dsId);
+
+        AMF0Message amf0ResponseMessage = new AMF0Message();
+        amf0ResponseMessage.setVersion(amf0RequestMessage.getVersion());
+        
+        for (int i = 0; i < amf3ResponseMessages.length; i++) {
+            Message amf3ResponseMessage = amf3ResponseMessages[i];
+            
+            AMF3Object data = new AMF3Object(amf3ResponseMessage);
+            AMF0Body responseBody = new AMF0Body(
+                getResponseTarget(requestBodies.get(i), amf3ResponseMessage), "", data, AMF0Body.DATA_TYPE_AMF3_OBJECT
+            );
+            amf0ResponseMessage.addBody(responseBody);
+        }
 
+        log.debug("<< Returning AMF0 response:%s", amf0ResponseMessage);
+
+        return amf0ResponseMessage;
+    }
+    
+    private static void processSequentially(
+    	AMFContextImpl amf,
+    	List<Message> amf3RequestMessages,
+    	Message[] amf3ResponseMessages,
+    	AtomicReference<String> dsId) {
+
+        ErrorMessage loginError = null;
+        for (int i = 0; i < amf3ResponseMessages.length; i++) {
+            Message amf3RequestMessage = amf3RequestMessages.get(i);
+            
             // If we get a login error (setCredentials on flex side), we don't execute subsequent requests and
             // just copy the initial login error (GDS specific, otherwise the FaultEvent dispatched by the
             // RemoteObject is not the login error but an authorization error after actual service call).
             Message amf3ResponseMessage = null;
             if (loginError == null) {
-                amf.setCurrentAmf3Message(amf3RequestMessage);
-
-                amf.getCustomResponseHeaders().clear();
-                amf3ResponseMessage = AMF3MessageProcessor.process(amf3RequestMessage);
-
-                if ((amf3ResponseMessage instanceof ErrorMessage) && ((ErrorMessage)amf3ResponseMessage).loginError())
+            	amf3ResponseMessage = processBody(amf, amf3RequestMessage, dsId);
+                if (isLoginError(amf3ResponseMessage))
                     loginError = (ErrorMessage)amf3ResponseMessage;
-
-                // For SDK 2.0.1_Hotfix2+ (LCDS 2.5+).
-                if ("nil".equals(amf3ResponseMessage.getHeader(Message.DS_ID_HEADER))) {
-                    amf3ResponseMessage.getHeaders().put(
-                        Message.DS_ID_HEADER,
-                        (dsId == null ? (dsId = UUIDUtil.randomUUID()) : dsId)
-                    );
-                }
-                amf3ResponseMessage.getHeaders().putAll(amf.getCustomResponseHeaders());
             }
-            else
+            else {
                 amf3ResponseMessage = loginError.copy(amf3RequestMessage);
+                log.debug("<< Got AMF3 response:\n%s", amf3ResponseMessage);
+            }
+            
+            amf3ResponseMessages[i] = amf3ResponseMessage;
+        }
+    }
+    
+    /**
+     * Runs consecutive remoting calls concurrently, each one with its own context. Other
+     * messages (commands such as login or logout) are ordering barriers: they are executed
+     * alone, in the request thread, once all preceding calls are done.
+     */
+    private static void processConcurrently(
+    	GraniteContext context,
+    	final AMFContextImpl amf,
+    	ExecutorService executor,
+    	List<Message> amf3RequestMessages,
+    	Message[] amf3ResponseMessages,
+    	final AtomicReference<String> dsId) {
+    	
+    	final int count = amf3ResponseMessages.length;
+    	
+    	SecurityService securityService = context.getGraniteConfig().getSecurityService();
+    	final SecurityContextPropagator propagator = (
+    		securityService instanceof SecurityContextPropagator ? (SecurityContextPropagator)securityService : null
+    	);
+    	
+        ErrorMessage loginError = null;
+        int i = 0;
+        while (i < count) {
+        	if (loginError != null) {
+        		amf3ResponseMessages[i] = loginError.copy(amf3RequestMessages.get(i));
+        		i++;
+        		continue;
+        	}
+        	
+        	int end = i + 1;
+        	if (amf3RequestMessages.get(i) instanceof RemotingMessage) {
+        		while (end < count && amf3RequestMessages.get(end) instanceof RemotingMessage)
+        			end++;
+        	}
+        	
+        	// Each concurrent call gets its own view of the request (attributes, AMF context) and
+        	// a copy of the security context of the request thread. Calls that cannot be run that
+        	// way are processed meanwhile in the request thread.
+        	List<Future<Message>> futures = new ArrayList<Future<Message>>(end - i);
+        	for (int j = i; j < end; j++) {
+        		final Message amf3RequestMessage = amf3RequestMessages.get(j);
+        		
+        		final GraniteContext bodyContext = (
+        			end - i > 1 && canRunConcurrently(context, propagator, amf3RequestMessage) ?
+        			context.newBatchBodyContext() :
+        			null
+        		);
+        		if (bodyContext == null) {
+        			futures.add(null);
+        			continue;
+        		}
+        		
+        		final AMFContextImpl bodyAmf = (AMFContextImpl)bodyContext.getAMFContext();
+        		bodyAmf.setAmf0Request(amf.getAMF0Request());
+        		bodyAmf.setAmf0Response(amf.getAmf0Response());
+        		final Object securityContext = (propagator != null ? propagator.captureSecurityContext() : null);
+        		
+        		futures.add(executor.submit(new Callable<Message>() {
+        			public Message call() throws Exception {
+        				return bodyContext.call(new Callable<Message>() {
+        					public Message call() throws Exception {
+        						Object previousSecurityContext = (propagator != null ? propagator.bindSecurityContext(securityContext) : null);
+        						try {
+        							return processBody(bodyAmf, amf3RequestMessage, dsId);
+        						}
+        						finally {
+        							if (propagator != null)
+        								propagator.bindSecurityContext(previousSecurityContext);
+        						}
+        					}
+        				});
+        			}
+        		}));
+        	}
+        	
+        	for (int j = i; j < end; j++) {
+        		if (futures.get(j - i) == null)
+        			amf3ResponseMessages[j] = processBody(amf, amf3RequestMessages.get(j), dsId);
+        	}
+        	for (int j = i; j < end; j++) {
+        		if (futures.get(j - i) != null)
+        			amf3ResponseMessages[j] = getResult(futures.get(j - i));
+        	}
+        	
+        	// Keep the sequential semantics: responses following a login error are copies of it.
+        	for (int j = i; j < end; j++) {
+        		if (loginError != null)
+        			amf3ResponseMessages[j] = loginError.copy(amf3RequestMessages.get(j));
+        		else if (isLoginError(amf3ResponseMessages[j]))
+        			loginError = (ErrorMessage)amf3ResponseMessages[j];
+        	}
+        	
+        	i = end;
+        }
+    }
+    
+    private static boolean canRunConcurrently(GraniteContext context, SecurityContextPropagator propagator, Message amf3RequestMessage) {
+    	if (propagator != null || !context.getGraniteConfig().hasSecurityService())
+    		return true;
+    	
+    	// The security context of the request thread cannot be carried to another thread.
+    	Destination destination = context.getServicesConfig().findDestinationById(
+    		amf3RequestMessage.getClass().getName(), ((RemotingMessage)amf3RequestMessage).getDestination()
+    	);
+    	return destination == null || !destination.isSecured();
+    }
+    
+    private static Message processBody(AMFContextImpl amf, Message amf3RequestMessage, AtomicReference<String> dsId) {
+        log.debug(">> Processing AMF3 request:\n%s", amf3RequestMessage);
 
-            log.debug("<< Got AMF3 response:\n%s", amf3ResponseMessage);
+        amf.setCurrentAmf3Message(amf3RequestMessage);
 
-            AMF3Object data = new AMF3Object(amf3ResponseMessage);
-            AMF0Body responseBody = new AMF0Body(
-                getResponseTarget(requestBody, amf3ResponseMessage), "", data, AMF0Body.DATA_TYPE_AMF3_OBJECT
-            );
-            amf0ResponseMessage.addBody(responseBody);
-        }
+        amf.getCustomResponseHeaders().clear();
+        Message amf3ResponseMessage = AMF3MessageProcessor.process(amf3RequestMessage);
 
-        log.debug("<< Returning AMF0 response:%s", amf0ResponseMessage);
+        // For SDK 2.0.1_Hotfix2+ (LCDS 2.5+).
+        if ("nil".equals(amf3ResponseMessage.getHeader(Message.DS_ID_HEADER))) {
+        	if (dsId.get() == null)
+        		dsId.compareAndSet(null, UUIDUtil.randomUUID());
+            amf3ResponseMessage.getHeaders().put(Message.DS_ID_HEADER, dsId.get());
+        }
+        amf3ResponseMessage.getHeaders().putAll(amf.getCustomResponseHeaders());
 
-        return amf0ResponseMessage;
+        log.debug("<< Got AMF3 response:\n%s", amf3ResponseMessage);
+        
+        return amf3ResponseMessage;
+    }
+    
+    private static Message getResult(Future<Message> future) {
+    	try {
+    		return future.get();
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new RuntimeException("Interrupted while waiting for a batched AMF3 response", e);
+    	}
+    	catch (ExecutionException e) {
+    		Throwable cause = e.getCause();
+    		if (cause instanceof RuntimeException)
+    			throw (RuntimeException)cause;
+    		if (cause instanceof Error)
+    			throw (Error)cause;
+    		throw new RuntimeException(cause);
+    	}
+    }
+    
+    private static boolean isLoginError(Message amf3ResponseMessage) {
+    	return (amf3ResponseMessage instanceof ErrorMessage) && ((ErrorMessage)amf3ResponseMessage).loginError();
     }
 
     private static String getResponseTarget(AMF0Body requestBody, Message responseMessage) {
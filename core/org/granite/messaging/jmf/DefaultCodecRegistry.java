@@ -27,12 +27,15 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.granite.messaging.jmf.codec.BijectiveCodec;
 import org.granite.messaging.jmf.codec.ConditionalObjectCodec;
 import org.granite.messaging.jmf.codec.ExtendedObjectCodec;
 import org.granite.messaging.jmf.codec.PrimitiveCodec;
 import org.granite.messaging.jmf.codec.StandardCodec;
+import org.granite.messaging.jmf.codec.ValueDependentCodec;
 import org.granite.messaging.jmf.codec.std.BooleanCodec;
 import org.granite.messaging.jmf.codec.std.ByteCodec;
 import org.granite.messaging.jmf.codec.std.CharacterCodec;
@@ -109,12 +112,26 @@ public class DefaultCodecRegistry implements CodecRegistry {
 
 	private final List<ExtendedObjectCodec> extendedCodecs;
 	
+	// Lazily filled resolution tables: the value is the index of the first codec whose answer
+	// only depends on the class (or class name), or the codec count if none matches (negative
+	// entry). Value dependent codecs found before that index are still evaluated for each call.
+	private final ConcurrentMap<Class<?>, Integer> conditionalCodecIndexes = new ConcurrentHashMap<Class<?>, Integer>();
+	private final ConcurrentMap<Class<?>, Integer> extendedEncoderIndexes = new ConcurrentHashMap<Class<?>, Integer>();
+	private final ConcurrentMap<String, Integer> extendedDecoderIndexes = new ConcurrentHashMap<String, Integer>();
+	
+	private final ConditionalObjectCodec[] conditionalCodecsArray;
+	private final boolean[] conditionalCodecsValueDependent;
+	private final ExtendedObjectCodec[] extendedCodecsArray;
+	private final boolean[] extendedCodecsValueDependent;
+	
 	public DefaultCodecRegistry() {
 		this(null);
 	}
 		
 	public DefaultCodecRegistry(List<ExtendedObjectCodec> extendedCodecs) {
 		this.extendedCodecs = (extendedCodecs != null ? extendedCodecs : new ArrayList<ExtendedObjectCodec>());
+		this.extendedCodecsArray = this.extendedCodecs.toArray(new ExtendedObjectCodec[this.extendedCodecs.size()]);
+		this.extendedCodecsValueDependent = valueDependentFlags(extendedCodecsArray);
 
 		List<StandardCodec<?>> standardCodecs = getStandardCodecs();
 		for (StandardCodec<?> codec : standardCodecs) {
@@ -153,6 +170,9 @@ public class DefaultCodecRegistry implements CodecRegistry {
 		}
 		
 		checkPrimitiveCodecs();
+		
+		conditionalCodecsArray = conditionalObjectCodecs.toArray(new ConditionalObjectCodec[conditionalObjectCodecs.size()]);
+		conditionalCodecsValueDependent = valueDependentFlags(conditionalCodecsArray);
 	}
 
 	public NullCodec getNullCodec() {
@@ -204,33 +224,80 @@ public class DefaultCodecRegistry implements CodecRegistry {
 	public <T> StandardCodec<T> getCodec(Object v) {
 		Class<?> cls = (v != null ? v.getClass() : null);
 		StandardCodec<T> codec = (StandardCodec<T>)classToCodec.get(cls);
-		if (codec == null) {
-			for (ConditionalObjectCodec condCodec : conditionalObjectCodecs) {
-				if (condCodec.canEncode(v)) {
-					codec = (StandardCodec<T>)condCodec;
-					break;
-				}
+		if (codec == null && cls != null) {
+			final ConditionalObjectCodec[] codecs = conditionalCodecsArray;
+			
+			Integer index = conditionalCodecIndexes.get(cls);
+			if (index == null) {
+				int i = 0;
+				while (i < codecs.length && (conditionalCodecsValueDependent[i] || !codecs[i].canEncode(v)))
+					i++;
+				index = Integer.valueOf(i);
+				conditionalCodecIndexes.putIfAbsent(cls, index);
 			}
+			
+			int last = index.intValue();
+			for (int i = 0; i < last; i++) {
+				if (conditionalCodecsValueDependent[i] && codecs[i].canEncode(v))
+					return (StandardCodec<T>)codecs[i];
+			}
+			if (last < codecs.length)
+				codec = (StandardCodec<T>)codecs[last];
 		}
 		return codec;
 	}
 
 	public ExtendedObjectCodec findExtendedEncoder(ExtendedObjectOutput out, Object v) {
-		for (ExtendedObjectCodec c : extendedCodecs) {
-			if (c.canEncode(out, v))
-				return c;
+		final ExtendedObjectCodec[] codecs = extendedCodecsArray;
+		if (codecs.length == 0)
+			return null;
+		
+		Class<?> cls = v.getClass();
+		Integer index = extendedEncoderIndexes.get(cls);
+		if (index == null) {
+			int i = 0;
+			while (i < codecs.length && (extendedCodecsValueDependent[i] || !codecs[i].canEncode(out, v)))
+				i++;
+			index = Integer.valueOf(i);
+			extendedEncoderIndexes.putIfAbsent(cls, index);
 		}
-		return null;
+		
+		int last = index.intValue();
+		for (int i = 0; i < last; i++) {
+			if (extendedCodecsValueDependent[i] && codecs[i].canEncode(out, v))
+				return codecs[i];
+		}
+		return (last < codecs.length ? codecs[last] : null);
 	}
 
 	public ExtendedObjectCodec findExtendedDecoder(ExtendedObjectInput in, String className)
 		throws ClassNotFoundException {
 		
-		for (ExtendedObjectCodec c : extendedCodecs) {
-			if (c.canDecode(in, className))
-				return c;
+		final ExtendedObjectCodec[] codecs = extendedCodecsArray;
+		if (codecs.length == 0)
+			return null;
+		
+		Integer index = extendedDecoderIndexes.get(className);
+		if (index == null) {
+			int i = 0;
+			while (i < codecs.length && (extendedCodecsValueDependent[i] || !codecs[i].canDecode(in, className)))
+				i++;
+			index = Integer.valueOf(i);
+			extendedDecoderIndexes.putIfAbsent(className, index);
+		}
+		
+		int last = index.intValue();
+		for (int i = 0; i < last; i++) {
+			if (extendedCodecsValueDependent[i] && codecs[i].canDecode(in, className))
+				return codecs[i];
 		}
-		return null;
+		return (last < codecs.length ? codecs[last] : null);
+	}
+	
+	public void clearResolutionCaches() {
+		conditionalCodecIndexes.clear();
+		extendedEncoderIndexes.clear();
+		extendedDecoderIndexes.clear();
 	}
 
 	public PrimitiveFieldCodec getPrimitiveFieldCodec(Class<?> fieldCls) {
@@ -284,6 +351,13 @@ public class DefaultCodecRegistry implements CodecRegistry {
 		);
 	}
 	
+	private static boolean[] valueDependentFlags(Object[] codecs) {
+		boolean[] flags = new boolean[codecs.length];
+		for (int i = 0; i < codecs.length; i++)
+			flags[i] = (codecs[i] instanceof ValueDependentCodec);
+		return flags;
+	}
+	
 	private void assertNull(StandardCodec<?> codec) {
 		if (codec != null)
 			throw new JMFConfigurationException("Codec conflict with: " + codec);
@@ -72,6 +72,9 @@ public class DefaultSharedContext implements SharedContext {
 	protected final CodecRegistry codecRegistry;
 	protected final Reflection reflection;
 	protected final List<String> defaultStoredStrings;
+	protected final StoredStrings storedStrings;
+	
+	protected volatile StoredStringsCollector storedStringsCollector = null;
 	
 	public DefaultSharedContext() {
 		this(null, null, null);
@@ -94,6 +97,7 @@ public class DefaultSharedContext implements SharedContext {
 		if (defaultStoredStrings != null)
 			defaultStoredStringsSet.addAll(defaultStoredStrings);
 		this.defaultStoredStrings = Collections.unmodifiableList(new ArrayList<String>(defaultStoredStringsSet));
+		this.storedStrings = new StoredStrings(this.defaultStoredStrings);
 	}
 
 	public CodecRegistry getCodecRegistry() {
@@ -108,6 +112,18 @@ public class DefaultSharedContext implements SharedContext {
 		return defaultStoredStrings;
 	}
 
+	public StoredStrings getStoredStrings() {
+		return storedStrings;
+	}
+
+	public StoredStringsCollector getStoredStringsCollector() {
+		return storedStringsCollector;
+	}
+
+	public void setStoredStringsCollector(StoredStringsCollector storedStringsCollector) {
+		this.storedStringsCollector = storedStringsCollector;
+	}
+
 	public String getAlias(String className) {
 		return className;
 	}
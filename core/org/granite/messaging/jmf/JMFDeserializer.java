@@ -39,7 +39,8 @@ public class JMFDeserializer implements InputContext {
 	///////////////////////////////////////////////////////////////////////////
 	// Fields
 	
-	protected final List<String> storedStrings = new ArrayList<String>(256);
+	protected final StoredStrings defaultStoredStrings;
+	protected final List<String> storedStrings = new ArrayList<String>(32);
 	protected final List<Object> storedObjects = new ArrayList<Object>(256);
 	
     protected final InputStream inputStream;
@@ -55,7 +56,7 @@ public class JMFDeserializer implements InputContext {
 		this.context = context;
 		this.codecRegistry = context.getCodecRegistry();
 		
-		this.storedStrings.addAll(context.getDefaultStoredStrings());
+		this.defaultStoredStrings = StoredStrings.of(context);
 	}
 	
 	///////////////////////////////////////////////////////////////////////////
@@ -234,13 +235,13 @@ public class JMFDeserializer implements InputContext {
 	}
 
 	public int addSharedString(String s) {
-		int index = storedStrings.size();
-		storedStrings.add(index, s);
-		return index;
+		storedStrings.add(s);
+		return defaultStoredStrings.size() + storedStrings.size() - 1;
 	}
 	
 	public String getSharedString(int index) {
-		return storedStrings.get(index);
+		int defaultSize = defaultStoredStrings.size();
+		return (index < defaultSize ? defaultStoredStrings.get(index) : storedStrings.get(index - defaultSize));
 	}
 	
 	public int addSharedObject(Object o) {
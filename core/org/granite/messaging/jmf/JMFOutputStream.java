@@ -0,0 +1,188 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.jmf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream used by {@link JMFSerializer}: writes are buffered between {@link #begin()}
+ * and {@link #end()} calls (they go straight to the underlying stream otherwise) and the
+ * buffer is reused by each thread.
+ */
+public class JMFOutputStream extends OutputStream {
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>();
+
+	private final OutputStream out;
+	private byte[] buffer = null;
+	private int count = 0;
+
+	public JMFOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	public void begin() {
+		if (buffer == null) {
+			buffer = buffers.get();
+			if (buffer != null)
+				buffers.set(null);
+			else
+				buffer = new byte[BUFFER_SIZE];
+		}
+	}
+
+	public void end() throws IOException {
+		if (buffer != null) {
+			try {
+				flushBuffer();
+			}
+			finally {
+				buffers.set(buffer);
+				buffer = null;
+				count = 0;
+			}
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (buffer == null)
+			out.write(b);
+		else {
+			if (count == buffer.length)
+				flushBuffer();
+			buffer[count++] = (byte)b;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (buffer == null)
+			out.write(b, off, len);
+		else if (len > buffer.length - count) {
+			flushBuffer();
+			if (len >= buffer.length)
+				out.write(b, off, len);
+			else {
+				System.arraycopy(b, off, buffer, 0, len);
+				count = len;
+			}
+		}
+		else {
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Writes the UTF-8 encoding of the supplied string (same bytes as <tt>s.getBytes("UTF-8")</tt>),
+	 * directly into the buffer when it fits.
+	 * 
+	 * @param utf8Length the encoded length, as returned by {@link #utf8Length(String)}.
+	 */
+	public void writeUTF8(String s, int utf8Length) throws IOException {
+		if (buffer == null || utf8Length > buffer.length) {
+			byte[] bytes = new byte[utf8Length];
+			encodeUTF8(s, bytes, 0);
+			write(bytes, 0, utf8Length);
+		}
+		else {
+			if (utf8Length > buffer.length - count)
+				flushBuffer();
+			count = encodeUTF8(s, buffer, count);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	public static int utf8Length(String s) {
+		final int length = s.length();
+		
+		int utf8Length = length;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				if (c < 0x800)
+					utf8Length++;
+				else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+					utf8Length += 2; // 4 bytes for 2 chars.
+					i++;
+				}
+				else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE)
+					utf8Length += 2;
+				// else: malformed surrogate, replaced by '?'.
+			}
+		}
+		return utf8Length;
+	}
+
+	private static int encodeUTF8(String s, byte[] bytes, int position) {
+		final int length = s.length();
+		
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80)
+				bytes[position++] = (byte)c;
+			else if (c < 0x800) {
+				bytes[position++] = (byte)(0xC0 | (c >> 6));
+				bytes[position++] = (byte)(0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				bytes[position++] = (byte)(0xF0 | (cp >> 18));
+				bytes[position++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+				bytes[position++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+				bytes[position++] = (byte)(0x80 | (cp & 0x3F));
+			}
+			else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+				bytes[position++] = (byte)(0xE0 | (c >> 12));
+				bytes[position++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+				bytes[position++] = (byte)(0x80 | (c & 0x3F));
+			}
+			else
+				bytes[position++] = '?';
+		}
+		return position;
+	}
+}
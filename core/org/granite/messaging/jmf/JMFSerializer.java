@@ -39,10 +39,15 @@ public class JMFSerializer implements OutputContext {
 	///////////////////////////////////////////////////////////////////////////
 	// Fields
 
-	protected final Map<String, Integer> storedStrings = new HashMap<String, Integer>(256);
+	protected final StoredStrings defaultStoredStrings;
+	protected final Map<String, Integer> storedStrings = new HashMap<String, Integer>(32);
 	protected final Map<Object, Integer> storedObjects = new IdentityHashMap<Object, Integer>(256);
 	
+	// Nesting level of writeObject/writeUTF calls (output is buffered until the top-level call returns).
+	private int depth = 0;
+	
     protected final OutputStream outputStream;
+    protected final JMFOutputStream bufferedOutputStream;
     protected final SharedContext context;
     
     protected final CodecRegistry codecRegistry;
@@ -52,11 +57,10 @@ public class JMFSerializer implements OutputContext {
 
 	public JMFSerializer(OutputStream outputStream, SharedContext context) {
 		this.outputStream = outputStream;
+		this.bufferedOutputStream = new JMFOutputStream(outputStream);
 		this.codecRegistry = context.getCodecRegistry();
 		this.context = context;
-		
-		for (String s : context.getDefaultStoredStrings())
-			addToStoredStrings(s);
+		this.defaultStoredStrings = StoredStrings.of(context);
 	}
 	
 	///////////////////////////////////////////////////////////////////////////
@@ -95,10 +99,18 @@ public class JMFSerializer implements OutputContext {
 	}
 
 	public void writeUTF(String s) throws IOException {
-		if (s == null)
-			codecRegistry.getNullCodec().encode(this, s);
-		else
-			codecRegistry.getStringCodec().encode(this, s);
+		if (depth++ == 0)
+			bufferedOutputStream.begin();
+		try {
+			if (s == null)
+				codecRegistry.getNullCodec().encode(this, s);
+			else
+				codecRegistry.getStringCodec().encode(this, s);
+		}
+		finally {
+			if (--depth == 0)
+				bufferedOutputStream.end();
+		}
 	}
 
 	public void writeObject(Object obj) throws IOException {
@@ -106,6 +118,8 @@ public class JMFSerializer implements OutputContext {
 		if (codec == null)
 			throw new JMFEncodingException("Unsupported Java class: " + obj);
 		
+		if (depth++ == 0)
+			bufferedOutputStream.begin();
 		try {
 			codec.encode(this, obj);
 		}
@@ -115,14 +129,18 @@ public class JMFSerializer implements OutputContext {
 		catch (InvocationTargetException e) {
 			throw new IOException(e);
 		}
+		finally {
+			if (--depth == 0)
+				bufferedOutputStream.end();
+		}
 	}
 
 	public void flush() throws IOException {
-		outputStream.flush();
+		bufferedOutputStream.flush();
 	}
 
 	public void close() throws IOException {
-		outputStream.close();
+		bufferedOutputStream.close();
 	}
 	
 	///////////////////////////////////////////////////////////////////////////
@@ -161,21 +179,25 @@ public class JMFSerializer implements OutputContext {
 	}
 
 	public OutputStream getOutputStream() {
-		return outputStream;
+		return bufferedOutputStream;
 	}
 
 	public void addToStoredStrings(String s) {
-        if (s != null && !storedStrings.containsKey(s)) {
-            Integer index = Integer.valueOf(storedStrings.size());
+        if (s != null && defaultStoredStrings.indexOf(s) == -1 && !storedStrings.containsKey(s)) {
+            Integer index = Integer.valueOf(defaultStoredStrings.size() + storedStrings.size());
             storedStrings.put(s, index);
         }
     }
 
 	public int indexOfStoredStrings(String s) {
     	if (s != null) {
-	        Integer index = storedStrings.get(s);
-	        if (index != null)
-	        	return index.intValue();
+    		int index = defaultStoredStrings.indexOf(s);
+    		if (index != -1)
+    			return index;
+    		
+	        Integer overlayIndex = storedStrings.get(s);
+	        if (overlayIndex != null)
+	        	return overlayIndex.intValue();
     	}
     	return -1;
     }
@@ -20,6 +20,10 @@
 
 package org.granite.messaging.jmf;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -47,6 +51,10 @@ public class JMFServletContextListener implements ServletContextListener {
 
 	public static final String EXTENDED_OBJECT_CODECS_PARAM = "jmf-extended-object-codecs";
 	public static final String DEFAULT_STORED_STRINGS_PARAM = "jmf-default-stored-strings";
+	public static final String DEFAULT_STORED_STRINGS_RESOURCE_PARAM = "jmf-default-stored-strings-resource";
+	public static final String COLLECT_STORED_STRINGS_PARAM = "jmf-collect-stored-strings";
+	
+	private static final int COLLECTED_STRINGS_MIN_COUNT = 2;
 	
 	public static final String SHARED_CONTEXT_KEY = SharedContext.class.getName();
 	public static final String DUMP_SHARED_CONTEXT_KEY = SharedContext.class.getName() + ":DUMP";
@@ -73,7 +81,11 @@ public class JMFServletContextListener implements ServletContextListener {
         List<ExtendedObjectCodec> extendedObjectCodecs = loadExtendedObjectCodecs(servletContext);
         List<String> defaultStoredStrings = loadDefaultStoredStrings(servletContext);
         
-        SharedContext sharedContext = new DefaultSharedContext(new DefaultCodecRegistry(extendedObjectCodecs), null, defaultStoredStrings);
+        DefaultSharedContext sharedContext = new DefaultSharedContext(new DefaultCodecRegistry(extendedObjectCodecs), null, defaultStoredStrings);
+        if (Boolean.parseBoolean(servletContext.getInitParameter(COLLECT_STORED_STRINGS_PARAM))) {
+        	log.info("Collecting JMF inline class names (see %s)", DEFAULT_STORED_STRINGS_RESOURCE_PARAM);
+        	sharedContext.setStoredStringsCollector(new StoredStringsCollector());
+        }
         servletContext.setAttribute(SHARED_CONTEXT_KEY, sharedContext);
         
         SharedContext dumpSharedContext = new DefaultSharedContext(new DefaultCodecRegistry(), null, defaultStoredStrings);
@@ -140,13 +152,64 @@ public class JMFServletContextListener implements ServletContextListener {
         	}
         }
         
+        String defaultStoredStringsResource = servletContext.getInitParameter(DEFAULT_STORED_STRINGS_RESOURCE_PARAM);
+        if (defaultStoredStringsResource != null) {
+        	try {
+        		defaultStoredStrings.addAll(loadStoredStringsResource(servletContext, defaultStoredStringsResource.trim()));
+        	}
+        	catch (IOException e) {
+        		log.warn(e, "Could not load JMF default stored strings from: %s", defaultStoredStringsResource);
+        	}
+        }
+        
         return defaultStoredStrings;
 	}
 	
+	/**
+	 * Reads one string per line, ignoring blank lines and lines starting with '#'.
+	 */
+	protected List<String> loadStoredStringsResource(ServletContext servletContext, String path) throws IOException {
+		InputStream is = servletContext.getResourceAsStream(path);
+		if (is == null)
+			is = Thread.currentThread().getContextClassLoader().getResourceAsStream(path);
+		if (is == null)
+			throw new IOException("Resource not found: " + path);
+		
+		List<String> strings = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#"))
+					strings.add(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+		
+		log.info("Loaded %d JMF default stored strings from: %s", strings.size(), path);
+		return strings;
+	}
+	
 
 	public void contextDestroyed(ServletContextEvent event) {
         ServletContext servletContext = event.getServletContext();
         
+        SharedContext sharedContext = getSharedContext(servletContext);
+        StoredStringsCollector collector = null;
+        if (sharedContext instanceof DefaultSharedContext)
+        	collector = ((DefaultSharedContext)sharedContext).getStoredStringsCollector();
+        if (collector != null) {
+        	List<String> strings = collector.getFrequentStrings(COLLECTED_STRINGS_MIN_COUNT);
+        	
+        	StringBuilder sb = new StringBuilder();
+        	for (String s : strings)
+        		sb.append('\n').append(s);
+        	log.info("Frequent JMF inline class names (candidates for %s):%s", DEFAULT_STORED_STRINGS_RESOURCE_PARAM, sb);
+        }
+        
         servletContext.removeAttribute(SHARED_CONTEXT_KEY);
 	}
 }
@@ -0,0 +1,82 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.jmf;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable and pre-indexed dictionary of the strings shared by all JMF serializers and
+ * deserializers of a {@link SharedContext}. Serializers and deserializers only keep a small
+ * per-message overlay of the strings encountered in the stream, indexed after the dictionary
+ * ones.
+ */
+public final class StoredStrings {
+
+	private final List<String> strings;
+	private final Map<String, Integer> indexes;
+	
+	public StoredStrings(Collection<String> strings) {
+		List<String> list = new ArrayList<String>(strings.size());
+		Map<String, Integer> map = new HashMap<String, Integer>(strings.size() * 2);
+		
+		for (String s : strings) {
+			if (s != null && !map.containsKey(s)) {
+				map.put(s, Integer.valueOf(list.size()));
+				list.add(s);
+			}
+		}
+		
+		this.strings = Collections.unmodifiableList(list);
+		this.indexes = map;
+	}
+	
+	/**
+	 * Returns the dictionary built once by a {@link DefaultSharedContext}, or a new one built
+	 * from the default stored strings of any other {@link SharedContext} implementation.
+	 */
+	public static StoredStrings of(SharedContext context) {
+		if (context instanceof DefaultSharedContext)
+			return ((DefaultSharedContext)context).getStoredStrings();
+		return new StoredStrings(context.getDefaultStoredStrings());
+	}
+	
+	public int size() {
+		return strings.size();
+	}
+	
+	public int indexOf(String s) {
+		Integer index = indexes.get(s);
+		return (index != null ? index.intValue() : -1);
+	}
+	
+	public String get(int index) {
+		return strings.get(index);
+	}
+	
+	public List<String> asList() {
+		return strings;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.jmf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the class names that JMF serializers had to write inline (ie. names that are not part
+ * of the shared {@link StoredStrings} dictionary). The most frequent ones can then be added to
+ * the default stored strings of both peers, from a warm-up run or a configuration file, so they
+ * are never sent inline again. String values are never collected: they may hold user data.
+ */
+public class StoredStringsCollector {
+	
+	public static final int DEFAULT_MAX_STRINGS = 4096;
+	
+	private final ConcurrentMap<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+	private final int maxStrings;
+	
+	public StoredStringsCollector() {
+		this(DEFAULT_MAX_STRINGS);
+	}
+	
+	public StoredStringsCollector(int maxStrings) {
+		this.maxStrings = maxStrings;
+	}
+	
+	public void collect(String s) {
+		AtomicInteger count = counts.get(s);
+		if (count == null) {
+			if (counts.size() >= maxStrings)
+				return;
+			count = new AtomicInteger();
+			AtomicInteger previous = counts.putIfAbsent(s, count);
+			if (previous != null)
+				count = previous;
+		}
+		count.incrementAndGet();
+	}
+	
+	public int getCount(String s) {
+		AtomicInteger count = counts.get(s);
+		return (count != null ? count.get() : 0);
+	}
+	
+	/**
+	 * Returns the strings collected at least <code>minCount</code> times, most frequent first.
+	 */
+	public List<String> getFrequentStrings(int minCount) {
+		final Map<String, Integer> snapshot = new HashMap<String, Integer>();
+		for (Map.Entry<String, AtomicInteger> entry : counts.entrySet()) {
+			int count = entry.getValue().get();
+			if (count >= minCount)
+				snapshot.put(entry.getKey(), Integer.valueOf(count));
+		}
+		
+		List<String> strings = new ArrayList<String>(snapshot.keySet());
+		Collections.sort(strings, new Comparator<String>() {
+			public int compare(String s1, String s2) {
+				int c = snapshot.get(s2).compareTo(snapshot.get(s1));
+				return (c != 0 ? c : s1.compareTo(s2));
+			}
+		});
+		return strings;
+	}
+	
+	public void clear() {
+		counts.clear();
+	}
+}
@@ -23,20 +23,25 @@ package org.granite.messaging.jmf.codec.std.impl;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import org.granite.messaging.jmf.DefaultSharedContext;
 import org.granite.messaging.jmf.InputContext;
+import org.granite.messaging.jmf.JMFOutputStream;
 import org.granite.messaging.jmf.OutputContext;
+import org.granite.messaging.jmf.SharedContext;
+import org.granite.messaging.jmf.StoredStringsCollector;
 
 /**
  * @author Franck WOLFF
  */
 public abstract class AbstractIntegerStringCodec<T> extends AbstractStandardCodec<T> {
 	
-	protected void writeIntData(OutputContext ctx, IntegerComponents ics) throws IOException {
-		int v = ics.value;
-		
+	/**
+	 * Writes the <tt>length + 1</tt> lower bytes of v (see {@link #lengthOfIntData(int)}).
+	 */
+	protected void writeIntData(OutputContext ctx, int length, int v) throws IOException {
 		final OutputStream os = ctx.getOutputStream();
 		
-		switch (ics.length) {
+		switch (length) {
 		case 3:
 			os.write(v >> 24);
 		case 2:
@@ -69,20 +74,32 @@ public abstract class AbstractIntegerStringCodec<T> extends AbstractStandardCode
 		return v;
 	}
 
-	protected IntegerComponents intComponents(int v) {
-		int s = 0;
-		int l = 3; // --> Integer.MIN_VALUE
-		if (v != Integer.MIN_VALUE) {
-			if (v < 0) {
-				s = 1;
-				v = -v;
+	/**
+	 * Returns the number of bytes (minus one) needed to write a positive int value (3 for
+	 * Integer.MIN_VALUE).
+	 */
+	protected static int lengthOfIntData(int v) {
+		if (v < 0) // --> Integer.MIN_VALUE
+			return 3;
+		if (v <= 0xFFFF)
+			return (v <= 0xFF ? 0 : 1);
+		return (v <= 0xFFFFFF ? 2 : 3);
+	}
+	
+	/**
+	 * Writes a class name. Unlike other strings, class names written inline are reported to the
+	 * {@link StoredStringsCollector} of the shared context, if any.
+	 */
+	protected void writeClassName(OutputContext ctx, String className, StringTypeHandler handler) throws IOException {
+		if (ctx.indexOfStoredStrings(className) == -1) {
+			SharedContext context = ctx.getSharedContext();
+			if (context instanceof DefaultSharedContext) {
+				StoredStringsCollector collector = ((DefaultSharedContext)context).getStoredStringsCollector();
+				if (collector != null)
+					collector.collect(className);
 			}
-			if (v <= 0xFFFF)
-				l = (v <= 0xFF ? 0 : 1);
-			else
-				l = (v <= 0xFFFFFF ? 2 : 3);
 		}
-		return new IntegerComponents(s, l, v);
+		writeString(ctx, className, handler);
 	}
 	
 	protected void writeString(OutputContext ctx, String v, StringTypeHandler handler) throws IOException {
@@ -94,26 +111,28 @@ public abstract class AbstractIntegerStringCodec<T> extends AbstractStandardCode
 		int indexOfStoredString = ctx.indexOfStoredStrings(v);
 		
 		if (indexOfStoredString >= 0) {
-			IntegerComponents ics = intComponents(indexOfStoredString);
-			os.write(handler.type(ics, true));
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(indexOfStoredString);
+			os.write(handler.type(l, true));
+			writeIntData(ctx, l, indexOfStoredString);
 		}
 		else {
 			ctx.addToStoredStrings(v);
 			
 			if (v.length() == 0) {
-				os.write(handler.type(IntegerComponents.ZERO, false));
+				os.write(handler.type(0, false));
 				os.write(0);
 			}
 			else {
-				final byte[] bytes = v.getBytes(UTF8);
-				final int length = bytes.length;
+				final int length = JMFOutputStream.utf8Length(v);
 	
-				IntegerComponents ics = intComponents(length);
-				os.write(handler.type(ics, false));
-				writeIntData(ctx, ics);
+				int l = lengthOfIntData(length);
+				os.write(handler.type(l, false));
+				writeIntData(ctx, l, length);
 	
-				os.write(bytes);
+				if (os instanceof JMFOutputStream)
+					((JMFOutputStream)os).writeUTF8(v, length);
+				else
+					os.write(v.getBytes(UTF8));
 			}
 		}
 	}
@@ -136,34 +155,19 @@ public abstract class AbstractIntegerStringCodec<T> extends AbstractStandardCode
 		return s;
 	}
 	
-	protected static class IntegerComponents {
-		
-		public static final IntegerComponents ZERO = new IntegerComponents(0, 0, 0);
-		
-		public final int sign;
-		public final int length;
-		public final int value;
-
-		public IntegerComponents(int sign, int length, int value) {
-			this.sign = sign;
-			this.length = length;
-			this.value = value;
-		}
-	}
-	
 	protected static interface StringTypeHandler {
 		
-		int type(IntegerComponents ics, boolean reference);
+		int type(int length, boolean reference);
 		int indexOrLengthBytesCount(int parameterizedJmfType);
 		boolean isReference(int parameterizedJmfType);
 	}
 
 	protected static final StringTypeHandler JMF_STRING_TYPE_HANDLER = new StringTypeHandler() {
 
-		public int type(IntegerComponents ics, boolean reference) {
+		public int type(int length, boolean reference) {
 			if (reference)
-				return 0x80 | (ics.length << 5) | JMF_STRING;
-			return (ics.length << 5) | JMF_STRING;
+				return 0x80 | (length << 5) | JMF_STRING;
+			return (length << 5) | JMF_STRING;
 		}
 
 		public int indexOrLengthBytesCount(int parameterizedJmfType) {
@@ -120,9 +120,9 @@ public class ArrayCodecImpl extends AbstractIntegerStringCodec<Object> implement
 		else {
 			int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 			if (indexOfStoredObject >= 0) {
-				IntegerComponents ics = intComponents(indexOfStoredObject);
-				ctx.getOutputStream().write(0x80 | (ics.length << 4) | JMF_ARRAY);
-				writeIntData(ctx, ics);
+				int l = lengthOfIntData(indexOfStoredObject);
+				ctx.getOutputStream().write(0x80 | (l << 4) | JMF_ARRAY);
+				writeIntData(ctx, l, indexOfStoredObject);
 			}
 			else {
 				ctx.addToStoredObjects(v);
@@ -132,20 +132,20 @@ public class ArrayCodecImpl extends AbstractIntegerStringCodec<Object> implement
 				else {
 					int length = Array.getLength(v);
 					
-					IntegerComponents ics = intComponents(length);
+					int l = lengthOfIntData(length);
 					if (writeDimensions) {
-						os.write(0x40 | (ics.length << 4) | JMF_ARRAY);
-						writeIntData(ctx, ics);
+						os.write(0x40 | (l << 4) | JMF_ARRAY);
+						writeIntData(ctx, l, length);
 						os.write(dimensions);
 					}
 					else {
-						os.write((ics.length << 4) | JMF_ARRAY);
-						writeIntData(ctx, ics);
+						os.write((l << 4) | JMF_ARRAY);
+						writeIntData(ctx, l, length);
 					}
 					
 					Class<?> componentType = getComponentType(v);
 					String className = ctx.getAlias(componentType.getName());
-					writeString(ctx, className, JMF_STRING_TYPE_HANDLER);
+					writeClassName(ctx, className, JMF_STRING_TYPE_HANDLER);
 					
 					int subDimensions = dimensions - 1;
 					for (int index = 0; index < length; index++)
@@ -162,11 +162,11 @@ public class ArrayCodecImpl extends AbstractIntegerStringCodec<Object> implement
 		Class<?> componentType = v.getClass().getComponentType();
 		String className = ctx.getAlias(componentType.getName());
 		
-		IntegerComponents ics = intComponents(length);
-		os.write((ics.length << 4) | JMF_ARRAY);
-		writeIntData(ctx, ics);
+		int l = lengthOfIntData(length);
+		os.write((l << 4) | JMF_ARRAY);
+		writeIntData(ctx, l, length);
 
-		writeString(ctx, className, JMF_STRING_TYPE_HANDLER);
+		writeClassName(ctx, className, JMF_STRING_TYPE_HANDLER);
 		for (int index = 0; index < length; index++)
 			ctx.writeObject(Array.get(v, index));
 	}
@@ -179,9 +179,9 @@ public class ArrayCodecImpl extends AbstractIntegerStringCodec<Object> implement
 		else {
 			int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 			if (indexOfStoredObject >= 0) {
-				IntegerComponents ics = intComponents(indexOfStoredObject);
-				ctx.getOutputStream().write(0x80 | (ics.length << 4) | JMF_ARRAY);
-				writeIntData(ctx, ics);
+				int l = lengthOfIntData(indexOfStoredObject);
+				ctx.getOutputStream().write(0x80 | (l << 4) | JMF_ARRAY);
+				writeIntData(ctx, l, indexOfStoredObject);
 			}
 			else {
 				ctx.addToStoredObjects(v);
@@ -190,16 +190,16 @@ public class ArrayCodecImpl extends AbstractIntegerStringCodec<Object> implement
 				else {
 					int length = Array.getLength(v);
 					
-					IntegerComponents ics = intComponents(length);
+					int l = lengthOfIntData(length);
 					if (writeDimensionsAndType) {
-						os.write(0x40 | (ics.length << 4) | JMF_ARRAY);
-						writeIntData(ctx, ics);
+						os.write(0x40 | (l << 4) | JMF_ARRAY);
+						writeIntData(ctx, l, length);
 						os.write(dimensions);
 						os.write(jmfComponentType);
 					}
 					else {
-						os.write((ics.length << 4) | JMF_ARRAY);
-						writeIntData(ctx, ics);
+						os.write((l << 4) | JMF_ARRAY);
+						writeIntData(ctx, l, length);
 					}
 					
 					int subDimensions = dimensions - 1;
@@ -215,9 +215,9 @@ public class ArrayCodecImpl extends AbstractIntegerStringCodec<Object> implement
 
 		final int length = Array.getLength(v);
 		
-		IntegerComponents ics = intComponents(length);
-		os.write((ics.length << 4) | JMF_ARRAY);
-		writeIntData(ctx, ics);
+		int l = lengthOfIntData(length);
+		os.write((l << 4) | JMF_ARRAY);
+		writeIntData(ctx, l, length);
 		
 		if (writeType)
 			os.write(jmfComponentType);
@@ -276,8 +276,8 @@ public class ArrayCodecImpl extends AbstractIntegerStringCodec<Object> implement
 			case JMF_LONG: {
 				LongCodec longCodec = ctx.getSharedContext().getCodecRegistry().getLongCodec();
 				long[] a = (long[])v;
-				for (long l : a)
-					longCodec.writeVariableLong(ctx, l);
+				for (long lv : a)
+					longCodec.writeVariableLong(ctx, lv);
 				break;
 			}
 			
@@ -48,9 +48,9 @@ public class BigDecimalCodecImpl extends AbstractIntegerStringCodec<BigDecimal>
 		
 		int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 		if (indexOfStoredObject >= 0) {
-			IntegerComponents ics = intComponents(indexOfStoredObject);
-			os.write(0x80 | (ics.length << 5) | JMF_BIG_DECIMAL);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(indexOfStoredObject);
+			os.write(0x80 | (l << 5) | JMF_BIG_DECIMAL);
+			writeIntData(ctx, l, indexOfStoredObject);
 		}
 		else {
 			ctx.addToStoredObjects(v);
@@ -58,9 +58,9 @@ public class BigDecimalCodecImpl extends AbstractIntegerStringCodec<BigDecimal>
 			int scale = v.scale();
 			byte[] magnitude = v.unscaledValue().toByteArray();
 
-			IntegerComponents ics = intComponents(magnitude.length);
-			os.write((ics.length << 5) | JMF_BIG_DECIMAL);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(magnitude.length);
+			os.write((l << 5) | JMF_BIG_DECIMAL);
+			writeIntData(ctx, l, magnitude.length);
 			
 			os.write(scale);
 			os.write(magnitude);
@@ -47,18 +47,18 @@ public class BigIntegerCodecImpl extends AbstractIntegerStringCodec<BigInteger>
 		
 		int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 		if (indexOfStoredObject >= 0) {
-			IntegerComponents ics = intComponents(indexOfStoredObject);
-			os.write(0x80 | (ics.length << 5) | JMF_BIG_INTEGER);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(indexOfStoredObject);
+			os.write(0x80 | (l << 5) | JMF_BIG_INTEGER);
+			writeIntData(ctx, l, indexOfStoredObject);
 		}
 		else {
 			ctx.addToStoredObjects(v);
 			
 			byte[] magnitude = v.toByteArray();
 
-			IntegerComponents ics = intComponents(magnitude.length);
-			os.write((ics.length << 5) | JMF_BIG_INTEGER);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(magnitude.length);
+			os.write((l << 5) | JMF_BIG_INTEGER);
+			writeIntData(ctx, l, magnitude.length);
 			
 			os.write(magnitude);
 		}
@@ -12,8 +12,8 @@ public class ClassCodecImpl extends AbstractIntegerStringCodec<Object> implement
 
 	protected static final StringTypeHandler TYPE_HANDLER = new StringTypeHandler() {
 
-		public int type(IntegerComponents ics, boolean reference) {
-			return (reference ? (0x40 | (ics.length << 4) | JMF_CLASS) : ((ics.length << 4) | JMF_CLASS));
+		public int type(int length, boolean reference) {
+			return (reference ? (0x40 | (length << 4) | JMF_CLASS) : ((length << 4) | JMF_CLASS));
 		}
 
 		public int indexOrLengthBytesCount(int parameterizedJmfType) {
@@ -34,7 +34,7 @@ public class ClassCodecImpl extends AbstractIntegerStringCodec<Object> implement
 	}
 
 	public void encode(OutputContext ctx, Object v) throws IOException, IllegalAccessException {
-		writeString(ctx, ctx.getAlias(((Class<?>)v).getName()), TYPE_HANDLER);
+		writeClassName(ctx, ctx.getAlias(((Class<?>)v).getName()), TYPE_HANDLER);
 	}
 
 	public Object decode(InputContext ctx, int parameterizedJmfType)
@@ -36,8 +36,8 @@ public class EnumCodecImpl extends AbstractIntegerStringCodec<Object> implements
 
 	protected static final StringTypeHandler TYPE_HANDLER = new StringTypeHandler() {
 
-		public int type(IntegerComponents ics, boolean reference) {
-			return (reference ? (0x40 | (ics.length << 4) | JMF_ENUM) : ((ics.length << 4) | JMF_ENUM));
+		public int type(int length, boolean reference) {
+			return (reference ? (0x40 | (length << 4) | JMF_ENUM) : ((length << 4) | JMF_ENUM));
 		}
 
 		public int indexOrLengthBytesCount(int parameterizedJmfType) {
@@ -62,15 +62,15 @@ public class EnumCodecImpl extends AbstractIntegerStringCodec<Object> implements
 		
 		int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 		if (indexOfStoredObject >= 0) {
-			IntegerComponents ics = intComponents(indexOfStoredObject);
-			os.write(0x80 | (ics.length << 4) | JMF_ENUM);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(indexOfStoredObject);
+			os.write(0x80 | (l << 4) | JMF_ENUM);
+			writeIntData(ctx, l, indexOfStoredObject);
 		}
 		else {
 			ctx.addToStoredObjects(v);
 			
 			String className = ctx.getAlias(v.getClass().getName());
-			writeString(ctx, className, TYPE_HANDLER);
+			writeClassName(ctx, className, TYPE_HANDLER);
 			
 			int ordinal = ((Enum<?>)v).ordinal();
 			ctx.getSharedContext().getCodecRegistry().getIntegerCodec().writeVariableInt(ctx, ordinal);
@@ -51,18 +51,18 @@ public class HashMapCodecImpl extends AbstractIntegerStringCodec<HashMap<?, ?>>
 		
 		int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 		if (indexOfStoredObject >= 0) {
-			IntegerComponents ics = intComponents(indexOfStoredObject);
-			os.write(0x80 | (ics.length << 5) | JMF_HASH_MAP);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(indexOfStoredObject);
+			os.write(0x80 | (l << 5) | JMF_HASH_MAP);
+			writeIntData(ctx, l, indexOfStoredObject);
 		}
 		else {
 			ctx.addToStoredObjects(v);
 			
 			Map.Entry<?, ?>[] snapshot = v.entrySet().toArray(new Map.Entry<?, ?>[0]);
 			
-			IntegerComponents ics = intComponents(snapshot.length);
-			os.write((ics.length << 5) | JMF_HASH_MAP);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(snapshot.length);
+			os.write((l << 5) | JMF_HASH_MAP);
+			writeIntData(ctx, l, snapshot.length);
 			
 			for (Map.Entry<?, ?> entry : snapshot) {
 				ctx.writeObject(entry.getKey());
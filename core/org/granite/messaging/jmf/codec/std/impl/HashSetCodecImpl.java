@@ -50,18 +50,18 @@ public class HashSetCodecImpl extends AbstractIntegerStringCodec<HashSet<?>> imp
 		
 		int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 		if (indexOfStoredObject >= 0) {
-			IntegerComponents ics = intComponents(indexOfStoredObject);
-			os.write(0x80 | (ics.length << 5) | JMF_HASH_SET);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(indexOfStoredObject);
+			os.write(0x80 | (l << 5) | JMF_HASH_SET);
+			writeIntData(ctx, l, indexOfStoredObject);
 		}
 		else {
 			ctx.addToStoredObjects(v);
 			
 			Object[] snapshot = v.toArray();
 			
-			IntegerComponents ics = intComponents(snapshot.length);
-			os.write((ics.length << 5) | JMF_HASH_SET);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(snapshot.length);
+			os.write((l << 5) | JMF_HASH_SET);
+			writeIntData(ctx, l, snapshot.length);
 
 			for (Object element : snapshot)
 				ctx.writeObject(element);
@@ -50,7 +50,7 @@ public class IntegerCodecImpl extends AbstractIntegerStringCodec<Integer> implem
 	}
 
 	public void encode(OutputContext ctx, Integer v) throws IOException {
-		writeIntData(ctx, JMF_INTEGER_OBJECT, v.intValue());
+		writeIntegerData(ctx, JMF_INTEGER_OBJECT, v.intValue());
 	}
 	
 	public Integer decode(InputContext ctx, int parameterizedJmfType) throws IOException {
@@ -63,7 +63,7 @@ public class IntegerCodecImpl extends AbstractIntegerStringCodec<Integer> implem
 	}
 
 	public void encodePrimitive(OutputContext ctx, int v) throws IOException {
-		writeIntData(ctx, JMF_INTEGER, v);
+		writeIntegerData(ctx, JMF_INTEGER, v);
 	}
 	
 	public int decodePrimitive(InputContext ctx) throws IOException {
@@ -91,10 +91,15 @@ public class IntegerCodecImpl extends AbstractIntegerStringCodec<Integer> implem
 		}
 	}
 	
-	protected void writeIntData(OutputContext ctx, int jmfType, int v) throws IOException {
-		IntegerComponents ics = intComponents(v);
-		ctx.getOutputStream().write((ics.sign << 7) | (ics.length << 5) | jmfType);
-		writeIntData(ctx, ics);
+	protected void writeIntegerData(OutputContext ctx, int jmfType, int v) throws IOException {
+		int s = 0;
+		if (v < 0 && v != Integer.MIN_VALUE) {
+			s = 1;
+			v = -v;
+		}
+		int l = lengthOfIntData(v);
+		ctx.getOutputStream().write((s << 7) | (l << 5) | jmfType);
+		writeIntData(ctx, l, v);
 	}
 	
 	protected int readIntData(InputContext ctx, int parameterizedJmfType) throws IOException {
@@ -38,6 +38,7 @@ import org.granite.messaging.jmf.codec.ExtendedObjectCodec;
 import org.granite.messaging.jmf.codec.StandardCodec;
 import org.granite.messaging.jmf.codec.std.ObjectCodec;
 import org.granite.messaging.jmf.reflect.Property;
+import org.granite.messaging.jmf.reflect.SerializableFieldsCodec;
 
 /**
  * @author Franck WOLFF
@@ -46,10 +47,10 @@ public class ObjectCodecImpl extends AbstractIntegerStringCodec<Object> implemen
 
 	protected static final StringTypeHandler TYPE_HANDLER = new StringTypeHandler() {
 
-		public int type(IntegerComponents ics, boolean reference) {
+		public int type(int length, boolean reference) {
 			if (reference)
-				return 0x40 | (ics.length << 4) | JMF_OBJECT;
-			return (ics.length << 4) | JMF_OBJECT;
+				return 0x40 | (length << 4) | JMF_OBJECT;
+			return (length << 4) | JMF_OBJECT;
 		}
 
 		public int indexOrLengthBytesCount(int parameterizedJmfType) {
@@ -75,9 +76,9 @@ public class ObjectCodecImpl extends AbstractIntegerStringCodec<Object> implemen
 		
 		int indexOfStoredObject = ctx.indexOfStoredObjects(v);
 		if (indexOfStoredObject >= 0) {
-			IntegerComponents ics = intComponents(indexOfStoredObject);
-			os.write(0x80 | (ics.length << 4) | JMF_OBJECT);
-			writeIntData(ctx, ics);
+			int l = lengthOfIntData(indexOfStoredObject);
+			os.write(0x80 | (l << 4) | JMF_OBJECT);
+			writeIntData(ctx, l, indexOfStoredObject);
 		}
 		else {			
 			if (!(v instanceof Serializable))
@@ -93,7 +94,7 @@ public class ObjectCodecImpl extends AbstractIntegerStringCodec<Object> implemen
 				ctx.getAlias(v.getClass().getName())
 			);
 			
-			writeString(ctx, className, TYPE_HANDLER);
+			writeClassName(ctx, className, TYPE_HANDLER);
 			
 			if (extendedCodec != null)
 				extendedCodec.encode(ctx, v);
@@ -107,6 +108,12 @@ public class ObjectCodecImpl extends AbstractIntegerStringCodec<Object> implemen
 	}
 	
 	protected void encodeSerializable(OutputContext ctx, Serializable v) throws IOException, IllegalAccessException, InvocationTargetException {
+		SerializableFieldsCodec codec = ctx.getReflection().findSerializableFieldsCodec(v.getClass(), ctx.getSharedContext().getCodecRegistry());
+		if (codec != null) {
+			codec.encode(ctx, v);
+			return;
+		}
+		
 		List<Property> fields = ctx.getReflection().findSerializableFields(v.getClass());
 		for (Property field : fields)
 			ctx.getAndWriteField(v, field);
@@ -168,6 +175,12 @@ public class ObjectCodecImpl extends AbstractIntegerStringCodec<Object> implemen
 	protected void decodeSerializable(InputContext ctx, Serializable v)
 		throws IOException, ClassNotFoundException, IllegalAccessException {
 
+		SerializableFieldsCodec codec = ctx.getReflection().findSerializableFieldsCodec(v.getClass(), ctx.getSharedContext().getCodecRegistry());
+		if (codec != null) {
+			codec.decode(ctx, v);
+			return;
+		}
+		
 		List<Property> fields = ctx.getReflection().findSerializableFields(v.getClass());
 		for (Property field : fields)
 			ctx.readAndSetField(v, field);
@@ -10,6 +10,10 @@ public class FieldProperty implements Property {
 		this.field = field;
 	}
 
+	public Field getField() {
+		return field;
+	}
+
 	public Class<?> getType() {
 		return field.getType();
 	}
@@ -34,6 +34,7 @@ import java.util.concurrent.ConcurrentMap;
 
 import org.granite.messaging.annotations.Include;
 import org.granite.messaging.annotations.Exclude;
+import org.granite.messaging.jmf.CodecRegistry;
 
 /**
  * @author Franck WOLFF
@@ -47,6 +48,9 @@ public class Reflection {
 	protected final ConstructorFactory constructorFactory;
 	protected final Comparator<Property> lexicalPropertyComparator;
 	protected final ConcurrentMap<Class<?>, List<Property>> serializableFieldsCache;
+	protected final ConcurrentMap<Class<?>, SerializableFieldsCodec> serializableFieldsCodecsCache;
+	
+	protected volatile boolean serializableFieldsCodecsEnabled;
 	
 	public Reflection(ClassLoader classLoader) {
 		this.classLoader = classLoader;
@@ -60,6 +64,18 @@ public class Reflection {
 		};
 		
 		this.serializableFieldsCache = new ConcurrentHashMap<Class<?>, List<Property>>();
+		this.serializableFieldsCodecsCache = new ConcurrentHashMap<Class<?>, SerializableFieldsCodec>();
+		this.serializableFieldsCodecsEnabled = SerializableFieldsCodec.isAvailable();
+	}
+	
+	public boolean isSerializableFieldsCodecsEnabled() {
+		return serializableFieldsCodecsEnabled;
+	}
+
+	public void setSerializableFieldsCodecsEnabled(boolean enabled) {
+		this.serializableFieldsCodecsEnabled = (enabled && SerializableFieldsCodec.isAvailable());
+		if (!serializableFieldsCodecsEnabled)
+			serializableFieldsCodecsCache.clear();
 	}
 	
 	public ClassLoader getClassLoader() {
@@ -119,6 +135,28 @@ public class Reflection {
 		return serializableFields;
 	}
 
+	/**
+	 * Returns a specialized codec for the serializable fields of the given class, or
+	 * <tt>null</tt> if such codecs are disabled (callers must then fall back to
+	 * {@link #findSerializableFields(Class)}).
+	 */
+	public SerializableFieldsCodec findSerializableFieldsCodec(Class<?> cls, CodecRegistry codecRegistry) throws SecurityException {
+		if (!serializableFieldsCodecsEnabled)
+			return null;
+		
+		SerializableFieldsCodec codec = serializableFieldsCodecsCache.get(cls);
+		if (codec == null || codec.getCodecRegistry() != codecRegistry) {
+			boolean cache = (codec == null);
+			codec = new SerializableFieldsCodec(cls, findSerializableFields(cls), codecRegistry);
+			if (cache) {
+				SerializableFieldsCodec previous = serializableFieldsCodecsCache.putIfAbsent(cls, codec);
+				if (previous != null && previous.getCodecRegistry() == codecRegistry)
+					codec = previous;
+			}
+		}
+		return codec;
+	}
+
 	protected List<Property> findSerializableDeclaredFields(Class<?> cls) throws SecurityException {
 		
 		if (!isRegularClass(cls))
@@ -0,0 +1,354 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.jmf.reflect;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.granite.messaging.jmf.CodecRegistry;
+import org.granite.messaging.jmf.InputContext;
+import org.granite.messaging.jmf.OutputContext;
+import org.granite.messaging.jmf.codec.std.BooleanCodec;
+import org.granite.messaging.jmf.codec.std.ByteCodec;
+import org.granite.messaging.jmf.codec.std.CharacterCodec;
+import org.granite.messaging.jmf.codec.std.DoubleCodec;
+import org.granite.messaging.jmf.codec.std.FloatCodec;
+import org.granite.messaging.jmf.codec.std.IntegerCodec;
+import org.granite.messaging.jmf.codec.std.LongCodec;
+import org.granite.messaging.jmf.codec.std.ShortCodec;
+
+/**
+ * Specialized encoder/decoder of the serializable fields of one class. Field order and
+ * primitive codecs are resolved once, when the instance is built, and plain fields are read
+ * and written at their memory offset (<tt>sun.misc.Unsafe</tt>). Other properties (eg.
+ * {@link MethodProperty}) go through the regular {@link OutputContext#getAndWriteField(Object, Property)}
+ * and {@link InputContext#readAndSetField(Object, Property)} calls.
+ * 
+ * The produced stream is exactly the same as the one of the reflective path.
+ */
+public final class SerializableFieldsCodec {
+
+	private static final boolean available = isUnsafeAvailable();
+	
+	private final Class<?> cls;
+	private final CodecRegistry codecRegistry;
+	private final FieldCodec[] fieldCodecs;
+	
+	public SerializableFieldsCodec(Class<?> cls, List<Property> properties, CodecRegistry codecRegistry) {
+		if (!available)
+			throw new UnsupportedOperationException("sun.misc.Unsafe is not available");
+		
+		this.cls = cls;
+		this.codecRegistry = codecRegistry;
+		this.fieldCodecs = new FieldCodec[properties.size()];
+		for (int i = 0; i < fieldCodecs.length; i++)
+			fieldCodecs[i] = newFieldCodec(properties.get(i), codecRegistry);
+	}
+	
+	public static boolean isAvailable() {
+		return available;
+	}
+	
+	public Class<?> getSerializableClass() {
+		return cls;
+	}
+
+	public CodecRegistry getCodecRegistry() {
+		return codecRegistry;
+	}
+
+	public void encode(OutputContext ctx, Object v) throws IOException, IllegalAccessException, InvocationTargetException {
+		for (FieldCodec fieldCodec : fieldCodecs)
+			fieldCodec.encode(ctx, v);
+	}
+	
+	public void decode(InputContext ctx, Object v) throws IOException, ClassNotFoundException, IllegalAccessException {
+		for (FieldCodec fieldCodec : fieldCodecs)
+			fieldCodec.decode(ctx, v);
+	}
+	
+	private static FieldCodec newFieldCodec(Property property, CodecRegistry codecRegistry) {
+		if (!(property instanceof FieldProperty))
+			return new PropertyCodec(property);
+		
+		Field field = ((FieldProperty)property).getField();
+		if ((field.getModifiers() & (Modifier.STATIC | Modifier.VOLATILE)) != 0)
+			return new PropertyCodec(property);
+		
+		long offset = UnsafeFieldAccessor.objectFieldOffset(field);
+		Class<?> type = field.getType();
+		
+		if (!type.isPrimitive())
+			return new ObjectFieldCodec(property, offset, type);
+		if (type == Boolean.TYPE)
+			return new BooleanFieldCodec(offset, codecRegistry.getBooleanCodec());
+		if (type == Character.TYPE)
+			return new CharacterFieldCodec(offset, codecRegistry.getCharacterCodec());
+		if (type == Byte.TYPE)
+			return new ByteFieldCodec(offset, codecRegistry.getByteCodec());
+		if (type == Short.TYPE)
+			return new ShortFieldCodec(offset, codecRegistry.getShortCodec());
+		if (type == Integer.TYPE)
+			return new IntegerFieldCodec(offset, codecRegistry.getIntegerCodec());
+		if (type == Long.TYPE)
+			return new LongFieldCodec(offset, codecRegistry.getLongCodec());
+		if (type == Float.TYPE)
+			return new FloatFieldCodec(offset, codecRegistry.getFloatCodec());
+		return new DoubleFieldCodec(offset, codecRegistry.getDoubleCodec());
+	}
+	
+	// UnsafeFieldAccessor refers to sun.misc.Unsafe and may only be loaded if it exists.
+	private static boolean isUnsafeAvailable() {
+		try {
+			Class.forName("sun.misc.Unsafe");
+			return UnsafeFieldAccessor.isAvailable();
+		}
+		catch (Throwable t) {
+			return false;
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	// Field codecs
+	
+	private static abstract class FieldCodec {
+		
+		public abstract void encode(OutputContext ctx, Object v) throws IOException, IllegalAccessException, InvocationTargetException;
+		public abstract void decode(InputContext ctx, Object v) throws IOException, ClassNotFoundException, IllegalAccessException;
+	}
+	
+	private static final class PropertyCodec extends FieldCodec {
+		
+		private final Property property;
+
+		public PropertyCodec(Property property) {
+			this.property = property;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException, IllegalAccessException, InvocationTargetException {
+			ctx.getAndWriteField(v, property);
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException, ClassNotFoundException, IllegalAccessException {
+			ctx.readAndSetField(v, property);
+		}
+	}
+	
+	private static final class ObjectFieldCodec extends FieldCodec {
+		
+		private final Property property;
+		private final long offset;
+		private final Class<?> type;
+
+		public ObjectFieldCodec(Property property, long offset, Class<?> type) {
+			this.property = property;
+			this.offset = offset;
+			this.type = type;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			ctx.writeObject(UnsafeFieldAccessor.getObject(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException, ClassNotFoundException, IllegalAccessException {
+			Object value = ctx.readObject();
+			if (value == null || type.isInstance(value))
+				UnsafeFieldAccessor.putObject(v, offset, value);
+			else // Let reflection report the illegal value.
+				property.setObject(v, value);
+		}
+	}
+	
+	private static final class BooleanFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final BooleanCodec codec;
+
+		public BooleanFieldCodec(long offset, BooleanCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getBoolean(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putBoolean(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+	
+	private static final class CharacterFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final CharacterCodec codec;
+
+		public CharacterFieldCodec(long offset, CharacterCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getChar(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putChar(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+	
+	private static final class ByteFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final ByteCodec codec;
+
+		public ByteFieldCodec(long offset, ByteCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getByte(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putByte(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+	
+	private static final class ShortFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final ShortCodec codec;
+
+		public ShortFieldCodec(long offset, ShortCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getShort(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putShort(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+	
+	private static final class IntegerFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final IntegerCodec codec;
+
+		public IntegerFieldCodec(long offset, IntegerCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getInt(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putInt(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+	
+	private static final class LongFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final LongCodec codec;
+
+		public LongFieldCodec(long offset, LongCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getLong(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putLong(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+	
+	private static final class FloatFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final FloatCodec codec;
+
+		public FloatFieldCodec(long offset, FloatCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getFloat(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putFloat(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+	
+	private static final class DoubleFieldCodec extends FieldCodec {
+		
+		private final long offset;
+		private final DoubleCodec codec;
+
+		public DoubleFieldCodec(long offset, DoubleCodec codec) {
+			this.offset = offset;
+			this.codec = codec;
+		}
+
+		@Override
+		public void encode(OutputContext ctx, Object v) throws IOException {
+			codec.encodePrimitive(ctx, UnsafeFieldAccessor.getDouble(v, offset));
+		}
+
+		@Override
+		public void decode(InputContext ctx, Object v) throws IOException {
+			UnsafeFieldAccessor.putDouble(v, offset, codec.decodePrimitive(ctx));
+		}
+	}
+}
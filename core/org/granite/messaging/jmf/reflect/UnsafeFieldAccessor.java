@@ -0,0 +1,128 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.jmf.reflect;
+
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
+
+/**
+ * Keeps all <tt>sun.misc.Unsafe</tt> references of {@link SerializableFieldsCodec} out of
+ * that class: this class must not be loaded unless <tt>sun.misc.Unsafe</tt> exists.
+ */
+final class UnsafeFieldAccessor {
+
+	private static final Unsafe unsafe = getUnsafe();
+	
+	private UnsafeFieldAccessor() {
+	}
+	
+	static boolean isAvailable() {
+		return unsafe != null;
+	}
+	
+	static long objectFieldOffset(Field field) {
+		return unsafe.objectFieldOffset(field);
+	}
+	
+	static Object getObject(Object o, long offset) {
+		return unsafe.getObject(o, offset);
+	}
+	
+	static void putObject(Object o, long offset, Object value) {
+		unsafe.putObject(o, offset, value);
+	}
+	
+	static boolean getBoolean(Object o, long offset) {
+		return unsafe.getBoolean(o, offset);
+	}
+	
+	static void putBoolean(Object o, long offset, boolean value) {
+		unsafe.putBoolean(o, offset, value);
+	}
+	
+	static char getChar(Object o, long offset) {
+		return unsafe.getChar(o, offset);
+	}
+	
+	static void putChar(Object o, long offset, char value) {
+		unsafe.putChar(o, offset, value);
+	}
+	
+	static byte getByte(Object o, long offset) {
+		return unsafe.getByte(o, offset);
+	}
+	
+	static void putByte(Object o, long offset, byte value) {
+		unsafe.putByte(o, offset, value);
+	}
+	
+	static short getShort(Object o, long offset) {
+		return unsafe.getShort(o, offset);
+	}
+	
+	static void putShort(Object o, long offset, short value) {
+		unsafe.putShort(o, offset, value);
+	}
+	
+	static int getInt(Object o, long offset) {
+		return unsafe.getInt(o, offset);
+	}
+	
+	static void putInt(Object o, long offset, int value) {
+		unsafe.putInt(o, offset, value);
+	}
+	
+	static long getLong(Object o, long offset) {
+		return unsafe.getLong(o, offset);
+	}
+	
+	static void putLong(Object o, long offset, long value) {
+		unsafe.putLong(o, offset, value);
+	}
+	
+	static float getFloat(Object o, long offset) {
+		return unsafe.getFloat(o, offset);
+	}
+	
+	static void putFloat(Object o, long offset, float value) {
+		unsafe.putFloat(o, offset, value);
+	}
+	
+	static double getDouble(Object o, long offset) {
+		return unsafe.getDouble(o, offset);
+	}
+	
+	static void putDouble(Object o, long offset, double value) {
+		unsafe.putDouble(o, offset, value);
+	}
+	
+	private static Unsafe getUnsafe() {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			return (Unsafe)field.get(null);
+		}
+		catch (Throwable t) {
+			return null;
+		}
+	}
+}
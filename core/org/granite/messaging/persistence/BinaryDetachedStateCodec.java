@@ -0,0 +1,188 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.UUID;
+
+import org.granite.util.Base64;
+
+/**
+ * Compact detached state format: a marker character followed by a base64 representation
+ * of a versioned binary structure. Common id types (Long, Integer, Short, String, UUID)
+ * are written without Java serialization and null snapshots are omitted.
+ * 
+ * <p>
+ * Strings in the legacy format (see {@link LegacyDetachedStateCodec}) are still accepted
+ * when decoding.
+ * </p>
+ */
+public class BinaryDetachedStateCodec extends LegacyDetachedStateCodec {
+
+	public static final char MARKER = '!';
+	public static final int VERSION = 1;
+	
+	protected static final int TYPE_NULL = 0;
+	protected static final int TYPE_LONG = 1;
+	protected static final int TYPE_INTEGER = 2;
+	protected static final int TYPE_SHORT = 3;
+	protected static final int TYPE_STRING = 4;
+	protected static final int TYPE_UUID = 5;
+	protected static final int TYPE_SERIALIZED = 0x7F;
+	
+	private static final int MAX_UTF_STRING_LENGTH = 0xFFFF / 3;
+
+	@Override
+	public String encodeDetachedState(byte[] detachedState) {
+		byte[] data = new byte[detachedState.length + 1];
+		data[0] = (byte)VERSION;
+		System.arraycopy(detachedState, 0, data, 1, detachedState.length);
+		return encode(data);
+	}
+
+	@Override
+	public byte[] decodeDetachedState(String detachedState) {
+		if (!isBinary(detachedState))
+			return super.decodeDetachedState(detachedState);
+		
+		byte[] data = decode(detachedState);
+		byte[] state = new byte[data.length - 1];
+		System.arraycopy(data, 1, state, 0, state.length);
+		return state;
+	}
+
+	@Override
+	public String encodeCollectionMetadata(CollectionMetadata metadata) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(baos);
+			out.writeByte(VERSION);
+			writeValue(out, metadata.getKey());
+			writeValue(out, metadata.getSnapshot());
+			out.writeUTF(metadata.getRole());
+			out.close();
+			return encode(baos.toByteArray());
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Could not encode collection metadata for role: " + metadata.getRole(), e);
+		}
+	}
+
+	@Override
+	public CollectionMetadata decodeCollectionMetadata(String metadata) {
+		if (!isBinary(metadata))
+			return super.decodeCollectionMetadata(metadata);
+		
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(decode(metadata)));
+			in.readUnsignedByte();
+			Serializable key = readValue(in);
+			Serializable snapshot = readValue(in);
+			String role = in.readUTF();
+			return new CollectionMetadata(key, snapshot, role);
+		}
+		catch (IOException e) {
+			throw new RuntimeException("Invalid collection metadata: " + metadata, e);
+		}
+	}
+	
+	protected boolean isBinary(String s) {
+		return s.length() > 0 && s.charAt(0) == MARKER;
+	}
+	
+	protected String encode(byte[] data) {
+		char[] chars = Base64.encodeToChar(data, false);
+		return new StringBuilder(chars.length + 1).append(MARKER).append(chars).toString();
+	}
+	
+	protected byte[] decode(String s) {
+		byte[] data = Base64.decode(s.substring(1));
+		if (data == null || data.length == 0)
+			throw new RuntimeException("Invalid detached state: " + s);
+		if ((data[0] & 0xFF) != VERSION)
+			throw new RuntimeException("Unsupported detached state version: " + (data[0] & 0xFF));
+		return data;
+	}
+	
+	protected void writeValue(DataOutputStream out, Serializable value) throws IOException {
+		if (value == null)
+			out.writeByte(TYPE_NULL);
+		else if (value.getClass() == Long.class) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong(((Long)value).longValue());
+		}
+		else if (value.getClass() == Integer.class) {
+			out.writeByte(TYPE_INTEGER);
+			out.writeInt(((Integer)value).intValue());
+		}
+		else if (value.getClass() == Short.class) {
+			out.writeByte(TYPE_SHORT);
+			out.writeShort(((Short)value).shortValue());
+		}
+		else if (value.getClass() == String.class && ((String)value).length() <= MAX_UTF_STRING_LENGTH) {
+			out.writeByte(TYPE_STRING);
+			out.writeUTF((String)value);
+		}
+		else if (value.getClass() == UUID.class) {
+			out.writeByte(TYPE_UUID);
+			out.writeLong(((UUID)value).getMostSignificantBits());
+			out.writeLong(((UUID)value).getLeastSignificantBits());
+		}
+		else {
+			byte[] bytes = serializeSerializable(value);
+			out.writeByte(TYPE_SERIALIZED);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+	
+	protected Serializable readValue(DataInputStream in) throws IOException {
+		int type = in.readUnsignedByte();
+		switch (type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_LONG:
+			return Long.valueOf(in.readLong());
+		case TYPE_INTEGER:
+			return Integer.valueOf(in.readInt());
+		case TYPE_SHORT:
+			return Short.valueOf(in.readShort());
+		case TYPE_STRING:
+			return in.readUTF();
+		case TYPE_UUID:
+			return new UUID(in.readLong(), in.readLong());
+		case TYPE_SERIALIZED:
+			int length = in.readInt();
+			if (length < 0 || length > in.available())
+				throw new IOException("Invalid serialized value length: " + length);
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return deserializeSerializable(bytes);
+		default:
+			throw new IOException("Unknown value type: " + type);
+		}
+	}
+}
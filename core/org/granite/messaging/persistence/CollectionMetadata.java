@@ -0,0 +1,51 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.persistence;
+
+import java.io.Serializable;
+
+/**
+ * Persistent collection metadata (owner key, stored snapshot and role).
+ */
+public class CollectionMetadata {
+
+	private final Serializable key;
+	private final Serializable snapshot;
+	private final String role;
+	
+	public CollectionMetadata(Serializable key, Serializable snapshot, String role) {
+		this.key = key;
+		this.snapshot = snapshot;
+		this.role = role;
+	}
+
+	public Serializable getKey() {
+		return key;
+	}
+
+	public Serializable getSnapshot() {
+		return snapshot;
+	}
+
+	public String getRole() {
+		return role;
+	}
+}
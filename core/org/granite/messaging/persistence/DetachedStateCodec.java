@@ -0,0 +1,63 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.persistence;
+
+import org.granite.util.TypeUtil;
+
+/**
+ * Encodes and decodes the opaque detached state strings (entity detached states and
+ * collection metadata) that persistence externalizers send to clients and read back.
+ */
+public abstract class DetachedStateCodec {
+
+	public abstract String encodeDetachedState(byte[] detachedState);
+
+	public abstract byte[] decodeDetachedState(String detachedState);
+
+	public abstract String encodeCollectionMetadata(CollectionMetadata metadata);
+
+	public abstract CollectionMetadata decodeCollectionMetadata(String metadata);
+	
+	/**
+	 * Returns a codec instance for the given name: "legacy" (hex encoded Java
+	 * serialization, the default), "binary" or a class name.
+	 * 
+	 * <p>
+	 * Peers that only know the legacy format can't read binary strings: enable "binary"
+	 * only when every server sharing detached states with clients has been upgraded.
+	 * </p>
+	 * 
+	 * @param name a codec name or class name, null for the default codec.
+	 * @return a new codec instance.
+	 */
+	public static DetachedStateCodec newInstance(String name) {
+		if (name == null || "legacy".equalsIgnoreCase(name))
+			return new LegacyDetachedStateCodec();
+		if ("binary".equalsIgnoreCase(name))
+			return new BinaryDetachedStateCodec();
+		try {
+			return TypeUtil.newInstance(name, DetachedStateCodec.class);
+		}
+		catch (Exception e) {
+			throw new RuntimeException("Could not create detached state codec: " + name, e);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2013 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import org.granite.util.StringUtil;
+
+/**
+ * Legacy detached state format: hex representations of Java serialized objects, with
+ * collection metadata in the form of <code>hexKey:hexSnapshot:role</code>.
+ */
+public class LegacyDetachedStateCodec extends DetachedStateCodec {
+
+	protected static final byte[] BYTES_0 = new byte[0];
+
+	@Override
+	public String encodeDetachedState(byte[] detachedState) {
+		return new String(StringUtil.bytesToHexChars(detachedState));
+	}
+
+	@Override
+	public byte[] decodeDetachedState(String detachedState) {
+		return StringUtil.hexStringToBytes(detachedState);
+	}
+
+	@Override
+	public String encodeCollectionMetadata(CollectionMetadata metadata) {
+		char[] hexKey = StringUtil.bytesToHexChars(serializeSerializable(metadata.getKey()));
+		char[] hexSnapshot = StringUtil.bytesToHexChars(serializeSerializable(metadata.getSnapshot()));
+		return new StringBuilder(hexKey.length + 1 + hexSnapshot.length + 1 + metadata.getRole().length())
+			.append(hexKey).append(':')
+			.append(hexSnapshot).append(':')
+			.append(metadata.getRole())
+			.toString();
+	}
+
+	@Override
+	public CollectionMetadata decodeCollectionMetadata(String metadata) {
+		String[] toks = metadata.split(":", 3);
+		if (toks.length != 3)
+			throw new RuntimeException("Invalid collection metadata: " + metadata);
+		Serializable key = deserializeSerializable(StringUtil.hexStringToBytes(toks[0]));
+		Serializable snapshot = deserializeSerializable(StringUtil.hexStringToBytes(toks[1]));
+		return new CollectionMetadata(key, snapshot, toks[2]);
+	}
+    
+    protected byte[] serializeSerializable(Serializable o) {
+    	if (o == null)
+    		return BYTES_0;
+    	try {
+	    	ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	        ObjectOutputStream oos = new ObjectOutputStream(baos);
+	        oos.writeObject(o);
+	        oos.close();
+	        return baos.toByteArray();
+    	} catch (Exception e) {
+    		throw new RuntimeException("Could not serialize: " + o, e);
+    	}
+    }
+    
+    protected Serializable deserializeSerializable(byte[] data) {
+    	if (data.length == 0)
+    		return null;
+    	try {
+	        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+	        return (Serializable)ois.readObject();
+    	} catch (Exception e) {
+    		throw new RuntimeException("Could not deserialize: " + data, e);
+    	}
+    }
+}
@@ -26,6 +26,8 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.granite.config.GraniteConfig;
 import org.granite.config.flex.Destination;
@@ -48,6 +50,12 @@ public class DefaultMethodMatcher implements MethodMatcher {
     
     private static final Logger log = Logger.getLogger(DefaultMethodMatcher.class);
 
+    // Dispatch cache: (service class, method name, argument types) -> matching method.
+    private final ConcurrentHashMap<MatchingMethodKey, MatchingMethod> matchingMethodsCache
+    	= new ConcurrentHashMap<MatchingMethodKey, MatchingMethod>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
 	
     public ServiceInvocationContext findServiceMethod(
         Message message,
@@ -56,15 +64,37 @@ public class DefaultMethodMatcher implements MethodMatcher {
         String methodName,
         Object[] params) throws NoSuchMethodException {
 
+        Class<?> serviceClass = service.getClass();
+
+        MatchingMethodKey key = new MatchingMethodKey(serviceClass, methodName, params);
+        MatchingMethod match = matchingMethodsCache.get(key);
+        
+        // Converters selection may depend on actual values (not only on their classes).
+        if (match != null && match.canConvert(params))
+        	cacheHits.incrementAndGet();
+        else {
+        	cacheMisses.incrementAndGet();
+        	
+        	match = findMatchingMethod(serviceClass, methodName, params);
+        	matchingMethodsCache.put(key, match);
+        }
+
+        params = convert(match.convertersArray, params, match.genericParamTypes);
+
+        return new ServiceInvocationContext(message, destination, service, match.serviceMethod, params);
+    }
+    
+    protected MatchingMethod findMatchingMethod(Class<?> serviceClass, String methodName, Object[] params)
+    	throws NoSuchMethodException {
+
         GraniteConfig config = GraniteContext.getCurrentInstance().getGraniteConfig();
         Converters converters = config.getConverters();
 
-        Class<?> serviceClass = service.getClass();
         ParameterizedType[] serviceDeclaringTypes = TypeUtil.getDeclaringTypes(serviceClass);
 
         MatchingMethod match = null;
         if (params == null || params.length == 0)
-            match = new MatchingMethod(serviceClass.getMethod(methodName, (Class[])null), null);
+            match = new MatchingMethod(serviceClass.getMethod(methodName, (Class[])null), null, null);
         else {
             List<MatchingMethod> matchingMethods = new ArrayList<MatchingMethod>();
             
@@ -91,7 +121,7 @@ public class DefaultMethodMatcher implements MethodMatcher {
 
                 Converter[] convertersArray = getConvertersArray(converters, params, paramTypes);
                 if (convertersArray != null)
-                    matchingMethods.add(new MatchingMethod(method, convertersArray));
+                    matchingMethods.add(new MatchingMethod(method, paramTypes, convertersArray));
             }
             
             if (matchingMethods.size() == 1)
@@ -105,9 +135,23 @@ public class DefaultMethodMatcher implements MethodMatcher {
         if (match == null)
             throw new NoSuchMethodException(serviceClass.getName() + '.' + methodName + StringUtil.toString(params));
 
-        params = convert(match.convertersArray, params, match.serviceMethod.getGenericParameterTypes());
-
-        return new ServiceInvocationContext(message, destination, service, match.serviceMethod, params);
+        return match;
+    }
+    
+    public long getCacheHits() {
+    	return cacheHits.get();
+    }
+    
+    public long getCacheMisses() {
+    	return cacheMisses.get();
+    }
+    
+    public int getCacheSize() {
+    	return matchingMethodsCache.size();
+    }
+    
+    public void clearCache() {
+    	matchingMethodsCache.clear();
     }
 
     protected Converter[] getConvertersArray(Converters converters, Object[] values, Type[] targetTypes) {
@@ -175,19 +219,70 @@ public class DefaultMethodMatcher implements MethodMatcher {
         return null;
     }
     
-    private static class MatchingMethod {
+    protected static class MatchingMethod {
     	
     	public final Method serviceMethod;
+    	public final Type[] genericParamTypes;
+    	public final Type[] resolvedParamTypes;
     	public final Converter[] convertersArray;
 
-    	public MatchingMethod(Method serviceMethod, Converter[] convertersArray) {
+    	public MatchingMethod(Method serviceMethod, Type[] resolvedParamTypes, Converter[] convertersArray) {
 			this.serviceMethod = serviceMethod;
+			this.genericParamTypes = serviceMethod.getGenericParameterTypes();
+			this.resolvedParamTypes = resolvedParamTypes;
 			this.convertersArray = convertersArray;
 		}
+    	
+    	public boolean canConvert(Object[] values) {
+    		if (convertersArray == null)
+    			return (values == null || values.length == 0);
+    		if (values == null || values.length != convertersArray.length)
+    			return false;
+    		for (int i = 0; i < values.length; i++) {
+    			if (!convertersArray[i].canConvert(values[i], resolvedParamTypes[i]))
+    				return false;
+    		}
+    		return true;
+    	}
 
 		@Override
 		public String toString() {
 			return "MatchingMethod {serviceMethod=" + serviceMethod + ", convertersArray=" + (convertersArray != null ? Arrays.toString(convertersArray) : "[]") + "}";
 		}
     }
+    
+    private static final class MatchingMethodKey {
+    	
+    	private final Class<?> serviceClass;
+    	private final String methodName;
+    	private final Class<?>[] paramClasses;
+    	private final int hash;
+    	
+    	public MatchingMethodKey(Class<?> serviceClass, String methodName, Object[] params) {
+    		this.serviceClass = serviceClass;
+    		this.methodName = methodName;
+    		
+    		int length = (params != null ? params.length : 0);
+    		this.paramClasses = new Class<?>[length];
+    		for (int i = 0; i < length; i++)
+    			paramClasses[i] = (params[i] != null ? params[i].getClass() : null);
+    		
+    		this.hash = (31 * serviceClass.hashCode() + methodName.hashCode()) * 31 + Arrays.hashCode(paramClasses);
+    	}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this)
+				return true;
+			if (!(obj instanceof MatchingMethodKey))
+				return false;
+			MatchingMethodKey key = (MatchingMethodKey)obj;
+			return serviceClass == key.serviceClass && methodName.equals(key.methodName) && Arrays.equals(paramClasses, key.paramClasses);
+		}
+    }
 }
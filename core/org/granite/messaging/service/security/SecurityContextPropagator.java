@@ -0,0 +1,39 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.messaging.service.security;
+
+/**
+ * Optional interface for security services relying on thread-bound security contexts, used
+ * to run the bodies of a batched AMF0 request in other threads than the request thread.
+ */
+public interface SecurityContextPropagator {
+
+	/**
+	 * Returns a copy of the security context bound to the current thread.
+	 */
+	public Object captureSecurityContext();
+
+	/**
+	 * Binds the given security context (as returned by {@link #captureSecurityContext()} or by
+	 * this method) to the current thread and returns the previously bound one.
+	 */
+	public Object bindSecurityContext(Object securityContext);
+}
@@ -20,18 +20,24 @@
 
 package org.granite.messaging.webapp;
 
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 import javax.servlet.http.HttpSession;
 
 import org.granite.config.GraniteConfig;
 import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
 
 /**
  * @author Franck WOLFF
@@ -124,6 +130,146 @@ public class HttpGraniteContext extends ServletGraniteContext {
             requestMap = new RequestMap(request);
         return requestMap;
     }
+    
+    @Override
+    public GraniteContext newBatchBodyContext() {
+    	return new BatchBodyGraniteContext(this);
+    }
+    
+    
+    private static class BatchBodyGraniteContext extends HttpGraniteContext {
+    	
+    	private final HttpGraniteContext parent;
+    	
+    	BatchBodyGraniteContext(HttpGraniteContext parent) {
+    		super(
+    			parent.getGraniteConfig(),
+    			parent.getServicesConfig(),
+    			parent.getServletContext(),
+    			new BatchBodyRequest(parent.getRequest()),
+    			new BatchBodyResponse(parent.getResponse())
+    		);
+    		this.parent = parent;
+    	}
+
+		@Override
+		public Object getSessionLock() {
+			return parent.getSessionLock();
+		}
+    }
+}
+
+/**
+ * Request seen by one body of a batched AMF0 request: attributes are copied when the body
+ * context is created and modified locally, other calls go to the (shared) wrapped request.
+ */
+class BatchBodyRequest extends HttpServletRequestWrapper {
+	
+	private final Map<String, Object> attributes = new HashMap<String, Object>();
+	
+	BatchBodyRequest(HttpServletRequest request) {
+		super(request);
+		
+		for (Enumeration<?> e = request.getAttributeNames(); e.hasMoreElements(); ) {
+			String name = (String)e.nextElement();
+			attributes.put(name, request.getAttribute(name));
+		}
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	@Override
+	public Enumeration<String> getAttributeNames() {
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+		if (value == null)
+			attributes.remove(name);
+		else
+			attributes.put(name, value);
+	}
+
+	@Override
+	public void removeAttribute(String name) {
+		attributes.remove(name);
+	}
+
+	@Override
+	public HttpSession getSession() {
+		return getSession(true);
+	}
+
+	@Override
+	public HttpSession getSession(boolean create) {
+		synchronized (getRequest()) {
+			return super.getSession(create);
+		}
+	}
+}
+
+/**
+ * Response seen by one body of a batched AMF0 request: header and cookie updates are
+ * serialized on the (shared) wrapped response.
+ */
+class BatchBodyResponse extends HttpServletResponseWrapper {
+	
+	BatchBodyResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public void addCookie(Cookie cookie) {
+		synchronized (getResponse()) {
+			super.addCookie(cookie);
+		}
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		synchronized (getResponse()) {
+			super.setDateHeader(name, date);
+		}
+	}
+
+	@Override
+	public void addDateHeader(String name, long date) {
+		synchronized (getResponse()) {
+			super.addDateHeader(name, date);
+		}
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		synchronized (getResponse()) {
+			super.setHeader(name, value);
+		}
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		synchronized (getResponse()) {
+			super.addHeader(name, value);
+		}
+	}
+
+	@Override
+	public void setIntHeader(String name, int value) {
+		synchronized (getResponse()) {
+			super.setIntHeader(name, value);
+		}
+	}
+
+	@Override
+	public void addIntHeader(String name, int value) {
+		synchronized (getResponse()) {
+			super.addIntHeader(name, value);
+		}
+	}
 }
 
 class RequestMap extends BaseContextMap<String, Object> {
@@ -65,12 +65,13 @@ import org.granite.messaging.amf.io.util.Property;
 import org.granite.messaging.amf.io.util.externalizer.DefaultExternalizer;
 import org.granite.messaging.amf.io.util.externalizer.annotation.ExternalizedProperty;
 import org.granite.messaging.persistence.AbstractExternalizablePersistentCollection;
+import org.granite.messaging.persistence.DetachedStateCodec;
 import org.granite.messaging.persistence.ExternalizablePersistentList;
 import org.granite.messaging.persistence.ExternalizablePersistentMap;
 import org.granite.messaging.persistence.ExternalizablePersistentSet;
 import org.granite.util.TypeUtil;
 import org.granite.util.Reflections;
-import org.granite.util.StringUtil;
+import org.granite.util.XMap;
 
 
 /**
@@ -107,6 +108,37 @@ public class DataNucleusExternalizer extends DefaultExternalizer {
 			jpaEnabled = false;
 		}
 	}
+
+    private DetachedStateCodec detachedStateCodec = DetachedStateCodec.newInstance(null);
+
+    /**
+     * Configure this externalizer with the values supplied in granite-config.xml.
+     * 
+     * <p>The 'detached-state-codec' option selects the detached state encoding: 'legacy' (default,
+     * hex encoded Java serialization), 'binary' or a {@link DetachedStateCodec} class name.
+     * The 'binary' codec also reads legacy detached states back, but older servers can't read binary
+     * ones: only enable it once all servers of a cluster have been upgraded.
+     * 
+     * @param properties an XMap instance that contains the configuration node.
+     */
+    @Override
+	public void configure(XMap properties) {
+    	super.configure(properties);
+    	
+    	if (properties != null) {
+	    	String codec = properties.get("detached-state-codec");
+	    	if (codec != null)
+	    		detachedStateCodec = DetachedStateCodec.newInstance(codec);
+    	}
+	}
+    
+    public DetachedStateCodec getDetachedStateCodec() {
+    	return detachedStateCodec;
+    }
+    
+    public void setDetachedStateCodec(DetachedStateCodec detachedStateCodec) {
+    	this.detachedStateCodec = detachedStateCodec;
+    }
 	
 
     @Override
@@ -155,7 +187,7 @@ public class DataNucleusExternalizer extends DefaultExternalizer {
         // Existing entity.
 		Object entity = clazz.newInstance();
 		if (detachedState.length() > 0) {
-	        byte[] data = StringUtil.hexStringToBytes(detachedState);
+	        byte[] data = detachedStateCodec.decodeDetachedState(detachedState);
 			deserializeDetachedState((Detachable)entity, data);
 		}
 		return entity;
@@ -275,14 +307,12 @@ public class DataNucleusExternalizer extends DefaultExternalizer {
 	        	out.writeObject(Boolean.TRUE);
 	        	
 	        	if (detachedState != null) {
-	            	// Write detached state as a String, in the form of an hex representation
-	            	// of the serialized detached state.
+	            	// Write detached state as a String, encoded by the configured codec.
 	    	        Object version = getVersion(pco);
 	    	        if (version != null)
 	    	        	detachedState[1] = version;
 		        	byte[] binDetachedState = serializeDetachedState(detachedState);
-		        	char[] hexDetachedState = StringUtil.bytesToHexChars(binDetachedState);
-		            out.writeObject(new String(hexDetachedState));
+		            out.writeObject(detachedStateCodec.encodeDetachedState(binDetachedState));
 	        	}
 	        	else
 	        		out.writeObject(null);
@@ -23,19 +23,27 @@ package org.granite.gravity;
 import java.io.IOException;
 import java.io.ObjectOutput;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.granite.config.flex.ServicesConfig;
 import org.granite.context.AMFContextImpl;
 import org.granite.context.GraniteContext;
 import org.granite.logging.Logger;
+import org.granite.messaging.amf.io.AMF3Segment;
+import org.granite.messaging.amf.io.AMF3Serializer;
 import org.granite.messaging.webapp.HttpGraniteContext;
 import org.granite.util.ContentType;
 
@@ -60,14 +68,30 @@ public abstract class AbstractChannel implements Channel {
     
     protected final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
     
-    protected LinkedList<AsyncPublishedMessage> publishedQueue = new LinkedList<AsyncPublishedMessage>();
+    // Plain offers don't lock the queues. Locks serialize consumers (drain/requeue), and producers
+    // that must update the received queue and its conflation index together (conflation, drop-oldest).
+    protected final MessageQueue<AsyncPublishedMessage> publishedQueue = new MessageQueue<AsyncPublishedMessage>();
     protected final Lock publishedQueueLock = new ReentrantLock();
 
-    protected LinkedList<AsyncMessage> receivedQueue = new LinkedList<AsyncMessage>();
+    protected final MessageQueue<AsyncMessage> receivedQueue = new MessageQueue<AsyncMessage>();
     protected final Lock receivedQueueLock = new ReentrantLock();
     
+    // Shared (pre-encoded) bodies of queued messages (messages don't override equals/hashCode).
+    protected final ConcurrentMap<AsyncMessage, SharedMessageBody> sharedBodies = new ConcurrentHashMap<AsyncMessage, SharedMessageBody>();
+    
+    // Queue settings (slow consumer policies) are resolved once per destination.
+    protected final ConcurrentMap<String, ChannelQueueConfig> queueConfigs = new ConcurrentHashMap<String, ChannelQueueConfig>();
+    
+    // Positions of the queued messages per conflation key (guarded by receivedQueueLock).
+    private final Map<String, ConflatedMessage> conflatedMessages = new HashMap<String, ConflatedMessage>();
+    
+    private final AtomicBoolean slowConsumer = new AtomicBoolean(false);
+    private volatile boolean disconnecting = false;
+    private final AtomicLong[] droppedMessageCounts = new AtomicLong[SlowConsumerPolicy.values().length];
+    
     protected final AsyncPublisher publisher;
     protected final AsyncReceiver receiver;
+    protected final AsyncChannelRemover remover;
     
     ///////////////////////////////////////////////////////////////////////////
     // Constructor.
@@ -85,6 +109,10 @@ public abstract class AbstractChannel implements Channel {
         
         this.publisher = new AsyncPublisher(this);
         this.receiver = new AsyncReceiver(this);
+        this.remover = new AsyncChannelRemover(this);
+        
+        for (int i = 0; i < droppedMessageCounts.length; i++)
+        	droppedMessageCounts[i] = new AtomicLong();
     }
     
     ///////////////////////////////////////////////////////////////////////////
@@ -131,36 +159,23 @@ public abstract class AbstractChannel implements Channel {
 		if (message == null)
 			throw new NullPointerException("message cannot be null");
 		
-		publishedQueueLock.lock();
-		try {
-			publishedQueue.add(message);
-		}
-		finally {
-			publishedQueueLock.unlock();
-		}
+		publishedQueue.offer(message);
 
 		publisher.queue(getGravity());
 	}
 	
 	public boolean hasPublishedMessage() {
-		publishedQueueLock.lock();
-		try {
-			return !publishedQueue.isEmpty();
-		}
-		finally {
-			publishedQueueLock.unlock();
-		}
+		return !publishedQueue.isEmpty();
 	}
 	
 	public boolean runPublish() {
-		LinkedList<AsyncPublishedMessage> publishedCopy = null;
+		List<AsyncPublishedMessage> publishedCopy = null;
 		
 		publishedQueueLock.lock();
 		try {
 			if (publishedQueue.isEmpty())
 				return false;
-			publishedCopy = publishedQueue;
-			publishedQueue = new LinkedList<AsyncPublishedMessage>();
+			publishedCopy = publishedQueue.drain();
 		}
 		finally {
 			publishedQueueLock.unlock();
@@ -184,29 +199,40 @@ public abstract class AbstractChannel implements Channel {
 		
 		Gravity gravity = getGravity();
 		
-		receivedQueueLock.lock();
+		if (queueReceived(message) && hasAsyncHttpContext())
+			receiver.queue(gravity);
+	}
+
+	public void receive(AsyncMessage message, SharedMessageBody sharedBody) throws MessageReceivingException {
+		if (sharedBody == null) {
+			receive(message);
+			return;
+		}
+		
+		sharedBodies.put(message, sharedBody);
 		try {
-			if (receivedQueue.size() + 1 > gravity.getGravityConfig().getMaxMessagesQueuedPerChannel())
-				throw new MessageReceivingException(message, "Could not queue message (channel's queue is full) for channel: " + this);
-			
-			receivedQueue.add(message);
+			receive(message);
 		}
-		finally {
-			receivedQueueLock.unlock();
+		catch (MessageReceivingException e) {
+			sharedBodies.remove(message);
+			throw e;
 		}
-
-		if (hasAsyncHttpContext())
-			receiver.queue(gravity);
 	}
 	
 	public boolean hasReceivedMessage() {
-		receivedQueueLock.lock();
-		try {
-			return !receivedQueue.isEmpty();
-		}
-		finally {
-			receivedQueueLock.unlock();
-		}
+		return !receivedQueue.isEmpty();
+	}
+	
+	public boolean isSlowConsumer() {
+		return slowConsumer.get();
+	}
+	
+	public long getDroppedMessageCount(SlowConsumerPolicy policy) {
+		return droppedMessageCounts[policy.ordinal()].get();
+	}
+	
+	public long getConflatedMessageCount() {
+		return getDroppedMessageCount(SlowConsumerPolicy.CONFLATE);
 	}
 
 	public boolean runReceive() {
@@ -224,7 +250,8 @@ public abstract class AbstractChannel implements Channel {
 	public boolean runReceived(AsyncHttpContext asyncHttpContext) {
 		
 		boolean httpAsParam = (asyncHttpContext != null); 
-		LinkedList<AsyncMessage> messages = null;
+		List<AsyncMessage> messages = null;
+		List<SharedMessageBody> messagesSharedBodies = null;
 		OutputStream os = null;
 
 		try {
@@ -242,8 +269,8 @@ public abstract class AbstractChannel implements Channel {
 				}
 				
 				// Both conditions are ok, get all pending messages.
-				messages = receivedQueue;
-				receivedQueue = new LinkedList<AsyncMessage>();
+				messages = drainReceivedQueue();
+				messagesSharedBodies = pollSharedBodies(messages);
 			}
 			finally {
 				receivedQueueLock.unlock();
@@ -278,6 +305,7 @@ public abstract class AbstractChannel implements Channel {
 	        
 	        os = response.getOutputStream();
 	        ObjectOutput serializer = newSerializer(context, os);
+	        addSharedBodies(serializer, messagesSharedBodies);
 	        
 	        log.debug("<< [MESSAGES for channel=%s] %s", this, messagesArray);
 	        
@@ -295,7 +323,7 @@ public abstract class AbstractChannel implements Channel {
 			if (gravityConfig.isRetryOnError()) {
 				receivedQueueLock.lock();
 				try {
-					if (receivedQueue.size() + messages.size() > gravityConfig.getMaxMessagesQueuedPerChannel()) {
+					if (!receivedQueue.requeue(messages, gravityConfig.getMaxMessagesQueuedPerChannel())) {
 						log.warn(
 							"Channel %s has reached its maximum queue capacity %s (throwing %s messages)",
 							this,
@@ -303,8 +331,6 @@ public abstract class AbstractChannel implements Channel {
 							messages.size()
 						);
 					}
-					else
-						receivedQueue.addAll(0, messages);
 				}
 				finally {
 					receivedQueueLock.unlock();
@@ -348,11 +374,282 @@ public abstract class AbstractChannel implements Channel {
 		gravity.cancel(receiver);
 
     	subscriptions.clear();
+		sharedBodies.clear();
+		
+		receivedQueueLock.lock();
+		try {
+			conflatedMessages.clear();
+		}
+		finally {
+			receivedQueueLock.unlock();
+		}
 	}
     
     ///////////////////////////////////////////////////////////////////////////
     // Protected utilities.
 	
+	protected ChannelQueueConfig getQueueConfig(String destinationId) {
+		if (destinationId == null)
+			return ChannelQueueConfig.DEFAULT;
+		
+		ChannelQueueConfig config = queueConfigs.get(destinationId);
+		if (config == null) {
+			ServicesConfig servicesConfig = getGravity().getServicesConfig();
+			config = ChannelQueueConfig.forDestination(servicesConfig != null ? servicesConfig.findDestinationById(null, destinationId) : null);
+			queueConfigs.put(destinationId, config);
+		}
+		return config;
+	}
+	
+	/**
+	 * Queues a received message, replacing the queued message with the same conflation key if the
+	 * destination always conflates messages, and applying the slow consumer policy of its destination
+	 * when the queue reaches the high watermark.
+	 * 
+	 * @return true if the message was queued (or replaced a queued message), false if it was dropped
+	 * 		by a slow consumer policy.
+	 * @throws MessageReceivingException if the queue is full and the destination of the message
+	 * 		has no slow consumer policy.
+	 */
+	protected boolean queueReceived(AsyncMessage message) throws MessageReceivingException {
+		int capacity = getGravity().getGravityConfig().getMaxMessagesQueuedPerChannel();
+		ChannelQueueConfig config = getQueueConfig(message.getDestination());
+		SlowConsumerPolicy policy = config.getSlowConsumerPolicy();
+		
+		if (config.isAlwaysConflate() && !disconnecting && replaceReceived(message, config))
+			return true;
+		
+		if (policy == null) {
+			if (!offerReceived(message, config, capacity, config.isAlwaysConflate()))
+				throw new MessageReceivingException(message, "Could not queue message (channel's queue is full) for channel: " + this);
+			return true;
+		}
+		
+		if (disconnecting) {
+			dropReceived(message, policy, 1);
+			return false;
+		}
+		
+		if (slowConsumer.get()) {
+			int size = receivedQueue.size();
+			if (size <= config.getLowWatermark(capacity) && slowConsumer.compareAndSet(true, false))
+				log.info("Channel %s is no longer a slow consumer (queue size: %d)", id, size);
+		}
+		
+		if (!slowConsumer.get()) {
+			if (offerReceived(message, config, config.getHighWatermark(capacity), config.isAlwaysConflate()))
+				return true;
+			
+			if (slowConsumer.compareAndSet(false, true)) {
+				int size = receivedQueue.size();
+				log.warn("Channel %s is a slow consumer (queue size: %d, destination: %s, policy: %s)", id, size, message.getDestination(), policy.configName());
+				
+				Gravity gravity = getGravity();
+				if (gravity instanceof SlowConsumerListener)
+					((SlowConsumerListener)gravity).slowConsumerDetected(this, message.getDestination(), policy, size);
+			}
+		}
+		
+		switch (policy) {
+		
+		case DROP_NEWEST:
+			dropReceived(message, policy, 1);
+			return false;
+			
+		case DROP_OLDEST: {
+			AsyncMessage oldest = null;
+			boolean queued = false;
+			receivedQueueLock.lock();
+			try {
+				oldest = receivedQueue.poll();
+				if (oldest != null)
+					sharedBodies.remove(oldest);
+				queued = offerReceived(message, config, capacity, config.isAlwaysConflate());
+			}
+			finally {
+				receivedQueueLock.unlock();
+			}
+			if (oldest != null)
+				messagesDropped(oldest.getDestination(), policy, 1);
+			if (!queued)
+				dropReceived(message, policy, 1);
+			return queued;
+		}
+		
+		case CONFLATE:
+			if (offerReceived(message, config, capacity, true))
+				return true;
+			// No queued message to replace and the queue is full.
+			dropReceived(message, SlowConsumerPolicy.DROP_NEWEST, 1);
+			return false;
+			
+		case DISCONNECT: {
+			disconnecting = true;
+			List<AsyncMessage> messages = null;
+			receivedQueueLock.lock();
+			try {
+				messages = drainReceivedQueue();
+				pollSharedBodies(messages);
+			}
+			finally {
+				receivedQueueLock.unlock();
+			}
+			dropReceived(message, policy, messages.size() + 1);
+			
+			log.warn("Disconnecting slow consumer channel: %s", id);
+			try {
+				remover.queue(getGravity());
+			}
+			catch (Exception e) {
+				log.error(e, "Could not disconnect slow consumer channel: %s", id);
+			}
+			return false;
+		}
+		
+		default:
+			throw new IllegalStateException("Unknown slow consumer policy: " + policy);
+		}
+	}
+	
+	/**
+	 * Appends a message to the received queue, keeping track of its position if it has a
+	 * conflation key. When conflate is true, the queued message with the same key is replaced
+	 * instead, if any: the lookup and the append are done under the same lock, so concurrent
+	 * producers never queue two messages with the same key.
+	 */
+	private boolean offerReceived(AsyncMessage message, ChannelQueueConfig config, int capacity, boolean conflate) {
+		String key = getConflationKey(message, config);
+		if (key == null)
+			return receivedQueue.offer(message, capacity);
+		
+		boolean replaced = false;
+		receivedQueueLock.lock();
+		try {
+			if (conflate)
+				replaced = replaceReceived(key, message);
+			if (!replaced) {
+				long index = receivedQueue.offerIndex(message, capacity);
+				if (index == -1L)
+					return false;
+				conflatedMessages.put(key, new ConflatedMessage(index, message));
+			}
+		}
+		finally {
+			receivedQueueLock.unlock();
+		}
+		
+		if (replaced)
+			messagesDropped(message.getDestination(), SlowConsumerPolicy.CONFLATE, 1);
+		return true;
+	}
+	
+	/**
+	 * Replaces the queued message with the same conflation key, if any.
+	 */
+	private boolean replaceReceived(AsyncMessage message, ChannelQueueConfig config) {
+		String key = getConflationKey(message, config);
+		if (key == null)
+			return false;
+		
+		boolean replaced = false;
+		receivedQueueLock.lock();
+		try {
+			replaced = replaceReceived(key, message);
+		}
+		finally {
+			receivedQueueLock.unlock();
+		}
+		
+		if (replaced)
+			messagesDropped(message.getDestination(), SlowConsumerPolicy.CONFLATE, 1);
+		return replaced;
+	}
+	
+	/**
+	 * Replaces the queued message with the given conflation key, if any (callers must hold the
+	 * receivedQueueLock).
+	 */
+	private boolean replaceReceived(String key, AsyncMessage message) {
+		ConflatedMessage conflated = conflatedMessages.get(key);
+		if (conflated == null || !receivedQueue.replace(conflated.index, conflated.message, message))
+			return false;
+		
+		sharedBodies.remove(conflated.message);
+		conflated.message = message;
+		return true;
+	}
+	
+	private static String getConflationKey(AsyncMessage message, ChannelQueueConfig config) {
+		String header = config.getConflationHeader();
+		if (header == null)
+			return null;
+		Object value = message.getHeader(header);
+		if (value == null)
+			return null;
+		// The subscription id is part of the key: subscriptions of the same channel are never conflated together.
+		return message.getDestination() + '\n' + message.getHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER) + '\n' + value;
+	}
+	
+	private void dropReceived(AsyncMessage message, SlowConsumerPolicy policy, int count) {
+		sharedBodies.remove(message);
+		messagesDropped(message.getDestination(), policy, count);
+	}
+	
+	private void messagesDropped(String destination, SlowConsumerPolicy policy, int count) {
+		droppedMessageCounts[policy.ordinal()].addAndGet(count);
+		
+		Gravity gravity = getGravity();
+		if (gravity instanceof SlowConsumerListener)
+			((SlowConsumerListener)gravity).messagesDropped(this, destination, policy, count);
+	}
+	
+	/**
+	 * Removes and returns all received messages (callers must hold the receivedQueueLock).
+	 */
+	protected List<AsyncMessage> drainReceivedQueue() {
+		if (!conflatedMessages.isEmpty())
+			conflatedMessages.clear();
+		return receivedQueue.drain();
+	}
+	
+	/**
+	 * Removes and returns shared bodies of the supplied messages (must be called right after
+	 * the messages have been drained from the queue).
+	 */
+	protected List<SharedMessageBody> pollSharedBodies(Collection<AsyncMessage> messages) {
+		if (sharedBodies.isEmpty())
+			return null;
+		
+		List<SharedMessageBody> polled = new ArrayList<SharedMessageBody>(messages.size());
+		for (AsyncMessage message : messages) {
+			SharedMessageBody sharedBody = sharedBodies.remove(message);
+			if (sharedBody != null)
+				polled.add(sharedBody);
+		}
+		return polled;
+	}
+	
+	/**
+	 * Let the serializer copy already encoded message bodies instead of serializing them
+	 * again (AMF3 serializers only, others are left untouched).
+	 */
+	protected void addSharedBodies(ObjectOutput serializer, List<SharedMessageBody> sharedBodies) {
+		if (sharedBodies == null || sharedBodies.isEmpty() || !(serializer instanceof AMF3Serializer))
+			return;
+		
+		AMF3Serializer amf3Serializer = (AMF3Serializer)serializer;
+		for (SharedMessageBody sharedBody : sharedBodies) {
+			try {
+				AMF3Segment segment = sharedBody.getSegment(amf3Serializer);
+				if (segment != null)
+					amf3Serializer.addSegment(sharedBody.getBody(), segment);
+			}
+			catch (Exception e) {
+				log.warn(e, "Could not encode shared message body (serializing it for channel: %s)", this);
+			}
+		}
+	}
+	
 	protected boolean queueReceiver() {
 		if (hasReceivedMessage()) {
 			receiver.queue(getGravity());
@@ -361,6 +658,20 @@ public abstract class AbstractChannel implements Channel {
 		return false;
 	}	
     
+    ///////////////////////////////////////////////////////////////////////////
+    // Inner classes.
+    
+    private static final class ConflatedMessage {
+    	
+    	final long index;
+    	AsyncMessage message;
+    	
+    	ConflatedMessage(long index, AsyncMessage message) {
+    		this.index = index;
+    		this.message = message;
+    	}
+    }
+    
     ///////////////////////////////////////////////////////////////////////////
     // Object overwritten methods.
 
@@ -20,40 +20,32 @@
 
 package org.granite.gravity;
 
-import java.util.TimerTask;
-
 import org.granite.logging.Logger;
 
 /**
- * @author Franck WOLFF
+ * Removes a channel from a Gravity pool thread (channels cannot be removed from the thread
+ * delivering a message: JMS listeners, for example, cannot close their own consumer).
  */
-public class ChannelTimerTask extends TimerTask {
+public class AsyncChannelRemover extends AsyncChannelRunner {
 
-    private static final Logger log = Logger.getLogger(ChannelTimerTask.class);
+    private static final Logger log = Logger.getLogger(AsyncChannelRemover.class);
 
-	private final Gravity gravity;
-	private final String channelId;
-	
-	public ChannelTimerTask(Gravity gravity, String channelId) {
-		this.gravity = gravity;
-		this.channelId = channelId;
+	public AsyncChannelRemover(Channel channel) {
+		super(channel);
 	}
 
 	@Override
-	public void run() {
-		log.debug("Removing channel: %s...", channelId);
+	public void doRun() {
+		Gravity gravity = channel.getGravity();
 		try {
-			gravity.initThread(null, null);
-			gravity.removeChannel(channelId);
+			gravity.initThread(null, channel.getClientType());
+			gravity.removeChannel(channel.getId());
+		}
+		catch (Exception e) {
+			log.error(e, "Could not remove channel: %s", channel.getId());
 		}
 		finally {
 			gravity.releaseThread();
 		}
-		log.debug("Channel: %s removed.", channelId);
-	}
-
-	@Override
-	public String toString() {
-		return getClass().getName() + " {channelId=" + channelId + "}";
 	}
 }
@@ -0,0 +1,145 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity;
+
+import org.granite.config.flex.Destination;
+import org.granite.logging.Logger;
+import org.granite.util.XMap;
+
+/**
+ * Per destination settings of channel queues, read from the destination properties:
+ * <pre>
+ * &lt;properties&gt;
+ *     &lt;slow-consumer-policy&gt;drop-oldest|drop-newest|conflate|disconnect&lt;/slow-consumer-policy&gt;
+ *     &lt;slow-consumer-high-watermark&gt;1000&lt;/slow-consumer-high-watermark&gt;
+ *     &lt;slow-consumer-low-watermark&gt;500&lt;/slow-consumer-low-watermark&gt;
+ *     &lt;conflation-header&gt;symbol&lt;/conflation-header&gt;
+ *     &lt;always-conflate&gt;false&lt;/always-conflate&gt;
+ * &lt;/properties&gt;
+ * </pre>
+ * Without a slow consumer policy, messages exceeding the channel's capacity are rejected with a
+ * {@link MessageReceivingException}. The high watermark defaults to the channel's capacity
+ * ({@link GravityConfig#getMaxMessagesQueuedPerChannel()}) and the low watermark to half of the
+ * high watermark.
+ * <br>
+ * With <code>always-conflate</code>, a queued message is replaced by any newer message with the
+ * same conflation header value, whatever the queue size is (the conflate slow consumer policy only
+ * replaces messages once the high watermark is reached).
+ */
+public class ChannelQueueConfig {
+
+    private static final Logger log = Logger.getLogger(ChannelQueueConfig.class);
+    
+    public static final ChannelQueueConfig DEFAULT = new ChannelQueueConfig(null, 0, -1, null, false);
+
+	private final SlowConsumerPolicy slowConsumerPolicy;
+	private final int highWatermark;
+	private final int lowWatermark;
+	private final String conflationHeader;
+	private final boolean alwaysConflate;
+	
+	public ChannelQueueConfig(SlowConsumerPolicy slowConsumerPolicy, int highWatermark, int lowWatermark, String conflationHeader, boolean alwaysConflate) {
+		this.slowConsumerPolicy = slowConsumerPolicy;
+		this.highWatermark = highWatermark;
+		this.lowWatermark = lowWatermark;
+		this.conflationHeader = conflationHeader;
+		this.alwaysConflate = alwaysConflate;
+	}
+	
+	public static ChannelQueueConfig forDestination(Destination destination) {
+		if (destination == null || destination.getProperties() == null)
+			return DEFAULT;
+		
+		XMap properties = destination.getProperties();
+		
+		SlowConsumerPolicy policy = null;
+		String policyName = properties.get("slow-consumer-policy");
+		if (policyName != null) {
+			policy = SlowConsumerPolicy.forConfigName(policyName.trim());
+			if (policy == null)
+				log.warn("Unknown slow consumer policy for destination %s: %s (ignored)", destination.getId(), policyName);
+		}
+		
+		String conflationHeader = properties.get("conflation-header");
+		if (conflationHeader != null) {
+			conflationHeader = conflationHeader.trim();
+			if (conflationHeader.length() == 0)
+				conflationHeader = null;
+		}
+		
+		boolean alwaysConflate = properties.get("always-conflate", Boolean.TYPE, false);
+		if (alwaysConflate && conflationHeader == null) {
+			log.warn("No conflation-header configured for destination %s (always-conflate ignored)", destination.getId());
+			alwaysConflate = false;
+		}
+		if (policy == SlowConsumerPolicy.CONFLATE && conflationHeader == null) {
+			log.warn("No conflation-header configured for destination %s (using %s policy)", destination.getId(), SlowConsumerPolicy.DROP_OLDEST.configName());
+			policy = SlowConsumerPolicy.DROP_OLDEST;
+		}
+		
+		if (policy == null && !alwaysConflate)
+			return DEFAULT;
+		
+		// Conflation keys are only tracked when they can be used.
+		if (policy != SlowConsumerPolicy.CONFLATE && !alwaysConflate)
+			conflationHeader = null;
+		
+		int highWatermark = properties.get("slow-consumer-high-watermark", Integer.TYPE, 0);
+		if (highWatermark < 0) {
+			log.warn("Illegal slow consumer high watermark for destination %s: %d (using channel capacity)", destination.getId(), highWatermark);
+			highWatermark = 0;
+		}
+		int lowWatermark = properties.get("slow-consumer-low-watermark", Integer.TYPE, -1);
+		if (highWatermark > 0 && lowWatermark > highWatermark) {
+			log.warn("Illegal slow consumer low watermark for destination %s: %d (using default)", destination.getId(), lowWatermark);
+			lowWatermark = -1;
+		}
+		
+		return new ChannelQueueConfig(policy, highWatermark, lowWatermark, conflationHeader, alwaysConflate);
+	}
+
+	public SlowConsumerPolicy getSlowConsumerPolicy() {
+		return slowConsumerPolicy;
+	}
+
+	public String getConflationHeader() {
+		return conflationHeader;
+	}
+
+	public boolean isAlwaysConflate() {
+		return alwaysConflate;
+	}
+
+	public int getHighWatermark(int capacity) {
+		return (highWatermark > 0 && highWatermark < capacity ? highWatermark : capacity);
+	}
+
+	public int getLowWatermark(int capacity) {
+		int high = getHighWatermark(capacity);
+		return (lowWatermark >= 0 && lowWatermark <= high ? lowWatermark : high / 2);
+	}
+	
+	@Override
+	public String toString() {
+		return getClass().getName() + " {slowConsumerPolicy=" + slowConsumerPolicy + ", highWatermark=" + highWatermark +
+			", lowWatermark=" + lowWatermark + ", conflationHeader=" + conflationHeader + ", alwaysConflate=" + alwaysConflate + "}";
+	}
+}
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
 
@@ -37,6 +38,7 @@ import org.granite.config.flex.ServicesConfig;
 import org.granite.context.GraniteContext;
 import org.granite.context.SimpleGraniteContext;
 import org.granite.gravity.adapters.AdapterFactory;
+import org.granite.gravity.adapters.PublishingFailureListener;
 import org.granite.gravity.adapters.ServiceAdapter;
 import org.granite.gravity.security.GravityDestinationSecurizer;
 import org.granite.gravity.security.GravityInvocationContext;
@@ -60,7 +62,7 @@ import flex.messaging.messages.Message;
  * @author William DRAI
  * @author Franck WOLFF
  */
-public class DefaultGravity implements Gravity, DefaultGravityMBean {
+public class DefaultGravity implements Gravity, DefaultGravityMBean, PublishingFailureListener, SlowConsumerListener {
 
     ///////////////////////////////////////////////////////////////////////////
     // Fields.
@@ -78,8 +80,20 @@ public class DefaultGravity implements Gravity, DefaultGravityMBean {
     private AdapterFactory adapterFactory = null;
     private GravityPool gravityPool = null;
 
+    // Idle channels are removed by a periodic sweep of channels' last access times.
+    private static final long CHANNELS_SWEEP_PERIOD_MILLIS = 1000L;
+
     private Timer channelsTimer;
     private boolean started;
+    
+    private final AtomicLong publishingFailureCount = new AtomicLong();
+    
+    private final AtomicLong slowConsumerCount = new AtomicLong();
+    private final AtomicLong slowConsumerDisconnectCount = new AtomicLong();
+    private final AtomicLong droppedOldestMessageCount = new AtomicLong();
+    private final AtomicLong droppedNewestMessageCount = new AtomicLong();
+    private final AtomicLong conflatedMessageCount = new AtomicLong();
+    private final AtomicLong disconnectDroppedMessageCount = new AtomicLong();
 
     ///////////////////////////////////////////////////////////////////////////
     // Constructor.
@@ -135,6 +149,7 @@ public class DefaultGravity implements Gravity, DefaultGravityMBean {
     protected void internalStart() {
         gravityPool = new GravityPool(gravityConfig);
         channelsTimer = new Timer();
+        channelsTimer.schedule(new ChannelsSweeper(), CHANNELS_SWEEP_PERIOD_MILLIS, CHANNELS_SWEEP_PERIOD_MILLIS);
         
         if (graniteConfig.isRegisterMBeans()) {
 	        try {
@@ -309,6 +324,68 @@ public class DefaultGravity implements Gravity, DefaultGravityMBean {
     		return gravityPool.getQueueSize();
     	return 0;
 	}
+	
+	public long getPublishingFailureCount() {
+		return publishingFailureCount.get();
+	}
+	
+	public long getSlowConsumerCount() {
+		return slowConsumerCount.get();
+	}
+	
+	public long getSlowConsumerDisconnectCount() {
+		return slowConsumerDisconnectCount.get();
+	}
+
+	public long getDroppedOldestMessageCount() {
+		return droppedOldestMessageCount.get();
+	}
+
+	public long getDroppedNewestMessageCount() {
+		return droppedNewestMessageCount.get();
+	}
+
+	public long getConflatedMessageCount() {
+		return conflatedMessageCount.get();
+	}
+
+	public long getDisconnectDroppedMessageCount() {
+		return disconnectDroppedMessageCount.get();
+	}
+
+    ///////////////////////////////////////////////////////////////////////////
+    // PublishingFailureListener implementation.
+
+	public void publishingFailed(ServiceAdapter adapter, String channelId, String messageId, Exception error) {
+		publishingFailureCount.incrementAndGet();
+		log.warn(error, "Could not publish message %s from channel %s (adapter: %s)", messageId, channelId, adapter.getId());
+	}
+
+    ///////////////////////////////////////////////////////////////////////////
+    // SlowConsumerListener implementation.
+
+	public void slowConsumerDetected(Channel channel, String destination, SlowConsumerPolicy policy, int queueSize) {
+		slowConsumerCount.incrementAndGet();
+		if (policy == SlowConsumerPolicy.DISCONNECT)
+			slowConsumerDisconnectCount.incrementAndGet();
+	}
+
+	public void messagesDropped(Channel channel, String destination, SlowConsumerPolicy policy, int count) {
+		switch (policy) {
+		case DROP_OLDEST:
+			droppedOldestMessageCount.addAndGet(count);
+			break;
+		case DROP_NEWEST:
+			droppedNewestMessageCount.addAndGet(count);
+			break;
+		case CONFLATE:
+			conflatedMessageCount.addAndGet(count);
+			break;
+		case DISCONNECT:
+			disconnectDroppedMessageCount.addAndGet(count);
+			break;
+		}
+	}
 
     ///////////////////////////////////////////////////////////////////////////
     // Channel's operations.
@@ -346,7 +423,7 @@ public class DefaultGravity implements Gravity, DefaultGravityMBean {
 			log.error(e, "Could not add channel id in distributed data: %s", channelId);
         }
         
-        // Initialize timer task.
+        // Initialize last access time.
         access(channelId);
     	
         return channel;
@@ -405,14 +482,6 @@ public class DefaultGravity implements Gravity, DefaultGravityMBean {
         TimeChannel<?> timeChannel = channels.remove(channelId);
         Channel channel = null;
         if (timeChannel != null) {
-        	try {
-        		if (timeChannel.getTimerTask() != null)
-        			timeChannel.getTimerTask().cancel();
-        	}
-        	catch (Exception e) {
-        		// Should never happen...
-        	}
-        	
         	channel = timeChannel.getChannel();
         	
         	try {
@@ -438,27 +507,35 @@ public class DefaultGravity implements Gravity, DefaultGravityMBean {
     	if (channelId != null) {
 	    	TimeChannel<?> timeChannel = channels.get(channelId);
 	    	if (timeChannel != null) {
-	    		synchronized (timeChannel) {
-	    			TimerTask timerTask = timeChannel.getTimerTask();
-		    		if (timerTask != null) {
-			            log.debug("Canceling TimerTask: %s", timerTask);
-			            timerTask.cancel();
-		    			timeChannel.setTimerTask(null);
-		    		}
-		            
-		    		timerTask = new ChannelTimerTask(this, channelId);
-		            timeChannel.setTimerTask(timerTask);
-		            
-		            long timeout = gravityConfig.getChannelIdleTimeoutMillis();
-		            log.debug("Scheduling TimerTask: %s for %s ms.", timerTask, timeout);
-		            channelsTimer.schedule(timerTask, timeout);
-		            return true;
-	    		}
+	    		timeChannel.access();
+	    		return true;
 	    	}
     	}
     	return false;
     }
     
+    protected void removeIdleChannels() {
+    	long lastAccessLimit = System.currentTimeMillis() - gravityConfig.getChannelIdleTimeoutMillis();
+    	
+    	for (TimeChannel<?> timeChannel : channels.values()) {
+    		if (timeChannel.getLastAccessTime() > lastAccessLimit)
+    			continue;
+    		
+    		String channelId = timeChannel.getChannel().getId();
+    		log.debug("Removing idle channel: %s...", channelId);
+    		try {
+    			initThread(null, null);
+    			removeChannel(channelId);
+    		}
+    		catch (Exception e) {
+    			log.error(e, "Could not remove idle channel: %s", channelId);
+    		}
+    		finally {
+    			releaseThread();
+    		}
+    	}
+    }
+    
     public void execute(AsyncChannelRunner runner) {
     	if (gravityPool == null) {
     		runner.reset();
@@ -872,6 +949,19 @@ public class DefaultGravity implements Gravity, DefaultGravityMBean {
         );
         return reply;
     }
+    
+    private class ChannelsSweeper extends TimerTask {
+
+		@Override
+		public void run() {
+			try {
+				removeIdleChannels();
+			}
+			catch (Throwable t) {
+				log.error(t, "Error while removing idle channels");
+			}
+		}
+    }
 
     private static class ServerChannel extends AbstractChannel implements Serializable {
 
@@ -83,6 +83,27 @@ public interface DefaultGravityMBean {
 	@MBeanAttribute(description="Number of channels in the Gravity pool queue waiting for execution")
     public int getQueueSize();
 
+	@MBeanAttribute(description="Number of messages accepted by service adapters which could not be published asynchronously")
+    public long getPublishingFailureCount();
+
+	@MBeanAttribute(description="Number of times a channel's queue has reached the high watermark of a slow consumer policy")
+    public long getSlowConsumerCount();
+
+	@MBeanAttribute(description="Number of channels disconnected by the disconnect slow consumer policy")
+    public long getSlowConsumerDisconnectCount();
+
+	@MBeanAttribute(description="Number of queued messages evicted by the drop-oldest slow consumer policy")
+    public long getDroppedOldestMessageCount();
+
+	@MBeanAttribute(description="Number of new messages discarded by the drop-newest (or conflate) slow consumer policy")
+    public long getDroppedNewestMessageCount();
+
+	@MBeanAttribute(description="Number of queued messages replaced by a newer message with the same conflation key")
+    public long getConflatedMessageCount();
+
+	@MBeanAttribute(description="Number of messages discarded by the disconnect slow consumer policy")
+    public long getDisconnectDroppedMessageCount();
+
 	@MBeanAttribute(description="Number of threads to keep in the Gravity pool, even if they are idle")
     public int getCorePoolSize();
 	public void setCorePoolSize(
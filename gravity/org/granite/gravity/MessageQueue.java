@@ -0,0 +1,244 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-producer / single-consumer queue used for channel messages. Elements are stored in
+ * linked fixed-size array segments (no allocation per element). Producers are lock-free: they
+ * reserve a slot with an atomic counter and the overall size is maintained by another atomic
+ * counter, so the capacity check of {@link #offer(Object, int)} is lock-free too.
+ * <br>
+ * The consumer side is not lock-free. Consumer methods ({@link #drain()}, {@link #poll()},
+ * {@link #requeue(Collection, int)} and {@link #replace(long, Object, Object)}) must not be
+ * called concurrently: callers must serialize them (see {@link AbstractChannel#receivedQueueLock}).
+ * A consumer may also spin (yielding) while holding that lock, until a producer that already
+ * reserved a slot stores its element.
+ */
+public class MessageQueue<E> {
+
+	private static final int SEGMENT_SIZE = 32;
+
+	private final AtomicInteger size = new AtomicInteger(0);
+	private final AtomicLong tail = new AtomicLong(0L);
+	private final AtomicReference<Segment> tailSegment;
+
+	// Consumer state (serialized by the caller).
+	private long head = 0L;
+	private Segment headSegment;
+	private List<E> requeued = null;
+
+	public MessageQueue() {
+		Segment segment = new Segment(0L);
+		this.tailSegment = new AtomicReference<Segment>(segment);
+		this.headSegment = segment;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	public boolean isEmpty() {
+		return size.get() == 0;
+	}
+
+	public boolean offer(E element) {
+		return offer(element, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Appends an element at the end of this queue if its size is lower than the supplied capacity.
+	 * 
+	 * @return false if the queue is full, true otherwise.
+	 */
+	public boolean offer(E element, int capacity) {
+		return offerIndex(element, capacity) != -1L;
+	}
+
+	/**
+	 * Same as {@link #offer(Object, int)}, but returns the position of the queued element, which
+	 * can be used later to replace it (see {@link #replace(long, Object, Object)}).
+	 * 
+	 * @return -1 if the queue is full, the position of the element otherwise.
+	 */
+	public long offerIndex(E element, int capacity) {
+		if (element == null)
+			throw new NullPointerException("element cannot be null");
+		
+		for (int current = size.get(); ; current = size.get()) {
+			if (current >= capacity)
+				return -1L;
+			if (size.compareAndSet(current, current + 1))
+				break;
+		}
+		
+		// The tail segment must be read before reserving an index: it can't be beyond this index.
+		Segment segment = tailSegment.get();
+		long index = tail.getAndIncrement();
+		
+		while (index >= segment.base + SEGMENT_SIZE) {
+			Segment next = segment.next.get();
+			if (next == null) {
+				segment.next.compareAndSet(null, new Segment(segment.base + SEGMENT_SIZE));
+				next = segment.next.get();
+			}
+			segment = next;
+		}
+		
+		for (Segment last = tailSegment.get(); last.base < segment.base; last = tailSegment.get()) {
+			if (tailSegment.compareAndSet(last, segment))
+				break;
+		}
+		
+		segment.elements.set((int)(index - segment.base), element);
+		return index;
+	}
+
+	/**
+	 * Removes and returns all elements of this queue (consumer only).
+	 */
+	public List<E> drain() {
+		int count = size.get();
+		
+		List<E> elements = new ArrayList<E>(count);
+		if (requeued != null) {
+			elements.addAll(requeued);
+			requeued = null;
+		}
+		while (elements.size() < count)
+			elements.add(take());
+		
+		size.addAndGet(-count);
+		return elements;
+	}
+
+	/**
+	 * Removes and returns the head of this queue (consumer only).
+	 * 
+	 * @return the oldest element of this queue or null if it is empty.
+	 */
+	public E poll() {
+		if (size.get() == 0)
+			return null;
+		
+		E element;
+		if (requeued != null) {
+			element = requeued.remove(0);
+			if (requeued.isEmpty())
+				requeued = null;
+		}
+		else
+			element = take();
+		
+		size.decrementAndGet();
+		return element;
+	}
+
+	/**
+	 * Replaces a queued element, in place, if it is still at the supplied position (consumer only:
+	 * the element cannot be drained concurrently).
+	 * 
+	 * @return true if the element was replaced, false if it isn't queued anymore.
+	 */
+	public boolean replace(long index, E expected, E element) {
+		if (element == null)
+			throw new NullPointerException("element cannot be null");
+		if (index < head)
+			return false;
+		
+		Segment segment = headSegment;
+		while (index >= segment.base + SEGMENT_SIZE) {
+			segment = segment.next.get();
+			if (segment == null)
+				return false;
+		}
+		return segment.elements.compareAndSet((int)(index - segment.base), expected, element);
+	}
+
+	/**
+	 * Puts back previously drained elements at the head of this queue (consumer only).
+	 * 
+	 * @return false if these elements would exceed the supplied capacity (they are not requeued),
+	 * 		true otherwise.
+	 */
+	public boolean requeue(Collection<E> elements, int capacity) {
+		if (elements.isEmpty())
+			return true;
+		
+		for (int current = size.get(); ; current = size.get()) {
+			if (current > capacity - elements.size())
+				return false;
+			if (size.compareAndSet(current, current + elements.size()))
+				break;
+		}
+		
+		List<E> front = new ArrayList<E>(elements);
+		if (requeued != null)
+			front.addAll(requeued);
+		requeued = front;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private E take() {
+		long index = head;
+		
+		// The size counter is incremented before an index is reserved and the element is set
+		// right after: spin until the concurrent offer completes.
+		while (index >= tail.get())
+			Thread.yield();
+		
+		Segment segment = headSegment;
+		if (index == segment.base + SEGMENT_SIZE) {
+			Segment next;
+			while ((next = segment.next.get()) == null)
+				Thread.yield();
+			headSegment = segment = next;
+		}
+		
+		int offset = (int)(index - segment.base);
+		Object element;
+		while ((element = segment.elements.get(offset)) == null)
+			Thread.yield();
+		segment.elements.lazySet(offset, null);
+		
+		head = index + 1;
+		return (E)element;
+	}
+
+	private static final class Segment {
+
+		final long base;
+		final AtomicReferenceArray<Object> elements = new AtomicReferenceArray<Object>(SEGMENT_SIZE);
+		final AtomicReference<Segment> next = new AtomicReference<Segment>();
+
+		Segment(long base) {
+			this.base = base;
+		}
+	}
+}
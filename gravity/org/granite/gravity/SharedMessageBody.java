@@ -0,0 +1,77 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.granite.messaging.amf.io.AMF3Segment;
+import org.granite.messaging.amf.io.AMF3Serializer;
+
+/**
+ * Body of a message delivered to many subscribers: it is encoded once per serialization
+ * key (see {@link AMF3Serializer#getSegmentKey()}) and each channel only writes its own
+ * message envelope (headers, correlation id) around the shared encoded body. The first
+ * serialization is left to the channel, so a body delivered to a single subscriber is never
+ * encoded twice.
+ */
+public class SharedMessageBody {
+
+	private final Object body;
+	private final AtomicInteger uses = new AtomicInteger();
+	private final ConcurrentMap<String, AMF3Segment> segments = new ConcurrentHashMap<String, AMF3Segment>(4, 0.75f, 1);
+
+	public SharedMessageBody(Object body) {
+		if (body == null)
+			throw new NullPointerException("body cannot be null");
+		this.body = body;
+	}
+
+	public Object getBody() {
+		return body;
+	}
+
+	/**
+	 * Returns the encoded body for the supplied serializer or null if the body should be
+	 * serialized as usual.
+	 */
+	public AMF3Segment getSegment(AMF3Serializer serializer) throws IOException {
+		if (uses.getAndIncrement() == 0)
+			return null;
+		
+		String key = serializer.getSegmentKey();
+		AMF3Segment segment = segments.get(key);
+		if (segment == null) {
+			segment = serializer.encodeSegment(body);
+			AMF3Segment previous = segments.putIfAbsent(key, segment);
+			if (previous != null)
+				segment = previous;
+		}
+		return segment;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getName() + " {body=" + body + ", segments=" + segments.keySet() + "}";
+	}
+}
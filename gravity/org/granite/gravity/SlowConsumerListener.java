@@ -0,0 +1,36 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity;
+
+/**
+ * Notified by channels applying a slow consumer policy. The default Gravity implementation
+ * maintains global counters (see {@link DefaultGravityMBean}).
+ */
+public interface SlowConsumerListener {
+
+	public void slowConsumerDetected(Channel channel, String destination, SlowConsumerPolicy policy, int queueSize);
+	
+	/**
+	 * Messages replaced by a newer message with the same conflation key are reported with the
+	 * {@link SlowConsumerPolicy#CONFLATE} policy, even if the destination always conflates messages.
+	 */
+	public void messagesDropped(Channel channel, String destination, SlowConsumerPolicy policy, int count);
+}
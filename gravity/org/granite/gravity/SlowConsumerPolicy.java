@@ -0,0 +1,55 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity;
+
+/**
+ * What a channel does with new messages once its queue has reached the high watermark of
+ * the destination (see {@link ChannelQueueConfig}), until it goes back under the low watermark.
+ */
+public enum SlowConsumerPolicy {
+
+	/** Evict the oldest queued message for each new one. */
+	DROP_OLDEST("drop-oldest"),
+	/** Discard new messages. */
+	DROP_NEWEST("drop-newest"),
+	/** Replace the queued message with the same conflation key, if any (new messages are discarded otherwise). */
+	CONFLATE("conflate"),
+	/** Discard all queued messages and remove the channel. */
+	DISCONNECT("disconnect");
+	
+	private final String configName;
+	
+	SlowConsumerPolicy(String configName) {
+		this.configName = configName;
+	}
+	
+	public String configName() {
+		return configName;
+	}
+	
+	public static SlowConsumerPolicy forConfigName(String configName) {
+		for (SlowConsumerPolicy policy : values()) {
+			if (policy.configName.equalsIgnoreCase(configName))
+				return policy;
+		}
+		return null;
+	}
+}
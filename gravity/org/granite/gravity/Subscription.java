@@ -89,6 +89,10 @@ public class Subscription implements Serializable {
     }
 
 
+    public MessageSelector getSelector() {
+        return selector;
+    }
+
     public void setSelector(String selector) {
     	this.selectorText = selector;
     	parseSelector();
@@ -117,13 +121,22 @@ public class Subscription implements Serializable {
 
 
     public boolean deliver(Channel fromClient, AsyncMessage message) {
+    	return deliver(fromClient, message, null);
+    }
+
+    public boolean deliver(Channel fromClient, AsyncMessage message, SharedMessageBody sharedBody) {
     	if (noLocal && fromClient.getId().equals(channel.getId()))
     		return false;
     	
         if (selector == null || selector.accept(message)) {
             try {
         		message.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, subscriptionId);
-				getChannel().receive(message);
+        		// Only channels based on AbstractChannel are able to share encoded bodies.
+        		Channel channel = getChannel();
+        		if (sharedBody != null && channel instanceof AbstractChannel)
+        			((AbstractChannel)channel).receive(message, sharedBody);
+        		else
+        			channel.receive(message);
 	            return true;
 			} catch (MessageReceivingException e) {
 				log.error(e, "Could not deliver message");
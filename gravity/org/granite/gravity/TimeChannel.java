@@ -20,37 +20,30 @@
 
 package org.granite.gravity;
 
-import java.util.TimerTask;
-
 /**
  * @author Franck WOLFF
  */
 public class TimeChannel<C extends Channel> {
 
 	private final C channel;
-	private TimerTask timerTask;
+	private volatile long lastAccessTime = System.currentTimeMillis();
 	
 	public TimeChannel(C channel) {
-		this(channel, null);
-	}
-	
-	public TimeChannel(C channel, TimerTask timerTask) {
 		if (channel == null)
 			throw new NullPointerException("Channel cannot be null");
 		this.channel = channel;
-		this.timerTask = timerTask;
 	}
 
 	public C getChannel() {
 		return channel;
 	}
 
-	public TimerTask getTimerTask() {
-		return timerTask;
+	public long getLastAccessTime() {
+		return lastAccessTime;
 	}
 
-	public void setTimerTask(TimerTask timerTask) {
-		this.timerTask = timerTask;
+	public void access() {
+		lastAccessTime = System.currentTimeMillis();
 	}
 
 	@Override
@@ -62,11 +62,12 @@ public class ActiveMQServiceAdapter extends JMSServiceAdapter {
                 failoverRetryInterval = DEFAULT_FAILOVER_RETRY_INTERVAL;
             }
             
-            failoverRetryCount = destinationProperties.get("jms/failover-retry-count", Integer.TYPE, DEFAULT_FAILOVER_RETRY_COUNT);
-            if (failoverRetryCount <= 0) {
-                log.warn("Illegal failover retry count: %s (using default %d)", failoverRetryCount, DEFAULT_FAILOVER_RETRY_COUNT);
-                failoverRetryCount = DEFAULT_FAILOVER_RETRY_COUNT;
-            }
+            // Failed JMS resources are reconnected in the background until they recover (see JMSReconnectionManager).
+            if (destinationProperties.get("jms/failover-retry-count") != null)
+                log.warn("Ignored jms/failover-retry-count for JMS destination %s (reconnections are retried until they succeed)", destinationName);
+            
+            configureSharedConnections(destinationProperties);
+            configureAsyncPublishing(destinationProperties);
 
             StringBuilder sb = null;
             if (destinationProperties.get("server/broker-url") != null && !"".equals(destinationProperties.get("server/broker-url").trim())) {
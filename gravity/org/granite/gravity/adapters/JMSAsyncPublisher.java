@@ -0,0 +1,292 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity.adapters;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.granite.logging.Logger;
+
+/**
+ * Asynchronous publisher of a JMS destination: messages are queued by the calling threads and
+ * sent by a single sender thread, in batches of at most <tt>maxBatchSize</tt> messages collected
+ * during at most <tt>maxLingerMillis</tt>. With transacted sessions, a batch is committed once;
+ * otherwise its messages are sent back-to-back on the same pooled producer session.
+ */
+public class JMSAsyncPublisher {
+
+    private static final Logger log = Logger.getLogger(JMSAsyncPublisher.class);
+    
+    private final JMSServiceAdapter adapter;
+    private final BlockingQueue<PendingMessage> queue;
+    private final int maxBatchSize;
+    private final long maxLingerMillis;
+    private final PublishingFailureListener failureListener;
+    
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    
+    private volatile boolean running = false;
+    private Thread sender = null;
+    private boolean useGlassFishNoCommitWorkaround = false;
+
+    public JMSAsyncPublisher(JMSServiceAdapter adapter, int queueCapacity, int maxBatchSize, long maxLingerMillis, PublishingFailureListener failureListener) {
+    	if (adapter == null)
+    		throw new NullPointerException("adapter cannot be null");
+    	if (queueCapacity <= 0 || maxBatchSize <= 0 || maxLingerMillis < 0)
+    		throw new IllegalArgumentException("Illegal parameters: queueCapacity=" + queueCapacity + ", maxBatchSize=" + maxBatchSize + ", maxLingerMillis=" + maxLingerMillis);
+    	
+    	this.adapter = adapter;
+    	this.queue = new ArrayBlockingQueue<PendingMessage>(queueCapacity);
+    	this.maxBatchSize = maxBatchSize;
+    	this.maxLingerMillis = maxLingerMillis;
+    	this.failureListener = failureListener;
+    }
+    
+    public synchronized void start() {
+    	if (running)
+    		return;
+    	
+    	running = true;
+    	sender = new Thread(new Runnable() {
+			public void run() {
+				runSender();
+			}
+		}, "GDS JMS publisher " + adapter.getId());
+    	sender.setDaemon(true);
+    	sender.start();
+    }
+    
+    /**
+     * Stops the sender thread after it has sent the pending messages (waiting at most
+     * <tt>timeoutMillis</tt>).
+     */
+    public void stop(long timeoutMillis) {
+    	Thread sender;
+    	synchronized (this) {
+    		if (!running)
+    			return;
+    		running = false;
+    		sender = this.sender;
+    		this.sender = null;
+    	}
+    	
+    	try {
+    		sender.join(timeoutMillis);
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    	if (sender.isAlive())
+    		sender.interrupt();
+    	
+    	PendingMessage message;
+    	while ((message = queue.poll()) != null)
+    		failed(message, new IllegalStateException("Publisher stopped"));
+    }
+    
+    /**
+     * Queues a message for publication to the given topic (null for the adapter's destination).
+     * Returns false if the queue is full or if this publisher isn't running: the message is then
+     * not published and the caller is responsible for reporting the failure (the failure listener
+     * is only notified of failures of queued messages).
+     */
+    public boolean publish(String channelId, String topic, Map<String, ?> headers, Object body, String messageId, String correlationId, long timestamp, long timeToLive) {
+    	if (!running)
+    		return false;
+    	
+    	return queue.offer(new PendingMessage(channelId, topic, new HashMap<String, Object>(headers), body, messageId, correlationId, timestamp, timeToLive));
+    }
+    
+    public boolean isRunning() {
+    	return running;
+    }
+    
+    public int getQueueSize() {
+    	return queue.size();
+    }
+    
+    public int getMaxBatchSize() {
+    	return maxBatchSize;
+    }
+    
+    public long getMaxLingerMillis() {
+    	return maxLingerMillis;
+    }
+    
+    public long getPublishedCount() {
+    	return publishedCount.get();
+    }
+    
+    public long getBatchCount() {
+    	return batchCount.get();
+    }
+    
+    public long getFailureCount() {
+    	return failureCount.get();
+    }
+    
+    private void runSender() {
+    	List<PendingMessage> batch = new ArrayList<PendingMessage>(maxBatchSize);
+    	
+    	while (running || !queue.isEmpty()) {
+    		try {
+    			PendingMessage first = queue.poll(100L, TimeUnit.MILLISECONDS);
+    			if (first == null)
+    				continue;
+    			
+    			batch.add(first);
+    			if (maxLingerMillis > 0) {
+	    			long deadline = System.currentTimeMillis() + maxLingerMillis;
+	    			while (batch.size() < maxBatchSize) {
+	    				long wait = deadline - System.currentTimeMillis();
+	    				PendingMessage next = (wait > 0 ? queue.poll(wait, TimeUnit.MILLISECONDS) : queue.poll());
+	    				if (next == null)
+	    					break;
+	    				batch.add(next);
+	    			}
+    			}
+    			else
+    				queue.drainTo(batch, maxBatchSize - 1);
+    			
+    			send(batch);
+    		}
+    		catch (InterruptedException e) {
+    			for (PendingMessage message : batch)
+    				failed(message, e);
+    			break;
+    		}
+    		catch (Throwable t) {
+    			log.error(t, "Unexpected error in JMS publisher of %s", adapter.getId());
+    		}
+    		finally {
+    			batch.clear();
+    		}
+    	}
+    }
+    
+    private void send(List<PendingMessage> batch) {
+    	JMSConnectionPool pool = adapter.getConnectionPool();
+    	JMSConnectionPool.ProducerSession producerSession = null;
+    	int sent = 0;
+    	try {
+    		producerSession = pool.borrowSession();
+    		Session session = producerSession.getSession();
+    		
+    		for (PendingMessage message : batch) {
+    			javax.jms.Message jmsMessage = adapter.createJMSMessage(
+    				session, message.headers, message.body, message.messageId, message.correlationId, message.timestamp, message.timeToLive
+    			);
+    			if (message.channelId != null)
+    				jmsMessage.setStringProperty(JMSServiceAdapter.ORIGIN_CHANNEL_ID_PROPERTY, message.channelId);
+    			
+    			producerSession.getProducer().send(adapter.getProducerDestination(message.topic), jmsMessage);
+    			if (!pool.isTransacted())
+    				sent++;
+    		}
+    		
+    		if (pool.isTransacted() && !useGlassFishNoCommitWorkaround) {
+    			try {
+    				session.commit();
+    			}
+    			catch (JMSException e) {
+    				if (e.getMessage() != null && e.getMessage().startsWith("MQJMSRA_DS4001"))
+    					useGlassFishNoCommitWorkaround = true;
+    				else
+    					throw e;
+    			}
+    		}
+    		sent = batch.size();
+    		
+    		pool.returnSession(producerSession);
+    		producerSession = null;
+    	}
+    	catch (Exception e) {
+    		log.error(e, "Could not publish %d JMS messages (%d sent)", batch.size() - sent, sent);
+    		
+    		if (producerSession != null) {
+    			if (pool.isTransacted()) {
+	    			try {
+	    				producerSession.getSession().rollback();
+	    			}
+	    			catch (Exception f) {
+	    				// ignore...
+	    			}
+    			}
+    			producerSession.close();
+    		}
+    		
+    		for (int i = sent; i < batch.size(); i++)
+    			failed(batch.get(i), e);
+    	}
+    	
+    	publishedCount.addAndGet(sent);
+    	batchCount.incrementAndGet();
+    }
+    
+    private void failed(PendingMessage message, Exception error) {
+    	failureCount.incrementAndGet();
+    	
+    	if (failureListener != null) {
+    		try {
+    			failureListener.publishingFailed(adapter, message.channelId, message.messageId, error);
+    		}
+    		catch (Exception e) {
+    			log.error(e, "Publishing failure listener error: %s", failureListener);
+    		}
+    	}
+    	else
+    		log.warn(error, "Could not publish message %s from channel %s", message.messageId, message.channelId);
+    }
+    
+    private static class PendingMessage {
+    	
+    	final String channelId;
+    	final String topic;
+    	final Map<String, Object> headers;
+    	final Object body;
+    	final String messageId;
+    	final String correlationId;
+    	final long timestamp;
+    	final long timeToLive;
+    	
+    	PendingMessage(String channelId, String topic, Map<String, Object> headers, Object body, String messageId, String correlationId, long timestamp, long timeToLive) {
+    		this.channelId = channelId;
+    		this.topic = topic;
+    		this.headers = headers;
+    		this.body = body;
+    		this.messageId = messageId;
+    		this.correlationId = correlationId;
+    		this.timestamp = timestamp;
+    		this.timeToLive = timeToLive;
+    	}
+    }
+}
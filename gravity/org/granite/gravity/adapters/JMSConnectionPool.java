@@ -0,0 +1,334 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity.adapters;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.granite.logging.Logger;
+
+/**
+ * A fixed set of JMS connections shared by all the channels of a destination, with a pool of
+ * producer sessions. Connections are created lazily and handed out in round-robin order;
+ * producer sessions use an anonymous producer so that one session can send to any topic.
+ */
+public class JMSConnectionPool {
+
+    private static final Logger log = Logger.getLogger(JMSConnectionPool.class);
+
+    private final ConnectionFactory connectionFactory;
+    private final boolean transacted;
+    private final int acknowledgeMode;
+    private final int deliveryMode;
+    private final int priority;
+    
+    private final Connection[] connections;
+    private final int[] generations;
+    private final AtomicInteger next = new AtomicInteger();
+    private final BlockingQueue<ProducerSession> idleSessions;
+    private final AtomicInteger createdSessions = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private volatile boolean closed = false;
+    private boolean useGlassFishNoExceptionListenerWorkaround = false;
+
+    public interface Listener {
+    	
+    	/**
+    	 * Called when the connection at the supplied index has failed and has been discarded.
+    	 */
+    	public void connectionFailed(JMSConnectionPool pool, int index, JMSException e);
+    }
+
+    public JMSConnectionPool(ConnectionFactory connectionFactory, int connectionCount, int sessionPoolSize,
+    	boolean transacted, int acknowledgeMode, int deliveryMode, int priority) {
+    	
+    	if (connectionFactory == null)
+    		throw new NullPointerException("connectionFactory cannot be null");
+    	if (connectionCount <= 0)
+    		throw new IllegalArgumentException("connectionCount must be > 0: " + connectionCount);
+    	if (sessionPoolSize <= 0)
+    		throw new IllegalArgumentException("sessionPoolSize must be > 0: " + sessionPoolSize);
+    	
+    	this.connectionFactory = connectionFactory;
+    	this.transacted = transacted;
+    	this.acknowledgeMode = acknowledgeMode;
+    	this.deliveryMode = deliveryMode;
+    	this.priority = priority;
+    	this.connections = new Connection[connectionCount];
+    	this.generations = new int[connectionCount];
+    	this.idleSessions = new ArrayBlockingQueue<ProducerSession>(sessionPoolSize);
+    }
+    
+    public void addListener(Listener listener) {
+    	listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+    	listeners.remove(listener);
+    }
+    
+    public boolean isTransacted() {
+    	return transacted;
+    }
+    
+    public int getAcknowledgeMode() {
+    	return acknowledgeMode;
+    }
+    
+    /**
+     * Returns the index of the next connection to use (round-robin).
+     */
+    public int nextIndex() {
+    	return (next.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+    }
+    
+    /**
+     * Returns the (started) connection at the supplied index, connecting it if necessary.
+     */
+    public synchronized Connection getConnection(int index) throws JMSException {
+    	if (closed)
+    		throw new IllegalStateException("Connection pool is closed");
+    	
+    	Connection connection = connections[index];
+    	if (connection == null) {
+    		connection = connectionFactory.createConnection();
+    		try {
+	            if (!useGlassFishNoExceptionListenerWorkaround) {
+	            	try {
+	            		connection.setExceptionListener(new ConnectionExceptionListener(index, generations[index]));
+	            	}
+	            	catch (JMSException e) {
+	            		if (e.getMessage() != null && e.getMessage().startsWith("MQJMSRA_DC2001: Unsupported:setExceptionListener()"))
+	            			useGlassFishNoExceptionListenerWorkaround = true;
+	            		else
+	            			throw e;
+	            	}
+	            }
+	    		connection.start();
+    		}
+    		catch (JMSException e) {
+    			closeQuietly(connection);
+    			throw e;
+    		}
+    		connections[index] = connection;
+    		log.debug("Created shared JMS connection #%d", index);
+    	}
+    	return connection;
+    }
+    
+    public ProducerSession borrowSession() throws JMSException {
+    	ProducerSession session = idleSessions.poll();
+    	if (session != null && isCurrent(session))
+    		return session;
+    	if (session != null)
+    		session.close();
+    	
+    	int index = nextIndex();
+    	int generation;
+    	Connection connection;
+    	synchronized (this) {
+    		connection = getConnection(index);
+    		generation = generations[index];
+    	}
+    	
+    	Session jmsSession = connection.createSession(transacted, acknowledgeMode);
+    	try {
+    		MessageProducer producer = jmsSession.createProducer(null);
+    		producer.setDeliveryMode(deliveryMode);
+    		producer.setPriority(priority);
+    		createdSessions.incrementAndGet();
+    		return new ProducerSession(index, generation, jmsSession, producer);
+    	}
+    	catch (JMSException e) {
+    		try {
+    			jmsSession.close();
+    		}
+    		catch (JMSException f) {
+    			// ignore...
+    		}
+    		throw e;
+    	}
+    }
+    
+    /**
+     * Gives a session back to the pool. Sessions which were used when an error occurred should be
+     * closed instead (see {@link ProducerSession#close()}).
+     */
+    public void returnSession(ProducerSession session) {
+    	if (closed || !isCurrent(session) || !idleSessions.offer(session))
+    		session.close();
+    }
+    
+    public synchronized boolean isConnected(int index) {
+    	return connections[index] != null;
+    }
+    
+    public int getConnectionCount() {
+    	int count = 0;
+    	synchronized (this) {
+	    	for (Connection connection : connections) {
+	    		if (connection != null)
+	    			count++;
+	    	}
+    	}
+    	return count;
+    }
+    
+    public int getMaxConnectionCount() {
+    	return connections.length;
+    }
+    
+    public int getIdleSessionCount() {
+    	return idleSessions.size();
+    }
+    
+    public int getCreatedSessionCount() {
+    	return createdSessions.get();
+    }
+    
+    public int getFailureCount() {
+    	return failures.get();
+    }
+    
+    public boolean isClosed() {
+    	return closed;
+    }
+    
+    public void close() {
+    	closed = true;
+    	
+    	ProducerSession session;
+    	while ((session = idleSessions.poll()) != null)
+    		session.close();
+    	
+    	synchronized (this) {
+    		for (int i = 0; i < connections.length; i++) {
+    			if (connections[i] != null) {
+    				closeQuietly(connections[i]);
+    				connections[i] = null;
+    				generations[i]++;
+    			}
+    		}
+    	}
+    }
+    
+    private synchronized boolean isCurrent(ProducerSession session) {
+    	return connections[session.index] != null && generations[session.index] == session.generation;
+    }
+    
+    private void connectionFailed(int index, int generation, JMSException e) {
+    	Connection connection;
+    	synchronized (this) {
+    		if (generations[index] != generation)
+    			return;
+    		connection = connections[index];
+    		connections[index] = null;
+    		generations[index]++;
+    	}
+    	
+    	failures.incrementAndGet();
+    	log.warn(e, "Shared JMS connection #%d failed", index);
+    	
+    	if (connection != null)
+    		closeQuietly(connection);
+    	
+    	for (Listener listener : listeners) {
+    		try {
+    			listener.connectionFailed(this, index, e);
+    		}
+    		catch (Exception f) {
+    			log.error(f, "Connection failure listener error: %s", listener);
+    		}
+    	}
+    }
+    
+    private static void closeQuietly(Connection connection) {
+    	try {
+    		connection.close();
+    	}
+    	catch (Exception e) {
+    		log.debug(e, "Could not close JMS connection");
+    	}
+    }
+    
+    private class ConnectionExceptionListener implements ExceptionListener {
+    	
+    	private final int index;
+    	private final int generation;
+    	
+    	public ConnectionExceptionListener(int index, int generation) {
+    		this.index = index;
+    		this.generation = generation;
+    	}
+
+		public void onException(JMSException e) {
+			connectionFailed(index, generation, e);
+		}
+    }
+    
+    public static class ProducerSession {
+    	
+    	private final int index;
+    	private final int generation;
+    	private final Session session;
+    	private final MessageProducer producer;
+    	
+    	ProducerSession(int index, int generation, Session session, MessageProducer producer) {
+    		this.index = index;
+    		this.generation = generation;
+    		this.session = session;
+    		this.producer = producer;
+    	}
+    	
+    	public Session getSession() {
+    		return session;
+    	}
+    	
+    	public MessageProducer getProducer() {
+    		return producer;
+    	}
+    	
+    	public void close() {
+    		try {
+    			producer.close();
+    		}
+    		catch (Exception e) {
+    			// ignore...
+    		}
+    		try {
+    			session.close();
+    		}
+    		catch (Exception e) {
+    			// ignore...
+    		}
+    	}
+    }
+}
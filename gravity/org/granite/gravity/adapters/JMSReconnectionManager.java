@@ -0,0 +1,339 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity.adapters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.granite.config.GraniteConfig;
+import org.granite.gravity.Gravity;
+import org.granite.jmx.MBeanServerLocator;
+import org.granite.jmx.MBeanUtil;
+import org.granite.jmx.OpenMBean;
+import org.granite.logging.Logger;
+
+/**
+ * Reconnects JMS resources after a provider failure, with a single scheduler thread shared by
+ * all JMS adapters. Each failed resource is retried with an exponential backoff (from its
+ * initial delay up to its maximum delay) and a random jitter, so that thousands of consumers
+ * don't hit a recovering broker at the same time.
+ */
+public class JMSReconnectionManager implements JMSReconnectionManagerMBean {
+
+    private static final Logger log = Logger.getLogger(JMSReconnectionManager.class);
+    
+    public static final double BACKOFF_MULTIPLIER = 2.0;
+    public static final double DEFAULT_JITTER = 0.2;
+    
+    private static JMSReconnectionManager instance = null;
+    private static int references = 0;
+    private static ObjectName mBeanName = null;
+    
+    public interface Reconnectable {
+    	
+    	/**
+    	 * Tries to reconnect and throws an exception if it fails (another attempt will be
+    	 * scheduled).
+    	 */
+    	public void reconnect() throws Exception;
+    }
+    
+    private final ScheduledThreadPoolExecutor executor;
+    private final ConcurrentMap<Reconnectable, Reconnection> reconnections = new ConcurrentHashMap<Reconnectable, Reconnection>();
+    private final Random random = new Random();
+    private final double jitter;
+    
+    private final AtomicLong attemptCount = new AtomicLong();
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    
+    public JMSReconnectionManager() {
+    	this(DEFAULT_JITTER);
+    }
+    
+    public JMSReconnectionManager(double jitter) {
+    	if (jitter < 0.0 || jitter >= 1.0)
+    		throw new IllegalArgumentException("jitter must be in [0, 1[: " + jitter);
+    	
+    	this.jitter = jitter;
+    	this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "GDS JMS reconnection");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+    }
+    
+    /**
+     * Returns the shared instance, creating it (and registering its MBean) if necessary. Each
+     * call must be balanced by a call to {@link #release()}.
+     */
+    public static synchronized JMSReconnectionManager acquire(Gravity gravity) {
+    	if (instance == null) {
+    		instance = new JMSReconnectionManager();
+    		
+    		GraniteConfig graniteConfig = (gravity != null ? gravity.getGraniteConfig() : null);
+    		if (graniteConfig != null && graniteConfig.isRegisterMBeans()) {
+    			try {
+    				mBeanName = new ObjectName("org.graniteds:type=Gravity,name=JMSReconnectionManager,context=" + graniteConfig.getMBeanContextName());
+    		        log.info("Registering MBean: %s", mBeanName);
+    				MBeanServerLocator.getInstance().register(OpenMBean.createMBean(instance), mBeanName, true);
+    			}
+    			catch (Exception e) {
+    				log.error(e, "Could not register JMS reconnection manager MBean");
+    				mBeanName = null;
+    			}
+    		}
+    	}
+    	references++;
+    	return instance;
+    }
+    
+    public static synchronized void release() {
+    	if (references <= 0 || --references > 0)
+    		return;
+    	
+    	instance.shutdown();
+    	instance = null;
+    	
+    	if (mBeanName != null) {
+    		try {
+    			MBeanServerLocator.getInstance().unregister(mBeanName);
+    		}
+    		catch (Exception e) {
+    			log.debug(e, "Could not unregister MBean: %s", mBeanName);
+    		}
+    		mBeanName = null;
+    	}
+    }
+    
+    /**
+     * Schedules the reconnection of the supplied resource, unless it is already pending. Returns
+     * true if a new reconnection was scheduled.
+     * 
+     * If the pending reconnection is running, another attempt follows it even if it succeeds:
+     * the resource may have failed again after it was reconnected.
+     */
+    public boolean schedule(String name, Reconnectable reconnectable, long initialDelayMillis, long maxDelayMillis) {
+    	Reconnection reconnection = new Reconnection(name, reconnectable, initialDelayMillis, Math.max(initialDelayMillis, maxDelayMillis));
+    	for (;;) {
+	    	Reconnection pending = reconnections.putIfAbsent(reconnectable, reconnection);
+	    	if (pending == null)
+	    		break;
+	    	if (pending.merge())
+	    		return false;
+	    	// The pending reconnection has just completed.
+    	}
+    	
+    	log.debug("Scheduling reconnection of %s", name);
+    	reconnection.schedule(jitter(initialDelayMillis));
+    	return true;
+    }
+    
+    public boolean cancel(Reconnectable reconnectable) {
+    	Reconnection reconnection = reconnections.remove(reconnectable);
+    	if (reconnection == null)
+    		return false;
+    	reconnection.cancel();
+    	return true;
+    }
+    
+    public boolean isPending(Reconnectable reconnectable) {
+    	return reconnections.containsKey(reconnectable);
+    }
+    
+    public void shutdown() {
+    	for (Reconnection reconnection : reconnections.values())
+    		reconnection.cancel();
+    	reconnections.clear();
+    	executor.shutdownNow();
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    // MBean implementation.
+
+	public int getPendingReconnectionCount() {
+		return reconnections.size();
+	}
+
+	public long getAttemptCount() {
+		return attemptCount.get();
+	}
+
+	public long getSuccessCount() {
+		return successCount.get();
+	}
+
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	public String showPendingReconnections() {
+		List<String> pending = new ArrayList<String>();
+		for (Reconnection reconnection : reconnections.values())
+			pending.add(reconnection.toString());
+		return MBeanUtil.format(pending.toArray(new String[pending.size()]), true);
+	}
+
+	public void retryNow() {
+		for (Reconnection reconnection : reconnections.values())
+			reconnection.schedule(0L);
+	}
+
+	public void resetStatistics() {
+		attemptCount.set(0L);
+		successCount.set(0L);
+		failureCount.set(0L);
+	}
+    
+    ///////////////////////////////////////////////////////////////////////////
+    // Utilities.
+	
+	private long jitter(long delay) {
+		if (delay <= 0L || jitter == 0.0)
+			return delay;
+		double factor;
+		synchronized (random) {
+			factor = 1.0 - jitter + (2.0 * jitter * random.nextDouble());
+		}
+		return (long)(delay * factor);
+	}
+	
+	private class Reconnection implements Runnable {
+		
+		private final String name;
+		private final Reconnectable reconnectable;
+		private final long initialDelayMillis;
+		private final long maxDelayMillis;
+		
+		private int attempts = 0;
+		private long nextDelayMillis = 0L;
+		private String lastError = null;
+		private ScheduledFuture<?> future = null;
+		private boolean running = false;
+		private boolean rerun = false;
+		
+		public Reconnection(String name, Reconnectable reconnectable, long initialDelayMillis, long maxDelayMillis) {
+			this.name = name;
+			this.reconnectable = reconnectable;
+			this.initialDelayMillis = Math.max(1L, initialDelayMillis);
+			this.maxDelayMillis = Math.max(1L, maxDelayMillis);
+		}
+		
+		public synchronized void schedule(long delayMillis) {
+			if (future != null)
+				future.cancel(false);
+			nextDelayMillis = delayMillis;
+			try {
+				future = executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+			}
+			catch (Exception e) {
+				// Executor shut down.
+				reconnections.remove(reconnectable, this);
+			}
+		}
+		
+		public synchronized void cancel() {
+			if (future != null) {
+				future.cancel(false);
+				future = null;
+			}
+		}
+		
+		/**
+		 * Merges a new reconnection request into this one. Returns false if this reconnection has
+		 * completed (it is no longer pending).
+		 */
+		public synchronized boolean merge() {
+			if (reconnections.get(reconnectable) != this)
+				return false;
+			if (running)
+				rerun = true;
+			return true;
+		}
+
+		public void run() {
+			int attempt;
+			synchronized (this) {
+				if (reconnections.get(reconnectable) != this)
+					return;
+				attempt = ++attempts;
+				running = true;
+				rerun = false;
+			}
+			attemptCount.incrementAndGet();
+			
+			try {
+				reconnectable.reconnect();
+				
+				successCount.incrementAndGet();
+				log.info("Reconnected %s (attempt: %d)", name, attempt);
+				
+				boolean failedAgain;
+				synchronized (this) {
+					running = false;
+					failedAgain = rerun;
+					if (failedAgain)
+						attempts = 0;
+					else
+						reconnections.remove(reconnectable, this);
+				}
+				if (failedAgain) {
+					log.debug("%s failed again while reconnecting, scheduling another attempt", name);
+					schedule(jitter(initialDelayMillis));
+				}
+			}
+			catch (Exception e) {
+				failureCount.incrementAndGet();
+				
+				long delay = initialDelayMillis;
+				for (int i = 0; i < attempt && delay < maxDelayMillis; i++)
+					delay = (long)(delay * BACKOFF_MULTIPLIER);
+				delay = jitter(Math.min(delay, maxDelayMillis));
+				
+				synchronized (this) {
+					running = false;
+					lastError = String.valueOf(e.getMessage());
+				}
+				log.debug(e, "Could not reconnect %s (attempt: %d, next attempt in %dms)", name, attempt, delay);
+				
+				if (reconnections.get(reconnectable) == this)
+					schedule(delay);
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return name + " {attempts=" + attempts + ", nextDelayMillis=" + nextDelayMillis + ", lastError=" + lastError + "}";
+		}
+	}
+}
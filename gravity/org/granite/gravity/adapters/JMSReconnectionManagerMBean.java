@@ -0,0 +1,66 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity.adapters;
+
+import org.granite.jmx.MBean;
+import org.granite.jmx.MBeanAttribute;
+import org.granite.jmx.MBeanOperation;
+import org.granite.jmx.MBeanOperation.Impact;
+
+@MBean(description="MBean used for JMS reconnections of Gravity adapters")
+public interface JMSReconnectionManagerMBean {
+
+	///////////////////////////////////////////////////////////////////////////
+	// Attributes.
+
+    @MBeanAttribute(description="Number of JMS resources (connections or consumers) waiting for reconnection")
+	public int getPendingReconnectionCount();
+
+    @MBeanAttribute(description="Total number of reconnection attempts")
+	public long getAttemptCount();
+
+    @MBeanAttribute(description="Total number of successful reconnections")
+	public long getSuccessCount();
+
+    @MBeanAttribute(description="Total number of failed reconnection attempts")
+	public long getFailureCount();
+
+	///////////////////////////////////////////////////////////////////////////
+	// Operations.
+
+    @MBeanOperation(
+    	description="Shows pending reconnections (name, attempts, next delay and last error)",
+    	impact=Impact.INFO
+    )
+	public String showPendingReconnections();
+
+    @MBeanOperation(
+    	description="Immediately retries all pending reconnections (backoff delays are kept)",
+    	impact=Impact.ACTION
+    )
+	public void retryNow();
+
+    @MBeanOperation(
+    	description="Resets reconnection counters",
+    	impact=Impact.ACTION
+    )
+	public void resetStatistics();
+}
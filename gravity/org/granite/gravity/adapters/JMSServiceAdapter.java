@@ -24,17 +24,23 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
 import javax.jms.ExceptionListener;
+import javax.jms.InvalidDestinationException;
+import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
 import javax.jms.MessageListener;
 import javax.jms.ObjectMessage;
@@ -50,6 +56,9 @@ import org.granite.context.GraniteContext;
 import org.granite.gravity.Channel;
 import org.granite.gravity.Gravity;
 import org.granite.gravity.MessageReceivingException;
+import org.granite.gravity.SharedMessageBody;
+import org.granite.gravity.Subscription;
+import org.granite.gravity.selector.SelectorIndex;
 import org.granite.logging.Logger;
 import org.granite.messaging.amf.io.AMF3Deserializer;
 import org.granite.messaging.amf.io.AMF3Serializer;
@@ -71,7 +80,18 @@ public class JMSServiceAdapter extends ServiceAdapter {
     
     public static final long DEFAULT_FAILOVER_RETRY_INTERVAL = 1000L;
     public static final long DEFAULT_RECONNECT_RETRY_INTERVAL = 20000L;
-    public static final int DEFAULT_FAILOVER_RETRY_COUNT = 4;
+    public static final int DEFAULT_SHARED_CONNECTION_COUNT = 1;
+    public static final int DEFAULT_PRODUCER_SESSION_POOL_SIZE = 10;
+    public static final int DEFAULT_ASYNC_PUBLISHING_QUEUE_CAPACITY = 10000;
+    public static final int DEFAULT_ASYNC_PUBLISHING_BATCH_SIZE = 100;
+    public static final long DEFAULT_ASYNC_PUBLISHING_LINGER_MILLIS = 5L;
+    public static final long ASYNC_PUBLISHING_STOP_TIMEOUT_MILLIS = 5000L;
+    
+    /**
+     * JMS property holding the id of the publishing channel (shared connections only: broker-side
+     * no-local cannot be used when all channels share the same connections).
+     */
+    public static final String ORIGIN_CHANNEL_ID_PROPERTY = "GDSOriginChannelId";
 
     protected ConnectionFactory jmsConnectionFactory = null;
     protected javax.jms.Destination jmsDestination = null;
@@ -86,8 +106,26 @@ public class JMSServiceAdapter extends ServiceAdapter {
     protected boolean sessionSelector = false;
     
     protected long failoverRetryInterval = DEFAULT_FAILOVER_RETRY_INTERVAL;
-    protected int failoverRetryCount = DEFAULT_FAILOVER_RETRY_COUNT;
     protected long reconnectRetryInterval = DEFAULT_RECONNECT_RETRY_INTERVAL;
+    
+    protected boolean sharedConnections = false;
+    protected int sharedConnectionCount = DEFAULT_SHARED_CONNECTION_COUNT;
+    protected int producerSessionPoolSize = DEFAULT_PRODUCER_SESSION_POOL_SIZE;
+    protected JMSConnectionPool connectionPool = null;
+    protected Map<String, SharedJMSConsumer> sharedConsumers = new HashMap<String, SharedJMSConsumer>();
+    
+    protected boolean asyncPublishing = false;
+    protected int asyncPublishingQueueCapacity = DEFAULT_ASYNC_PUBLISHING_QUEUE_CAPACITY;
+    protected int asyncPublishingBatchSize = DEFAULT_ASYNC_PUBLISHING_BATCH_SIZE;
+    protected long asyncPublishingLingerMillis = DEFAULT_ASYNC_PUBLISHING_LINGER_MILLIS;
+    protected JMSAsyncPublisher asyncPublisher = null;
+    
+    protected volatile JMSReconnectionManager reconnectionManager = null;
+    
+    private final Set<Integer> failedSharedConnections = new HashSet<Integer>();
+    private final SharedConnectionsReconnectable sharedConnectionsReconnectable = new SharedConnectionsReconnectable();
+    private volatile boolean useJBossTCCLDeserializationWorkaround = false;
+    private volatile boolean useGlassFishNoCommitWorkaround = false;
 
     @Override
     public void configure(XMap adapterProperties, XMap destinationProperties) throws ServiceException {
@@ -125,17 +163,18 @@ public class JMSServiceAdapter extends ServiceAdapter {
     		failoverRetryInterval = DEFAULT_FAILOVER_RETRY_INTERVAL;
     	}
         
-    	failoverRetryCount = destinationProperties.get("jms/failover-retry-count", Integer.TYPE, DEFAULT_FAILOVER_RETRY_COUNT);
-    	if (failoverRetryCount <= 0) {
-    		log.warn("Illegal failover retry count: %s (using default %d)", failoverRetryCount, DEFAULT_FAILOVER_RETRY_COUNT);
-    		failoverRetryCount = DEFAULT_FAILOVER_RETRY_COUNT;
-    	}
+    	// Failed JMS resources are reconnected in the background until they recover (see JMSReconnectionManager).
+    	if (destinationProperties.get("jms/failover-retry-count") != null)
+    		log.warn("Ignored jms/failover-retry-count for JMS destination %s (reconnections are retried until they succeed)", destinationName);
         
         reconnectRetryInterval = destinationProperties.get("jms/reconnect-retry-interval", Long.TYPE, DEFAULT_RECONNECT_RETRY_INTERVAL);
     	if (reconnectRetryInterval <= 0) {
     		log.warn("Illegal reconnect retry interval: %d (using default %d)", reconnectRetryInterval, DEFAULT_RECONNECT_RETRY_INTERVAL);
     		reconnectRetryInterval = DEFAULT_RECONNECT_RETRY_INTERVAL;
     	}
+    	
+    	configureSharedConnections(destinationProperties);
+    	configureAsyncPublishing(destinationProperties);
 
         Properties environment = new Properties();
         for (XMap property : destinationProperties.getAll("jms/initial-context-environment/property")) {
@@ -184,6 +223,46 @@ public class JMSServiceAdapter extends ServiceAdapter {
         }
     }
 
+    protected void configureSharedConnections(XMap destinationProperties) {
+        if (Boolean.TRUE.toString().equals(destinationProperties.get("jms/shared-connections")))
+        	sharedConnections = true;
+        
+        sharedConnectionCount = destinationProperties.get("jms/shared-connection-count", Integer.TYPE, DEFAULT_SHARED_CONNECTION_COUNT);
+    	if (sharedConnectionCount <= 0) {
+    		log.warn("Illegal shared connection count: %s (using default %d)", sharedConnectionCount, DEFAULT_SHARED_CONNECTION_COUNT);
+    		sharedConnectionCount = DEFAULT_SHARED_CONNECTION_COUNT;
+    	}
+        
+    	producerSessionPoolSize = destinationProperties.get("jms/producer-session-pool-size", Integer.TYPE, DEFAULT_PRODUCER_SESSION_POOL_SIZE);
+    	if (producerSessionPoolSize <= 0) {
+    		log.warn("Illegal producer session pool size: %s (using default %d)", producerSessionPoolSize, DEFAULT_PRODUCER_SESSION_POOL_SIZE);
+    		producerSessionPoolSize = DEFAULT_PRODUCER_SESSION_POOL_SIZE;
+    	}
+    }
+
+    protected void configureAsyncPublishing(XMap destinationProperties) {
+        if (Boolean.TRUE.toString().equals(destinationProperties.get("jms/async-publishing")))
+        	asyncPublishing = true;
+        
+        asyncPublishingQueueCapacity = destinationProperties.get("jms/async-publishing-queue-capacity", Integer.TYPE, DEFAULT_ASYNC_PUBLISHING_QUEUE_CAPACITY);
+    	if (asyncPublishingQueueCapacity <= 0) {
+    		log.warn("Illegal async publishing queue capacity: %s (using default %d)", asyncPublishingQueueCapacity, DEFAULT_ASYNC_PUBLISHING_QUEUE_CAPACITY);
+    		asyncPublishingQueueCapacity = DEFAULT_ASYNC_PUBLISHING_QUEUE_CAPACITY;
+    	}
+        
+        asyncPublishingBatchSize = destinationProperties.get("jms/async-publishing-batch-size", Integer.TYPE, DEFAULT_ASYNC_PUBLISHING_BATCH_SIZE);
+    	if (asyncPublishingBatchSize <= 0) {
+    		log.warn("Illegal async publishing batch size: %s (using default %d)", asyncPublishingBatchSize, DEFAULT_ASYNC_PUBLISHING_BATCH_SIZE);
+    		asyncPublishingBatchSize = DEFAULT_ASYNC_PUBLISHING_BATCH_SIZE;
+    	}
+        
+        asyncPublishingLingerMillis = destinationProperties.get("jms/async-publishing-linger-millis", Long.TYPE, DEFAULT_ASYNC_PUBLISHING_LINGER_MILLIS);
+    	if (asyncPublishingLingerMillis < 0) {
+    		log.warn("Illegal async publishing linger: %d (using default %d)", asyncPublishingLingerMillis, DEFAULT_ASYNC_PUBLISHING_LINGER_MILLIS);
+    		asyncPublishingLingerMillis = DEFAULT_ASYNC_PUBLISHING_LINGER_MILLIS;
+    	}
+    }
+
     protected javax.jms.Destination getProducerDestination(String topic) {
         return jmsDestination;
     }
@@ -195,11 +274,28 @@ public class JMSServiceAdapter extends ServiceAdapter {
     @Override
     public void start() throws ServiceException {
         super.start();
+        
+        if (reconnectionManager == null)
+        	reconnectionManager = JMSReconnectionManager.acquire(getGravity());
+        
+        if (asyncPublishing) {
+        	PublishingFailureListener failureListener = null;
+        	if (getGravity() instanceof PublishingFailureListener)
+        		failureListener = (PublishingFailureListener)getGravity();
+        	
+        	asyncPublisher = new JMSAsyncPublisher(this, asyncPublishingQueueCapacity, asyncPublishingBatchSize, asyncPublishingLingerMillis, failureListener);
+        	asyncPublisher.start();
+        }
     }
 
     @Override
     public void stop() throws ServiceException {
         super.stop();
+        
+        if (asyncPublisher != null) {
+        	asyncPublisher.stop(ASYNC_PUBLISHING_STOP_TIMEOUT_MILLIS);
+        	asyncPublisher = null;
+        }
 
         for (JMSClient jmsClient : jmsClients.values()) {
         	try {
@@ -210,13 +306,185 @@ public class JMSServiceAdapter extends ServiceAdapter {
         	}
         }
         jmsClients.clear();
+        
+        closeSharedConnections();
+        
+        if (reconnectionManager != null) {
+        	reconnectionManager = null;
+        	JMSReconnectionManager.release();
+        }
+    }
+    
+    public JMSReconnectionManager getReconnectionManager() {
+    	return reconnectionManager;
+    }
+    
+    /**
+     * Lets the reconnection manager reconnect the supplied resource asynchronously.
+     */
+    protected void scheduleReconnection(String name, JMSReconnectionManager.Reconnectable reconnectable) {
+    	JMSReconnectionManager reconnectionManager = this.reconnectionManager;
+    	if (reconnectionManager != null)
+    		reconnectionManager.schedule(name, reconnectable, failoverRetryInterval, reconnectRetryInterval);
+    	else
+    		log.warn("Adapter %s is not started, cannot reconnect %s", getId(), name);
+    }
+    
+    protected void cancelReconnection(JMSReconnectionManager.Reconnectable reconnectable) {
+    	JMSReconnectionManager reconnectionManager = this.reconnectionManager;
+    	if (reconnectionManager != null)
+    		reconnectionManager.cancel(reconnectable);
+    }
+    
+    /**
+     * Returns true if the supplied exception is likely to be caused by a temporary failure of the
+     * JMS provider (and not by an invalid destination or selector).
+     */
+    protected boolean isRecoverable(Exception e) {
+    	return !(e instanceof InvalidSelectorException) && !(e instanceof InvalidDestinationException);
+    }
+    
+    public boolean isSharedConnections() {
+    	return sharedConnections;
+    }
+    
+    public synchronized JMSConnectionPool getConnectionPool() {
+    	if (connectionPool == null) {
+    		connectionPool = new JMSConnectionPool(
+    			jmsConnectionFactory, sharedConnectionCount, producerSessionPoolSize,
+    			transactedSessions, acknowledgeMode, deliveryMode, messagePriority
+    		);
+    		connectionPool.addListener(new SharedConnectionListener());
+    	}
+    	return connectionPool;
+    }
+    
+    public JMSAsyncPublisher getAsyncPublisher() {
+    	return asyncPublisher;
+    }
+    
+    public synchronized int getSharedConsumerCount() {
+    	return sharedConsumers.size();
+    }
+    
+    private synchronized void closeSharedConnections() {
+    	cancelReconnection(sharedConnectionsReconnectable);
+    	failedSharedConnections.clear();
+    	for (SharedJMSConsumer consumer : sharedConsumers.values())
+    		consumer.close();
+    	sharedConsumers.clear();
+    	if (connectionPool != null) {
+    		connectionPool.close();
+    		connectionPool = null;
+    	}
+    }
+    
+    private synchronized SharedJMSConsumer subscribeSharedConsumer(String topic, Subscription subscription) throws Exception {
+    	String key = (topic != null ? topic : "");
+    	SharedJMSConsumer consumer = sharedConsumers.get(key);
+    	if (consumer == null) {
+    		consumer = new SharedJMSConsumer(topic);
+    		try {
+    			consumer.connect();
+    		}
+    		catch (Exception e) {
+    			if (!isRecoverable(e))
+    				throw e;
+    			log.warn(e, "Could not create shared JMS Consumer for topic %s (will retry asynchronously)", topic);
+    			scheduleReconnection("Shared JMS connections of " + getId(), sharedConnectionsReconnectable);
+    		}
+    		sharedConsumers.put(key, consumer);
+    	}
+    	consumer.subscribe(subscription);
+    	return consumer;
+    }
+    
+    private synchronized void unsubscribeSharedConsumer(SharedJMSConsumer consumer, String subscriptionId) {
+    	if (consumer.unsubscribe(subscriptionId)) {
+    		consumer.close();
+    		sharedConsumers.remove(consumer.topic != null ? consumer.topic : "");
+    		log.debug("Closed shared JMS Consumer for topic %s", consumer.topic);
+    	}
+    }
+    
+    /**
+     * Reopens failed shared connections and replays the shared consumers that aren't connected.
+     * Connecting may block while the provider is down: this is done without holding the adapter
+     * lock, so that publishing and (un)subscribing aren't blocked meanwhile.
+     */
+    private void reconnectSharedConnections() throws Exception {
+    	JMSConnectionPool pool;
+    	List<Integer> failed;
+    	List<SharedJMSConsumer> consumers;
+    	synchronized (this) {
+	    	if (connectionPool == null)
+	    		return;
+	    	pool = connectionPool;
+	    	failed = new ArrayList<Integer>(failedSharedConnections);
+	    	consumers = new ArrayList<SharedJMSConsumer>(sharedConsumers.values());
+    	}
+    	
+    	List<Integer> reopened = new ArrayList<Integer>(failed.size());
+    	try {
+	    	for (Integer index : failed) {
+	    		pool.getConnection(index.intValue());
+	    		reopened.add(index);
+	    	}
+    	}
+    	finally {
+    		synchronized (this) {
+    			// Connections that failed again in the meantime stay in the failed set.
+    			if (pool == connectionPool) {
+	    			for (Integer index : reopened) {
+	    				if (pool.isConnected(index.intValue()))
+	    					failedSharedConnections.remove(index);
+	    			}
+    			}
+    		}
+    	}
+    	
+    	Exception error = null;
+    	for (SharedJMSConsumer consumer : consumers) {
+    		try {
+    			consumer.connect();
+    		}
+    		catch (Exception e) {
+    			error = e;
+    		}
+    	}
+    	if (error != null)
+    		throw error;
+    }
+    
+    private class SharedConnectionsReconnectable implements JMSReconnectionManager.Reconnectable {
+
+		public void reconnect() throws Exception {
+			reconnectSharedConnections();
+		}
+    }
+    
+    private class SharedConnectionListener implements JMSConnectionPool.Listener {
+
+		public void connectionFailed(JMSConnectionPool pool, int index, JMSException e) {
+			synchronized (JMSServiceAdapter.this) {
+				if (pool != connectionPool)
+					return;
+				
+				failedSharedConnections.add(Integer.valueOf(index));
+				for (SharedJMSConsumer consumer : sharedConsumers.values()) {
+					if (consumer.getConnectionIndex() == index)
+						consumer.reset();
+				}
+			}
+			scheduleReconnection("Shared JMS connections of " + getId(), sharedConnectionsReconnectable);
+		}
     }
 
 
     private synchronized JMSClient connectJMSClient(Channel client, String destination) throws Exception {
         JMSClient jmsClient = jmsClients.get(client.getId());
         if (jmsClient == null) {
-            jmsClient = new JMSClientImpl(client);
+            jmsClient = (sharedConnections ? new SharedJMSClientImpl(client) : new JMSClientImpl(client));
             jmsClient.connect();
             jmsClients.put(client.getId(), jmsClient);
             if (sessionSelector && GraniteContext.getCurrentInstance() instanceof ServletGraniteContext)
@@ -225,6 +493,15 @@ public class JMSServiceAdapter extends ServiceAdapter {
         }
         return jmsClient;
     }
+    
+    private synchronized String getClientTopic(Channel client) {
+        JMSClient jmsClient = jmsClients.get(client.getId());
+        if (jmsClient instanceof JMSClientImpl)
+        	return ((JMSClientImpl)jmsClient).topic;
+        if (jmsClient instanceof SharedJMSClientImpl)
+        	return ((SharedJMSClientImpl)jmsClient).topic;
+        return null;
+    }
 
     private synchronized void closeJMSClientIfNecessary(Channel channel, String destination) throws Exception {
         JMSClient jmsClient = jmsClients.get(channel.getId());
@@ -243,6 +520,16 @@ public class JMSServiceAdapter extends ServiceAdapter {
     	
     	if (getSecurityPolicy().canPublish(fromClient, topicId, message)) {
     		try {
+    			if (asyncPublisher != null) {
+    				Object msg = readAsyncMessageBody(message);
+    				String topic = (topicId != null ? topicId : getClientTopic(fromClient));
+    				if (publishAsync(fromClient, topic, message.getHeaders(), msg, message.getMessageId(), message.getCorrelationId(), message.getTimestamp(), message.getTimeToLive())) {
+			            AsyncMessage reply = new AcknowledgeMessage(message);
+			            reply.setMessageId(message.getMessageId());
+			            return reply;
+    				}
+    			}
+    			
 	            JMSClient jmsClient = connectJMSClient(fromClient, message.getDestination());
 	            jmsClient.send(message);
 	
@@ -324,13 +611,15 @@ public class JMSServiceAdapter extends ServiceAdapter {
         private class ConnectionExceptionListener implements ExceptionListener {
 
 			public void onException(JMSException ex) {
-				// Connection failure, force reconnection of the producer on next send
+				// Connection failure, force reconnection of the producer on next send and let the
+				// reconnection manager replay the consumers
 				jmsProducer = null;
-				for (JMSConsumer consumer : consumers.values())
-					consumer.reset();
-				consumers.clear();
 				jmsConnection = null;
 				jmsProducerSession = null;
+				synchronized (consumers) {
+					for (JMSConsumer consumer : consumers.values())
+						consumer.reset();
+				}
 			}
         }
 
@@ -344,7 +633,7 @@ public class JMSServiceAdapter extends ServiceAdapter {
         }
 
 
-        public void connect() throws ServiceException {
+        public synchronized void connect() throws ServiceException {
         	if (jmsConnection != null)
         		return;
         	
@@ -394,6 +683,11 @@ public class JMSServiceAdapter extends ServiceAdapter {
             		log.error(e, "Could not close JMS Consumer " + consumer.subscriptionId + " for channel " + channel.getId());
             	}
             }
+            javax.jms.Connection jmsConnection = this.jmsConnection;
+            if (jmsConnection == null) {
+            	consumers.clear();
+            	return;
+            }
             try {
                 jmsConnection.stop();
             }
@@ -415,34 +709,9 @@ public class JMSServiceAdapter extends ServiceAdapter {
         
         private void createProducer(String topic) throws Exception {
             try {
-            	// When failing over, JMS can be in a temporary illegal state. Give it some time to recover. 
-            	int retryCount = failoverRetryCount;
-            	do {
-	                try {
-	                	jmsProducer = jmsProducerSession.createProducer(getProducerDestination(topic != null ? topic : this.topic));
-	                	if (retryCount < failoverRetryCount)	// We come from a failover, try to recover session
-	                		jmsProducerSession.recover();
-	                	break;
-	                }
-	                catch (Exception e) {
-	                	if (retryCount <= 0)
-	                		throw e;
-	                	
-	                	if (log.isDebugEnabled())
-	                		log.debug(e, "Could not create JMS Producer (retrying %d time)", retryCount);
-	                	else
-	                		log.info("Could not create JMS Producer (retrying %d time)", retryCount);
-	                	
-	                	try {
-	                		Thread.sleep(failoverRetryInterval);
-	                	}
-	                	catch (Exception f) {
-	                		throw new ServiceException("Could not sleep when retrying to create JMS Producer", f.getMessage(), e);
-	                	}
-	                }
-            	}
-                while (retryCount-- > 0);
-                
+            	// No retry here: a failed send is reported to the client and the connection is
+            	// recreated on next send.
+            	jmsProducer = jmsProducerSession.createProducer(getProducerDestination(topic != null ? topic : this.topic));
                 jmsProducer.setPriority(messagePriority);
                 jmsProducer.setDeliveryMode(deliveryMode);
                 log.debug("Created JMS Producer for channel %s", channel.getId());
@@ -455,17 +724,7 @@ public class JMSServiceAdapter extends ServiceAdapter {
         }
 
         public void send(AsyncMessage message) throws Exception {
-            Object msg = null;
-            if (Boolean.TRUE.equals(message.getHeader(Gravity.BYTEARRAY_BODY_HEADER))) {
-            	byte[] byteArray = (byte[])message.getBody();
-            	ByteArrayInputStream bais = new ByteArrayInputStream(byteArray);
-            	AMF3Deserializer deser = new AMF3Deserializer(bais);
-            	msg = deser.readObject();
-            	deser.close(); // makes jdk7 happy (Resource leak: 'deser' is never closed)...
-            }
-            else
-            	msg = message.getBody();
-            
+            Object msg = readAsyncMessageBody(message);
             internalSend(message.getHeaders(), msg, message.getMessageId(), message.getCorrelationId(), message.getTimestamp(), message.getTimeToLive());
         }
 
@@ -475,6 +734,9 @@ public class JMSServiceAdapter extends ServiceAdapter {
         
         public void internalSend(Map<String, ?> headers, Object msg, String messageId, String correlationId, long timestamp, long timeToLive) throws Exception {
             String topic = (String)headers.get(AsyncMessage.SUBTOPIC_HEADER);
+            
+            if (publishAsync(channel, topic != null ? topic : this.topic, headers, msg, messageId, correlationId, timestamp, timeToLive))
+            	return;
                 
             if (jmsProducerSession == null) {
                 jmsProducerSession = jmsConnection.createSession(transactedSessions, acknowledgeMode);
@@ -484,39 +746,7 @@ public class JMSServiceAdapter extends ServiceAdapter {
             if (jmsProducer == null)
             	createProducer(topic);
             
-            javax.jms.Message jmsMessage = null;
-            if (textMessages)
-                jmsMessage = jmsProducerSession.createTextMessage(msg.toString());
-            else
-                jmsMessage = jmsProducerSession.createObjectMessage((Serializable)msg);
-
-            jmsMessage.setJMSMessageID(normalizeJMSMessageID(messageId));
-            jmsMessage.setJMSCorrelationID(normalizeJMSMessageID(correlationId));
-            jmsMessage.setJMSTimestamp(timestamp);
-            jmsMessage.setJMSExpiration(timeToLive);
-            
-            for (Map.Entry<String, ?> me : headers.entrySet()) {
-                if ("JMSType".equals(me.getKey())) {
-                    if (me.getValue() instanceof String)
-                        jmsMessage.setJMSType((String)me.getValue());
-                }
-                else if ("JMSPriority".equals(me.getKey())) {
-                    if (me.getValue() instanceof Integer)
-                        jmsMessage.setJMSPriority(((Integer)me.getValue()).intValue());
-                }
-                else if (me.getValue() instanceof String)
-                    jmsMessage.setStringProperty(me.getKey(), (String)me.getValue());
-                else if (me.getValue() instanceof Boolean)
-                    jmsMessage.setBooleanProperty(me.getKey(), ((Boolean)me.getValue()).booleanValue());
-                else if (me.getValue() instanceof Integer)
-                    jmsMessage.setIntProperty(me.getKey(), ((Integer)me.getValue()).intValue());
-                else if (me.getValue() instanceof Long)
-                    jmsMessage.setLongProperty(me.getKey(), ((Long)me.getValue()).longValue());
-                else if (me.getValue() instanceof Double)
-                    jmsMessage.setDoubleProperty(me.getKey(), ((Double)me.getValue()).doubleValue());
-                else
-                    jmsMessage.setObjectProperty(me.getKey(), me.getValue());
-            }
+            javax.jms.Message jmsMessage = createJMSMessage(jmsProducerSession, headers, msg, messageId, correlationId, timestamp, timeToLive);
 
             jmsProducer.send(jmsMessage);
             
@@ -535,12 +765,6 @@ public class JMSServiceAdapter extends ServiceAdapter {
             }
         }
 
-		private String normalizeJMSMessageID(String messageId) {
-            if (messageId != null && !messageId.startsWith("ID:"))
-            	messageId = "ID:" + messageId;
-			return messageId;
-		}
-
         public void subscribe(CommandMessage message) throws Exception {
             String subscriptionId = (String)message.getHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER);
             String selector = (String)message.getHeader(CommandMessage.SELECTOR_HEADER);
@@ -561,7 +785,16 @@ public class JMSServiceAdapter extends ServiceAdapter {
                 JMSConsumer consumer = consumers.get(subscriptionId);
                 if (consumer == null) {
                     consumer = new JMSConsumer(subscriptionId, selector, noLocal);
-                    consumer.connect(selector);
+                    try {
+                    	consumer.connect(selector);
+                    }
+                    catch (Exception e) {
+                    	if (!isRecoverable(e))
+                    		throw e;
+                    	// Don't block the subscribing thread while the provider is failing over.
+                    	log.warn(e, "Could not create JMS Consumer for channel %s (will retry asynchronously)", channel.getId());
+                    	consumer.scheduleReconnect();
+                    }
                     consumers.put(subscriptionId, consumer);
                 }
                 else
@@ -587,17 +820,15 @@ public class JMSServiceAdapter extends ServiceAdapter {
         }
 
 
-        private class JMSConsumer implements MessageListener {
+        private class JMSConsumer implements MessageListener, JMSReconnectionManager.Reconnectable {
 
             private String subscriptionId = null;
             private javax.jms.Session jmsConsumerSession = null;
             private javax.jms.MessageConsumer jmsConsumer = null;
             private boolean noLocal = false;
             private String selector = null;
-            private boolean useJBossTCCLDeserializationWorkaround = false;
             private boolean useGlassFishNoCommitWorkaround = false;
             private boolean reconnected = false;
-            private Timer reconnectTimer = null;
 
             public JMSConsumer(String subscriptionId, String selector, boolean noLocal) throws Exception {
                 this.subscriptionId = subscriptionId;
@@ -605,62 +836,56 @@ public class JMSServiceAdapter extends ServiceAdapter {
                 this.selector = selector;
             }
             
-            public void connect(String selector) throws Exception {
-            	if (jmsConsumerSession != null)
-            		return;
-            	
+            public synchronized void connect(String selector) throws Exception {
             	this.selector = selector;
             	
+            	if (jmsConsumer != null)
+            		return;
+            	
             	// Reconnect to the JMS provider in case no producer has already done it
             	JMSClientImpl.this.connect();
             	
-                jmsConsumerSession = jmsConnection.createSession(transactedSessions, acknowledgeMode);
-                if (reconnected)
-                	jmsConsumerSession.recover();
-                log.debug("Created JMS Consumer Session for channel %s (transacted: %s, ack: %s)", channel.getId(), transactedSessions, acknowledgeMode);
-                
-                if (reconnectTimer != null)
-                	reconnectTimer.cancel();
+            	if (jmsConsumerSession == null) {
+	                jmsConsumerSession = jmsConnection.createSession(transactedSessions, acknowledgeMode);
+	                if (reconnected)
+	                	jmsConsumerSession.recover();
+	                log.debug("Created JMS Consumer Session for channel %s (transacted: %s, ack: %s)", channel.getId(), transactedSessions, acknowledgeMode);
+            	}
                 
-                try {	                
-                	// When failing over, JMS can be in a temporary illegal state. Give it some time to recover. 
-                	int retryCount = failoverRetryCount;
-                	do {
-		                try {
-		                	jmsConsumer = jmsConsumerSession.createConsumer(getConsumerDestination(topic), selector, noLocal);
-		                	if (retryCount < failoverRetryCount)	// We come from a failover, try to recover session
-		                		reconnected = true;
-		                	break;
-		                }
-		                catch (Exception e) {
-		                	if (retryCount <= 0)
-		                		throw e;
-		                	
-		                	if (log.isDebugEnabled())
-		                		log.debug(e, "Could not create JMS Consumer (retrying %d time)", retryCount);
-		                	else
-		                		log.info("Could not create JMS Consumer (retrying %d time)", retryCount);
-		                	
-		                	try {
-		                		Thread.sleep(failoverRetryInterval);
-		                	}
-		                	catch (Exception f) {
-		                		throw new ServiceException("Could not sleep when retrying to create JMS Consumer", f.getMessage(), e);
-		                	}
-		                }
-                	}
-	                while (retryCount-- > 0);
-	                
+                try {
+                	jmsConsumer = jmsConsumerSession.createConsumer(getConsumerDestination(topic), getConsumerSelector(selector), noLocal);
 	                jmsConsumer.setMessageListener(this);
 	                log.debug("Created JMS Consumer for channel %s", channel.getId());
                 }
                 catch (Exception e) {
-                	close();
+                	// Keep any pending reconnection: this may be a reconnection attempt.
+                	try {
+                		closeResources();
+                	}
+                	catch (JMSException ce) {
+                		log.debug(ce, "Could not close JMS Consumer Session for channel %s", channel.getId());
+                	}
                 	throw e;
                 }
             }
 
-            public void setSelector(String selector) throws Exception {
+            private String getConsumerSelector(String selector) {
+            	if (!noLocal || !asyncPublishing)
+            		return selector;
+            	
+            	// Messages published asynchronously are sent by another connection: broker-side no-local
+            	// doesn't apply to them.
+            	String notLocal = ORIGIN_CHANNEL_ID_PROPERTY + " IS NULL OR " + ORIGIN_CHANNEL_ID_PROPERTY + " <> '" + channel.getId().replace("'", "''") + "'";
+            	if (selector == null || selector.trim().length() == 0)
+            		return notLocal;
+            	return "(" + selector + ") AND (" + notLocal + ")";
+            }
+
+            public void reconnect() throws Exception {
+            	connect(selector);
+            }
+
+            public synchronized void setSelector(String selector) throws Exception {
                 if (jmsConsumer != null) {
                     jmsConsumer.close();
                     jmsConsumer = null;
@@ -671,33 +896,24 @@ public class JMSServiceAdapter extends ServiceAdapter {
             }
             
             public void reset() {
-            	jmsConsumer = null;
-            	jmsConsumerSession = null;
-            	
-            	final TimerTask reconnectTask = new TimerTask() {
-					@Override
-					public void run() {
-						try {
-							connect(selector);
-							reconnectTimer.cancel();
-							reconnectTimer = null;
-						}
-						catch (Exception e) {
-							// Wait for next task run
-						}
-					}
-				};
-				if (reconnectTimer != null)
-					reconnectTimer.cancel();
-				
-				reconnectTimer = new Timer();
-				reconnectTimer.schedule(reconnectTask, failoverRetryInterval, reconnectRetryInterval);
+            	synchronized (this) {
+	            	jmsConsumer = null;
+	            	jmsConsumerSession = null;
+	            	reconnected = true;
+            	}
+            	scheduleReconnect();
+            }
+            
+            public void scheduleReconnect() {
+            	scheduleReconnection("JMS Consumer " + subscriptionId + " of channel " + channel.getId(), this);
             }
 
-            public void close() throws JMSException {
-				if (reconnectTimer != null)
-					reconnectTimer.cancel();
-				
+            public synchronized void close() throws JMSException {
+            	cancelReconnection(this);
+            	closeResources();
+            }
+            
+            private synchronized void closeResources() throws JMSException {
                 try {
 	            	if (jmsConsumer != null) {
 	                    jmsConsumer.close();
@@ -732,76 +948,16 @@ public class JMSServiceAdapter extends ServiceAdapter {
                 
                 AsyncMessage dmsg = new AsyncMessage();
                 try {
-                    Serializable msg = null;
-
-                    if (textMessages) {
-                        TextMessage jmsMessage = (TextMessage)message;
-                        msg = jmsMessage.getText();
-                    }
-                    else {
-                        ObjectMessage jmsMessage = (ObjectMessage)message;
-                        if (useJBossTCCLDeserializationWorkaround) {
-                        	// On JBoss 6, try to deserialize with application class loader if the previous attempt fails
-                            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
-                            try {
-	                            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-	                            msg = jmsMessage.getObject();
-                            }
-                            finally {
-                            	Thread.currentThread().setContextClassLoader(contextClassLoader);
-                            }
-                        }
-                        try {
-                        	msg = jmsMessage.getObject();
-                        }
-                        catch (JMSException e) {
-                        	// On JBoss 6, try to deserialize with application class loader if the previous attempt fails
-                            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
-                            try {
-	                            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
-	                            msg = jmsMessage.getObject();
-	                            useJBossTCCLDeserializationWorkaround = true;
-                            }
-                            finally {
-                            	Thread.currentThread().setContextClassLoader(contextClassLoader);
-                            }
-                        }
-                    }
+                    Serializable msg = readJMSMessageBody(message);
 
                     dmsg.setDestination(getDestination().getId());
                     
-                    if (Boolean.TRUE.equals(message.getBooleanProperty(Gravity.BYTEARRAY_BODY_HEADER))) {
-                        getGravity().initThread(null, channel.getClientType());
-                        try {
-	                        ByteArrayOutputStream baos = new ByteArrayOutputStream(100);
-	                        AMF3Serializer ser = new AMF3Serializer(baos);
-	                        ser.writeObject(msg);
-	                        ser.close();
-	                        baos.close();
-	                        dmsg.setBody(baos.toByteArray());
-                        }
-                        finally {
-                        	getGravity().releaseThread();
-                        }
-                    }
+                    if (Boolean.TRUE.equals(message.getBooleanProperty(Gravity.BYTEARRAY_BODY_HEADER)))
+                        dmsg.setBody(toByteArrayBody(msg, channel.getClientType()));
                     else
                     	dmsg.setBody(msg);
                     
-                    dmsg.setMessageId(denormalizeJMSMessageID(message.getJMSMessageID()));
-                    dmsg.setCorrelationId(denormalizeJMSMessageID(message.getJMSCorrelationID()));
-                    dmsg.setTimestamp(message.getJMSTimestamp());
-                    dmsg.setTimeToLive(message.getJMSExpiration());
-
-                    Enumeration<?> ename = message.getPropertyNames();
-                    while (ename.hasMoreElements()) {
-                        String pname = (String)ename.nextElement();
-                        dmsg.setHeader(pname, message.getObjectProperty(pname));
-                    }
-            		
-                    dmsg.setHeader("JMSType", message.getJMSType());
-                    dmsg.setHeader("JMSPriority", Integer.valueOf(message.getJMSPriority()));
-                    dmsg.setHeader("JMSRedelivered", Boolean.valueOf(message.getJMSRedelivered()));
-                    dmsg.setHeader("JMSDeliveryMode", Integer.valueOf(message.getJMSDeliveryMode()));
+                    copyJMSMessageHeaders(message, dmsg);
                     dmsg.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, subscriptionId);
                     
                     channel.receive(dmsg);
@@ -859,12 +1015,453 @@ public class JMSServiceAdapter extends ServiceAdapter {
                     // Message already delivered to client, should rollback or not ?
                 }
             }
+        }
+    }
+    
+    
+    /**
+     * Channel client used with shared connections: it doesn't own any JMS resource, messages are
+     * sent with pooled producer sessions and subscriptions are registered on the shared consumer
+     * of their topic.
+     */
+    @TransientReference
+    private class SharedJMSClientImpl implements JMSClient {
+    	
+    	private final Channel channel;
+    	private final Map<String, SharedJMSConsumer> consumers = new HashMap<String, SharedJMSConsumer>();
+    	private String topic = null;
+    	
+    	public SharedJMSClientImpl(Channel channel) {
+    		this.channel = channel;
+    	}
+
+		public void connect() throws Exception {
+			getConnectionPool();
+		}
 
-    		private String denormalizeJMSMessageID(String messageId) {
-                if (messageId != null && messageId.startsWith("ID:"))
-                	messageId = messageId.substring(3);
-    			return messageId;
+		public boolean hasActiveConsumer() {
+			synchronized (consumers) {
+				return !consumers.isEmpty();
+			}
+		}
+
+		public void subscribe(CommandMessage message) throws Exception {
+            String subscriptionId = (String)message.getHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER);
+            String selector = (String)message.getHeader(CommandMessage.SELECTOR_HEADER);
+            this.topic = (String)message.getHeader(AsyncMessage.SUBTOPIC_HEADER);
+
+            internalSubscribe(subscriptionId, selector, message.getDestination(), this.topic);
+		}
+
+		public void subscribe(String selector, String destination, String topic) throws Exception {
+        	DistributedDataFactory distributedDataFactory = GraniteContext.getCurrentInstance().getGraniteConfig().getDistributedDataFactory();
+    		String subscriptionId = distributedDataFactory.getInstance().getDestinationSubscriptionId(destination);
+    		if (subscriptionId != null)
+    			internalSubscribe(subscriptionId, selector, destination, topic);
+		}
+        
+        private void internalSubscribe(String subscriptionId, String selector, String destination, String topic) throws Exception {
+            synchronized (consumers) {
+            	Subscription subscription = channel.addSubscription(destination, topic, subscriptionId, false);
+            	subscription.setSelector(selector);
+            	
+            	SharedJMSConsumer consumer = subscribeSharedConsumer(topic, subscription);
+            	SharedJMSConsumer previous = consumers.put(subscriptionId, consumer);
+            	if (previous != null && previous != consumer)
+            		unsubscribeSharedConsumer(previous, subscriptionId);
+            }
+        }
+
+		public void unsubscribe(CommandMessage message) throws Exception {
+            String subscriptionId = (String)message.getHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER);
+
+            synchronized (consumers) {
+            	SharedJMSConsumer consumer = consumers.remove(subscriptionId);
+            	try {
+            		if (consumer != null)
+            			unsubscribeSharedConsumer(consumer, subscriptionId);
+            	}
+            	finally {
+            		channel.removeSubscription(subscriptionId);
+            	}
+            }
+		}
+
+		public void send(AsyncMessage message) throws Exception {
+            Object msg = readAsyncMessageBody(message);
+            internalSend(message.getHeaders(), msg, message.getMessageId(), message.getCorrelationId(), message.getTimestamp(), message.getTimeToLive());
+		}
+
+		public void send(Map<String, ?> params, Object msg, long timeToLive) throws Exception {
+        	internalSend(params, msg, null, null, new Date().getTime(), timeToLive);
+		}
+		
+		private void internalSend(Map<String, ?> headers, Object msg, String messageId, String correlationId, long timestamp, long timeToLive) throws Exception {
+            String topic = (String)headers.get(AsyncMessage.SUBTOPIC_HEADER);
+            
+            if (publishAsync(channel, topic != null ? topic : this.topic, headers, msg, messageId, correlationId, timestamp, timeToLive))
+            	return;
+            
+            JMSConnectionPool pool = getConnectionPool();
+            JMSConnectionPool.ProducerSession producerSession = pool.borrowSession();
+            boolean sent = false;
+            try {
+            	javax.jms.Session session = producerSession.getSession();
+            	
+	            javax.jms.Message jmsMessage = createJMSMessage(session, headers, msg, messageId, correlationId, timestamp, timeToLive);
+	            jmsMessage.setStringProperty(ORIGIN_CHANNEL_ID_PROPERTY, channel.getId());
+	            
+	            producerSession.getProducer().send(getProducerDestination(topic != null ? topic : this.topic), jmsMessage);
+	            
+	            if (transactedSessions && !useGlassFishNoCommitWorkaround) {
+	            	try {
+	            		session.commit();
+	            	}
+	            	catch (JMSException e) {
+	            		if (e.getMessage() != null && e.getMessage().startsWith("MQJMSRA_DS4001"))
+	                    	useGlassFishNoCommitWorkaround = true;
+	                    else
+	            			log.error(e, "Could not commit JMS Session for channel %s", channel.getId());
+	            	}
+	            }
+	            sent = true;
+            }
+            finally {
+            	if (sent)
+            		pool.returnSession(producerSession);
+            	else
+            		producerSession.close();
+            }
+		}
+
+		public void close() throws Exception {
+			synchronized (consumers) {
+				for (Map.Entry<String, SharedJMSConsumer> me : consumers.entrySet())
+					unsubscribeSharedConsumer(me.getValue(), me.getKey());
+				consumers.clear();
+			}
+		}
+    }
+    
+    
+    /**
+     * Single broker consumer of a topic, shared by all channels: each JMS message is converted
+     * once and dispatched to the matching Gravity subscriptions (selectors are evaluated by
+     * Gravity, not by the broker).
+     */
+    private class SharedJMSConsumer implements MessageListener {
+    	
+    	private final String topic;
+    	private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+    	private final SelectorIndex<Subscription> selectorIndex = new SelectorIndex<Subscription>();
+    	private int connectionIndex = -1;
+        private javax.jms.Session jmsConsumerSession = null;
+        private javax.jms.MessageConsumer jmsConsumer = null;
+        private boolean reconnected = false;
+        private boolean closed = false;
+    	
+    	public SharedJMSConsumer(String topic) {
+    		this.topic = topic;
+    	}
+    	
+    	public synchronized int getConnectionIndex() {
+    		return connectionIndex;
+    	}
+    	
+    	public synchronized void connect() throws Exception {
+    		// May be called from a snapshot taken before this consumer was closed (see reconnectSharedConnections).
+    		if (jmsConsumer != null || closed)
+    			return;
+    		
+    		JMSConnectionPool pool = getConnectionPool();
+    		int index = pool.nextIndex();
+    		javax.jms.Session session = pool.getConnection(index).createSession(transactedSessions, acknowledgeMode);
+    		try {
+    			if (reconnected)
+    				session.recover();
+    			jmsConsumer = session.createConsumer(getConsumerDestination(topic));
+    			jmsConsumer.setMessageListener(this);
+    		}
+    		catch (JMSException e) {
+    			jmsConsumer = null;
+    			session.close();
+    			throw e;
+    		}
+    		jmsConsumerSession = session;
+    		connectionIndex = index;
+    		log.debug("Created shared JMS Consumer for topic %s (connection: #%d)", topic, index);
+    	}
+    	
+    	public void subscribe(Subscription subscription) {
+    		subscriptions.put(subscription.getSubscriptionId(), subscription);
+    		selectorIndex.add(subscription.getSubscriptionId(), subscription, subscription.getSelector());
+    	}
+    	
+    	/**
+    	 * Returns true if this consumer has no more subscriptions.
+    	 */
+    	public boolean unsubscribe(String subscriptionId) {
+    		subscriptions.remove(subscriptionId);
+    		selectorIndex.remove(subscriptionId);
+    		return subscriptions.isEmpty();
+    	}
+    	
+    	public synchronized void reset() {
+    		jmsConsumer = null;
+    		jmsConsumerSession = null;
+    		connectionIndex = -1;
+    		reconnected = true;
+    	}
+    	
+    	public synchronized void close() {
+    		closed = true;
+    		try {
+    			if (jmsConsumer != null)
+    				jmsConsumer.close();
+    		}
+    		catch (JMSException e) {
+    			log.debug(e, "Could not close shared JMS Consumer for topic %s", topic);
+    		}
+    		finally {
+    			try {
+	    			if (jmsConsumerSession != null)
+	    				jmsConsumerSession.close();
+    			}
+    			catch (JMSException e) {
+    				log.debug(e, "Could not close shared JMS Consumer Session for topic %s", topic);
+    			}
+    			jmsConsumer = null;
+    			jmsConsumerSession = null;
+    			connectionIndex = -1;
     		}
+    	}
+
+		public void onMessage(javax.jms.Message message) {
+			javax.jms.Session session = jmsConsumerSession;
+			
+			if (message instanceof ObjectMessage || message instanceof TextMessage) {
+				try {
+					dispatch(message);
+				}
+				catch (Exception e) {
+					log.error(e, "Could not dispatch JMS message for topic %s", topic);
+					
+					if (transactedSessions && session != null) {
+						try {
+							session.rollback();
+						}
+						catch (JMSException f) {
+							log.error(f, "Could not rollback shared JMS session for topic %s", topic);
+						}
+					}
+					return;
+				}
+			}
+			else
+				log.error("JMS Adapter message type not allowed: %s", message.getClass().getName());
+
+            try {
+                if (acknowledgeMode == Session.CLIENT_ACKNOWLEDGE)
+                    message.acknowledge();
+
+                if (transactedSessions && !useGlassFishNoCommitWorkaround && session != null)
+                    session.commit();
+            }
+            catch (JMSException e) {
+                if (e.getMessage() != null && e.getMessage().startsWith("MQJMSRA_DS4001"))
+                	useGlassFishNoCommitWorkaround = true;
+                else
+                    log.error(e, "Could not ack/commit shared JMS onMessage for topic %s", topic);
+            }
+		}
+		
+		private void dispatch(javax.jms.Message message) throws Exception {
+			if (subscriptions.isEmpty())
+				return;
+			
+            AsyncMessage dmsg = new AsyncMessage();
+            dmsg.setDestination(getDestination().getId());
+            copyJMSMessageHeaders(message, dmsg);
+            
+            String originChannelId = message.getStringProperty(ORIGIN_CHANNEL_ID_PROPERTY);
+            boolean byteArray = Boolean.TRUE.equals(message.getBooleanProperty(Gravity.BYTEARRAY_BODY_HEADER));
+            
+            Serializable msg = readJMSMessageBody(message);
+            SharedMessageBody sharedBody = (msg != null && !byteArray ? new SharedMessageBody(msg) : null);
+            Map<String, byte[]> byteArrayBodies = null;
+            
+            for (Subscription subscription : selectorIndex.getCandidates(dmsg)) {
+            	Channel channel = subscription.getChannel();
+            	if (noLocal && channel.getId().equals(originChannelId))
+            		continue;
+            	
+            	AsyncMessage m = dmsg.clone();
+            	if (byteArray) {
+            		// Encoded once per client type.
+            		if (byteArrayBodies == null)
+            			byteArrayBodies = new HashMap<String, byte[]>();
+            		byte[] body = byteArrayBodies.get(channel.getClientType());
+            		if (body == null) {
+            			body = toByteArrayBody(msg, channel.getClientType());
+            			byteArrayBodies.put(channel.getClientType(), body);
+            		}
+            		m.setBody(body);
+            	}
+            	else
+            		m.setBody(msg);
+            	
+            	subscription.deliver(channel, m, sharedBody);
+            }
+		}
+    }
+    
+    
+    /**
+     * Queues the message if asynchronous publishing is enabled. Returns false if the message
+     * must be sent synchronously.
+     */
+    private boolean publishAsync(Channel channel, String topic, Map<String, ?> headers, Object msg, String messageId, String correlationId, long timestamp, long timeToLive) {
+    	JMSAsyncPublisher asyncPublisher = this.asyncPublisher;
+    	if (asyncPublisher == null)
+    		return false;
+    	
+    	if (!asyncPublisher.publish(channel.getId(), topic, headers, msg, messageId, correlationId, timestamp, timeToLive))
+    		throw new ServiceException("Could not queue JMS message for asynchronous publishing (channel: " + channel.getId() + ")");
+    	return true;
+    }
+    
+    ///////////////////////////////////////////////////////////////////////////
+    // Message conversion utilities.
+    
+    protected Object readAsyncMessageBody(AsyncMessage message) throws ClassNotFoundException, IOException {
+        if (Boolean.TRUE.equals(message.getHeader(Gravity.BYTEARRAY_BODY_HEADER))) {
+        	byte[] byteArray = (byte[])message.getBody();
+        	ByteArrayInputStream bais = new ByteArrayInputStream(byteArray);
+        	AMF3Deserializer deser = new AMF3Deserializer(bais);
+        	Object msg = deser.readObject();
+        	deser.close(); // makes jdk7 happy (Resource leak: 'deser' is never closed)...
+        	return msg;
+        }
+        return message.getBody();
+    }
+    
+    protected javax.jms.Message createJMSMessage(javax.jms.Session session, Map<String, ?> headers, Object msg,
+    	String messageId, String correlationId, long timestamp, long timeToLive) throws JMSException {
+    	
+        javax.jms.Message jmsMessage = null;
+        if (textMessages)
+            jmsMessage = session.createTextMessage(msg.toString());
+        else
+            jmsMessage = session.createObjectMessage((Serializable)msg);
+
+        jmsMessage.setJMSMessageID(normalizeJMSMessageID(messageId));
+        jmsMessage.setJMSCorrelationID(normalizeJMSMessageID(correlationId));
+        jmsMessage.setJMSTimestamp(timestamp);
+        jmsMessage.setJMSExpiration(timeToLive);
+        
+        for (Map.Entry<String, ?> me : headers.entrySet()) {
+            if ("JMSType".equals(me.getKey())) {
+                if (me.getValue() instanceof String)
+                    jmsMessage.setJMSType((String)me.getValue());
+            }
+            else if ("JMSPriority".equals(me.getKey())) {
+                if (me.getValue() instanceof Integer)
+                    jmsMessage.setJMSPriority(((Integer)me.getValue()).intValue());
+            }
+            else if (me.getValue() instanceof String)
+                jmsMessage.setStringProperty(me.getKey(), (String)me.getValue());
+            else if (me.getValue() instanceof Boolean)
+                jmsMessage.setBooleanProperty(me.getKey(), ((Boolean)me.getValue()).booleanValue());
+            else if (me.getValue() instanceof Integer)
+                jmsMessage.setIntProperty(me.getKey(), ((Integer)me.getValue()).intValue());
+            else if (me.getValue() instanceof Long)
+                jmsMessage.setLongProperty(me.getKey(), ((Long)me.getValue()).longValue());
+            else if (me.getValue() instanceof Double)
+                jmsMessage.setDoubleProperty(me.getKey(), ((Double)me.getValue()).doubleValue());
+            else
+                jmsMessage.setObjectProperty(me.getKey(), me.getValue());
+        }
+        
+        return jmsMessage;
+    }
+    
+    protected Serializable readJMSMessageBody(javax.jms.Message message) throws JMSException {
+        if (textMessages)
+            return ((TextMessage)message).getText();
+        
+        ObjectMessage jmsMessage = (ObjectMessage)message;
+        if (useJBossTCCLDeserializationWorkaround) {
+        	// On JBoss 6, try to deserialize with application class loader if the previous attempt fails
+            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+                return jmsMessage.getObject();
+            }
+            finally {
+            	Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+        try {
+        	return jmsMessage.getObject();
+        }
+        catch (JMSException e) {
+        	// On JBoss 6, try to deserialize with application class loader if the previous attempt fails
+            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+                Serializable msg = jmsMessage.getObject();
+                useJBossTCCLDeserializationWorkaround = true;
+                return msg;
+            }
+            finally {
+            	Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
         }
     }
+    
+    protected byte[] toByteArrayBody(Object msg, String clientType) throws IOException {
+        getGravity().initThread(null, clientType);
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(100);
+            AMF3Serializer ser = new AMF3Serializer(baos);
+            ser.writeObject(msg);
+            ser.close();
+            baos.close();
+            return baos.toByteArray();
+        }
+        finally {
+        	getGravity().releaseThread();
+        }
+    }
+    
+    protected void copyJMSMessageHeaders(javax.jms.Message message, AsyncMessage dmsg) throws JMSException {
+        dmsg.setMessageId(denormalizeJMSMessageID(message.getJMSMessageID()));
+        dmsg.setCorrelationId(denormalizeJMSMessageID(message.getJMSCorrelationID()));
+        dmsg.setTimestamp(message.getJMSTimestamp());
+        dmsg.setTimeToLive(message.getJMSExpiration());
+
+        Enumeration<?> ename = message.getPropertyNames();
+        while (ename.hasMoreElements()) {
+            String pname = (String)ename.nextElement();
+            if (!ORIGIN_CHANNEL_ID_PROPERTY.equals(pname))
+            	dmsg.setHeader(pname, message.getObjectProperty(pname));
+        }
+		
+        dmsg.setHeader("JMSType", message.getJMSType());
+        dmsg.setHeader("JMSPriority", Integer.valueOf(message.getJMSPriority()));
+        dmsg.setHeader("JMSRedelivered", Boolean.valueOf(message.getJMSRedelivered()));
+        dmsg.setHeader("JMSDeliveryMode", Integer.valueOf(message.getJMSDeliveryMode()));
+    }
+
+	private static String normalizeJMSMessageID(String messageId) {
+        if (messageId != null && !messageId.startsWith("ID:"))
+        	messageId = "ID:" + messageId;
+		return messageId;
+	}
+
+	private static String denormalizeJMSMessageID(String messageId) {
+        if (messageId != null && messageId.startsWith("ID:"))
+        	messageId = messageId.substring(3);
+		return messageId;
+	}
 }
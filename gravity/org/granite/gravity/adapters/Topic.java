@@ -24,7 +24,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.granite.gravity.Channel;
+import org.granite.gravity.SharedMessageBody;
 import org.granite.gravity.Subscription;
+import org.granite.gravity.selector.SelectorIndex;
 
 import flex.messaging.messages.AsyncMessage;
 
@@ -39,6 +41,7 @@ public class Topic {
     private final SimpleServiceAdapter serviceAdapter;
 
     private ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+    private final SelectorIndex<Subscription> selectorIndex = new SelectorIndex<Subscription>();
     private ConcurrentMap<String, Topic> children = new ConcurrentHashMap<String, Topic>();
     private Topic wild;
     private Topic wildWild;
@@ -99,49 +102,59 @@ public class Topic {
         synchronized (this) {
             Subscription subscription = channel.addSubscription(destination, getId(), subscriptionId, noLocal);
             subscription.setSelector(selector);
-            subscriptions.putIfAbsent(subscriptionId, subscription);
+            Subscription present = subscriptions.putIfAbsent(subscriptionId, subscription);
+            if (present != null)
+            	subscription = present;
+            selectorIndex.add(subscriptionId, subscription, subscription.getSelector());
         }
     }
 
     public void unsubscribe(Channel channel, String subscriptionId) {
         synchronized(this) {
         	subscriptions.remove(subscriptionId);
+        	selectorIndex.remove(subscriptionId);
             channel.removeSubscription(subscriptionId);
         }
     }
 
 
     public void publish(TopicId to, Channel fromChannel, AsyncMessage msg) {
+        // The body is shared by all subscribers: encode it once for all of them.
+        SharedMessageBody sharedBody = (msg.getBody() != null ? new SharedMessageBody(msg.getBody()) : null);
+        publish(to, fromChannel, msg, sharedBody);
+    }
+
+    private void publish(TopicId to, Channel fromChannel, AsyncMessage msg, SharedMessageBody sharedBody) {
         int tail = to.depth()-id.depth();
 
         switch(tail) {
             case 0:
-                for (Subscription subscription : subscriptions.values()) {
+                for (Subscription subscription : selectorIndex.getCandidates(msg)) {
                     AsyncMessage m = msg.clone();
-                    subscription.deliver(fromChannel, m);
+                    subscription.deliver(fromChannel, m, sharedBody);
                 }
 
                 break;
 
             case 1:
                 if (wild != null) {
-                    for (Subscription subscription : wild.subscriptions.values()) {
+                    for (Subscription subscription : wild.selectorIndex.getCandidates(msg)) {
                         AsyncMessage m = msg.clone();
-                        subscription.deliver(fromChannel, m);
+                        subscription.deliver(fromChannel, m, sharedBody);
                     }
                 }
 
             default: {
                 if (wildWild != null) {
-                    for (Subscription subscription : wildWild.subscriptions.values()) {
+                    for (Subscription subscription : wildWild.selectorIndex.getCandidates(msg)) {
                         AsyncMessage m = msg.clone();
-                        subscription.deliver(fromChannel, m);
+                        subscription.deliver(fromChannel, m, sharedBody);
                     }
                 }
                 String next = to.getSegment(id.depth());
                 Topic topic = children.get(next);
                 if (topic != null)
-                    topic.publish(to, fromChannel, msg);
+                    topic.publish(to, fromChannel, msg, sharedBody);
             }
         }
     }
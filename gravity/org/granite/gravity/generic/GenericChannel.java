@@ -81,16 +81,8 @@ public class GenericChannel extends AbstractChannel {
 		if (message == null)
 			throw new NullPointerException("message cannot be null");
 		
-		receivedQueueLock.lock();
-		try {
-			receivedQueue.add(message);
-		}
-		catch (Exception e) {
-			throw new MessageReceivingException(message, "Could not queue message", e);
-		}
-		finally {
-			receivedQueueLock.unlock();
-		}
+		if (!queueReceived(message))
+			return;
 		
 		synchronized (this) {
 			resume();
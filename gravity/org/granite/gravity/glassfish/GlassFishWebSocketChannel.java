@@ -6,7 +6,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 
 import org.granite.context.GraniteContext;
 import org.granite.context.SimpleGraniteContext;
@@ -14,6 +14,7 @@ import org.granite.gravity.AbstractChannel;
 import org.granite.gravity.AsyncHttpContext;
 import org.granite.gravity.Gravity;
 import org.granite.gravity.GravityConfig;
+import org.granite.gravity.SharedMessageBody;
 import org.granite.logging.Logger;
 
 import com.sun.grizzly.websockets.DataFrame;
@@ -151,7 +152,8 @@ public class GlassFishWebSocketChannel extends AbstractChannel implements WebSoc
 	@Override
 	public boolean runReceived(AsyncHttpContext asyncHttpContext) {
 		
-		LinkedList<AsyncMessage> messages = null;
+		List<AsyncMessage> messages = null;
+		List<SharedMessageBody> messagesSharedBodies = null;
 		ByteArrayOutputStream os = null;
 
 		try {
@@ -162,8 +164,8 @@ public class GlassFishWebSocketChannel extends AbstractChannel implements WebSoc
 					return false;
 				
 				// Both conditions are ok, get all pending messages.
-				messages = receivedQueue;
-				receivedQueue = new LinkedList<AsyncMessage>();
+				messages = drainReceivedQueue();
+				messagesSharedBodies = pollSharedBodies(messages);
 			}
 			finally {
 				receivedQueueLock.unlock();
@@ -185,6 +187,7 @@ public class GlassFishWebSocketChannel extends AbstractChannel implements WebSoc
 	        
 	        os = new ByteArrayOutputStream(500);
 	        ObjectOutput amf3Serializer = context.getGraniteConfig().newAMF3Serializer(os);
+	        addSharedBodies(amf3Serializer, messagesSharedBodies);
 	        
 	        log.debug("<< [MESSAGES for channel=%s] %s", this, messagesArray);
 	        
@@ -201,7 +204,7 @@ public class GlassFishWebSocketChannel extends AbstractChannel implements WebSoc
 			if (gravityConfig.isRetryOnError()) {
 				receivedQueueLock.lock();
 				try {
-					if (receivedQueue.size() + messages.size() > gravityConfig.getMaxMessagesQueuedPerChannel()) {
+					if (!receivedQueue.requeue(messages, gravityConfig.getMaxMessagesQueuedPerChannel())) {
 						log.warn(
 							"Channel %s has reached its maximum queue capacity %s (throwing %s messages)",
 							this,
@@ -209,8 +212,6 @@ public class GlassFishWebSocketChannel extends AbstractChannel implements WebSoc
 							messages.size()
 						);
 					}
-					else
-						receivedQueue.addAll(0, messages);
 				}
 				finally {
 					receivedQueueLock.unlock();
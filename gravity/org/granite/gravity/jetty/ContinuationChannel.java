@@ -23,7 +23,6 @@ package org.granite.gravity.jetty;
 import org.granite.gravity.AbstractChannel;
 import org.granite.gravity.AsyncHttpContext;
 import org.granite.gravity.Gravity;
-import org.granite.gravity.GravityConfig;
 import org.granite.gravity.MessageReceivingException;
 import org.granite.logging.Logger;
 import org.mortbay.util.ajax.Continuation;
@@ -83,18 +82,8 @@ public class ContinuationChannel extends AbstractChannel {
 		if (message == null)
 			throw new NullPointerException("message cannot be null");
 
-		GravityConfig gravityConfig = gravity.getGravityConfig();
-		
-		receivedQueueLock.lock();
-		try {
-			if (receivedQueue.size() + 1 > gravityConfig.getMaxMessagesQueuedPerChannel())
-				throw new MessageReceivingException(message, "Could not queue message (channel's queue is full) for channel: " + this);
-			
-			receivedQueue.add(message);
-		}
-		finally {
-			receivedQueueLock.unlock();
-		}
+		if (!queueReceived(message))
+			return;
 		
 		synchronized (this) {
 			resume();
@@ -6,7 +6,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.List;
 
 import javax.servlet.ServletContext;
 
@@ -17,8 +17,10 @@ import org.granite.gravity.AbstractChannel;
 import org.granite.gravity.AsyncHttpContext;
 import org.granite.gravity.Gravity;
 import org.granite.gravity.GravityConfig;
+import org.granite.gravity.SharedMessageBody;
 import org.granite.logging.Logger;
 import org.granite.messaging.webapp.ServletGraniteContext;
+import org.granite.util.PublicByteArrayOutputStream;
 
 import flex.messaging.messages.AsyncMessage;
 import flex.messaging.messages.Message;
@@ -168,8 +170,9 @@ public class JettyWebSocketChannel extends AbstractChannel implements WebSocket,
 	@Override
 	public boolean runReceived(AsyncHttpContext asyncHttpContext) {
 		
-		LinkedList<AsyncMessage> messages = null;
-		ByteArrayOutputStream os = null;
+		List<AsyncMessage> messages = null;
+		List<SharedMessageBody> messagesSharedBodies = null;
+		PublicByteArrayOutputStream os = null;
 
 		try {
 			receivedQueueLock.lock();
@@ -179,8 +182,8 @@ public class JettyWebSocketChannel extends AbstractChannel implements WebSocket,
 					return false;
 				
 				// Both conditions are ok, get all pending messages.
-				messages = receivedQueue;
-				receivedQueue = new LinkedList<AsyncMessage>();
+				messages = drainReceivedQueue();
+				messagesSharedBodies = pollSharedBodies(messages);
 			}
 			finally {
 				receivedQueueLock.unlock();
@@ -198,14 +201,15 @@ public class JettyWebSocketChannel extends AbstractChannel implements WebSocket,
 			Gravity gravity = getGravity();
 	        GraniteContext context = ServletGraniteContext.createThreadInstance(gravity.getGraniteConfig(), gravity.getServicesConfig(), servletContext, sessionId, clientType);
 	        
-	        os = new ByteArrayOutputStream(500);
+	        os = new PublicByteArrayOutputStream(500);
 	        ObjectOutput amf3Serializer = context.getGraniteConfig().newAMF3Serializer(os);
+	        addSharedBodies(amf3Serializer, messagesSharedBodies);
 	        
 	        log.debug("<< [MESSAGES for channel=%s] %s", this, messagesArray);
 	        
 	        amf3Serializer.writeObject(messagesArray);
 	        
-	        connection.sendMessage(os.toByteArray(), 0, os.size());
+	        connection.sendMessage(os.getBytes(), 0, os.size());
 	        
 	        return true; // Messages were delivered
 		}
@@ -216,7 +220,7 @@ public class JettyWebSocketChannel extends AbstractChannel implements WebSocket,
 			if (gravityConfig.isRetryOnError()) {
 				receivedQueueLock.lock();
 				try {
-					if (receivedQueue.size() + messages.size() > gravityConfig.getMaxMessagesQueuedPerChannel()) {
+					if (!receivedQueue.requeue(messages, gravityConfig.getMaxMessagesQueuedPerChannel())) {
 						log.warn(
 							"Channel %s has reached its maximum queue capacity %s (throwing %s messages)",
 							this,
@@ -224,8 +228,6 @@ public class JettyWebSocketChannel extends AbstractChannel implements WebSocket,
 							messages.size()
 						);
 					}
-					else
-						receivedQueue.addAll(0, messages);
 				}
 				finally {
 					receivedQueueLock.unlock();
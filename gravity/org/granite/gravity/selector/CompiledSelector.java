@@ -0,0 +1,381 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity.selector;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.jms.JMSException;
+
+import flex.messaging.messages.Message;
+
+/**
+ * A parsed selector turned into a tree of specialized nodes reading message headers directly:
+ * no {@link MessageEvaluationContext} is created and no intermediate value is allocated for
+ * supported expressions (AND, OR, NOT, =, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;=, BETWEEN, IN, LIKE,
+ * IS NULL and boolean properties). Other expressions (eg. arithmetic operands) are delegated
+ * to their interpretive {@link Expression#evaluate(MessageEvaluationContext)} method.
+ * <br>
+ * Compiled selectors are immutable and may be shared by any number of subscriptions.
+ */
+public final class CompiledSelector {
+
+	private final BooleanExpression expression;
+	private final Node root;
+
+	private CompiledSelector(BooleanExpression expression, Node root) {
+		this.expression = expression;
+		this.root = root;
+	}
+
+	public static CompiledSelector compile(BooleanExpression expression) {
+		return new CompiledSelector(expression, compileNode(expression));
+	}
+
+	public BooleanExpression getExpression() {
+		return expression;
+	}
+
+	public boolean matches(Message message) throws JMSException {
+		return root.evaluate(message) == Boolean.TRUE;
+	}
+
+	@Override
+	public String toString() {
+		return expression.toString();
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Compilation.
+
+	private static Node compileNode(Expression expression) {
+		if (expression instanceof ConstantExpression && expression instanceof BooleanExpression)
+			return new ConstantNode(((ConstantExpression)expression).getValue());
+
+		if (expression instanceof LogicExpression) {
+			LogicExpression logic = (LogicExpression)expression;
+			String symbol = logic.getExpressionSymbol();
+			if ("AND".equals(symbol))
+				return new AndNode(compileNode(logic.getLeft()), compileNode(logic.getRight()));
+			if ("OR".equals(symbol))
+				return new OrNode(compileNode(logic.getLeft()), compileNode(logic.getRight()));
+		}
+		else if (expression instanceof ComparisonExpression) {
+			ComparisonExpression comparison = (ComparisonExpression)expression;
+			Operand left = compileOperand(comparison.getLeft());
+			Operand right = compileOperand(comparison.getRight());
+			if ("=".equals(comparison.getExpressionSymbol()))
+				return new EqualNode(comparison, left, right);
+			return new CompareNode(comparison, left, right);
+		}
+		else if (expression instanceof UnaryExpression.InExpression) {
+			UnaryExpression.InExpression in = (UnaryExpression.InExpression)expression;
+			Collection<?> inList = in.getInList();
+			Set<Object> values = (inList != null ? new HashSet<Object>(inList) : Collections.<Object>emptySet());
+			return new InNode(compileOperand(in.getRight()), values, in.isNot());
+		}
+		else if (expression instanceof ComparisonExpression.LikeExpression) {
+			ComparisonExpression.LikeExpression like = (ComparisonExpression.LikeExpression)expression;
+			return new LikeNode(compileOperand(like.getRight()), like.likePattern);
+		}
+		else if (expression instanceof UnaryExpression && expression instanceof BooleanExpression) {
+			UnaryExpression unary = (UnaryExpression)expression;
+			String symbol = unary.getExpressionSymbol();
+			if ("NOT".equals(symbol))
+				return new NotNode(compileNode(unary.getRight()));
+			if ("".equals(symbol))
+				return new BooleanCastNode(compileOperand(unary.getRight()));
+		}
+
+		return new ExpressionNode(expression);
+	}
+
+	private static Operand compileOperand(Expression expression) {
+		if (expression instanceof PropertyExpression)
+			return new PropertyOperand(((PropertyExpression)expression).getName());
+		if (expression instanceof ConstantExpression)
+			return new ConstantOperand(((ConstantExpression)expression).getValue());
+		return new ExpressionOperand(expression);
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Operands.
+
+	private static abstract class Operand {
+		public abstract Object value(Message message) throws JMSException;
+	}
+
+	private static final class PropertyOperand extends Operand {
+
+		private final String name;
+
+		public PropertyOperand(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Object value(Message message) {
+			return message.getHeader(name);
+		}
+	}
+
+	private static final class ConstantOperand extends Operand {
+
+		private final Object value;
+
+		public ConstantOperand(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object value(Message message) {
+			return value;
+		}
+	}
+
+	private static final class ExpressionOperand extends Operand {
+
+		private final Expression expression;
+
+		public ExpressionOperand(Expression expression) {
+			this.expression = expression;
+		}
+
+		@Override
+		public Object value(Message message) throws JMSException {
+			return expression.evaluate(new MessageEvaluationContext(message));
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+	// Nodes (same three-valued logic as the interpretive expressions: TRUE, FALSE or null).
+
+	private static abstract class Node extends Operand {
+		public abstract Boolean evaluate(Message message) throws JMSException;
+
+		@Override
+		public Object value(Message message) throws JMSException {
+			return evaluate(message);
+		}
+	}
+
+	private static final class ConstantNode extends Node {
+
+		private final Boolean value;
+
+		public ConstantNode(Object value) {
+			this.value = (Boolean)value;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) {
+			return value;
+		}
+	}
+
+	private static final class AndNode extends Node {
+
+		private final Node left;
+		private final Node right;
+
+		public AndNode(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) throws JMSException {
+			Boolean lv = left.evaluate(message);
+			if (lv == null)
+				return null;
+			if (!lv.booleanValue())
+				return Boolean.FALSE;
+			return right.evaluate(message);
+		}
+	}
+
+	private static final class OrNode extends Node {
+
+		private final Node left;
+		private final Node right;
+
+		public OrNode(Node left, Node right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) throws JMSException {
+			Boolean lv = left.evaluate(message);
+			if (lv != null && lv.booleanValue())
+				return Boolean.TRUE;
+			return right.evaluate(message);
+		}
+	}
+
+	private static final class NotNode extends Node {
+
+		private final Node operand;
+
+		public NotNode(Node operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) throws JMSException {
+			Boolean value = operand.evaluate(message);
+			if (value == null)
+				return null;
+			return value.booleanValue() ? Boolean.FALSE : Boolean.TRUE;
+		}
+	}
+
+	private static final class BooleanCastNode extends Node {
+
+		private final Operand operand;
+
+		public BooleanCastNode(Operand operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) throws JMSException {
+			Object value = operand.value(message);
+			if (value == null)
+				return null;
+			if (value.getClass() != Boolean.class)
+				return Boolean.FALSE;
+			return ((Boolean)value).booleanValue() ? Boolean.TRUE : Boolean.FALSE;
+		}
+	}
+
+	private static final class EqualNode extends Node {
+
+		private final ComparisonExpression comparison;
+		private final Operand left;
+		private final Operand right;
+
+		public EqualNode(ComparisonExpression comparison, Operand left, Operand right) {
+			this.comparison = comparison;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public Boolean evaluate(Message message) throws JMSException {
+			Object lv = left.value(message);
+			Object rv = right.value(message);
+
+			if (lv == null ^ rv == null)
+				return Boolean.FALSE;
+			if (lv == rv || lv.equals(rv))
+				return Boolean.TRUE;
+			if (lv instanceof Comparable<?> && rv instanceof Comparable<?>)
+				return comparison.compare((Comparable)lv, (Comparable)rv);
+			return Boolean.FALSE;
+		}
+	}
+
+	private static final class CompareNode extends Node {
+
+		private final ComparisonExpression comparison;
+		private final Operand left;
+		private final Operand right;
+
+		public CompareNode(ComparisonExpression comparison, Operand left, Operand right) {
+			this.comparison = comparison;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public Boolean evaluate(Message message) throws JMSException {
+			Comparable lv = (Comparable)left.value(message);
+			if (lv == null)
+				return null;
+			Comparable rv = (Comparable)right.value(message);
+			if (rv == null)
+				return null;
+			return comparison.compare(lv, rv);
+		}
+	}
+
+	private static final class InNode extends Node {
+
+		private final Operand operand;
+		private final Set<?> values;
+		private final boolean not;
+
+		public InNode(Operand operand, Set<?> values, boolean not) {
+			this.operand = operand;
+			this.values = values;
+			this.not = not;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) throws JMSException {
+			Object value = operand.value(message);
+			if (value == null || value.getClass() != String.class)
+				return null;
+			return (values.contains(value) ^ not) ? Boolean.TRUE : Boolean.FALSE;
+		}
+	}
+
+	private static final class LikeNode extends Node {
+
+		private final Operand operand;
+		private final Pattern pattern;
+
+		public LikeNode(Operand operand, Pattern pattern) {
+			this.operand = operand;
+			this.pattern = pattern;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) throws JMSException {
+			Object value = operand.value(message);
+			if (value == null)
+				return null;
+			if (!(value instanceof String))
+				return Boolean.FALSE;
+			return pattern.matcher((String)value).matches() ? Boolean.TRUE : Boolean.FALSE;
+		}
+	}
+
+	private static final class ExpressionNode extends Node {
+
+		private final Expression expression;
+
+		public ExpressionNode(Expression expression) {
+			this.expression = expression;
+		}
+
+		@Override
+		public Boolean evaluate(Message message) throws JMSException {
+			return (Boolean)expression.evaluate(new MessageEvaluationContext(message));
+		}
+	}
+}
@@ -27,20 +27,39 @@ import flex.messaging.messages.Message;
  */
 public class GravityMessageSelector implements MessageSelector {
 
-    private BooleanExpression expression;
+    private final BooleanExpression expression;
+    private final CompiledSelector compiled;
 
 
     public GravityMessageSelector(String selector) {
+        this(selector, true);
+    }
+
+    /**
+     * @param selector the selector text (parsed selectors are shared, see {@link SelectorCache}).
+     * @param compile true to evaluate the selector with its {@link CompiledSelector}, false to use the
+     * 		interpretive {@link BooleanExpression#matches(MessageEvaluationContext)} evaluation.
+     */
+    public GravityMessageSelector(String selector, boolean compile) {
         try {
-            this.expression = new SelectorParser().parse(selector);
+            CompiledSelector compiled = SelectorCache.getSelector(selector);
+            this.expression = compiled.getExpression();
+            this.compiled = (compile ? compiled : null);
         }
         catch (Exception e) {
             throw new RuntimeException("Gravity SelectorParser error " + selector, e);
         }
     }
 
+    public BooleanExpression getExpression() {
+        return expression;
+    }
+
     public boolean accept(Message message) {
         try {
+            if (compiled != null)
+                return compiled.matches(message);
+
             MessageEvaluationContext context = new MessageEvaluationContext(message);
 
             return expression.matches(context);
@@ -0,0 +1,71 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity.selector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of parsed and compiled selectors, keyed by selector text: identical selectors
+ * sent by many clients are only parsed once. When the cache is full, the least recently used
+ * selector is evicted.
+ */
+public class SelectorCache {
+
+	public static final int MAX_SIZE = 1024;
+
+	private static final Map<String, CompiledSelector> cache = Collections.synchronizedMap(
+		new LinkedHashMap<String, CompiledSelector>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledSelector> eldest) {
+				return size() > MAX_SIZE;
+			}
+		}
+	);
+
+	public static CompiledSelector getSelector(String selector) throws Exception {
+		CompiledSelector compiled = cache.get(selector);
+		if (compiled == null) {
+			// Parse outside of the lock, the first parsed selector wins.
+			compiled = CompiledSelector.compile(new SelectorParser().parse(selector));
+			synchronized (cache) {
+				CompiledSelector previous = cache.get(selector);
+				if (previous != null)
+					compiled = previous;
+				else
+					cache.put(selector, compiled);
+			}
+		}
+		return compiled;
+	}
+
+	public static int size() {
+		return cache.size();
+	}
+
+	public static void clear() {
+		cache.clear();
+	}
+}
@@ -0,0 +1,197 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.gravity.selector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import flex.messaging.messages.Message;
+
+/**
+ * Routes messages to the items (eg. subscriptions) whose selectors may accept them.
+ * <br>
+ * Selectors parsed by {@link SelectorParser} whose top level conjunction contains an equality
+ * (<tt>header = 'value'</tt>) or an <tt>IN</tt> predicate (<tt>header IN ('v1', 'v2')</tt>) on
+ * string constants are indexed by header name and values: such selectors can only accept
+ * messages with one of these string values for this header. All other items are always
+ * returned as candidates. This index only filters candidates: the full selector must still be
+ * evaluated against each candidate.
+ */
+public class SelectorIndex<T> {
+
+	private final ConcurrentMap<String, T> unindexed = new ConcurrentHashMap<String, T>();
+	private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, T>>> indexed
+		= new ConcurrentHashMap<String, ConcurrentMap<String, ConcurrentMap<String, T>>>();
+	private final ConcurrentMap<String, Predicate> predicates = new ConcurrentHashMap<String, Predicate>();
+
+	/**
+	 * Adds (or replaces) an item.
+	 *
+	 * @param id the unique id of the item.
+	 * @param item the item.
+	 * @param selector the item selector, possibly null.
+	 */
+	public synchronized void add(String id, T item, MessageSelector selector) {
+		remove(id);
+
+		Predicate predicate = null;
+		if (selector instanceof GravityMessageSelector)
+			predicate = findPredicate(((GravityMessageSelector)selector).getExpression());
+
+		if (predicate == null) {
+			unindexed.put(id, item);
+			return;
+		}
+
+		predicates.put(id, predicate);
+
+		ConcurrentMap<String, ConcurrentMap<String, T>> values = indexed.get(predicate.header);
+		if (values == null) {
+			values = new ConcurrentHashMap<String, ConcurrentMap<String, T>>();
+			indexed.put(predicate.header, values);
+		}
+		for (String value : predicate.values) {
+			ConcurrentMap<String, T> items = values.get(value);
+			if (items == null) {
+				items = new ConcurrentHashMap<String, T>();
+				values.put(value, items);
+			}
+			items.put(id, item);
+		}
+	}
+
+	public synchronized void remove(String id) {
+		if (unindexed.remove(id) != null)
+			return;
+
+		Predicate predicate = predicates.remove(id);
+		if (predicate == null)
+			return;
+
+		ConcurrentMap<String, ConcurrentMap<String, T>> values = indexed.get(predicate.header);
+		if (values == null)
+			return;
+		for (String value : predicate.values) {
+			ConcurrentMap<String, T> items = values.get(value);
+			if (items != null) {
+				items.remove(id);
+				if (items.isEmpty())
+					values.remove(value);
+			}
+		}
+		if (values.isEmpty())
+			indexed.remove(predicate.header);
+	}
+
+	public int size() {
+		return unindexed.size() + predicates.size();
+	}
+
+	public int getIndexedCount() {
+		return predicates.size();
+	}
+
+	/**
+	 * Returns all items whose selector may accept the supplied message.
+	 */
+	public List<T> getCandidates(Message message) {
+		List<T> candidates = new ArrayList<T>(unindexed.values());
+
+		if (!indexed.isEmpty()) {
+			for (Map.Entry<String, ConcurrentMap<String, ConcurrentMap<String, T>>> entry : indexed.entrySet()) {
+				Object value = message.getHeader(entry.getKey());
+				if (value instanceof String) {
+					ConcurrentMap<String, T> items = entry.getValue().get(value);
+					if (items != null)
+						candidates.addAll(items.values());
+				}
+			}
+		}
+
+		return candidates;
+	}
+
+	/**
+	 * Looks for an indexable predicate in the top level conjunction of the supplied expression.
+	 */
+	static Predicate findPredicate(Expression expression) {
+		if (expression instanceof LogicExpression) {
+			LogicExpression logic = (LogicExpression)expression;
+			if (!"AND".equals(logic.getExpressionSymbol()))
+				return null;
+			Predicate predicate = findPredicate(logic.getLeft());
+			return (predicate != null ? predicate : findPredicate(logic.getRight()));
+		}
+
+		if (expression instanceof ComparisonExpression) {
+			ComparisonExpression comparison = (ComparisonExpression)expression;
+			if (!"=".equals(comparison.getExpressionSymbol()))
+				return null;
+			Expression left = comparison.getLeft();
+			Expression right = comparison.getRight();
+			if (right instanceof PropertyExpression) {
+				Expression tmp = left;
+				left = right;
+				right = tmp;
+			}
+			if (left instanceof PropertyExpression && right instanceof ConstantExpression) {
+				Object value = ((ConstantExpression)right).getValue();
+				if (value instanceof String)
+					return new Predicate(((PropertyExpression)left).getName(), Collections.singleton((String)value));
+			}
+			return null;
+		}
+
+		if (expression instanceof UnaryExpression.InExpression) {
+			UnaryExpression.InExpression in = (UnaryExpression.InExpression)expression;
+			if (in.isNot())
+				return null;
+			Collection<?> inList = in.getInList();
+			List<String> values = new ArrayList<String>(inList != null ? inList.size() : 0);
+			if (inList != null) {
+				for (Object value : inList) {
+					// Only string header values can match an IN predicate.
+					if (value instanceof String)
+						values.add((String)value);
+				}
+			}
+			return new Predicate(((PropertyExpression)in.getRight()).getName(), values);
+		}
+
+		return null;
+	}
+
+	static final class Predicate {
+
+		final String header;
+		final Collection<String> values;
+
+		Predicate(String header, Collection<String> values) {
+			this.header = header;
+			this.values = values;
+		}
+	}
+}
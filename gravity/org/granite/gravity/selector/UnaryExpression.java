@@ -66,56 +66,74 @@ public abstract class UnaryExpression implements Expression {
         else {
             t = new HashSet<Object>(elements);
         }
-        final Collection<?> inList = t;
+        return new InExpression(right, t, not);
+    }
 
-        return new BooleanUnaryExpression(right) {
-            public Object evaluate(MessageEvaluationContext message) throws JMSException {
+    static class InExpression extends BooleanUnaryExpression {
 
-                Object rvalue = right.evaluate(message);
-                if (rvalue == null) {
-                    return null;
-                }
-                if( rvalue.getClass()!=String.class )
-                    return null;
+        private final Collection<?> inList;
+        private final boolean not;
 
-                if( (inList!=null && inList.contains(rvalue)) ^ not ) {
-                    return Boolean.TRUE;
-                }
-                return Boolean.FALSE;
+        public InExpression(PropertyExpression right, Collection<?> inList, boolean not) {
+            super(right);
+            this.inList = inList;
+            this.not = not;
+        }
 
-            }
+        public Collection<?> getInList() {
+            return inList;
+        }
 
-            @Override
-            public String toString() {
-                StringBuffer answer = new StringBuffer();
-                answer.append(right);
-                answer.append(" ");
-                answer.append(getExpressionSymbol());
-                answer.append(" ( ");
-
-                if (inList != null) {
-                	int count=0;
-	                for (Iterator<?> i = inList.iterator(); i.hasNext();) {
-	                    Object o = i.next();
-	                    if( count!=0 ) {
-	                        answer.append(", ");
-	                    }
-	                    answer.append(o);
-	                    count++;
-	                }
-                }
+        public boolean isNot() {
+            return not;
+        }
 
-                answer.append(" )");
-                return answer.toString();
+        public Object evaluate(MessageEvaluationContext message) throws JMSException {
+
+            Object rvalue = right.evaluate(message);
+            if (rvalue == null) {
+                return null;
             }
+            if( rvalue.getClass()!=String.class )
+                return null;
 
-            @Override
-            public String getExpressionSymbol() {
-                if( not )
-                    return "NOT IN";
-                return "IN";
+            if( (inList!=null && inList.contains(rvalue)) ^ not ) {
+                return Boolean.TRUE;
             }
-        };
+            return Boolean.FALSE;
+
+        }
+
+        @Override
+        public String toString() {
+            StringBuffer answer = new StringBuffer();
+            answer.append(right);
+            answer.append(" ");
+            answer.append(getExpressionSymbol());
+            answer.append(" ( ");
+
+            if (inList != null) {
+            	int count=0;
+	            for (Iterator<?> i = inList.iterator(); i.hasNext();) {
+	                Object o = i.next();
+	                if( count!=0 ) {
+	                    answer.append(", ");
+	                }
+	                answer.append(o);
+	                count++;
+	            }
+            }
+
+            answer.append(" )");
+            return answer.toString();
+        }
+
+        @Override
+        public String getExpressionSymbol() {
+            if( not )
+                return "NOT IN";
+            return "IN";
+        }
     }
 
     abstract static class BooleanUnaryExpression extends UnaryExpression implements BooleanExpression {
@@ -8,7 +8,7 @@ import java.io.ObjectOutput;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.List;
 
 import javax.servlet.ServletContext;
 
@@ -20,8 +20,10 @@ import org.granite.gravity.AbstractChannel;
 import org.granite.gravity.AsyncHttpContext;
 import org.granite.gravity.Gravity;
 import org.granite.gravity.GravityConfig;
+import org.granite.gravity.SharedMessageBody;
 import org.granite.logging.Logger;
 import org.granite.messaging.webapp.ServletGraniteContext;
+import org.granite.util.PublicByteArrayOutputStream;
 
 import flex.messaging.messages.AsyncMessage;
 import flex.messaging.messages.Message;
@@ -195,8 +197,9 @@ public class TomcatWebSocketChannel extends AbstractChannel {
 	@Override
 	public boolean runReceived(AsyncHttpContext asyncHttpContext) {
 		
-		LinkedList<AsyncMessage> messages = null;
-		ByteArrayOutputStream os = null;
+		List<AsyncMessage> messages = null;
+		List<SharedMessageBody> messagesSharedBodies = null;
+		PublicByteArrayOutputStream os = null;
 
 		try {
 			receivedQueueLock.lock();
@@ -206,8 +209,8 @@ public class TomcatWebSocketChannel extends AbstractChannel {
 					return false;
 				
 				// Both conditions are ok, get all pending messages.
-				messages = receivedQueue;
-				receivedQueue = new LinkedList<AsyncMessage>();
+				messages = drainReceivedQueue();
+				messagesSharedBodies = pollSharedBodies(messages);
 			}
 			finally {
 				receivedQueueLock.unlock();
@@ -225,14 +228,15 @@ public class TomcatWebSocketChannel extends AbstractChannel {
 			Gravity gravity = getGravity();
 	        GraniteContext context = ServletGraniteContext.createThreadInstance(gravity.getGraniteConfig(), gravity.getServicesConfig(), servletContext, sessionId, clientType);
 	        
-	        os = new ByteArrayOutputStream(500);
+	        os = new PublicByteArrayOutputStream(500);
 	        ObjectOutput amf3Serializer = context.getGraniteConfig().newAMF3Serializer(os);
+	        addSharedBodies(amf3Serializer, messagesSharedBodies);
 	        
 	        log.debug("<< [MESSAGES for channel=%s] %s", this, messagesArray);
 	        
 	        amf3Serializer.writeObject(messagesArray);
 	        
-	        connection.writeBinaryMessage(ByteBuffer.wrap(os.toByteArray()));
+	        connection.writeBinaryMessage(ByteBuffer.wrap(os.getBytes(), 0, os.size()));
 	        
 	        return true; // Messages were delivered
 		}
@@ -243,7 +247,7 @@ public class TomcatWebSocketChannel extends AbstractChannel {
 			if (gravityConfig.isRetryOnError()) {
 				receivedQueueLock.lock();
 				try {
-					if (receivedQueue.size() + messages.size() > gravityConfig.getMaxMessagesQueuedPerChannel()) {
+					if (!receivedQueue.requeue(messages, gravityConfig.getMaxMessagesQueuedPerChannel())) {
 						log.warn(
 							"Channel %s has reached its maximum queue capacity %s (throwing %s messages)",
 							this,
@@ -251,8 +255,6 @@ public class TomcatWebSocketChannel extends AbstractChannel {
 							messages.size()
 						);
 					}
-					else
-						receivedQueue.addAll(0, messages);
 				}
 				finally {
 					receivedQueueLock.unlock();
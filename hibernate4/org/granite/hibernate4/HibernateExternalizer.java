@@ -20,13 +20,9 @@
 
 package org.granite.hibernate4;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
@@ -54,12 +50,13 @@ import org.granite.messaging.amf.io.util.Property;
 import org.granite.messaging.amf.io.util.externalizer.DefaultExternalizer;
 import org.granite.messaging.amf.io.util.externalizer.annotation.ExternalizedProperty;
 import org.granite.messaging.persistence.AbstractExternalizablePersistentCollection;
+import org.granite.messaging.persistence.CollectionMetadata;
+import org.granite.messaging.persistence.DetachedStateCodec;
 import org.granite.messaging.persistence.ExternalizablePersistentBag;
 import org.granite.messaging.persistence.ExternalizablePersistentList;
 import org.granite.messaging.persistence.ExternalizablePersistentMap;
 import org.granite.messaging.persistence.ExternalizablePersistentSet;
 import org.granite.util.TypeUtil;
-import org.granite.util.StringUtil;
 import org.granite.util.XMap;
 import org.hibernate.Hibernate;
 import org.hibernate.annotations.Sort;
@@ -91,16 +88,23 @@ public class HibernateExternalizer extends DefaultExternalizer {
     
     private SerializeMetadata serializeMetadata = SerializeMetadata.NO;
     
+    private DetachedStateCodec detachedStateCodec = DetachedStateCodec.newInstance(null);
+    
 
     /**
      * Configure this externalizer with the values supplied in granite-config.xml.
      * 
-     * <p>The only supported configuration option is 'hibernate-collection-metadata' with
+     * <p>The main configuration option is 'hibernate-collection-metadata' with
      * values in ['no' (default), 'yes' and 'lazy']. By default, collection metadata (key,
      * role and snapshot) aren't serialized. If the value of the 'hibernate-collection-metadata'
      * node is 'yes', metadata will be always serialized, while the 'lazy' value tells the
      * externalizer to serialiaze metadata for uninitialized collections only.
      * 
+     * <p>The 'detached-state-codec' option selects the metadata encoding: 'legacy' (default,
+     * hex encoded Java serialization), 'binary' or a {@link DetachedStateCodec} class name.
+     * The 'binary' codec also reads legacy metadata back, but older servers can't read binary
+     * ones: only enable it once all servers of a cluster have been upgraded.
+     * 
      * <p>Configuration example (granite-config.xml):
      * <pre>
      * &lt;granite-config scan="true"&gt;
@@ -130,8 +134,20 @@ public class HibernateExternalizer extends DefaultExternalizer {
 	    		else
 	    			throw new RuntimeException("Illegal value for the 'hibernate-collection-metadata' option: " + collectionmetadata);
 	    	}
+	    	
+	    	String codec = properties.get("detached-state-codec");
+	    	if (codec != null)
+	    		detachedStateCodec = DetachedStateCodec.newInstance(codec);
     	}
 	}
+    
+    public DetachedStateCodec getDetachedStateCodec() {
+    	return detachedStateCodec;
+    }
+    
+    public void setDetachedStateCodec(DetachedStateCodec detachedStateCodec) {
+    	this.detachedStateCodec = detachedStateCodec;
+    }
 
 	@Override
     public Object newInstance(String type, ObjectInput in)
@@ -262,13 +278,8 @@ public class HibernateExternalizer extends DefaultExternalizer {
 			throw new RuntimeException("Illegal externalizable persitent class: " + value);
 		
 		if (metadata != null && serializeMetadata != SerializeMetadata.NO && (serializeMetadata == SerializeMetadata.YES || !initialized)) {
-    		String[] toks = metadata.split(":", 3);
-    		if (toks.length != 3)
-    			throw new RuntimeException("Invalid collection metadata: " + metadata);
-    		Serializable key = deserializeSerializable(StringUtil.hexStringToBytes(toks[0]));
-    		Serializable snapshot = deserializeSerializable(StringUtil.hexStringToBytes(toks[1]));
-    		String role = toks[2];
-            coll.setSnapshot(key, role, snapshot);
+    		CollectionMetadata collectionMetadata = detachedStateCodec.decodeCollectionMetadata(metadata);
+            coll.setSnapshot(collectionMetadata.getKey(), collectionMetadata.getRole(), collectionMetadata.getSnapshot());
 		}
 		
 		if (initialized && dirty)
@@ -358,14 +369,8 @@ public class HibernateExternalizer extends DefaultExternalizer {
             throw new UnsupportedOperationException("Unsupported Hibernate collection type: " + value);
 
     	if (serializeMetadata != SerializeMetadata.NO && (serializeMetadata == SerializeMetadata.YES || !initialized) && value.getRole() != null) {
-    		char[] hexKey = StringUtil.bytesToHexChars(serializeSerializable(value.getKey()));
-    		char[] hexSnapshot = StringUtil.bytesToHexChars(serializeSerializable(value.getStoredSnapshot()));
-    		String metadata = new StringBuilder(hexKey.length + 1 + hexSnapshot.length + 1 + value.getRole().length())
-				.append(hexKey).append(':')
-    			.append(hexSnapshot).append(':')
-    			.append(value.getRole())
-    			.toString();
-    		coll.setMetadata(metadata);
+    		CollectionMetadata metadata = new CollectionMetadata(value.getKey(), value.getStoredSnapshot(), value.getRole());
+    		coll.setMetadata(detachedStateCodec.encodeCollectionMetadata(metadata));
     	}
         
         return coll;
@@ -403,29 +408,4 @@ public class HibernateExternalizer extends DefaultExternalizer {
     protected boolean isEmbeddable(Class<?> clazz) {
         return clazz.isAnnotationPresent(Embeddable.class);
     }    
-    
-    protected byte[] serializeSerializable(Serializable o) {
-    	if (o == null)
-    		return BYTES_0;
-    	try {
-	    	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-	        ObjectOutputStream oos = new ObjectOutputStream(baos);
-	        oos.writeObject(o);
-	        return baos.toByteArray();
-    	} catch (Exception e) {
-    		throw new RuntimeException("Could not serialize: " + o);
-    	}
-    }
-    
-    protected Serializable deserializeSerializable(byte[] data) {
-    	if (data.length == 0)
-    		return null;
-    	try {
-	    	ByteArrayInputStream baos = new ByteArrayInputStream(data);
-	        ObjectInputStream oos = new ObjectInputStream(baos);
-	        return (Serializable)oos.readObject();
-    	} catch (Exception e) {
-    		throw new RuntimeException("Could not deserialize: " + data);
-    	}
-    }
 }
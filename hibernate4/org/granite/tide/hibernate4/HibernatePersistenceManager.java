@@ -21,6 +21,7 @@
 package org.granite.tide.hibernate4;
 
 import java.io.Serializable;
+import java.util.List;
 
 import org.granite.tide.TideTransactionManager;
 import org.granite.tide.data.AbstractTidePersistenceManager;
@@ -78,4 +79,22 @@ public class HibernatePersistenceManager extends AbstractTidePersistenceManager
         }
         return entity;
 	}
+
+	@Override
+	protected Object[] fetchEntities(Object[] entities, String[] fetch) {
+		if (entities.length < 2 || fetch == null || fetch.length == 0)
+			return super.fetchEntities(entities, fetch);
+		
+		List<Object> identifiedEntities = getIdentifiedEntities(entities);
+		if (identifiedEntities.isEmpty())
+			return new Object[entities.length];
+		
+		List<?> results = null;
+		for (String f : fetch) {
+	        Query q = sessionFactory.getCurrentSession().createQuery("select distinct e from " + entities[0].getClass().getName() + " e left join fetch e." + f + " where e in (:entities)");
+	        q.setParameterList("entities", identifiedEntities);
+	        results = q.list();
+		}
+		return matchFetchedEntities(entities, results);
+	}
 }
@@ -60,11 +60,12 @@ import org.granite.messaging.amf.io.util.Property;
 import org.granite.messaging.amf.io.util.externalizer.DefaultExternalizer;
 import org.granite.messaging.amf.io.util.externalizer.annotation.ExternalizedProperty;
 import org.granite.messaging.persistence.AbstractExternalizablePersistentCollection;
+import org.granite.messaging.persistence.DetachedStateCodec;
 import org.granite.messaging.persistence.ExternalizablePersistentList;
 import org.granite.messaging.persistence.ExternalizablePersistentMap;
 import org.granite.messaging.persistence.ExternalizablePersistentSet;
 import org.granite.util.TypeUtil;
-import org.granite.util.StringUtil;
+import org.granite.util.XMap;
 
 /**
  * @author Franck WOLFF
@@ -73,6 +74,37 @@ public class OpenJpaExternalizer extends DefaultExternalizer {
 
 	private static final Logger log = Logger.getLogger(OpenJpaExternalizer.class);
 
+    private DetachedStateCodec detachedStateCodec = DetachedStateCodec.newInstance(null);
+
+    /**
+     * Configure this externalizer with the values supplied in granite-config.xml.
+     * 
+     * <p>The 'detached-state-codec' option selects the detached state encoding: 'legacy' (default,
+     * hex encoded Java serialization), 'binary' or a {@link DetachedStateCodec} class name.
+     * The 'binary' codec also reads legacy detached states back, but older servers can't read binary
+     * ones: only enable it once all servers of a cluster have been upgraded.
+     * 
+     * @param properties an XMap instance that contains the configuration node.
+     */
+    @Override
+	public void configure(XMap properties) {
+    	super.configure(properties);
+    	
+    	if (properties != null) {
+	    	String codec = properties.get("detached-state-codec");
+	    	if (codec != null)
+	    		detachedStateCodec = DetachedStateCodec.newInstance(codec);
+    	}
+	}
+    
+    public DetachedStateCodec getDetachedStateCodec() {
+    	return detachedStateCodec;
+    }
+    
+    public void setDetachedStateCodec(DetachedStateCodec detachedStateCodec) {
+    	this.detachedStateCodec = detachedStateCodec;
+    }
+
     @Override
     public Object newInstance(String type, ObjectInput in)
         throws IOException, ClassNotFoundException, InstantiationException, InvocationTargetException, IllegalAccessException {
@@ -104,7 +136,7 @@ public class OpenJpaExternalizer extends DefaultExternalizer {
         // Existing entity.
 		Object entity = clazz.newInstance();
 		if (detachedState.length() > 0) {
-	        byte[] data = StringUtil.hexStringToBytes(detachedState);
+	        byte[] data = detachedStateCodec.decodeDetachedState(detachedState);
 			((PersistenceCapable)entity).pcSetDetachedState(deserializeDetachedState(data));
 		}
 		return entity;
@@ -188,11 +220,9 @@ public class OpenJpaExternalizer extends DefaultExternalizer {
 	        	// Write initialized flag.
 	        	out.writeObject(Boolean.TRUE);
 	
-	        	// Write detached state as a String, in the form of an hex representation
-	        	// of the serialized detached state.
+	        	// Write detached state as a String, encoded by the configured codec.
 	        	byte[] detachedState = serializeDetachedState(pco);
-	        	char[] hexDetachedState = StringUtil.bytesToHexChars(detachedState);
-	            out.writeObject(new String(hexDetachedState));
+	            out.writeObject(detachedStateCodec.encodeDetachedState(detachedState));
         	}
 
             // Externalize entity fields.
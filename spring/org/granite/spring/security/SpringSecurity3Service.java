@@ -34,6 +34,7 @@ import org.granite.context.GraniteContext;
 import org.granite.logging.Logger;
 import org.granite.messaging.service.security.AbstractSecurityContext;
 import org.granite.messaging.service.security.AbstractSecurityService;
+import org.granite.messaging.service.security.SecurityContextPropagator;
 import org.granite.messaging.service.security.SecurityServiceException;
 import org.granite.messaging.webapp.HttpGraniteContext;
 import org.granite.messaging.webapp.ServletGraniteContext;
@@ -67,7 +68,7 @@ import org.springframework.web.context.support.WebApplicationContextUtils;
  * @author Bouiaw
  * @author wdrai
  */
-public class SpringSecurity3Service extends AbstractSecurityService implements ApplicationContextAware {
+public class SpringSecurity3Service extends AbstractSecurityService implements ApplicationContextAware, SecurityContextPropagator {
         
 	private static final Logger log = Logger.getLogger(SpringSecurity3Service.class);
 	
@@ -332,6 +333,21 @@ public class SpringSecurity3Service extends AbstractSecurityService implements A
         
     	SecurityContextHolder.clearContext();
     }
+    
+    public Object captureSecurityContext() {
+    	SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+    	securityContext.setAuthentication(SecurityContextHolder.getContext().getAuthentication());
+    	return securityContext;
+    }
+    
+    public Object bindSecurityContext(Object securityContext) {
+    	SecurityContext previousContext = SecurityContextHolder.getContext();
+    	if (securityContext == null)
+    		SecurityContextHolder.clearContext();
+    	else
+    		SecurityContextHolder.setContext((SecurityContext)securityContext);
+    	return previousContext;
+    }
 
     protected boolean isUserInRole(Authentication authentication, String role) {
         for (GrantedAuthority ga : authentication.getAuthorities()) {
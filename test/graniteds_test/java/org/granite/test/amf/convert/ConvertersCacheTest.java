@@ -0,0 +1,111 @@
+package org.granite.test.amf.convert;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.granite.messaging.amf.io.convert.Converter;
+import org.granite.messaging.amf.io.convert.Converters;
+import org.granite.messaging.amf.io.convert.Reverter;
+import org.granite.messaging.amf.io.convert.impl.Collection2Collection;
+import org.granite.messaging.amf.io.convert.impl.Compatibility;
+import org.granite.messaging.amf.io.convert.impl.Number2Integer;
+import org.granite.messaging.amf.io.convert.impl.Number2Long;
+import org.granite.messaging.amf.io.convert.impl.String2Char;
+import org.granite.messaging.amf.io.convert.impl.String2Locale;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConvertersCacheTest {
+
+	private Converters converters;
+
+	public List<Integer> listOfIntegers;
+
+	@Before
+	public void before() throws Exception {
+		List<Class<? extends Converter>> classes = new ArrayList<Class<? extends Converter>>();
+		classes.add(Number2Integer.class);
+		classes.add(Number2Long.class);
+		classes.add(Collection2Collection.class);
+		classes.add(String2Char.class);
+		classes.add(String2Locale.class);
+		classes.add(Compatibility.class);
+		converters = new Converters(classes);
+	}
+
+	@Test
+	public void testClassBasedResolution() {
+		Converter converter = converters.getConverter(Integer.valueOf(1), Long.class);
+		Assert.assertTrue(converter instanceof Number2Long);
+		Assert.assertSame(converter, converters.getConverter(Integer.valueOf(2), Long.class));
+		Assert.assertNull(converters.getConverter(Integer.valueOf(1), Locale.class));
+		Assert.assertNull(converters.getConverter(Integer.valueOf(2), Locale.class));
+		Assert.assertEquals(2, converters.getResolutionsCacheSize());
+	}
+
+	@Test
+	public void testValueDependentConverter() {
+		Assert.assertTrue(converters.getConverter("a", Character.TYPE) instanceof String2Char);
+		Assert.assertNull(converters.getConverter("abc", Character.TYPE));
+		Assert.assertTrue(converters.getConverter("b", Character.TYPE) instanceof String2Char);
+	}
+
+	@Test
+	public void testValueDependentCollection() throws Exception {
+		Type targetType = getClass().getField("listOfIntegers").getGenericType();
+		Assert.assertNotNull(converters.getConverter(Arrays.asList(1L, 2L), targetType));
+		Assert.assertNull(converters.getConverter(Arrays.asList(new Object()), targetType));
+		Assert.assertNotNull(converters.getConverter(new ArrayList<Object>(), targetType));
+	}
+
+	@Test
+	public void testReverters() {
+		Assert.assertEquals("fr_FR", converters.revert(Locale.FRANCE));
+		Assert.assertEquals("en_US", converters.revert(Locale.US));
+		Object o = new Object();
+		Assert.assertSame(o, converters.revert(o));
+		Assert.assertSame(o, converters.revert(o));
+		Assert.assertNull(converters.revert(null));
+	}
+
+	@Test
+	public void testAddConverterInvalidatesCache() throws Exception {
+		Assert.assertNull(converters.getConverter(Integer.valueOf(1), StringBuilder.class));
+		Assert.assertEquals("x", converters.revert("x"));
+
+		converters.addConverter(Number2StringBuilder.class);
+
+		Assert.assertEquals(0, converters.getResolutionsCacheSize());
+		Assert.assertTrue(converters.getConverter(Integer.valueOf(1), StringBuilder.class) instanceof Number2StringBuilder);
+		Assert.assertEquals("y", converters.revert(Integer.valueOf(1)));
+	}
+
+	public static class Number2StringBuilder extends Converter implements Reverter {
+
+		public Number2StringBuilder(Converters converters) {
+			super(converters);
+		}
+
+		@Override
+		protected boolean internalCanConvert(Object value, Type targetType) {
+			return targetType.equals(StringBuilder.class) && (value == null || value instanceof Number);
+		}
+
+		@Override
+		protected Object internalConvert(Object value, Type targetType) {
+			return (value != null ? new StringBuilder(value.toString()) : null);
+		}
+
+		public boolean canRevert(Object value) {
+			return value instanceof Integer;
+		}
+
+		public Object revert(Object value) {
+			return "y";
+		}
+	}
+}
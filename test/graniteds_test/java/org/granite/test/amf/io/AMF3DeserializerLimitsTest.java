@@ -0,0 +1,157 @@
+package org.granite.test.amf.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.granite.messaging.amf.io.AMF3Deserializer;
+import org.granite.messaging.amf.io.AMF3DeserializerLimits;
+import org.granite.messaging.amf.io.AMF3Serializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AMF3DeserializerLimitsTest {
+
+	private GraniteConfig graniteConfig;
+
+	@Before
+	public void before() throws Exception {
+		graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+	}
+
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+		graniteConfig = null;
+	}
+
+	@Test
+	public void testScratchBuffers() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 3000; i++)
+			sb.append((char)('a' + (i % 26))).append('\u00e9').append('\u20ac');
+		String large = sb.toString();
+
+		byte[] bytes = new byte[50000];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte)i;
+
+		Object[] values = new Object[] { "\u00e9t\u00e9", large, "short", bytes, large.substring(7), "abc" };
+		Object[] clones = (Object[])deserialize(serialize(values));
+
+		Assert.assertEquals(values.length, clones.length);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] instanceof byte[])
+				Assert.assertTrue(Arrays.equals((byte[])values[i], (byte[])clones[i]));
+			else
+				Assert.assertEquals(values[i], clones[i]);
+		}
+	}
+
+	@Test
+	public void testTruncatedByteArray() throws Exception {
+		byte[] data = serialize(new byte[100000]);
+		byte[] truncated = new byte[data.length / 2];
+		System.arraycopy(data, 0, truncated, 0, truncated.length);
+		try {
+			deserialize(truncated);
+			Assert.fail("Should have thrown an IOException");
+		}
+		catch (IOException e) {
+			// expected.
+		}
+	}
+
+	@Test
+	public void testHugeAnnouncedLengths() throws Exception {
+		// String and dense array announcing 2^27-1 elements, followed by a few bytes only.
+		byte[][] data = {
+			{ 0x06, (byte)0xBF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 'a', 'b' },
+			{ 0x09, (byte)0xBF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x01, 0x04, 0x01 }
+		};
+		for (byte[] d : data) {
+			try {
+				deserialize(d);
+				Assert.fail("Should have thrown an IOException");
+			}
+			catch (IOException e) {
+				// expected (EOF).
+			}
+		}
+	}
+
+	@Test
+	public void testLargeArrays() throws Exception {
+		Object[] array = new Object[20000];
+		for (int i = 0; i < array.length; i++)
+			array[i] = Integer.valueOf(i);
+		Object[] nested = new Object[10000];
+		nested[5000] = nested;
+		array[100] = nested;
+		array[10000] = array;
+		array[19999] = nested;
+
+		Object[] clone = (Object[])deserialize(serialize(array));
+		Assert.assertEquals(array.length, clone.length);
+		Assert.assertEquals(Integer.valueOf(19998), clone[19998]);
+		Assert.assertSame(clone, clone[10000]);
+		
+		Object[] nestedClone = (Object[])clone[100];
+		Assert.assertEquals(nested.length, nestedClone.length);
+		Assert.assertSame(nestedClone, nestedClone[5000]);
+		Assert.assertSame(nestedClone, clone[19999]);
+	}
+
+	@Test
+	public void testLimits() throws Exception {
+		graniteConfig.setAmf3DeserializerLimits(new AMF3DeserializerLimits(10, 3, 20, 5));
+
+		Assert.assertEquals("0123456789", deserialize(serialize("0123456789")));
+		assertLimitExceeded(serialize("0123456789A"));
+
+		Assert.assertEquals(3, ((Object[])deserialize(serialize(new Object[] { "a", "b", "c" }))).length);
+		assertLimitExceeded(serialize(new Object[] { "a", "b", "c", "d" }));
+
+		Assert.assertEquals(20, ((byte[])deserialize(serialize(new byte[20]))).length);
+		assertLimitExceeded(serialize(new byte[21]));
+
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < 6; i++)
+			list.add(new Object[0]);
+		assertLimitExceeded(serialize(list.toArray()));
+	}
+
+	private void assertLimitExceeded(byte[] data) throws Exception {
+		try {
+			deserialize(data);
+			Assert.fail("Should have thrown an IOException");
+		}
+		catch (IOException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("limit"));
+		}
+	}
+
+	private static byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		AMF3Serializer serializer = new AMF3Serializer(baos);
+		serializer.writeObject(o);
+		return baos.toByteArray();
+	}
+
+	private static Object deserialize(byte[] data) throws IOException {
+		AMF3Deserializer deserializer = new AMF3Deserializer(new ByteArrayInputStream(data));
+		return deserializer.readObject();
+	}
+}
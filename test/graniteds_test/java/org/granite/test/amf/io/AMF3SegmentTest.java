@@ -0,0 +1,169 @@
+package org.granite.test.amf.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.granite.messaging.amf.io.AMF3Deserializer;
+import org.granite.messaging.amf.io.AMF3Segment;
+import org.granite.messaging.amf.io.AMF3Serializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import flex.messaging.messages.AsyncMessage;
+
+public class AMF3SegmentTest {
+
+	@Before
+	public void before() throws Exception {
+		GraniteConfig graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+	}
+
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+	}
+
+	@Test
+	public void testSegmentRelocation() throws Exception {
+		Node body = newGraph();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		AMF3Serializer serializer = new AMF3Serializer(baos);
+		AMF3Segment segment = serializer.encodeSegment(body);
+		Assert.assertTrue(segment.getRelocationsCount() > 0);
+		serializer.addSegment(body, segment);
+
+		Node other = new Node("other", null);
+		Object[] messages = newMessages(body, other);
+		serializer.writeObject(messages);
+		serializer.close();
+
+		Object[] result = (Object[])deserialize(baos.toByteArray());
+		Assert.assertEquals(messages.length, result.length);
+		Assert.assertEquals("shared", result[0]);
+		Node otherResult = (Node)result[1];
+		Assert.assertEquals("other", otherResult.getName());
+		for (int i = 2; i <= 3; i++) {
+			AsyncMessage message = (AsyncMessage)result[i];
+			Assert.assertEquals("subscription" + i, message.getHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER));
+			checkGraph((Node)message.getBody());
+		}
+		Assert.assertEquals("shared", result[4]);
+		Assert.assertSame("Object reference after segments", otherResult, result[5]);
+		Assert.assertSame("Nested reference after segments", otherResult, ((Node)result[6]).getParent());
+	}
+
+	@Test
+	public void testSegmentKey() throws Exception {
+		AMF3Serializer serializer1 = new AMF3Serializer(new ByteArrayOutputStream());
+		AMF3Serializer serializer2 = new AMF3Serializer(new ByteArrayOutputStream());
+		Assert.assertEquals(serializer1.getSegmentKey(), serializer2.getSegmentKey());
+	}
+
+	private static Object deserialize(byte[] data) throws Exception {
+		AMF3Deserializer deserializer = new AMF3Deserializer(new ByteArrayInputStream(data));
+		try {
+			return deserializer.readObject();
+		}
+		finally {
+			deserializer.close();
+		}
+	}
+
+	private static Object[] newMessages(Node body, Node other) {
+		AsyncMessage message = new AsyncMessage();
+		message.setDestination("topic");
+		message.setBody(body);
+
+		AsyncMessage message2 = message.clone();
+		message2.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, "subscription2");
+		AsyncMessage message3 = message.clone();
+		message3.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, "subscription3");
+
+		return new Object[] { "shared", other, message2, message3, "shared", other, new Node("last", other) };
+	}
+
+	private static Node newGraph() {
+		Node root = new Node("root", null);
+		root.setDate(new Date(1000L));
+		root.setData(new byte[] { 1, 2, 3 });
+		for (int i = 0; i < 3; i++)
+			root.getChildren().add(new Node("shared", root));
+		return root;
+	}
+
+	private static void checkGraph(Node root) {
+		Assert.assertEquals("root", root.getName());
+		Assert.assertEquals(new Date(1000L), root.getDate());
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, root.getData());
+		Assert.assertEquals(3, root.getChildren().size());
+		for (Node child : root.getChildren()) {
+			Assert.assertEquals("shared", child.getName());
+			Assert.assertSame(root, child.getParent());
+		}
+	}
+
+	public static class Node {
+
+		private String name;
+		private Node parent;
+		private Date date;
+		private byte[] data;
+		private List<Node> children = new ArrayList<Node>();
+
+		public Node() {
+		}
+
+		public Node(String name, Node parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public Node getParent() {
+			return parent;
+		}
+		public void setParent(Node parent) {
+			this.parent = parent;
+		}
+
+		public Date getDate() {
+			return date;
+		}
+		public void setDate(Date date) {
+			this.date = date;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+		public void setData(byte[] data) {
+			this.data = data;
+		}
+
+		public List<Node> getChildren() {
+			return children;
+		}
+		public void setChildren(List<Node> children) {
+			this.children = children;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.granite.test.amf.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.granite.messaging.amf.io.AMF3Deserializer;
+import org.granite.messaging.amf.io.AMF3Serializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AMF3SerializerBufferTest {
+
+	@Before
+	public void before() throws Exception {
+		GraniteConfig graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+	}
+
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+	}
+
+	@Test
+	public void testWriteThrough() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		AMF3Serializer serializer = new AMF3Serializer(baos);
+
+		// Each top-level call must reach the underlying stream without any flush.
+		serializer.writeObject("abc");
+		Assert.assertEquals(5, baos.size());
+		serializer.writeByte(0x01);
+		Assert.assertEquals(6, baos.size());
+		serializer.writeObject(Integer.valueOf(1));
+		Assert.assertEquals(8, baos.size());
+		Assert.assertEquals(8, serializer.size());
+	}
+
+	@Test
+	public void testLargeValues() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+			sb.append((char)('a' + (i % 26))).append('\u00e9').append('\u20ac');
+		String large = sb.toString();
+
+		byte[] bytes = new byte[20000];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte)i;
+
+		Object[] values = new Object[] { "small", large, bytes, large, "\u00e9t\u00e9", Double.valueOf(1.5), "small" };
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		AMF3Serializer serializer = new AMF3Serializer(baos);
+		serializer.writeObject(values);
+		Assert.assertEquals(baos.size(), serializer.size());
+
+		AMF3Deserializer deserializer = new AMF3Deserializer(new ByteArrayInputStream(baos.toByteArray()));
+		Object[] result = (Object[])deserializer.readObject();
+		deserializer.close();
+
+		Assert.assertEquals(values.length, result.length);
+		Assert.assertEquals("small", result[0]);
+		Assert.assertEquals(large, result[1]);
+		Assert.assertArrayEquals(bytes, (byte[])result[2]);
+		Assert.assertEquals(large, result[3]);
+		Assert.assertEquals("\u00e9t\u00e9", result[4]);
+		Assert.assertEquals(Double.valueOf(1.5), result[5]);
+		Assert.assertEquals("small", result[6]);
+	}
+}
@@ -0,0 +1,91 @@
+package org.granite.test.amf.io;
+
+import java.util.regex.Pattern;
+
+import org.granite.messaging.amf.io.RegexAMF3DeserializerSecurizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RegexAMF3DeserializerSecurizerTest {
+
+	private static final String PARAM =
+		"org\\.granite\\..* | flex\\.messaging\\.messages\\.[A-Z][a-zA-Z]* | " +
+		"java\\.lang\\.(Integer|Long) | com\\.myapp\\.Outer\\$Inner | com\\.myapp\\.Entity";
+
+	private static final String[] CLASS_NAMES = {
+		"org.granite.messaging.amf.RemoteClass", "org.granite.", "org.granitex.Foo", "org.granite",
+		"flex.messaging.messages.RemotingMessage", "flex.messaging.messages.lower",
+		"java.lang.Integer", "java.lang.Long", "java.lang.Runtime",
+		"com.myapp.Outer$Inner", "com.myapp.Outer", "com.myapp.Entity", "com.myapp.Entity2", "com.myapp.Entit",
+		"javax.management.loading.MLet",
+		"org.granite.Foo\nBar", "org.granite.\r", "org.granite.Foo\u0085", "org.granite.Foo\u2028", "org.granite.\u2029Foo"
+	};
+
+	@Test
+	public void testSameDecisionsAsRegex() {
+		RegexAMF3DeserializerSecurizer securizer = new RegexAMF3DeserializerSecurizer();
+		securizer.setParam(PARAM);
+		Pattern pattern = Pattern.compile(securizer.getParam());
+
+		for (int i = 0; i < 2; i++) {
+			for (String className : CLASS_NAMES)
+				Assert.assertEquals(className, pattern.matcher(className).matches(), securizer.allowInstantiation(className));
+		}
+		Assert.assertTrue(securizer.allowInstantiation(null));
+		Assert.assertTrue(securizer.allowInstantiation(""));
+	}
+
+	@Test
+	public void testLineTerminators() {
+		RegexAMF3DeserializerSecurizer securizer = new RegexAMF3DeserializerSecurizer();
+		securizer.setParam(PARAM);
+		Assert.assertTrue(securizer.allowInstantiation("org.granite.Foo"));
+		Assert.assertFalse(securizer.allowInstantiation("org.granite.Foo\njava.lang.Runtime"));
+		Assert.assertFalse(securizer.allowInstantiation("org.granite.\r"));
+		Assert.assertFalse(securizer.allowInstantiation("org.granite.Foo\u2028"));
+	}
+
+	@Test
+	public void testEmbeddedFlags() {
+		RegexAMF3DeserializerSecurizer securizer = new RegexAMF3DeserializerSecurizer();
+		securizer.setParam("(?i)org\\.granite\\..* | com\\.myapp\\.Entity");
+		Assert.assertTrue(securizer.allowInstantiation("ORG.GRANITE.Foo"));
+		Assert.assertTrue(securizer.allowInstantiation("COM.MYAPP.ENTITY"));
+	}
+
+	@Test
+	public void testQuotedSections() {
+		RegexAMF3DeserializerSecurizer securizer = new RegexAMF3DeserializerSecurizer();
+		securizer.setParam("\\Qx|com\\.evil\\.Foo|y\\E | \\Qcom.myapp.Entity\\E");
+		Pattern pattern = Pattern.compile(securizer.getParam());
+
+		String[] classNames = { "com.evil.Foo", "com\\.evil\\.Foo", "x", "y", "x|com\\.evil\\.Foo|y", "com.myapp.Entity", "com.myappXEntity" };
+		for (String className : classNames)
+			Assert.assertEquals(className, pattern.matcher(className).matches(), securizer.allowInstantiation(className));
+		Assert.assertFalse(securizer.allowInstantiation("com.evil.Foo"));
+		Assert.assertTrue(securizer.allowInstantiation("com.myapp.Entity"));
+	}
+
+	@Test
+	public void testDecisionsCacheAndRejects() {
+		RegexAMF3DeserializerSecurizer securizer = new RegexAMF3DeserializerSecurizer();
+		securizer.setMaxCacheSize(3);
+		securizer.setParam(PARAM);
+
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(securizer.allowInstantiation("java.lang.Integer"));
+			Assert.assertFalse(securizer.allowInstantiation("java.lang.Runtime"));
+		}
+		for (int i = 0; i < 10; i++)
+			Assert.assertFalse(securizer.allowInstantiation("com.evil.Class" + i));
+		Assert.assertEquals(3, securizer.getCacheSize());
+
+		Assert.assertEquals(13L, securizer.getRejectedCount());
+		Assert.assertEquals(Long.valueOf(3L), securizer.getRejectedClassNames().get("java.lang.Runtime"));
+		Assert.assertEquals(3, securizer.getRejectedClassNames().size());
+
+		securizer.clearStatistics();
+		Assert.assertEquals(0L, securizer.getRejectedCount());
+		Assert.assertTrue(securizer.getRejectedClassNames().isEmpty());
+	}
+}
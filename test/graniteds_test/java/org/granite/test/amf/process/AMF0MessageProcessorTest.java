@@ -0,0 +1,266 @@
+package org.granite.test.amf.process;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.ServletGraniteConfig;
+import org.granite.config.api.Configuration;
+import org.granite.config.api.internal.ConfigurationImpl;
+import org.granite.config.flex.Destination;
+import org.granite.config.flex.Service;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.messaging.amf.AMF0Body;
+import org.granite.messaging.amf.AMF0Message;
+import org.granite.messaging.amf.AMF3Object;
+import org.granite.messaging.amf.process.AMF0MessageProcessor;
+import org.granite.messaging.amf.process.AMF3MessageInterceptor;
+import org.granite.messaging.service.security.AbstractSecurityContext;
+import org.granite.messaging.service.security.SecurityContextPropagator;
+import org.granite.messaging.service.security.SecurityService;
+import org.granite.messaging.service.security.SecurityServiceException;
+import org.granite.messaging.webapp.HttpGraniteContext;
+import org.granite.test.tide.MockHttpServletRequest;
+import org.granite.test.tide.MockHttpServletResponse;
+import org.granite.test.tide.MockServletContext;
+import org.granite.util.XMap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import flex.messaging.messages.AcknowledgeMessage;
+import flex.messaging.messages.CommandMessage;
+import flex.messaging.messages.Message;
+import flex.messaging.messages.RemotingMessage;
+
+public class AMF0MessageProcessorTest {
+	
+	private static final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+	private static final ThreadLocal<String> user = new ThreadLocal<String>();
+	private static CyclicBarrier barrier;
+	
+	private GraniteConfig graniteConfig;
+	
+	@Before
+	public void before() throws Exception {
+		events.clear();
+		barrier = new CyclicBarrier(2);
+		
+		ServletContext servletContext = new MockServletContext();
+		Configuration cfg = new ConfigurationImpl();
+		cfg.setGraniteConfig("/WEB-INF/granite/granite-config-amf0-batch.xml");
+		servletContext.setAttribute(ServletGraniteConfig.GRANITE_CONFIG_CONFIGURATION_KEY, cfg);
+		graniteConfig = ServletGraniteConfig.loadConfig(servletContext);
+		graniteConfig.setAmf3MessageInterceptor(new AMF3MessageInterceptor() {
+			public void before(Message request) {
+				events.add("before:" + request.getMessageId());
+			}
+			public void after(Message request, Message response) {
+				// Let the processor allocate the DS_ID of remoting responses.
+				if (request instanceof RemotingMessage && "nil".equals(request.getHeader(Message.DS_ID_HEADER)))
+					response.setHeader(Message.DS_ID_HEADER, "nil");
+				events.add("after:" + request.getMessageId());
+			}
+		});
+		
+		Map<String, Destination> destinations = new HashMap<String, Destination>();
+		addDestination(destinations, "batch", null);
+		addDestination(destinations, "secured", Collections.singletonList("user"));
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		servicesConfig.addService(new Service("granite-service", "flex.messaging.services.RemotingService", "flex.messaging.messages.RemotingMessage", null, null, destinations));
+		
+		HttpGraniteContext.createThreadIntance(
+			graniteConfig, servicesConfig, servletContext, new MockHttpServletRequest(null), new MockHttpServletResponse()
+		);
+	}
+	
+	@After
+	public void after() throws Exception {
+		graniteConfig.shutdownAmf0BatchExecutor();
+		GraniteContext.release();
+		user.remove();
+	}
+	
+	@Test
+	public void testMixedBatch() throws Exception {
+		AMF0Message request = new AMF0Message();
+		addBody(request, newRemotingMessage("1", "batch", "echo", "a"));
+		addBody(request, newRemotingMessage("2", "batch", "echo", "b"));
+		addBody(request, newCommandMessage("3"));
+		addBody(request, newRemotingMessage("4", "batch", "echo", "c"));
+		addBody(request, newRemotingMessage("5", "batch", "echo", "d"));
+		
+		List<Message> responses = process(request);
+		
+		String[] results = { "a", "b", null, "c", "d" };
+		String dsId = null;
+		for (int i = 0; i < results.length; i++) {
+			AcknowledgeMessage response = (AcknowledgeMessage)responses.get(i);
+			Assert.assertEquals(String.valueOf(i + 1), response.getCorrelationId());
+			
+			String responseDsId = (String)response.getHeader(Message.DS_ID_HEADER);
+			Assert.assertNotNull(responseDsId);
+			Assert.assertFalse("nil".equals(responseDsId));
+			
+			if (results[i] != null) {
+				Assert.assertEquals(results[i], response.getBody());
+				if (dsId == null)
+					dsId = responseDsId;
+				Assert.assertEquals("Remoting responses share the same DS_ID", dsId, responseDsId);
+			}
+		}
+		
+		// The command waits for the preceding calls and the following ones wait for the command.
+		int commandStart = events.indexOf("before:3");
+		int commandEnd = events.indexOf("after:3");
+		Assert.assertTrue(events.indexOf("after:1") < commandStart);
+		Assert.assertTrue(events.indexOf("after:2") < commandStart);
+		Assert.assertTrue(events.indexOf("before:4") > commandEnd);
+		Assert.assertTrue(events.indexOf("before:5") > commandEnd);
+	}
+	
+	@Test
+	public void testSecuredWithoutPropagation() throws Exception {
+		graniteConfig.setSecurityService(new ThreadLocalSecurityService());
+		user.set("alice");
+		
+		AMF0Message request = new AMF0Message();
+		addBody(request, newRemotingMessage("1", "secured", "thread"));
+		addBody(request, newRemotingMessage("2", "secured", "thread"));
+		addBody(request, newRemotingMessage("3", "batch", "thread"));
+		
+		List<Message> responses = process(request);
+		
+		// Secured calls run in the request thread, where the security context is available.
+		Assert.assertEquals(Thread.currentThread().getName(), responses.get(0).getBody());
+		Assert.assertEquals(Thread.currentThread().getName(), responses.get(1).getBody());
+		Assert.assertTrue(responses.get(2) instanceof AcknowledgeMessage);
+	}
+	
+	@Test
+	public void testSecuredWithPropagation() throws Exception {
+		graniteConfig.setSecurityService(new PropagatingSecurityService());
+		user.set("alice");
+		
+		AMF0Message request = new AMF0Message();
+		addBody(request, newRemotingMessage("1", "secured", "whoami"));
+		addBody(request, newRemotingMessage("2", "secured", "whoami"));
+		
+		List<Message> responses = process(request);
+		
+		Assert.assertEquals("alice", responses.get(0).getBody());
+		Assert.assertEquals("alice", responses.get(1).getBody());
+		Assert.assertEquals("alice", user.get());
+	}
+	
+	private static List<Message> process(AMF0Message request) {
+		AMF0Message response = AMF0MessageProcessor.process(request);
+		Assert.assertEquals(request.getBodyCount(), response.getBodyCount());
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < response.getBodyCount(); i++) {
+			AMF0Body body = response.getBody(i);
+			Assert.assertEquals(request.getBody(i).getResponse() + "/onResult", body.getTarget());
+			messages.add((Message)((AMF3Object)body.getValue()).getValue());
+		}
+		return messages;
+	}
+	
+	private static void addBody(AMF0Message request, Message message) {
+		request.addBody("null", "/" + (request.getBodyCount() + 1), new Object[] { message }, AMF0Body.DATA_TYPE_ARRAY);
+	}
+	
+	private static RemotingMessage newRemotingMessage(String id, String destination, String operation, Object... args) {
+		RemotingMessage message = new RemotingMessage();
+		message.setMessageId(id);
+		message.setDestination(destination);
+		message.setOperation(operation);
+		message.setBody(args);
+		message.setHeader(Message.DS_ID_HEADER, "nil");
+		return message;
+	}
+	
+	private static CommandMessage newCommandMessage(String id) {
+		CommandMessage message = new CommandMessage();
+		message.setMessageId(id);
+		message.setOperation(CommandMessage.CLIENT_PING_OPERATION);
+		message.setHeader(Message.DS_ID_HEADER, "nil");
+		return message;
+	}
+	
+	private static void addDestination(Map<String, Destination> destinations, String id, List<String> roles) throws Exception {
+		XMap xmap = new XMap(new ByteArrayInputStream(("<properties><source>" + BatchService.class.getName() + "</source></properties>").getBytes("UTF-8")));
+		destinations.put(id, new Destination(id, Collections.<String>emptyList(), xmap, roles, null, null));
+	}
+	
+	public static class BatchService {
+		
+		public String echo(String value) throws Exception {
+			Map<String, Object> requestMap = GraniteContext.getCurrentInstance().getRequestMap();
+			requestMap.put("value", value);
+			// Both calls of a group must run at the same time to get past the barrier.
+			barrier.await(5, TimeUnit.SECONDS);
+			return (String)requestMap.get("value");
+		}
+		
+		public String whoami() throws Exception {
+			barrier.await(5, TimeUnit.SECONDS);
+			return user.get();
+		}
+		
+		public String thread() {
+			return Thread.currentThread().getName();
+		}
+	}
+	
+	public static class ThreadLocalSecurityService implements SecurityService {
+
+		public void configure(Map<String, String> params) {
+		}
+
+		public void login(Object credentials) throws SecurityServiceException {
+		}
+
+		public void login(Object credentials, String charset) throws SecurityServiceException {
+		}
+
+		public Object authorize(AbstractSecurityContext context) throws Exception {
+			if (context.getDestination().isSecured() && user.get() == null)
+				throw SecurityServiceException.newNotLoggedInException("User not logged in");
+			return context.invoke();
+		}
+
+		public boolean acceptsContext() {
+			return true;
+		}
+
+		public void logout() throws SecurityServiceException {
+		}
+
+		public void handleSecurityException(SecurityServiceException e) {
+		}
+	}
+	
+	public static class PropagatingSecurityService extends ThreadLocalSecurityService implements SecurityContextPropagator {
+
+		public Object captureSecurityContext() {
+			return user.get();
+		}
+
+		public Object bindSecurityContext(Object securityContext) {
+			String previous = user.get();
+			user.set((String)securityContext);
+			return previous;
+		}
+	}
+}
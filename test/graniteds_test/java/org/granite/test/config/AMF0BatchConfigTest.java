@@ -0,0 +1,103 @@
+package org.granite.test.config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletContext;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.ServletGraniteConfig;
+import org.granite.config.api.Configuration;
+import org.granite.config.api.internal.ConfigurationImpl;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.messaging.webapp.HttpGraniteContext;
+import org.granite.test.tide.MockHttpServletRequest;
+import org.granite.test.tide.MockHttpServletResponse;
+import org.granite.test.tide.MockServletContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AMF0BatchConfigTest {
+
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+	}
+
+	@Test
+	public void testDefaultSequential() throws Exception {
+		GraniteConfig graniteConfig = new GraniteConfig(null, null, null, null);
+		Assert.assertNull(graniteConfig.getAmf0BatchExecutor());
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		GraniteConfig graniteConfig = ServletGraniteConfig.loadConfig(newServletContext());
+
+		ExecutorService executor = graniteConfig.getAmf0BatchExecutor();
+		Assert.assertNotNull(executor);
+		
+		graniteConfig.shutdownAmf0BatchExecutor();
+		Assert.assertNull(graniteConfig.getAmf0BatchExecutor());
+		Assert.assertTrue(executor.isShutdown());
+		
+		// Requests still holding the old executor run their bodies in the request thread.
+		final Thread caller = Thread.currentThread();
+		Future<Thread> future = executor.submit(new Callable<Thread>() {
+			public Thread call() throws Exception {
+				return Thread.currentThread();
+			}
+		});
+		Assert.assertSame(caller, future.get());
+	}
+
+	@Test
+	public void testBodyContexts() throws Exception {
+		ServletContext servletContext = newServletContext();
+		GraniteConfig graniteConfig = ServletGraniteConfig.loadConfig(servletContext);
+		
+		MockHttpServletRequest request = new MockHttpServletRequest(null);
+		request.setAttribute("shared", "request");
+		final GraniteContext context = HttpGraniteContext.createThreadIntance(
+			graniteConfig, new ServicesConfig(null, null, false), servletContext, request, new MockHttpServletResponse()
+		);
+		
+		final GraniteContext bodyContext = context.newBatchBodyContext();
+		Assert.assertNotNull(bodyContext);
+		Assert.assertNotSame(context.getAMFContext(), bodyContext.getAMFContext());
+		
+		Future<Object> future = graniteConfig.getAmf0BatchExecutor().submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				return bodyContext.call(new Callable<Object>() {
+					public Object call() throws Exception {
+						Assert.assertSame(bodyContext, GraniteContext.getCurrentInstance());
+						
+						GraniteContext.getCurrentInstance().getRequestMap().put("shared", "body");
+						GraniteContext.getCurrentInstance().getRequestMap().put("local", "body");
+						return GraniteContext.getCurrentInstance().getRequestMap().get("shared");
+					}
+				});
+			}
+		});
+		Assert.assertEquals("body", future.get());
+		
+		// Attributes set by a body are not visible to the request nor to other bodies.
+		Assert.assertSame(context, GraniteContext.getCurrentInstance());
+		Assert.assertEquals("request", request.getAttribute("shared"));
+		Assert.assertNull(request.getAttribute("local"));
+		Assert.assertEquals("request", context.newBatchBodyContext().getRequestMap().get("shared"));
+		
+		graniteConfig.shutdownAmf0BatchExecutor();
+	}
+	
+	private static ServletContext newServletContext() {
+		ServletContext servletContext = new MockServletContext();
+		Configuration cfg = new ConfigurationImpl();
+		cfg.setGraniteConfig("/WEB-INF/granite/granite-config-amf0-batch.xml");
+		servletContext.setAttribute(ServletGraniteConfig.GRANITE_CONFIG_CONFIGURATION_KEY, cfg);
+		return servletContext;
+	}
+}
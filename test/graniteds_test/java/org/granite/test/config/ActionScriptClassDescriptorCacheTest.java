@@ -0,0 +1,81 @@
+package org.granite.test.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.granite.messaging.amf.io.AMF3Deserializer;
+import org.granite.messaging.amf.io.AMF3Serializer;
+import org.granite.messaging.amf.io.util.ActionScriptClassDescriptor;
+import org.granite.test.config.JavaClassDescriptorCacheTest.Bean;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ActionScriptClassDescriptorCacheTest {
+
+	private GraniteConfig graniteConfig;
+
+	@Before
+	public void before() throws Exception {
+		graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+	}
+
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+		graniteConfig = null;
+	}
+
+	@Test
+	public void testSharedDescriptor() {
+		String[] names = new String[] { "name", "value" };
+		ActionScriptClassDescriptor desc = graniteConfig.getActionScriptClassDescriptor(Bean.class.getName(), (byte)0x00, names);
+		Assert.assertEquals(2, desc.getPropertiesCount());
+		Assert.assertSame("Cached descriptor", desc, graniteConfig.getActionScriptClassDescriptor(Bean.class.getName(), (byte)0x00, names));
+
+		ActionScriptClassDescriptor other = graniteConfig.getActionScriptClassDescriptor(Bean.class.getName(), (byte)0x00, new String[] { "value" });
+		Assert.assertNotSame("Other property names", desc, other);
+		Assert.assertEquals(1, other.getPropertiesCount());
+		Assert.assertEquals(2, graniteConfig.getActionScriptClassDescriptorsCacheSize());
+
+		graniteConfig.clearDescriptorsCache();
+		Assert.assertEquals(0, graniteConfig.getActionScriptClassDescriptorsCacheSize());
+		Assert.assertNotSame("New descriptor", desc, graniteConfig.getActionScriptClassDescriptor(Bean.class.getName(), (byte)0x00, names));
+	}
+
+	@Test
+	public void testDeserialization() throws IOException {
+		Bean bean = new Bean();
+		bean.setName("abc");
+		bean.setValue(12);
+		byte[] data = serialize(bean);
+
+		for (int i = 0; i < 3; i++) {
+			Bean clone = (Bean)deserialize(data);
+			Assert.assertEquals("abc", clone.getName());
+			Assert.assertEquals(12, clone.getValue());
+		}
+		Assert.assertEquals(1, graniteConfig.getActionScriptClassDescriptorsCacheSize());
+	}
+
+	private static byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		AMF3Serializer serializer = new AMF3Serializer(baos);
+		serializer.writeObject(o);
+		return baos.toByteArray();
+	}
+
+	private static Object deserialize(byte[] data) throws IOException {
+		AMF3Deserializer deserializer = new AMF3Deserializer(new ByteArrayInputStream(data));
+		return deserializer.readObject();
+	}
+}
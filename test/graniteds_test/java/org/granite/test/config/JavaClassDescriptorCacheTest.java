@@ -0,0 +1,75 @@
+package org.granite.test.config;
+
+import java.util.HashMap;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.granite.messaging.amf.io.util.JavaClassDescriptor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JavaClassDescriptorCacheTest {
+
+	private GraniteConfig graniteConfig;
+
+	@Before
+	public void before() throws Exception {
+		graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+	}
+
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+		graniteConfig = null;
+	}
+
+	@Test
+	public void testSharedDescriptor() {
+		JavaClassDescriptor desc = graniteConfig.getJavaClassDescriptor(Bean.class);
+		Assert.assertEquals(Bean.class.getName(), desc.getName());
+		Assert.assertEquals(2, desc.getPropertiesCount());
+		Assert.assertSame("Cached descriptor", desc, graniteConfig.getJavaClassDescriptor(Bean.class));
+		Assert.assertEquals(1, graniteConfig.getJavaClassDescriptorsCacheSize());
+
+		graniteConfig.clearDescriptorsCache();
+		Assert.assertEquals(0, graniteConfig.getJavaClassDescriptorsCacheSize());
+		Assert.assertNotSame("New descriptor", desc, graniteConfig.getJavaClassDescriptor(Bean.class));
+	}
+
+	@Test
+	public void testExternalizerChangeInvalidatesCache() {
+		JavaClassDescriptor desc = graniteConfig.getJavaClassDescriptor(Bean.class);
+		Assert.assertFalse(desc.isExternalizable());
+
+		graniteConfig.setExternalizersByType(Bean.class.getName(), "org.granite.messaging.amf.io.util.externalizer.DefaultExternalizer");
+		desc = graniteConfig.getJavaClassDescriptor(Bean.class);
+		Assert.assertTrue(desc.isExternalizable());
+		Assert.assertTrue(desc.isCacheable());
+	}
+
+	public static class Bean {
+
+		private String name;
+		private int value;
+
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getValue() {
+			return value;
+		}
+		public void setValue(int value) {
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package org.granite.test.externalizers;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import org.granite.messaging.persistence.BinaryDetachedStateCodec;
+import org.granite.messaging.persistence.CollectionMetadata;
+import org.granite.messaging.persistence.DetachedStateCodec;
+import org.granite.messaging.persistence.LegacyDetachedStateCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DetachedStateCodecTest {
+
+	@Test
+	public void testCollectionMetadata() {
+		DetachedStateCodec legacy = new LegacyDetachedStateCodec();
+		DetachedStateCodec binary = new BinaryDetachedStateCodec();
+
+		ArrayList<String> snapshot = new ArrayList<String>();
+		snapshot.add("a");
+		Serializable[] keys = { Long.valueOf(12L), Integer.valueOf(-3), Short.valueOf((short)7), "key", UUID.randomUUID(), new Date(), null };
+
+		for (Serializable key : keys) {
+			CollectionMetadata metadata = new CollectionMetadata(key, snapshot, "org.test.Entity.items");
+			String legacyMetadata = legacy.encodeCollectionMetadata(metadata);
+			String binaryMetadata = binary.encodeCollectionMetadata(metadata);
+			Assert.assertTrue(binaryMetadata.length() < legacyMetadata.length());
+
+			// Binary codec also reads legacy metadata.
+			for (String s : new String[] { legacyMetadata, binaryMetadata }) {
+				CollectionMetadata decoded = binary.decodeCollectionMetadata(s);
+				Assert.assertEquals(key, decoded.getKey());
+				Assert.assertEquals(snapshot, decoded.getSnapshot());
+				Assert.assertEquals("org.test.Entity.items", decoded.getRole());
+			}
+		}
+
+		CollectionMetadata decoded = binary.decodeCollectionMetadata(binary.encodeCollectionMetadata(new CollectionMetadata(1L, null, "role")));
+		Assert.assertNull(decoded.getSnapshot());
+	}
+
+	@Test
+	public void testDetachedState() {
+		DetachedStateCodec legacy = DetachedStateCodec.newInstance("legacy");
+		DetachedStateCodec binary = DetachedStateCodec.newInstance("binary");
+
+		byte[] state = new byte[100];
+		for (int i = 0; i < state.length; i++)
+			state[i] = (byte)(i * 7);
+
+		String legacyState = legacy.encodeDetachedState(state);
+		String binaryState = binary.encodeDetachedState(state);
+		Assert.assertTrue(binaryState.length() < legacyState.length());
+		Assert.assertTrue(Arrays.equals(state, binary.decodeDetachedState(binaryState)));
+		Assert.assertTrue(Arrays.equals(state, binary.decodeDetachedState(legacyState)));
+	}
+
+	@Test
+	public void testDefaultCodec() {
+		// Binary strings can't be read by older servers, the binary codec has to be enabled explicitly.
+		Assert.assertEquals(LegacyDetachedStateCodec.class, DetachedStateCodec.newInstance(null).getClass());
+		Assert.assertEquals(LegacyDetachedStateCodec.class, DetachedStateCodec.newInstance("legacy").getClass());
+		Assert.assertEquals(BinaryDetachedStateCodec.class, DetachedStateCodec.newInstance("binary").getClass());
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void testUnsupportedVersion() {
+		new BinaryDetachedStateCodec().decodeCollectionMetadata("!Ag==");
+	}
+}
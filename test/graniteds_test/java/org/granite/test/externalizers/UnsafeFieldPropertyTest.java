@@ -0,0 +1,85 @@
+package org.granite.test.externalizers;
+
+import java.lang.reflect.Field;
+
+import org.granite.context.GraniteContext;
+import org.granite.messaging.amf.io.convert.Converters;
+import org.granite.messaging.amf.io.util.FieldProperty;
+import org.granite.messaging.amf.io.util.UnsafeFieldProperty;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+
+public class UnsafeFieldPropertyTest extends AbstractExternalizerTest {
+
+	@Test
+	public void testGetSetFields() throws Exception {
+		Assume.assumeTrue(UnsafeFieldProperty.isAvailable());
+		
+		Converters converters = GraniteContext.getCurrentInstance().getGraniteConfig().getConverters();
+		
+		PrimitiveBean bean = new PrimitiveBean();
+		
+		FieldProperty name = new UnsafeFieldProperty(converters, PrimitiveBean.class.getDeclaredField("name"));
+		FieldProperty count = new UnsafeFieldProperty(converters, PrimitiveBean.class.getDeclaredField("count"));
+		FieldProperty amount = new UnsafeFieldProperty(converters, PrimitiveBean.class.getDeclaredField("amount"));
+		FieldProperty flag = new UnsafeFieldProperty(converters, PrimitiveBean.class.getDeclaredField("flag"));
+		
+		name.setProperty(bean, "test");
+		count.setProperty(bean, Integer.valueOf(12));
+		amount.setProperty(bean, Double.valueOf(3.5));
+		flag.setProperty(bean, Boolean.TRUE);
+		
+		Assert.assertEquals("test", bean.name);
+		Assert.assertEquals(12, bean.count);
+		Assert.assertEquals(3.5, bean.amount, 0.0);
+		Assert.assertTrue(bean.flag);
+		
+		Assert.assertEquals("test", name.getProperty(bean));
+		Assert.assertEquals(Integer.valueOf(12), count.getProperty(bean));
+		Assert.assertEquals(Double.valueOf(3.5), amount.getProperty(bean));
+		Assert.assertEquals(Boolean.TRUE, flag.getProperty(bean));
+		
+		// Converted (AS3 numbers are doubles).
+		count.setProperty(bean, Double.valueOf(7.0));
+		Assert.assertEquals(7, bean.count);
+		
+		// Widening, handled by reflection.
+		amount.setProperty(bean, Integer.valueOf(2), false);
+		Assert.assertEquals(2.0, bean.amount, 0.0);
+	}
+	
+	@Test
+	public void testIllegalValue() throws Exception {
+		Assume.assumeTrue(UnsafeFieldProperty.isAvailable());
+		
+		Converters converters = GraniteContext.getCurrentInstance().getGraniteConfig().getConverters();
+		Field field = PrimitiveBean.class.getDeclaredField("name");
+		FieldProperty name = new UnsafeFieldProperty(converters, field);
+		
+		try {
+			name.setProperty(new PrimitiveBean(), Integer.valueOf(1), false);
+			Assert.fail("Should throw an exception");
+		}
+		catch (RuntimeException e) {
+			// expected.
+		}
+		
+		try {
+			name.getProperty(new Object());
+			Assert.fail("Should throw an exception");
+		}
+		catch (RuntimeException e) {
+			// expected.
+		}
+	}
+	
+	static class PrimitiveBean {
+		
+		private String name;
+		private int count;
+		private double amount;
+		private boolean flag;
+	}
+}
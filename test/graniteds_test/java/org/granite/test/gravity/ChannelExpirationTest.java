@@ -0,0 +1,72 @@
+package org.granite.test.gravity;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.gravity.ChannelFactory;
+import org.granite.gravity.DefaultGravity;
+import org.granite.gravity.GravityConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelExpirationTest {
+
+	private SweptGravity gravity;
+	private ChannelFactory<MockChannel> channelFactory;
+
+	@Before
+	public void before() throws Exception {
+		GraniteConfig graniteConfig = new GraniteConfig(null, null, null, null);
+		GravityConfig gravityConfig = new GravityConfig(graniteConfig);
+		gravityConfig.setChannelIdleTimeoutMillis(100L);
+
+		gravity = new SweptGravity(gravityConfig, new ServicesConfig(null, null, false), graniteConfig);
+		channelFactory = new ChannelFactory<MockChannel>() {
+			public MockChannel newChannel(String id, String clientType) {
+				return new MockChannel(id, gravity);
+			}
+			public void destroy() {
+			}
+		};
+	}
+
+	@Test
+	public void testIdleChannelsRemoved() throws Exception {
+		String idleId = gravity.newChannel(channelFactory).getId();
+		String activeId = gravity.newChannel(channelFactory).getId();
+
+		// Nothing is idle yet.
+		gravity.sweep();
+		Assert.assertNotNull(gravity.getChannel(channelFactory, idleId));
+		Assert.assertNotNull(gravity.getChannel(channelFactory, activeId));
+
+		Thread.sleep(150L);
+		Assert.assertTrue(gravity.access(activeId));
+		gravity.sweep();
+
+		Assert.assertNull(gravity.getChannel(channelFactory, idleId));
+		Assert.assertFalse(gravity.access(idleId));
+		Assert.assertNotNull(gravity.getChannel(channelFactory, activeId));
+	}
+
+	private static class SweptGravity extends DefaultGravity {
+
+		public SweptGravity(GravityConfig gravityConfig, ServicesConfig servicesConfig, GraniteConfig graniteConfig) {
+			super(gravityConfig, servicesConfig, graniteConfig);
+		}
+
+		public MockChannel newChannel(ChannelFactory<MockChannel> channelFactory) {
+			initThread(null, null);
+			try {
+				return createChannel(channelFactory, null);
+			}
+			finally {
+				releaseThread();
+			}
+		}
+
+		public void sweep() {
+			removeIdleChannels();
+		}
+	}
+}
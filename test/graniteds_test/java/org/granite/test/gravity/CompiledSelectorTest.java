@@ -0,0 +1,92 @@
+package org.granite.test.gravity;
+
+import org.granite.gravity.selector.GravityMessageSelector;
+import org.granite.gravity.selector.SelectorCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.Message;
+
+public class CompiledSelectorTest {
+
+	private static final String[] SELECTORS = {
+		"user = 'user1'",
+		"'user1' = user",
+		"user <> 'user1'",
+		"user = 'user1' AND (test IS NULL OR test = 'test')",
+		"NOT (user = 'user1') OR count > 2",
+		"entity IN ('a', 'b', 'c')",
+		"entity NOT IN ('a', 'b', 'c')",
+		"user LIKE 'us%1'",
+		"user NOT LIKE 'us_r_'",
+		"count BETWEEN 2 AND 5",
+		"count NOT BETWEEN 2 AND 5",
+		"count >= 3 AND count < 10.5",
+		"count + 1 = 4",
+		"flag",
+		"flag = TRUE OR count <= 1",
+		"test IS NOT NULL",
+		"count = 'x'"
+	};
+
+	@Test
+	public void testCompiledMatchesInterpretive() {
+		Message[] messages = {
+			message(null, null, null, null, null),
+			message("user1", "a", Integer.valueOf(3), Boolean.TRUE, null),
+			message("user2", "d", Long.valueOf(6), Boolean.FALSE, "test"),
+			message("usxr1", "c", Double.valueOf(2.5), null, "other"),
+			message("user1", Integer.valueOf(1), "3", "true", "test")
+		};
+
+		for (String selector : SELECTORS) {
+			GravityMessageSelector compiled = new GravityMessageSelector(selector, true);
+			GravityMessageSelector interpreted = new GravityMessageSelector(selector, false);
+			for (int i = 0; i < messages.length; i++)
+				Assert.assertEquals(selector + " / message " + i, interpreted.accept(messages[i]), compiled.accept(messages[i]));
+		}
+	}
+
+	@Test
+	public void testSharedSelectors() {
+		SelectorCache.clear();
+		GravityMessageSelector s1 = new GravityMessageSelector("user = 'user1'");
+		GravityMessageSelector s2 = new GravityMessageSelector("user = 'user1'");
+		Assert.assertSame(s1.getExpression(), s2.getExpression());
+		Assert.assertEquals(1, SelectorCache.size());
+
+		new GravityMessageSelector("user = 'user2'");
+		Assert.assertEquals(2, SelectorCache.size());
+	}
+
+	@Test
+	public void testCacheEviction() {
+		SelectorCache.clear();
+		GravityMessageSelector recent = new GravityMessageSelector("user = 'recent'");
+		GravityMessageSelector eldest = new GravityMessageSelector("user = 'eldest'");
+		for (int i = 0; i < SelectorCache.MAX_SIZE; i++) {
+			if (i % 100 == 0)
+				new GravityMessageSelector("user = 'recent'");
+			new GravityMessageSelector("user = 'user" + i + "'");
+		}
+		Assert.assertEquals(SelectorCache.MAX_SIZE, SelectorCache.size());
+		Assert.assertSame(recent.getExpression(), new GravityMessageSelector("user = 'recent'").getExpression());
+		Assert.assertNotSame(eldest.getExpression(), new GravityMessageSelector("user = 'eldest'").getExpression());
+	}
+
+	private static Message message(Object user, Object entity, Object count, Object flag, Object test) {
+		AsyncMessage message = new AsyncMessage();
+		if (user != null)
+			message.setHeader("user", user);
+		if (entity != null)
+			message.setHeader("entity", entity);
+		if (count != null)
+			message.setHeader("count", count);
+		if (flag != null)
+			message.setHeader("flag", flag);
+		if (test != null)
+			message.setHeader("test", test);
+		return message;
+	}
+}
@@ -0,0 +1,140 @@
+package org.granite.test.gravity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.granite.gravity.adapters.JMSReconnectionManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JMSReconnectionManagerTest {
+	
+	private JMSReconnectionManager manager;
+	
+	@Before
+	public void before() {
+		manager = new JMSReconnectionManager();
+	}
+	
+	@After
+	public void after() {
+		manager.shutdown();
+	}
+	
+	@Test
+	public void testBackoffAndSuccess() throws Exception {
+		FailingReconnectable reconnectable = new FailingReconnectable(4);
+		
+		Assert.assertTrue(manager.schedule("test", reconnectable, 10L, 80L));
+		Assert.assertFalse("Already pending", manager.schedule("test", reconnectable, 10L, 80L));
+		Assert.assertEquals(1, manager.getPendingReconnectionCount());
+		
+		Assert.assertTrue(reconnectable.waitForAttempts(5, 5000L));
+		Thread.sleep(50L);
+		
+		Assert.assertEquals(0, manager.getPendingReconnectionCount());
+		Assert.assertEquals(5, manager.getAttemptCount());
+		Assert.assertEquals(4, manager.getFailureCount());
+		Assert.assertEquals(1, manager.getSuccessCount());
+		
+		// Delays: 10, 20, 40, 80, 80 (+/- 20% jitter).
+		List<Long> times = reconnectable.getAttemptTimes();
+		long d3 = times.get(3) - times.get(2);
+		long d4 = times.get(4) - times.get(3);
+		Assert.assertTrue("Delay: " + d3, d3 >= 60L);
+		Assert.assertTrue("Delay: " + d4, d4 >= 60L && d4 < 500L);
+	}
+	
+	@Test
+	public void testCancel() throws Exception {
+		FailingReconnectable reconnectable = new FailingReconnectable(Integer.MAX_VALUE);
+		
+		manager.schedule("test", reconnectable, 10L, 10L);
+		Assert.assertTrue(reconnectable.waitForAttempts(2, 5000L));
+		Assert.assertTrue(manager.isPending(reconnectable));
+		Assert.assertTrue(manager.showPendingReconnections().contains("test"));
+		
+		Assert.assertTrue(manager.cancel(reconnectable));
+		Assert.assertFalse(manager.isPending(reconnectable));
+		int attempts = reconnectable.getAttemptTimes().size();
+		Thread.sleep(100L);
+		Assert.assertTrue(reconnectable.getAttemptTimes().size() <= attempts + 1);
+		Assert.assertEquals(0, manager.getSuccessCount());
+	}
+	
+	@Test
+	public void testRetryNow() throws Exception {
+		FailingReconnectable reconnectable = new FailingReconnectable(0);
+		
+		manager.schedule("test", reconnectable, 60000L, 60000L);
+		manager.retryNow();
+		Assert.assertTrue(reconnectable.waitForAttempts(1, 5000L));
+		Thread.sleep(50L);
+		Assert.assertEquals(0, manager.getPendingReconnectionCount());
+		Assert.assertEquals(1, manager.getSuccessCount());
+	}
+	
+	@Test
+	public void testFailureWhileReconnecting() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		FailingReconnectable reconnectable = new FailingReconnectable(0) {
+			@Override
+			public void reconnect() throws Exception {
+				super.reconnect();
+				if (getAttemptTimes().size() == 1) {
+					started.countDown();
+					release.await(5, TimeUnit.SECONDS);
+				}
+			}
+		};
+		
+		manager.schedule("test", reconnectable, 10L, 10L);
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		// The resource fails again while the first (successful) attempt is running.
+		Assert.assertFalse(manager.schedule("test", reconnectable, 10L, 10L));
+		release.countDown();
+		
+		Assert.assertTrue("No attempt after the second failure", reconnectable.waitForAttempts(2, 5000L));
+		Thread.sleep(50L);
+		Assert.assertEquals(0, manager.getPendingReconnectionCount());
+		Assert.assertEquals(2, manager.getSuccessCount());
+	}
+	
+	static class FailingReconnectable implements JMSReconnectionManager.Reconnectable {
+		
+		private final int failures;
+		private final List<Long> attemptTimes = new ArrayList<Long>();
+		
+		public FailingReconnectable(int failures) {
+			this.failures = failures;
+		}
+		
+		public synchronized List<Long> getAttemptTimes() {
+			return new ArrayList<Long>(attemptTimes);
+		}
+		
+		public synchronized boolean waitForAttempts(int count, long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (attemptTimes.size() < count) {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0)
+					return false;
+				wait(wait);
+			}
+			return true;
+		}
+
+		public synchronized void reconnect() throws Exception {
+			attemptTimes.add(Long.valueOf(System.currentTimeMillis()));
+			notifyAll();
+			if (attemptTimes.size() <= failures)
+				throw new Exception("Attempt " + attemptTimes.size() + " failed");
+		}
+	}
+}
@@ -0,0 +1,556 @@
+package org.granite.test.gravity;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Session;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.Destination;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.apache.activemq.broker.BrokerService;
+import org.granite.gravity.adapters.ActiveMQServiceAdapter;
+import org.granite.gravity.adapters.JMSAsyncPublisher;
+import org.granite.gravity.adapters.PublishingFailureListener;
+import org.granite.gravity.adapters.ServiceAdapter;
+import org.granite.util.XMap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import flex.messaging.messages.AcknowledgeMessage;
+import flex.messaging.messages.AsyncMessage;
+import flex.messaging.messages.CommandMessage;
+
+public class JMSSharedConnectionsTest {
+	
+	private static int brokerCount = 0;
+	
+	private ActiveMQServiceAdapter adapter;
+	
+	@Before
+	public void before() throws Exception {
+		GraniteConfig graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+	}
+	
+	@After
+	public void after() throws Exception {
+		if (adapter != null)
+			adapter.stop();
+		adapter = null;
+		GraniteContext.release();
+	}
+	
+	@Test
+	public void testSharedConsumerFanOut() throws Exception {
+		adapter = newAdapter(false, "");
+		MockGravity gravity = new MockGravity();
+		MockChannel channelA = new MockChannel("A", gravity);
+		MockChannel channelB = new MockChannel("B", gravity);
+		MockChannel channelAll = new MockChannel("ALL", gravity);
+		
+		subscribe(channelA, "quotes", "subA", "SYMBOL = 'A'");
+		subscribe(channelB, "quotes", "subB", "SYMBOL = 'B'");
+		subscribe(channelAll, "quotes", "subAll", null);
+		
+		Assert.assertEquals(1, adapter.getSharedConsumerCount());
+		Assert.assertEquals(1, adapter.getConnectionPool().getConnectionCount());
+		
+		for (int i = 0; i < 3; i++)
+			Assert.assertTrue(adapter.invoke(channelAll, newMessage("quotes", "A", i)) instanceof AcknowledgeMessage);
+		Assert.assertTrue(adapter.invoke(channelA, newMessage("quotes", "B", 3)) instanceof AcknowledgeMessage);
+		
+		Assert.assertTrue(channelAll.waitForReceived(4, 5000L));
+		Assert.assertTrue(channelA.waitForReceived(3, 5000L));
+		Assert.assertTrue(channelB.waitForReceived(1, 5000L));
+		
+		Thread.sleep(100L);
+		Assert.assertEquals(3, channelA.getReceived().size());
+		Assert.assertEquals(1, channelB.getReceived().size());
+		Assert.assertEquals(4, channelAll.getReceived().size());
+		
+		AsyncMessage received = channelB.getReceived().get(0);
+		Assert.assertEquals(Integer.valueOf(3), received.getBody());
+		Assert.assertEquals("subB", received.getHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER));
+		Assert.assertNull(received.getHeader(ActiveMQServiceAdapter.ORIGIN_CHANNEL_ID_PROPERTY));
+		
+		// One connection, one broker consumer, pooled producer sessions.
+		Assert.assertEquals(1, adapter.getConnectionPool().getConnectionCount());
+		Assert.assertEquals(1, adapter.getConnectionPool().getCreatedSessionCount());
+		Assert.assertEquals(1, adapter.getConnectionPool().getIdleSessionCount());
+		
+		unsubscribe(channelA, "quotes", "subA");
+		unsubscribe(channelB, "quotes", "subB");
+		Assert.assertEquals(1, adapter.getSharedConsumerCount());
+		unsubscribe(channelAll, "quotes", "subAll");
+		Assert.assertEquals(0, adapter.getSharedConsumerCount());
+		Assert.assertTrue(channelAll.getSubscriptions().isEmpty());
+	}
+	
+	@Test
+	public void testNoLocal() throws Exception {
+		adapter = newAdapter(true, "");
+		MockGravity gravity = new MockGravity();
+		MockChannel channel1 = new MockChannel("1", gravity);
+		MockChannel channel2 = new MockChannel("2", gravity);
+		
+		subscribe(channel1, null, "sub1", null);
+		subscribe(channel2, null, "sub2", null);
+		
+		adapter.invoke(channel1, newMessage(null, "A", 1));
+		adapter.invoke(channel2, newMessage(null, "A", 2));
+		
+		Assert.assertTrue(channel1.waitForReceived(1, 5000L));
+		Assert.assertTrue(channel2.waitForReceived(1, 5000L));
+		
+		Thread.sleep(100L);
+		Assert.assertEquals(1, channel1.getReceived().size());
+		Assert.assertEquals(Integer.valueOf(2), channel1.getReceived().get(0).getBody());
+		Assert.assertEquals(1, channel2.getReceived().size());
+		Assert.assertEquals(Integer.valueOf(1), channel2.getReceived().get(0).getBody());
+	}
+	
+	@Test
+	public void testFailoverReconnection() throws Exception {
+		// Stopping a broker isn't notified to vm:// connections, use tcp:// instead.
+		ServerSocket socket = new ServerSocket(0);
+		String brokerUrl = "tcp://localhost:" + socket.getLocalPort();
+		socket.close();
+		
+		String brokerName = "gdsRestartedBroker" + (brokerCount++);
+		BrokerService broker = startBroker(brokerName, brokerUrl);
+		try {
+			String xml =
+				"<properties>" +
+					"<jms>" +
+						"<destination-name>test</destination-name>" +
+						"<shared-connections>true</shared-connections>" +
+						"<failover-retry-interval>50</failover-retry-interval>" +
+						"<reconnect-retry-interval>200</reconnect-retry-interval>" +
+					"</jms>" +
+					"<server>" +
+						"<broker-url>" + brokerUrl + "</broker-url>" +
+					"</server>" +
+				"</properties>";
+			XMap properties = new XMap(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+			adapter = new ActiveMQServiceAdapter();
+			adapter.setId(brokerName);
+			adapter.setGravity(new MockGravity());
+			adapter.setDestination(new Destination("test", Collections.<String>emptyList(), properties, null, null, null));
+			adapter.configure(new XMap(), properties);
+			adapter.start();
+			
+			MockGravity gravity = new MockGravity();
+			MockChannel channel = new MockChannel("channel", gravity);
+			subscribe(channel, "data", "sub", null);
+			
+			broker.stop();
+			broker.waitUntilStopped();
+			
+			// The connection failure is notified asynchronously.
+			long end = System.currentTimeMillis() + 10000L;
+			while (adapter.getReconnectionManager().getPendingReconnectionCount() == 0 && System.currentTimeMillis() < end)
+				Thread.sleep(20L);
+			Assert.assertEquals(1, adapter.getReconnectionManager().getPendingReconnectionCount());
+			
+			// Subscribing while the broker is down doesn't fail (nor block).
+			MockChannel channel2 = new MockChannel("channel2", gravity);
+			subscribe(channel2, "data", "sub2", null);
+			
+			broker = startBroker(brokerName, brokerUrl);
+			
+			end = System.currentTimeMillis() + 10000L;
+			while (adapter.getReconnectionManager().getPendingReconnectionCount() > 0 && System.currentTimeMillis() < end)
+				Thread.sleep(20L);
+			Assert.assertEquals(0, adapter.getReconnectionManager().getPendingReconnectionCount());
+			
+			Assert.assertTrue(adapter.invoke(channel, newMessage("data", "A", 1)) instanceof AcknowledgeMessage);
+			Assert.assertTrue(channel.waitForReceived(1, 5000L));
+			Assert.assertTrue(channel2.waitForReceived(1, 5000L));
+		}
+		finally {
+			broker.stop();
+		}
+	}
+	
+	@Test
+	public void testConsumerReconnectionAfterCreateConsumerFailure() throws Exception {
+		String brokerName = "gdsTestBroker" + (brokerCount++);
+		String xml =
+			"<properties>" +
+				"<jms>" +
+					"<destination-name>test</destination-name>" +
+					"<failover-retry-interval>50</failover-retry-interval>" +
+					"<reconnect-retry-interval>100</reconnect-retry-interval>" +
+				"</jms>" +
+				"<server>" +
+					"<broker-url>vm://" + brokerName + "?create=true&amp;broker.persistent=false&amp;broker.useJmx=false</broker-url>" +
+				"</server>" +
+			"</properties>";
+		XMap properties = new XMap(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		
+		FailingConsumerAdapter failingAdapter = new FailingConsumerAdapter();
+		adapter = failingAdapter;
+		adapter.setId(brokerName);
+		adapter.setGravity(new MockGravity());
+		adapter.setDestination(new Destination("test", Collections.<String>emptyList(), properties, null, null, null));
+		adapter.configure(new XMap(), properties);
+		failingAdapter.failConsumers(3);
+		adapter.start();
+		
+		long failures = adapter.getReconnectionManager().getFailureCount();
+		
+		// The first createConsumer fails in the subscribing thread, the next two in scheduled reconnections.
+		MockGravity gravity = new MockGravity();
+		MockChannel channel = new MockChannel("channel", gravity);
+		subscribe(channel, "data", "sub", null);
+		
+		long end = System.currentTimeMillis() + 10000L;
+		while (failingAdapter.getRemainingConsumerFailures() > 0 && System.currentTimeMillis() < end)
+			Thread.sleep(20L);
+		Assert.assertEquals(0, failingAdapter.getRemainingConsumerFailures());
+		
+		end = System.currentTimeMillis() + 10000L;
+		while (adapter.getReconnectionManager().getPendingReconnectionCount() > 0 && System.currentTimeMillis() < end)
+			Thread.sleep(20L);
+		Assert.assertEquals(0, adapter.getReconnectionManager().getPendingReconnectionCount());
+		Assert.assertTrue(adapter.getReconnectionManager().getFailureCount() - failures >= 2);
+		
+		Assert.assertTrue(adapter.invoke(channel, newMessage("data", "A", 1)) instanceof AcknowledgeMessage);
+		Assert.assertTrue(channel.waitForReceived(1, 5000L));
+	}
+	
+	@Test
+	public void testReconnectionDoesntBlockSubscriptions() throws Exception {
+		String brokerName = "gdsTestBroker" + (brokerCount++);
+		String xml =
+			"<properties>" +
+				"<jms>" +
+					"<destination-name>test</destination-name>" +
+					"<shared-connections>true</shared-connections>" +
+					"<failover-retry-interval>50</failover-retry-interval>" +
+					"<reconnect-retry-interval>100</reconnect-retry-interval>" +
+				"</jms>" +
+				"<server>" +
+					"<broker-url>vm://" + brokerName + "?create=true&amp;broker.persistent=false&amp;broker.useJmx=false</broker-url>" +
+				"</server>" +
+			"</properties>";
+		XMap properties = new XMap(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		
+		final BlockingConnectionAdapter blockingAdapter = new BlockingConnectionAdapter();
+		adapter = blockingAdapter;
+		adapter.setId(brokerName);
+		adapter.setGravity(new MockGravity());
+		adapter.setDestination(new Destination("test", Collections.<String>emptyList(), properties, null, null, null));
+		adapter.configure(new XMap(), properties);
+		blockingAdapter.failThenBlockConnections();
+		adapter.start();
+		
+		try {
+			// The first connection fails, the reconnection then hangs as if the broker didn't answer.
+			MockGravity gravity = new MockGravity();
+			MockChannel channel = new MockChannel("channel", gravity);
+			subscribe(channel, "data", "sub", null);
+			Assert.assertTrue(blockingAdapter.blocked.await(5L, TimeUnit.SECONDS));
+			
+			final MockChannel channel2 = new MockChannel("channel2", gravity);
+			final GraniteConfig graniteConfig = GraniteContext.getCurrentInstance().getGraniteConfig();
+			final ServicesConfig servicesConfig = GraniteContext.getCurrentInstance().getServicesConfig();
+			Thread subscriber = new Thread() {
+				@Override
+				public void run() {
+					SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+					try {
+						subscribe(channel2, "data", "sub2", null);
+						adapter.getSharedConsumerCount();
+					}
+					finally {
+						GraniteContext.release();
+					}
+				}
+			};
+			subscriber.start();
+			subscriber.join(2000L);
+			Assert.assertFalse("Subscription blocked by the reconnection", subscriber.isAlive());
+			
+			blockingAdapter.release.countDown();
+			
+			long end = System.currentTimeMillis() + 10000L;
+			while (adapter.getReconnectionManager().getPendingReconnectionCount() > 0 && System.currentTimeMillis() < end)
+				Thread.sleep(20L);
+			Assert.assertEquals(0, adapter.getReconnectionManager().getPendingReconnectionCount());
+			
+			Assert.assertTrue(adapter.invoke(channel, newMessage("data", "A", 1)) instanceof AcknowledgeMessage);
+			Assert.assertTrue(channel.waitForReceived(1, 5000L));
+			Assert.assertTrue(channel2.waitForReceived(1, 5000L));
+		}
+		finally {
+			blockingAdapter.release.countDown();
+		}
+	}
+	
+	@Test
+	public void testAsyncPublishingBatches() throws Exception {
+		adapter = newAdapter(false,
+			"<transacted-sessions>true</transacted-sessions>" +
+			"<async-publishing>true</async-publishing>" +
+			"<async-publishing-batch-size>50</async-publishing-batch-size>" +
+			"<async-publishing-linger-millis>20</async-publishing-linger-millis>"
+		);
+		MockGravity gravity = new MockGravity();
+		MockChannel publisher = new MockChannel("publisher", gravity);
+		MockChannel subscriber = new MockChannel("subscriber", gravity);
+		subscribe(subscriber, "data", "sub", null);
+		
+		final int count = 200;
+		for (int i = 0; i < count; i++)
+			Assert.assertTrue(adapter.invoke(publisher, newMessage("data", "A", i)) instanceof AcknowledgeMessage);
+		
+		Assert.assertTrue(subscriber.waitForReceived(count, 10000L));
+		List<AsyncMessage> received = subscriber.getReceived();
+		for (int i = 0; i < count; i++)
+			Assert.assertEquals(Integer.valueOf(i), received.get(i).getBody());
+		
+		JMSAsyncPublisher asyncPublisher = adapter.getAsyncPublisher();
+		Assert.assertEquals(count, asyncPublisher.getPublishedCount());
+		Assert.assertEquals(0, asyncPublisher.getFailureCount());
+		Assert.assertTrue("Batch count: " + asyncPublisher.getBatchCount(), asyncPublisher.getBatchCount() < count);
+		Assert.assertTrue(asyncPublisher.getBatchCount() >= count / 50);
+		
+		// The publishing channel doesn't need any JMS resource.
+		Assert.assertEquals(1, adapter.getConnectionPool().getCreatedSessionCount());
+	}
+	
+	@Test
+	public void testAsyncPublishingClientTopic() throws Exception {
+		adapter = newAdapter(false, "<async-publishing>true</async-publishing>");
+		MockGravity gravity = new MockGravity();
+		MockChannel publisher = new MockChannel("publisher", gravity);
+		MockChannel subscriber = new MockChannel("subscriber", gravity);
+		subscribe(publisher, "quotes", "pub", null);
+		subscribe(subscriber, "quotes", "sub", null);
+		
+		// Without subtopic header, messages go to the topic the publishing client subscribed to.
+		for (int i = 0; i < 3; i++)
+			Assert.assertTrue(adapter.invoke(publisher, newMessage(null, "A", i)) instanceof AcknowledgeMessage);
+		
+		Assert.assertTrue(subscriber.waitForReceived(3, 5000L));
+		Assert.assertEquals(0, adapter.getAsyncPublisher().getFailureCount());
+	}
+	
+	@Test
+	public void testAsyncPublishingFailures() throws Exception {
+		String brokerName = "gdsMissingBroker" + (brokerCount++);
+		String xml =
+			"<properties>" +
+				"<jms>" +
+					"<destination-name>test</destination-name>" +
+					"<async-publishing>true</async-publishing>" +
+				"</jms>" +
+				"<server>" +
+					"<broker-url>vm://" + brokerName + "?create=false</broker-url>" +
+				"</server>" +
+			"</properties>";
+		XMap properties = new XMap(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		
+		FailureCountingGravity gravity = new FailureCountingGravity();
+		adapter = new ActiveMQServiceAdapter();
+		adapter.setId(brokerName);
+		adapter.setGravity(gravity);
+		adapter.setDestination(new Destination("test", Collections.<String>emptyList(), properties, null, null, null));
+		adapter.configure(new XMap(), properties);
+		adapter.start();
+		
+		MockChannel publisher = new MockChannel("publisher", gravity);
+		for (int i = 0; i < 3; i++)
+			Assert.assertTrue(adapter.invoke(publisher, newMessage(null, "A", i)) instanceof AcknowledgeMessage);
+		
+		Assert.assertTrue(gravity.waitForFailures(3, 10000L));
+		JMSAsyncPublisher asyncPublisher = adapter.getAsyncPublisher();
+		Assert.assertEquals(3, asyncPublisher.getFailureCount());
+		
+		adapter.stop();
+		adapter = null;
+		Assert.assertFalse(asyncPublisher.isRunning());
+		
+		// Rejected messages are reported to the caller only.
+		Assert.assertFalse(asyncPublisher.publish(publisher.getId(), null, new HashMap<String, Object>(), "abc", null, null, 0L, 0L));
+		Assert.assertEquals(3, asyncPublisher.getFailureCount());
+	}
+	
+	private ActiveMQServiceAdapter newAdapter(boolean noLocal, String jmsProperties) throws Exception {
+		String brokerName = "gdsTestBroker" + (brokerCount++);
+		String xml =
+			"<properties>" +
+				"<jms>" +
+					"<destination-name>test</destination-name>" +
+					"<no-local>" + noLocal + "</no-local>" +
+					"<shared-connections>true</shared-connections>" +
+					jmsProperties +
+				"</jms>" +
+				"<server>" +
+					"<broker-url>vm://" + brokerName + "?create=true&amp;broker.persistent=false&amp;broker.useJmx=false</broker-url>" +
+				"</server>" +
+			"</properties>";
+		XMap properties = new XMap(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		
+		ActiveMQServiceAdapter adapter = new ActiveMQServiceAdapter();
+		adapter.setId(brokerName);
+		adapter.setGravity(new MockGravity());
+		adapter.setDestination(new Destination("test", Collections.<String>emptyList(), properties, null, null, null));
+		adapter.configure(new XMap(), properties);
+		adapter.start();
+		return adapter;
+	}
+	
+	private void subscribe(MockChannel channel, String topic, String subscriptionId, String selector) {
+		CommandMessage message = new CommandMessage();
+		message.setOperation(CommandMessage.SUBSCRIBE_OPERATION);
+		message.setDestination("test");
+		message.setClientId(channel.getId());
+		message.setHeader(AsyncMessage.SUBTOPIC_HEADER, topic);
+		message.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, subscriptionId);
+		message.setHeader(CommandMessage.SELECTOR_HEADER, selector);
+		Assert.assertTrue(adapter.manage(channel, message) instanceof AcknowledgeMessage);
+	}
+	
+	private void unsubscribe(MockChannel channel, String topic, String subscriptionId) {
+		CommandMessage message = new CommandMessage();
+		message.setOperation(CommandMessage.UNSUBSCRIBE_OPERATION);
+		message.setDestination("test");
+		message.setClientId(channel.getId());
+		message.setHeader(AsyncMessage.SUBTOPIC_HEADER, topic);
+		message.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, subscriptionId);
+		Assert.assertTrue(adapter.manage(channel, message) instanceof AcknowledgeMessage);
+	}
+	
+	private static AsyncMessage newMessage(String topic, String symbol, int value) {
+		AsyncMessage message = new AsyncMessage();
+		message.setDestination("test");
+		message.setHeader(AsyncMessage.SUBTOPIC_HEADER, topic);
+		message.setHeader("SYMBOL", symbol);
+		message.setBody(Integer.valueOf(value));
+		return message;
+	}
+	
+	private static BrokerService startBroker(String brokerName, String brokerUrl) throws Exception {
+		BrokerService broker = new BrokerService();
+		broker.setBrokerName(brokerName);
+		broker.setPersistent(false);
+		broker.setUseJmx(false);
+		broker.addConnector(brokerUrl);
+		broker.start();
+		return broker;
+	}
+	
+	static class FailingConsumerAdapter extends ActiveMQServiceAdapter {
+		
+		private final AtomicInteger consumerFailures = new AtomicInteger();
+		
+		public void failConsumers(int count) {
+			consumerFailures.set(count);
+			jmsConnectionFactory = wrap(jmsConnectionFactory, ConnectionFactory.class);
+		}
+		
+		public int getRemainingConsumerFailures() {
+			return Math.max(0, consumerFailures.get());
+		}
+		
+		// Makes the first createConsumer calls fail, as during a broker failover.
+		private <T> T wrap(final Object target, Class<T> type) {
+			return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("createConsumer") && consumerFailures.getAndDecrement() > 0)
+						throw new IllegalStateException("Failing over");
+					Object result;
+					try {
+						result = method.invoke(target, args);
+					}
+					catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+					if (result instanceof Connection)
+						return wrap(result, Connection.class);
+					if (result instanceof Session)
+						return wrap(result, Session.class);
+					return result;
+				}
+			}));
+		}
+	}
+	
+	static class BlockingConnectionAdapter extends ActiveMQServiceAdapter {
+		
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger connections = new AtomicInteger();
+		
+		// Fails the first connection, then blocks the second one until released.
+		public void failThenBlockConnections() {
+			final ConnectionFactory target = jmsConnectionFactory;
+			jmsConnectionFactory = (ConnectionFactory)Proxy.newProxyInstance(ConnectionFactory.class.getClassLoader(), new Class<?>[] { ConnectionFactory.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("createConnection")) {
+						int count = connections.incrementAndGet();
+						if (count == 1)
+							throw new JMSException("Broker down");
+						if (count == 2) {
+							blocked.countDown();
+							release.await();
+						}
+					}
+					try {
+						return method.invoke(target, args);
+					}
+					catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				}
+			});
+		}
+	}
+	
+	static class FailureCountingGravity extends MockGravity implements PublishingFailureListener {
+		
+		private final AtomicInteger failures = new AtomicInteger();
+
+		public void publishingFailed(ServiceAdapter adapter, String channelId, String messageId, Exception error) {
+			synchronized (failures) {
+				failures.incrementAndGet();
+				failures.notifyAll();
+			}
+		}
+		
+		public boolean waitForFailures(int count, long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			synchronized (failures) {
+				while (failures.get() < count) {
+					long wait = end - System.currentTimeMillis();
+					if (wait <= 0)
+						return false;
+					failures.wait(wait);
+				}
+			}
+			return true;
+		}
+	}
+}
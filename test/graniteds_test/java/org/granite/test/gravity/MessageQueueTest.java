@@ -0,0 +1,100 @@
+package org.granite.test.gravity;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.granite.gravity.MessageQueue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageQueueTest {
+
+	@Test
+	public void testCapacityAndRequeue() {
+		MessageQueue<String> queue = new MessageQueue<String>();
+		Assert.assertTrue(queue.isEmpty());
+		
+		for (int i = 0; i < 100; i++)
+			Assert.assertTrue(queue.offer("m" + i, 100));
+		Assert.assertFalse(queue.offer("m100", 100));
+		Assert.assertEquals(100, queue.size());
+		
+		List<String> messages = queue.drain();
+		Assert.assertEquals(100, messages.size());
+		for (int i = 0; i < 100; i++)
+			Assert.assertEquals("m" + i, messages.get(i));
+		Assert.assertTrue(queue.isEmpty());
+		
+		queue.offer("m100", 3);
+		Assert.assertFalse(queue.requeue(Arrays.asList("m98", "m99", "m100"), 3));
+		Assert.assertTrue(queue.requeue(Arrays.asList("m98", "m99"), 3));
+		Assert.assertEquals(3, queue.size());
+		Assert.assertEquals(Arrays.asList("m98", "m99", "m100"), queue.drain());
+		Assert.assertTrue(queue.drain().isEmpty());
+	}
+
+	@Test
+	public void testPollAndReplace() {
+		MessageQueue<String> queue = new MessageQueue<String>();
+		Assert.assertNull(queue.poll());
+		
+		// Elements are compared by identity.
+		String[] elements = new String[40];
+		long[] indexes = new long[40];
+		for (int i = 0; i < 40; i++) {
+			elements[i] = "m" + i;
+			indexes[i] = queue.offerIndex(elements[i], 40);
+		}
+		Assert.assertEquals(-1L, queue.offerIndex("m40", 40));
+		
+		Assert.assertEquals("m0", queue.poll());
+		Assert.assertFalse("Already polled", queue.replace(indexes[0], elements[0], "x0"));
+		Assert.assertFalse("Unexpected element", queue.replace(indexes[1], elements[2], "x1"));
+		Assert.assertTrue(queue.replace(indexes[1], elements[1], "x1"));
+		Assert.assertTrue("Next segment", queue.replace(indexes[35], elements[35], "x35"));
+		Assert.assertEquals(39, queue.size());
+		
+		List<String> messages = queue.drain();
+		Assert.assertEquals("x1", messages.get(0));
+		Assert.assertEquals("x35", messages.get(34));
+		Assert.assertFalse("Already drained", queue.replace(indexes[2], elements[2], "x2"));
+		
+		queue.offer("m40");
+		Assert.assertTrue(queue.requeue(Arrays.asList("m38", "m39"), 10));
+		Assert.assertEquals("m38", queue.poll());
+		Assert.assertEquals(Arrays.asList("m39", "m40"), queue.drain());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final MessageQueue<int[]> queue = new MessageQueue<int[]>();
+		final int producers = 4;
+		final int count = 20000;
+		
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < count; i++)
+						queue.offer(new int[] { producer, i });
+				}
+			};
+			threads[p].start();
+		}
+		
+		int[] next = new int[producers];
+		int received = 0;
+		while (received < producers * count) {
+			for (int[] message : queue.drain()) {
+				Assert.assertEquals(next[message[0]]++, message[1]);
+				received++;
+			}
+		}
+		for (Thread thread : threads)
+			thread.join();
+		
+		Assert.assertTrue(queue.isEmpty());
+	}
+}
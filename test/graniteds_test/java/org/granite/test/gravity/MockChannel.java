@@ -0,0 +1,110 @@
+package org.granite.test.gravity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.granite.gravity.AsyncHttpContext;
+import org.granite.gravity.AsyncPublishedMessage;
+import org.granite.gravity.Channel;
+import org.granite.gravity.ChannelFactory;
+import org.granite.gravity.Gravity;
+import org.granite.gravity.MessagePublishingException;
+import org.granite.gravity.MessageReceivingException;
+import org.granite.gravity.Subscription;
+
+import flex.messaging.messages.AsyncMessage;
+
+public class MockChannel implements Channel {
+	
+	private final String id;
+	private final Gravity gravity;
+	private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+	private final List<AsyncMessage> received = new ArrayList<AsyncMessage>();
+	
+	public MockChannel(String id, Gravity gravity) {
+		this.id = id;
+		this.gravity = gravity;
+	}
+	
+	public synchronized List<AsyncMessage> getReceived() {
+		return new ArrayList<AsyncMessage>(received);
+	}
+	
+	public synchronized boolean waitForReceived(int count, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (received.size() < count) {
+			long wait = end - System.currentTimeMillis();
+			if (wait <= 0)
+				return false;
+			wait(wait);
+		}
+		return true;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getClientType() {
+		return "as3";
+	}
+
+	public Gravity getGravity() {
+		return gravity;
+	}
+
+	public ChannelFactory<?> getFactory() {
+		return null;
+	}
+
+	public Subscription addSubscription(String destination, String subTopicId, String subscriptionId, boolean noLocal) {
+    	Subscription subscription = new Subscription(this, destination, subTopicId, subscriptionId, noLocal);
+    	Subscription present = subscriptions.putIfAbsent(subscriptionId, subscription);
+    	return (present != null ? present : subscription);
+	}
+
+	public Collection<Subscription> getSubscriptions() {
+		return subscriptions.values();
+	}
+
+	public Subscription removeSubscription(String subscriptionId) {
+		return subscriptions.remove(subscriptionId);
+	}
+
+	public void publish(AsyncPublishedMessage message) throws MessagePublishingException {
+	}
+
+	public boolean hasPublishedMessage() {
+		return false;
+	}
+
+	public boolean runPublish() {
+		return false;
+	}
+
+	public synchronized void receive(AsyncMessage message) throws MessageReceivingException {
+		received.add(message);
+		notifyAll();
+	}
+
+	public synchronized boolean hasReceivedMessage() {
+		return !received.isEmpty();
+	}
+
+	public boolean runReceive() {
+		return false;
+	}
+
+	public boolean runReceived(AsyncHttpContext asyncHttpContext) {
+		return false;
+	}
+
+	public void close() {
+	}
+
+	public void destroy() {
+	}
+}
@@ -0,0 +1,114 @@
+package org.granite.test.gravity;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.granite.gravity.selector.GravityMessageSelector;
+import org.granite.gravity.selector.SelectorIndex;
+import org.junit.Assert;
+import org.junit.Test;
+
+import flex.messaging.messages.AsyncMessage;
+
+public class SelectorIndexTest {
+
+	@Test
+	public void testIndexedSelectors() {
+		SelectorIndex<String> index = new SelectorIndex<String>();
+		index.add("s1", "s1", new GravityMessageSelector("user = 'user1'"));
+		index.add("s2", "s2", new GravityMessageSelector("user = 'user2' AND (test IS NULL OR test = 'test')"));
+		index.add("s3", "s3", new GravityMessageSelector("entity IN ('a', 'b', 'c', 'd', 'e', 'f') AND user = 'user3'"));
+		index.add("s4", "s4", new GravityMessageSelector("'user4' = user"));
+		index.add("s5", "s5", new GravityMessageSelector("user = 'user1' OR user = 'user2'"));
+		index.add("s6", "s6", new GravityMessageSelector("user <> 'user1'"));
+		index.add("s7", "s7", null);
+		Assert.assertEquals(7, index.size());
+		Assert.assertEquals(4, index.getIndexedCount());
+
+		AsyncMessage message = new AsyncMessage();
+		Assert.assertEquals(set("s5", "s6", "s7"), candidates(index, message));
+
+		message.setHeader("user", "user1");
+		Assert.assertEquals(set("s1", "s5", "s6", "s7"), candidates(index, message));
+
+		message.setHeader("user", "user2");
+		Assert.assertEquals(set("s2", "s5", "s6", "s7"), candidates(index, message));
+
+		message.setHeader("user", "user4");
+		Assert.assertEquals(set("s4", "s5", "s6", "s7"), candidates(index, message));
+
+		message.setHeader("entity", "f");
+		Assert.assertEquals(set("s3", "s4", "s5", "s6", "s7"), candidates(index, message));
+
+		message.setHeader("user", Integer.valueOf(1));
+		message.setHeader("entity", Integer.valueOf(1));
+		Assert.assertEquals(set("s5", "s6", "s7"), candidates(index, message));
+	}
+
+	@Test
+	public void testReplaceAndRemove() {
+		SelectorIndex<String> index = new SelectorIndex<String>();
+		index.add("s1", "s1", new GravityMessageSelector("user = 'user1'"));
+
+		AsyncMessage message = new AsyncMessage();
+		message.setHeader("user", "user2");
+		Assert.assertTrue(candidates(index, message).isEmpty());
+
+		index.add("s1", "s1", new GravityMessageSelector("user IN ('user1', 'user2')"));
+		Assert.assertEquals(1, index.size());
+		Assert.assertEquals(set("s1"), candidates(index, message));
+
+		index.remove("s1");
+		Assert.assertEquals(0, index.size());
+		Assert.assertTrue(candidates(index, message).isEmpty());
+	}
+
+	@Test
+	public void testCandidatesMatchSelectors() {
+		String[] selectors = {
+			"user = 'user1'",
+			"user = 'user1' AND entity = 'a'",
+			"entity IN ('a', 'b') AND (user = 'user1' OR user = 'user2')",
+			"user NOT IN ('user1')",
+			"user LIKE 'user%'"
+		};
+		SelectorIndex<GravityMessageSelector> index = new SelectorIndex<GravityMessageSelector>();
+		for (int i = 0; i < selectors.length; i++)
+			index.add(String.valueOf(i), new GravityMessageSelector(selectors[i]), new GravityMessageSelector(selectors[i]));
+
+		String[] users = { null, "user1", "user2", "user3" };
+		String[] entities = { null, "a", "b", "c" };
+		for (String user : users) {
+			for (String entity : entities) {
+				AsyncMessage message = new AsyncMessage();
+				if (user != null)
+					message.setHeader("user", user);
+				if (entity != null)
+					message.setHeader("entity", entity);
+
+				List<GravityMessageSelector> candidates = index.getCandidates(message);
+				for (String selector : selectors) {
+					GravityMessageSelector messageSelector = new GravityMessageSelector(selector);
+					if (messageSelector.accept(message)) {
+						boolean found = false;
+						for (GravityMessageSelector candidate : candidates)
+							found = found || candidate.getExpression().toString().equals(messageSelector.getExpression().toString());
+						Assert.assertTrue("Missing candidate " + selector + " for " + user + "/" + entity, found);
+					}
+				}
+			}
+		}
+	}
+
+	private static Set<String> candidates(SelectorIndex<String> index, AsyncMessage message) {
+		return new HashSet<String>(index.getCandidates(message));
+	}
+
+	private static Set<String> set(String... values) {
+		Set<String> set = new HashSet<String>();
+		for (String value : values)
+			set.add(value);
+		return set;
+	}
+}
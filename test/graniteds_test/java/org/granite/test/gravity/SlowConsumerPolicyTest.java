@@ -0,0 +1,347 @@
+package org.granite.test.gravity;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.Destination;
+import org.granite.config.flex.Service;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.gravity.AbstractChannel;
+import org.granite.gravity.AsyncChannelRunner;
+import org.granite.gravity.AsyncHttpContext;
+import org.granite.gravity.Channel;
+import org.granite.gravity.Gravity;
+import org.granite.gravity.GravityConfig;
+import org.granite.gravity.MessageReceivingException;
+import org.granite.gravity.SharedMessageBody;
+import org.granite.gravity.SlowConsumerListener;
+import org.granite.gravity.SlowConsumerPolicy;
+import org.granite.util.XMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import flex.messaging.messages.AsyncMessage;
+
+public class SlowConsumerPolicyTest {
+	
+	private QueueGravity gravity;
+	private QueueChannel channel;
+	
+	@Before
+	public void before() throws Exception {
+		Map<String, Destination> destinations = new HashMap<String, Destination>();
+		addDestination(destinations, "legacy", "");
+		addDestination(destinations, "dropNewest", "<slow-consumer-policy>drop-newest</slow-consumer-policy><slow-consumer-high-watermark>5</slow-consumer-high-watermark><slow-consumer-low-watermark>2</slow-consumer-low-watermark>");
+		addDestination(destinations, "dropOldest", "<slow-consumer-policy>drop-oldest</slow-consumer-policy><slow-consumer-high-watermark>5</slow-consumer-high-watermark>");
+		addDestination(destinations, "conflate", "<slow-consumer-policy>conflate</slow-consumer-policy><slow-consumer-high-watermark>4</slow-consumer-high-watermark><conflation-header>symbol</conflation-header>");
+		addDestination(destinations, "ticks", "<conflation-header>symbol</conflation-header><always-conflate>true</always-conflate>");
+		addDestination(destinations, "disconnect", "<slow-consumer-policy>disconnect</slow-consumer-policy><slow-consumer-high-watermark>3</slow-consumer-high-watermark>");
+		
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		servicesConfig.addService(new Service("messaging-service", "flex.messaging.services.MessagingService", "flex.messaging.messages.AsyncMessage", null, null, destinations));
+		GravityConfig gravityConfig = new GravityConfig(new GraniteConfig(null, null, null, null));
+		gravityConfig.setMaxMessagesQueuedPerChannel(10);
+		
+		gravity = new QueueGravity(gravityConfig, servicesConfig);
+		channel = new QueueChannel(gravity, "channel");
+	}
+	
+	@Test
+	public void testNoPolicy() throws Exception {
+		for (int i = 0; i < 10; i++)
+			channel.receive(newMessage("legacy", i, null));
+		try {
+			channel.receive(newMessage("legacy", 10, null));
+			Assert.fail("Queue should be full");
+		}
+		catch (MessageReceivingException e) {
+			// expected.
+		}
+		Assert.assertEquals(10, channel.drain().size());
+	}
+	
+	@Test
+	public void testDropNewest() throws Exception {
+		for (int i = 0; i < 10; i++)
+			channel.receive(newMessage("dropNewest", i, null), new SharedMessageBody("body" + i));
+		
+		Assert.assertTrue(channel.isSlowConsumer());
+		Assert.assertEquals(Collections.singletonList(SlowConsumerPolicy.DROP_NEWEST), gravity.detected);
+		Assert.assertEquals(5, channel.getDroppedMessageCount(SlowConsumerPolicy.DROP_NEWEST));
+		Assert.assertEquals(5L, gravity.getDroppedCount(SlowConsumerPolicy.DROP_NEWEST));
+		Assert.assertEquals(5, channel.getSharedBodiesCount());
+		Assert.assertEquals(ids(0, 1, 2, 3, 4), ids(channel.drain()));
+		
+		// Back under the low watermark.
+		channel.receive(newMessage("dropNewest", 10, null));
+		Assert.assertFalse(channel.isSlowConsumer());
+		Assert.assertEquals(ids(10), ids(channel.drain()));
+	}
+	
+	@Test
+	public void testDropOldest() throws Exception {
+		for (int i = 0; i < 10; i++)
+			channel.receive(newMessage("dropOldest", i, null), new SharedMessageBody("body" + i));
+		
+		Assert.assertTrue(channel.isSlowConsumer());
+		Assert.assertEquals(5, channel.getDroppedMessageCount(SlowConsumerPolicy.DROP_OLDEST));
+		Assert.assertEquals(5, channel.getSharedBodiesCount());
+		Assert.assertEquals(ids(5, 6, 7, 8, 9), ids(channel.drain()));
+	}
+	
+	@Test
+	public void testDropOldestOtherDestination() throws Exception {
+		for (int i = 0; i < 5; i++)
+			channel.receive(newMessage("legacy", i, null));
+		channel.receive(newMessage("dropOldest", 5, null));
+		
+		// The evicted message is reported against its own destination.
+		Assert.assertEquals(Collections.singletonList("legacy"), gravity.droppedDestinations);
+		Assert.assertEquals(ids(1, 2, 3, 4, 5), ids(channel.drain()));
+	}
+	
+	@Test
+	public void testConflate() throws Exception {
+		String[] symbols = { "A", "B", "C", "D", "A", "B", "E", "A" };
+		for (int i = 0; i < symbols.length; i++)
+			channel.receive(newMessage("conflate", i, symbols[i]));
+		
+		// Same symbol but other subscription: never conflated.
+		AsyncMessage other = newMessage("conflate", 8, "C");
+		other.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, "otherSubscription");
+		channel.receive(other);
+		
+		Assert.assertTrue(channel.isSlowConsumer());
+		Assert.assertEquals(3, channel.getDroppedMessageCount(SlowConsumerPolicy.CONFLATE));
+		Assert.assertEquals(3L, gravity.getDroppedCount(SlowConsumerPolicy.CONFLATE));
+		Assert.assertEquals(ids(7, 5, 2, 3, 6, 8), ids(channel.drain()));
+		
+		// Drained messages cannot be replaced anymore.
+		channel.receive(newMessage("conflate", 9, "A"));
+		Assert.assertEquals(ids(9), ids(channel.drain()));
+	}
+	
+	@Test
+	public void testConflateOverflow() throws Exception {
+		for (int i = 0; i < 12; i++)
+			channel.receive(newMessage("conflate", i, "S" + i));
+		
+		Assert.assertEquals(0, channel.getDroppedMessageCount(SlowConsumerPolicy.CONFLATE));
+		Assert.assertEquals(2, channel.getDroppedMessageCount(SlowConsumerPolicy.DROP_NEWEST));
+		Assert.assertEquals(10, channel.drain().size());
+	}
+	
+	@Test
+	public void testAlwaysConflate() throws Exception {
+		String[] symbols = { "A", "B", "A", "A", "C", null, "B" };
+		for (int i = 0; i < symbols.length; i++)
+			channel.receive(newMessage("ticks", i, symbols[i]), new SharedMessageBody("body" + i));
+		
+		Assert.assertFalse(channel.isSlowConsumer());
+		Assert.assertEquals(3, channel.getConflatedMessageCount());
+		Assert.assertEquals(3L, gravity.getDroppedCount(SlowConsumerPolicy.CONFLATE));
+		Assert.assertEquals(4, channel.getSharedBodiesCount());
+		Assert.assertEquals(ids(3, 6, 4, 5), ids(channel.drain()));
+		
+		// No slow consumer policy: the channel capacity still applies to distinct keys.
+		for (int i = 0; i < 10; i++)
+			channel.receive(newMessage("ticks", i, "S" + i));
+		channel.receive(newMessage("ticks", 10, "S0"));
+		try {
+			channel.receive(newMessage("ticks", 11, "S11"));
+			Assert.fail("Queue should be full");
+		}
+		catch (MessageReceivingException e) {
+			// expected.
+		}
+		Assert.assertEquals("10", channel.drain().get(0).getMessageId());
+	}
+	
+	@Test
+	public void testAlwaysConflateConcurrently() throws Exception {
+		final int producers = 4;
+		final int messages = 10000;
+		final int symbols = 2;
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < messages; i++)
+							channel.receive(newMessage("ticks", producer * messages + i, "S" + (i % symbols)));
+					}
+					catch (Throwable t) {
+						error.compareAndSet(null, t);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		
+		// Drain while producers are running: each drained batch holds at most one message per key.
+		int delivered = 0;
+		boolean running = true;
+		while (running) {
+			running = false;
+			for (Thread thread : threads)
+				running |= thread.isAlive();
+			
+			List<AsyncMessage> queued = channel.drain();
+			Set<Object> keys = new HashSet<Object>();
+			for (AsyncMessage message : queued)
+				Assert.assertTrue("Duplicate key: " + message.getHeader("symbol"), keys.add(message.getHeader("symbol")));
+			delivered += queued.size();
+		}
+		
+		Assert.assertNull(error.get());
+		Assert.assertEquals(producers * messages, delivered + channel.getConflatedMessageCount());
+	}
+	
+	@Test
+	public void testDisconnect() throws Exception {
+		for (int i = 0; i < 5; i++)
+			channel.receive(newMessage("disconnect", i, null), new SharedMessageBody("body" + i));
+		
+		Assert.assertEquals(Collections.singletonList("channel"), gravity.removedChannels);
+		Assert.assertEquals(5, channel.getDroppedMessageCount(SlowConsumerPolicy.DISCONNECT));
+		Assert.assertEquals(0, channel.getSharedBodiesCount());
+		Assert.assertTrue(channel.drain().isEmpty());
+	}
+	
+	private static void addDestination(Map<String, Destination> destinations, String id, String properties) throws Exception {
+		XMap xmap = new XMap(new ByteArrayInputStream(("<properties>" + properties + "</properties>").getBytes("UTF-8")));
+		destinations.put(id, new Destination(id, Collections.<String>emptyList(), xmap, null, null, null));
+	}
+	
+	private static AsyncMessage newMessage(String destination, int id, String symbol) {
+		AsyncMessage message = new AsyncMessage();
+		message.setMessageId(String.valueOf(id));
+		message.setDestination(destination);
+		message.setHeader(AsyncMessage.DESTINATION_CLIENT_ID_HEADER, "subscription");
+		if (symbol != null)
+			message.setHeader("symbol", symbol);
+		return message;
+	}
+	
+	private static List<String> ids(int... ids) {
+		List<String> list = new ArrayList<String>();
+		for (int id : ids)
+			list.add(String.valueOf(id));
+		return list;
+	}
+	
+	private static List<String> ids(List<AsyncMessage> messages) {
+		List<String> list = new ArrayList<String>();
+		for (AsyncMessage message : messages)
+			list.add(message.getMessageId());
+		return list;
+	}
+	
+	static class QueueGravity extends MockGravity implements SlowConsumerListener {
+		
+		private final GravityConfig gravityConfig;
+		private final ServicesConfig servicesConfig;
+		final List<SlowConsumerPolicy> detected = new ArrayList<SlowConsumerPolicy>();
+		final Map<SlowConsumerPolicy, Long> dropped = new HashMap<SlowConsumerPolicy, Long>();
+		final List<String> droppedDestinations = new ArrayList<String>();
+		final List<String> removedChannels = new ArrayList<String>();
+		
+		public QueueGravity(GravityConfig gravityConfig, ServicesConfig servicesConfig) {
+			this.gravityConfig = gravityConfig;
+			this.servicesConfig = servicesConfig;
+		}
+
+		@Override
+		public GravityConfig getGravityConfig() {
+			return gravityConfig;
+		}
+
+		@Override
+		public ServicesConfig getServicesConfig() {
+			return servicesConfig;
+		}
+
+		@Override
+		public void execute(AsyncChannelRunner runner) {
+			runner.run();
+		}
+
+		@Override
+		public Channel removeChannel(String channelId) {
+			removedChannels.add(channelId);
+			return null;
+		}
+		
+		public synchronized long getDroppedCount(SlowConsumerPolicy policy) {
+			Long count = dropped.get(policy);
+			return (count != null ? count.longValue() : 0L);
+		}
+
+		public void slowConsumerDetected(Channel channel, String destination, SlowConsumerPolicy policy, int queueSize) {
+			detected.add(policy);
+		}
+
+		public synchronized void messagesDropped(Channel channel, String destination, SlowConsumerPolicy policy, int count) {
+			dropped.put(policy, Long.valueOf(getDroppedCount(policy) + count));
+			droppedDestinations.add(destination);
+		}
+	}
+	
+	static class QueueChannel extends AbstractChannel {
+
+		public QueueChannel(Gravity gravity, String id) {
+			super(gravity, id, null, "as3");
+		}
+		
+		public List<AsyncMessage> drain() {
+			receivedQueueLock.lock();
+			try {
+				List<AsyncMessage> messages = drainReceivedQueue();
+				pollSharedBodies(messages);
+				return messages;
+			}
+			finally {
+				receivedQueueLock.unlock();
+			}
+		}
+		
+		public int getSharedBodiesCount() {
+			return sharedBodies.size();
+		}
+
+		public void close() {
+		}
+
+		@Override
+		protected boolean hasAsyncHttpContext() {
+			return false;
+		}
+
+		@Override
+		protected AsyncHttpContext acquireAsyncHttpContext() {
+			return null;
+		}
+
+		@Override
+		protected void releaseAsyncHttpContext(AsyncHttpContext context) {
+		}
+	}
+}
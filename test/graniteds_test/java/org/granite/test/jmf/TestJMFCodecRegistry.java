@@ -0,0 +1,124 @@
+package org.granite.test.jmf;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.granite.messaging.jmf.DefaultCodecRegistry;
+import org.granite.messaging.jmf.ExtendedObjectInput;
+import org.granite.messaging.jmf.ExtendedObjectOutput;
+import org.granite.messaging.jmf.codec.ExtendedObjectCodec;
+import org.granite.messaging.jmf.codec.ValueDependentCodec;
+import org.granite.messaging.jmf.codec.std.impl.ArrayCodecImpl;
+import org.granite.messaging.jmf.codec.std.impl.EnumCodecImpl;
+import org.granite.messaging.jmf.codec.std.impl.ObjectCodecImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestJMFCodecRegistry {
+
+	@Test
+	public void testConditionalCodecs() {
+		DefaultCodecRegistry codecRegistry = new DefaultCodecRegistry();
+
+		for (int i = 0; i < 2; i++) {
+			Assert.assertTrue(codecRegistry.getCodec(new int[0]) instanceof ArrayCodecImpl);
+			Assert.assertTrue(codecRegistry.getCodec(Thread.State.NEW) instanceof EnumCodecImpl);
+			Assert.assertTrue(codecRegistry.getCodec(new Object()) instanceof ObjectCodecImpl);
+			Assert.assertSame(codecRegistry.getStringCodec(), codecRegistry.getCodec("abc"));
+			Assert.assertSame(codecRegistry.getNullCodec(), codecRegistry.getCodec(null));
+		}
+	}
+
+	@Test
+	public void testExtendedCodecsResolution() throws ClassNotFoundException {
+		CountingCodec dateCodec = new CountingCodec(Date.class);
+		CountingCodec stringCodec = new CountingCodec(String.class);
+		DefaultCodecRegistry codecRegistry = new DefaultCodecRegistry(Arrays.asList((ExtendedObjectCodec)dateCodec, stringCodec));
+
+		for (int i = 0; i < 10; i++) {
+			Assert.assertSame(dateCodec, codecRegistry.findExtendedEncoder(null, new Date()));
+			Assert.assertSame(stringCodec, codecRegistry.findExtendedEncoder(null, "abc"));
+			Assert.assertNull(codecRegistry.findExtendedEncoder(null, Integer.valueOf(i)));
+
+			Assert.assertSame(dateCodec, codecRegistry.findExtendedDecoder(null, Date.class.getName()));
+			Assert.assertSame(stringCodec, codecRegistry.findExtendedDecoder(null, String.class.getName()));
+			Assert.assertNull(codecRegistry.findExtendedDecoder(null, Integer.class.getName()));
+		}
+
+		// Only evaluated while filling the resolution tables (Date, String, Integer).
+		Assert.assertEquals(3, dateCodec.canEncodeCount);
+		Assert.assertEquals(2, stringCodec.canEncodeCount);
+		Assert.assertEquals(3, dateCodec.canDecodeCount);
+		Assert.assertEquals(2, stringCodec.canDecodeCount);
+
+		codecRegistry.clearResolutionCaches();
+		Assert.assertSame(dateCodec, codecRegistry.findExtendedEncoder(null, new Date()));
+		Assert.assertEquals(4, dateCodec.canEncodeCount);
+	}
+
+	@Test
+	public void testValueDependentExtendedCodec() {
+		OddIntegerCodec oddCodec = new OddIntegerCodec();
+		CountingCodec integerCodec = new CountingCodec(Integer.class);
+		DefaultCodecRegistry codecRegistry = new DefaultCodecRegistry(Arrays.asList((ExtendedObjectCodec)oddCodec, integerCodec));
+
+		for (int i = 0; i < 10; i++)
+			Assert.assertSame(i % 2 == 0 ? integerCodec : oddCodec, codecRegistry.findExtendedEncoder(null, Integer.valueOf(i)));
+
+		Assert.assertEquals(10, oddCodec.canEncodeCount);
+		Assert.assertEquals(1, integerCodec.canEncodeCount);
+	}
+
+	static class CountingCodec implements ExtendedObjectCodec {
+
+		private final Class<?> cls;
+		int canEncodeCount = 0;
+		int canDecodeCount = 0;
+
+		public CountingCodec(Class<?> cls) {
+			this.cls = cls;
+		}
+
+		public boolean canEncode(ExtendedObjectOutput out, Object v) {
+			canEncodeCount++;
+			return v.getClass() == cls;
+		}
+
+		public String getEncodedClassName(ExtendedObjectOutput out, Object v) {
+			return cls.getName();
+		}
+
+		public void encode(ExtendedObjectOutput out, Object v) throws IOException, IllegalAccessException, InvocationTargetException {
+		}
+
+		public boolean canDecode(ExtendedObjectInput in, String className) throws ClassNotFoundException {
+			canDecodeCount++;
+			return cls.getName().equals(className);
+		}
+
+		public String getDecodedClassName(ExtendedObjectInput in, String className) {
+			return className;
+		}
+
+		public Object newInstance(ExtendedObjectInput in, String className) {
+			return null;
+		}
+
+		public void decode(ExtendedObjectInput in, Object v) throws IOException, ClassNotFoundException, IllegalAccessException {
+		}
+	}
+
+	static class OddIntegerCodec extends CountingCodec implements ValueDependentCodec {
+
+		public OddIntegerCodec() {
+			super(Integer.class);
+		}
+
+		@Override
+		public boolean canEncode(ExtendedObjectOutput out, Object v) {
+			return super.canEncode(out, v) && (((Integer)v).intValue() % 2) != 0;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.granite.test.jmf;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.granite.messaging.jmf.DefaultCodecRegistry;
+import org.granite.messaging.jmf.DefaultSharedContext;
+import org.granite.messaging.jmf.SharedContext;
+import org.granite.messaging.jmf.reflect.SerializableFieldsCodec;
+import org.granite.test.jmf.Util.ByteArrayJMFDeserializer;
+import org.granite.test.jmf.Util.ByteArrayJMFSerializer;
+import org.granite.test.jmf.model.IncludeExclude;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestJMFSerializableFieldsCodec {
+
+	@Test
+	public void testSameBytes() throws ClassNotFoundException, IOException {
+		Assume.assumeTrue(SerializableFieldsCodec.isAvailable());
+
+		SharedContext reflectionContext = new DefaultSharedContext(new DefaultCodecRegistry());
+		reflectionContext.getReflection().setSerializableFieldsCodecsEnabled(false);
+		SharedContext codecsContext = new DefaultSharedContext(new DefaultCodecRegistry());
+		Assert.assertTrue(codecsContext.getReflection().isSerializableFieldsCodecsEnabled());
+
+		AllTypesBean bean = new AllTypesBean();
+		bean.booleanValue = true;
+		bean.charValue = '\u00e9';
+		bean.byteValue = (byte)-12;
+		bean.shortValue = (short)31000;
+		bean.intValue = -723574;
+		bean.longValue = 3475834534856L;
+		bean.floatValue = 123.01F;
+		bean.doubleValue = -1000.0001;
+		bean.stringValue = "abc";
+		bean.dateValue = new Date();
+		bean.self = bean;
+
+		IncludeExclude includeExclude = new IncludeExclude();
+		includeExclude.setNormal(true);
+		bean.other = includeExclude;
+
+		byte[] reflectionBytes = serialize(bean, reflectionContext);
+		byte[] codecsBytes = serialize(bean, codecsContext);
+		Assert.assertTrue(Arrays.equals(reflectionBytes, codecsBytes));
+
+		AllTypesBean clone = (AllTypesBean)deserialize(codecsBytes, codecsContext);
+		Assert.assertEquals(bean, clone);
+		Assert.assertSame(clone, clone.self);
+		Assert.assertEquals(includeExclude, clone.other);
+
+		Assert.assertEquals(bean, deserialize(codecsBytes, reflectionContext));
+	}
+
+	private static byte[] serialize(Object o, SharedContext context) throws IOException {
+		ByteArrayJMFSerializer serializer = new ByteArrayJMFSerializer(context);
+		serializer.writeObject(o);
+		serializer.close();
+		return serializer.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes, SharedContext context) throws ClassNotFoundException, IOException {
+		ByteArrayJMFDeserializer deserializer = new ByteArrayJMFDeserializer(bytes, context);
+		Object o = deserializer.readObject();
+		deserializer.close();
+		return o;
+	}
+
+	public static class AllTypesBean implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		boolean booleanValue;
+		char charValue;
+		byte byteValue;
+		short shortValue;
+		int intValue;
+		long longValue;
+		float floatValue;
+		double doubleValue;
+		String stringValue;
+		Date dateValue;
+		Object other;
+		AllTypesBean self;
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof AllTypesBean))
+				return false;
+			AllTypesBean b = (AllTypesBean)obj;
+			return booleanValue == b.booleanValue &&
+				charValue == b.charValue &&
+				byteValue == b.byteValue &&
+				shortValue == b.shortValue &&
+				intValue == b.intValue &&
+				longValue == b.longValue &&
+				floatValue == b.floatValue &&
+				doubleValue == b.doubleValue &&
+				stringValue.equals(b.stringValue) &&
+				dateValue.equals(b.dateValue);
+		}
+	}
+}
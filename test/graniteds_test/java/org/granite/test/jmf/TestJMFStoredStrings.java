@@ -0,0 +1,113 @@
+package org.granite.test.jmf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.granite.messaging.jmf.CodecRegistry;
+import org.granite.messaging.jmf.DefaultCodecRegistry;
+import org.granite.messaging.jmf.DefaultSharedContext;
+import org.granite.messaging.jmf.SharedContext;
+import org.granite.messaging.jmf.StoredStrings;
+import org.granite.messaging.jmf.StoredStringsCollector;
+import org.granite.messaging.jmf.reflect.Reflection;
+import org.granite.test.jmf.Util.ByteArrayJMFDeserializer;
+import org.granite.test.jmf.Util.ByteArrayJMFSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestJMFStoredStrings {
+
+	@Test
+	public void testStoredStrings() {
+		StoredStrings storedStrings = new StoredStrings(Arrays.asList("a", "b", "a", null, "c"));
+		Assert.assertEquals(3, storedStrings.size());
+		Assert.assertEquals(0, storedStrings.indexOf("a"));
+		Assert.assertEquals(2, storedStrings.indexOf("c"));
+		Assert.assertEquals(-1, storedStrings.indexOf("d"));
+		Assert.assertEquals("b", storedStrings.get(1));
+	}
+
+	@Test
+	public void testOverlay() throws ClassNotFoundException, IOException {
+		List<String> list = new ArrayList<String>();
+		for (int i = 0; i < 10; i++)
+			list.add("inline" + i);
+		list.add("inline0");
+		list.add(Integer.class.getName());
+
+		SharedContext context = new DefaultSharedContext(new DefaultCodecRegistry());
+		Assert.assertEquals(list, serializeDeserialize(list, context));
+	}
+
+	@Test
+	public void testDefaultStoredStrings() throws ClassNotFoundException, IOException {
+		final String s = "org.granite.test.jmf.model.SomeEntityClassName";
+		List<String> list = new ArrayList<String>(Arrays.asList(s, "other", s));
+
+		SharedContext context = new DefaultSharedContext(new DefaultCodecRegistry());
+		SharedContext seededContext = new DefaultSharedContext(new DefaultCodecRegistry(), null, Arrays.asList(s));
+
+		byte[] bytes = serialize(list, context);
+		byte[] seededBytes = serialize(list, seededContext);
+		Assert.assertTrue(seededBytes.length + s.length() <= bytes.length);
+
+		ByteArrayJMFDeserializer deserializer = new ByteArrayJMFDeserializer(seededBytes, seededContext);
+		Assert.assertEquals(list, deserializer.readObject());
+		deserializer.close();
+	}
+
+	@Test
+	public void testOtherSharedContext() throws ClassNotFoundException, IOException {
+		final SharedContext delegate = new DefaultSharedContext(new DefaultCodecRegistry());
+		SharedContext context = new SharedContext() {
+			public CodecRegistry getCodecRegistry() {
+				return delegate.getCodecRegistry();
+			}
+			public Reflection getReflection() {
+				return delegate.getReflection();
+			}
+			public List<String> getDefaultStoredStrings() {
+				return delegate.getDefaultStoredStrings();
+			}
+			public String getAlias(String className) {
+				return delegate.getAlias(className);
+			}
+		};
+
+		List<Object> list = new ArrayList<Object>(Arrays.asList("a", "a", Integer.valueOf(1), Thread.State.NEW));
+		Assert.assertEquals(list, serializeDeserialize(list, context));
+	}
+
+	@Test
+	public void testCollector() throws ClassNotFoundException, IOException {
+		DefaultSharedContext context = new DefaultSharedContext(new DefaultCodecRegistry());
+		StoredStringsCollector collector = new StoredStringsCollector();
+		context.setStoredStringsCollector(collector);
+
+		for (int i = 0; i < 3; i++)
+			serialize(new ArrayList<Object>(Arrays.asList("secret", "secret", Thread.State.NEW, Thread.State.RUNNABLE)), context);
+		serialize(new ArrayList<Object>(Arrays.asList(Thread.State.class, new Integer[0])), context);
+
+		// Only class names are collected, string values may hold user data.
+		Assert.assertEquals(0, collector.getCount("secret"));
+		Assert.assertEquals(4, collector.getCount(Thread.State.class.getName()));
+		Assert.assertEquals(0, collector.getCount(Integer.class.getName()));
+		Assert.assertEquals(Arrays.asList(Thread.State.class.getName()), collector.getFrequentStrings(2));
+	}
+
+	private static byte[] serialize(Object o, SharedContext context) throws IOException {
+		ByteArrayJMFSerializer serializer = new ByteArrayJMFSerializer(context);
+		serializer.writeObject(o);
+		serializer.close();
+		return serializer.toByteArray();
+	}
+
+	private static Object serializeDeserialize(Object o, SharedContext context) throws ClassNotFoundException, IOException {
+		ByteArrayJMFDeserializer deserializer = new ByteArrayJMFDeserializer(serialize(o, context), context);
+		Object clone = deserializer.readObject();
+		deserializer.close();
+		return clone;
+	}
+}
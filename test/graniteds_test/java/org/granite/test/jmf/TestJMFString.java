@@ -212,6 +212,47 @@ public class TestJMFString implements JMFConstants {
 		*/
 	}
 
+	@Test
+	public void testStringBytes() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			sb.append((char)('a' + (i % 26))).append('\u00E9').append('\u20AC').append("\uD834\uDD1E");
+		
+		String[] values = {
+			"abc",
+			"\u0000\u007F\u0080\u07FF\u0800\uFFFF",
+			"\uD834\uDD1E",
+			"a\uD834b", // unpaired high surrogate
+			"a\uDD1Eb", // unpaired low surrogate
+			"\uD834",
+			sb.toString()
+		};
+		
+		for (String value : values) {
+			byte[] utf8 = value.getBytes("UTF-8");
+			int length = utf8.length;
+			
+			byte[] expected;
+			if (length <= 0xFF)
+				expected = new byte[] { (byte)JMF_STRING, (byte)length };
+			else if (length <= 0xFFFF)
+				expected = new byte[] { (byte)(0x20 | JMF_STRING), (byte)(length >> 8), (byte)length };
+			else
+				expected = new byte[] { (byte)(0x40 | JMF_STRING), (byte)(length >> 16), (byte)(length >> 8), (byte)length };
+			
+			expected = Arrays.copyOf(expected, expected.length + length);
+			System.arraycopy(utf8, 0, expected, expected.length - length, length);
+			
+			ByteArrayJMFSerializer serializer = new ByteArrayJMFSerializer(codecRegistry);
+			serializer.writeObject(value);
+			serializer.close();
+			byte[] bytes = serializer.toByteArray();
+			
+			if (!Arrays.equals(expected, bytes))
+				fail("Bad encoding for \"" + value + "\"");
+		}
+	}
+
 	private void checkString(String v) throws IOException {
 		checkString(v, false);
 	}
@@ -0,0 +1,71 @@
+package org.granite.test.service;
+
+import java.util.HashMap;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.granite.messaging.service.DefaultMethodMatcher;
+import org.granite.messaging.service.ServiceInvocationContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DefaultMethodMatcherTest {
+	
+	private DefaultMethodMatcher methodMatcher;
+
+	@Before
+	public void before() throws Exception {
+		GraniteConfig graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+		methodMatcher = new DefaultMethodMatcher();
+	}
+	
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+		methodMatcher = null;
+	}
+	
+	@Test
+	public void testCachedMatch() throws Exception {
+		Service service = new Service();
+		
+		ServiceInvocationContext context = methodMatcher.findServiceMethod(null, null, service, "add", new Object[] { Double.valueOf(1), Double.valueOf(2) });
+		Assert.assertEquals(Service.class.getMethod("add", Integer.TYPE, Integer.TYPE), context.getMethod());
+		Assert.assertEquals(Integer.valueOf(3), context.invoke());
+		Assert.assertEquals(0L, methodMatcher.getCacheHits());
+		Assert.assertEquals(1L, methodMatcher.getCacheMisses());
+
+		context = methodMatcher.findServiceMethod(null, null, service, "add", new Object[] { Double.valueOf(3), Double.valueOf(4) });
+		Assert.assertEquals(Integer.valueOf(7), context.invoke());
+		Assert.assertEquals(1L, methodMatcher.getCacheHits());
+		Assert.assertEquals(1L, methodMatcher.getCacheMisses());
+		
+		context = methodMatcher.findServiceMethod(null, null, service, "add", new Object[] { "a", "b" });
+		Assert.assertEquals(Service.class.getMethod("add", String.class, String.class), context.getMethod());
+		Assert.assertEquals("ab", context.invoke());
+		Assert.assertEquals(1L, methodMatcher.getCacheHits());
+		Assert.assertEquals(2L, methodMatcher.getCacheMisses());
+	}
+	
+	@Test(expected=NoSuchMethodException.class)
+	public void testNoMatch() throws Exception {
+		methodMatcher.findServiceMethod(null, null, new Service(), "add", new Object[] { "a" });
+	}
+	
+	public static class Service {
+		
+		public int add(int a, int b) {
+			return a + b;
+		}
+		
+		public String add(String a, String b) {
+			return a + b;
+		}
+	}
+}
@@ -46,7 +46,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
 	@Override
 	public Enumeration<String> getAttributeNames() {
-		return null;
+		return Collections.enumeration(atts.keySet());
 	}
 
 	@Override
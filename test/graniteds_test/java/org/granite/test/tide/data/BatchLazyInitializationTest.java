@@ -0,0 +1,151 @@
+package org.granite.test.tide.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.granite.config.GraniteConfig;
+import org.granite.config.flex.ServicesConfig;
+import org.granite.context.GraniteContext;
+import org.granite.context.SimpleGraniteContext;
+import org.granite.tide.TideTransactionManager;
+import org.granite.tide.data.AbstractTidePersistenceManager;
+import org.granite.tide.data.TideTransactionPersistenceManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchLazyInitializationTest {
+
+	@Before
+	public void before() throws Exception {
+		GraniteConfig graniteConfig = new GraniteConfig(null, null, null, null);
+		ServicesConfig servicesConfig = new ServicesConfig(null, null, false);
+		SimpleGraniteContext.createThreadInstance(graniteConfig, servicesConfig, new HashMap<String, Object>());
+	}
+
+	@After
+	public void after() throws Exception {
+		GraniteContext.release();
+	}
+
+	@Test
+	public void testAttachEntities() {
+		CountingTransactionManager tm = new CountingTransactionManager();
+		StubPersistenceManager pm = new StubPersistenceManager(tm);
+
+		Node a = new Node("a", new Node("a1", null));
+		Node b = new Node("b", new Node("b1", null));
+		Node c = new Node("c", null);
+		Leaf d = new Leaf();
+
+		Object[] attached = pm.attachEntities(
+			new Object[] { a, d, b, c, null },
+			new String[][] { { "child.name" }, { "value" }, { "child.name" }, { "name" }, null }
+		);
+
+		Assert.assertEquals(1, tm.begins);
+		Assert.assertEquals(1, tm.commits);
+		Assert.assertEquals(0, tm.rollbacks);
+		Assert.assertTrue(pm.closed);
+
+		// Grouped by class and property names.
+		Assert.assertEquals(3, pm.fetches.size());
+		Assert.assertEquals(2, pm.fetches.get(0).length);
+
+		Assert.assertSame(a, attached[0]);
+		Assert.assertSame(d, attached[1]);
+		Assert.assertSame(b, attached[2]);
+		Assert.assertSame(c, attached[3]);
+		Assert.assertNull(attached[4]);
+	}
+
+	@Test
+	public void testAttachEntitiesError() {
+		CountingTransactionManager tm = new CountingTransactionManager();
+		StubPersistenceManager pm = new StubPersistenceManager(tm);
+
+		pm.attachEntities(new Object[] { new Node("a", null) }, new String[][] { { "unknown" } });
+
+		Assert.assertEquals(1, tm.begins);
+		Assert.assertEquals(0, tm.commits);
+		Assert.assertEquals(1, tm.rollbacks);
+	}
+
+	public static class Node {
+
+		private String name;
+		private Node child;
+
+		public Node(String name, Node child) {
+			this.name = name;
+			this.child = child;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Node getChild() {
+			return child;
+		}
+	}
+
+	public static class Leaf {
+
+		public int getValue() {
+			return 1;
+		}
+	}
+
+	static class StubPersistenceManager extends AbstractTidePersistenceManager implements TideTransactionPersistenceManager {
+
+		final List<Object[]> fetches = new ArrayList<Object[]>();
+		boolean closed = false;
+
+		public StubPersistenceManager(TideTransactionManager tm) {
+			super(tm);
+		}
+
+		public Object getCurrentTransaction() {
+			return new Object();
+		}
+
+		@Override
+		protected void close() {
+			closed = true;
+		}
+
+		@Override
+		public Object fetchEntity(Object entity, String[] fetch) {
+			return entity;
+		}
+
+		@Override
+		protected Object[] fetchEntities(Object[] entities, String[] fetch) {
+			fetches.add(entities);
+			return super.fetchEntities(entities, fetch);
+		}
+	}
+
+	static class CountingTransactionManager implements TideTransactionManager {
+
+		int begins = 0;
+		int commits = 0;
+		int rollbacks = 0;
+
+		public Object begin(TideTransactionPersistenceManager pm) {
+			begins++;
+			return pm.getCurrentTransaction();
+		}
+
+		public void commit(Object tx) throws Exception {
+			commits++;
+		}
+
+		public void rollback(Object tx) {
+			rollbacks++;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+  GRANITE DATA SERVICES
+  Copyright (C) 2011 GRANITE DATA SERVICES S.A.S.
+
+  This file is part of Granite Data Services.
+
+  Granite Data Services is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Library General Public License as published by
+  the Free Software Foundation; either version 2 of the License, or (at your
+  option) any later version.
+
+  Granite Data Services is distributed in the hope that it will be useful, but
+  WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+  FITNESS FOR A PARTICULAR PURPOSE. See the GNU Library General Public License
+  for more details.
+
+  You should have received a copy of the GNU Library General Public License
+  along with this library; if not, see <http://www.gnu.org/licenses/>.
+*/
+
+package org.granite.tide;
+
+
+/**
+ * Persistence manager able to initialize lazy properties of many entities at once.
+ */
+public interface TideBatchPersistenceManager extends TidePersistenceManager {
+	
+    /**
+     * Fetch the entities with their lazy properties from the persistence context, in
+     * a single transaction.
+     * @param entities array of entities to load
+     * @param propertyNames array of property names to fetch for each entity
+     * @return the entities with the persistence context, in the same order.
+     */
+	public Object[] attachEntities(Object[] entities, String[][] propertyNames);
+
+}
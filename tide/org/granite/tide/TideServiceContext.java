@@ -416,4 +416,31 @@ public abstract class TideServiceContext implements Serializable {
         return pm.attachEntity(entity, propertyNames);
     }
     
+    /**
+     * Initialize the lazy properties for the passed in entities, in one transaction when the
+     * persistence manager supports it.
+     * @param entities the entities that have lazy relationships
+     * @param propertyNames the properties of each entity that have been marked lazy
+     * @return the initialized entities, in the same order
+     */
+    public Object[] lazyInitialize(Object[] entities, String[][] propertyNames)  {
+    	if (entities.length != propertyNames.length)
+    		throw new IllegalArgumentException("Entities and property names arrays must have the same length");
+    	
+        TidePersistenceManager pm = getTidePersistenceManager(true);
+        if (pm == null) {
+            log.warn("No persistence manager found: lazy initialization ignored for %d entities", entities.length);
+            return entities;
+        }
+        
+        if (pm instanceof TideBatchPersistenceManager)
+        	return ((TideBatchPersistenceManager)pm).attachEntities(entities, propertyNames);
+        
+        // Persistence managers may not be reusable after an attachEntity call.
+        Object[] initializedEntities = new Object[entities.length];
+        for (int i = 0; i < entities.length; i++)
+        	initializedEntities[i] = (i == 0 ? pm : getTidePersistenceManager(true)).attachEntity(entities[i], propertyNames[i]);
+        return initializedEntities;
+    }
+    
 }
@@ -94,6 +94,14 @@ public class TideServiceInvoker<T extends ServiceFactory> extends ServiceInvoker
         return tideContext.lazyInitialize(parent, propertyNames);
     }
     
+    public Object[] initializeObjects(Object[] parents, Object[] propertyNames) {
+    	Converters converters = GraniteContext.getCurrentInstance().getGraniteConfig().getConverters();
+    	String[][] names = new String[propertyNames.length][];
+    	for (int i = 0; i < propertyNames.length; i++)
+    		names[i] = (String[])converters.convert(propertyNames[i], String[].class);
+        return tideContext.lazyInitialize(parents, names);
+    }
+    
     
     private static final InvalidValue[] EMPTY_INVALID_VALUES = new InvalidValue[0];
     
@@ -258,7 +266,7 @@ public class TideServiceInvoker<T extends ServiceFactory> extends ServiceInvoker
         if ("invokeComponent".equals(methodName)) { 
         	return tideContext.beforeMethodSearch(invokee, methodName, args);
         } 
-        else if ("initializeObject".equals(methodName)) {
+        else if ("initializeObject".equals(methodName) || "initializeObjects".equals(methodName)) {
         	return new Object[] { methodName, new Object[] { args[0], args[1] } };
         } 
         else if ("validateObject".equals(methodName)) {
@@ -20,11 +20,21 @@
 
 package org.granite.tide.data;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.granite.logging.Logger;
 import org.granite.context.GraniteContext;
 import org.granite.messaging.amf.io.util.ClassGetter;
+import org.granite.tide.TideBatchPersistenceManager;
 import org.granite.tide.TidePersistenceManager;
 import org.granite.tide.TideTransactionManager;
+import org.granite.util.Entity;
 import org.granite.util.Reflections;
 
 
@@ -33,7 +43,7 @@ import org.granite.util.Reflections;
  * @author cingram
  *
  */
-public abstract class AbstractTidePersistenceManager implements TidePersistenceManager {
+public abstract class AbstractTidePersistenceManager implements TideBatchPersistenceManager {
 	
 	private static final Logger log = Logger.getLogger(AbstractTidePersistenceManager.class);
 	
@@ -73,19 +83,8 @@ public abstract class AbstractTidePersistenceManager implements TidePersistenceM
 				else
 					attachedEntity = entity;
 	            
-	            if (attachedEntity != null && propertyNames != null) {
-	                for (int i = 0; i < propertyNames.length; i++) {
-	                	Object initializedObj = attachedEntity;
-	                	String[] pnames = propertyNames[i].split("\\.");
-	                	for (int j = 0; j < pnames.length; j++)
-	                		initializedObj = Reflections.getGetterMethod(initializedObj.getClass(), pnames[j]).invoke(initializedObj);
-	                	
-	                    //This is here to make sure the list is forced to return a value while operating inside of a 
-	                    //session. Forcing the  initialization of object.
-	                    if (getter != null)
-	                        getter.initialize(entity, propertyNames[i], initializedObj);
-	                }
-	            }
+	            if (attachedEntity != null && propertyNames != null)
+	            	initializeProperties(entity, attachedEntity, propertyNames, getter, new HashMap<String, Method>());
 			    
 	            tm.commit(tx);
 		    }
@@ -102,6 +101,95 @@ public abstract class AbstractTidePersistenceManager implements TidePersistenceM
         return attachedEntity;
 	} 
 	
+	/**
+	 * Attach the passed in entities in a single transaction. Entities of the same class
+	 * with the same property names are fetched together (see {@link #fetchEntities(Object[], String[])}).
+	 * @param entities
+	 * @param propertyNames
+	 * @return the attached entity objects
+	 */
+	public Object[] attachEntities(Object[] entities, String[][] propertyNames) {
+		Object[] attachedEntities = new Object[entities.length];
+        ClassGetter getter = GraniteContext.getCurrentInstance().getGraniteConfig().getClassGetter();
+        
+        try {
+			Object tx = tm.begin(this instanceof TideTransactionPersistenceManager ? (TideTransactionPersistenceManager)this : null);
+			if (tx == null)
+			    throw new RuntimeException("Could not initiate transaction for lazy initialization");
+			
+			try {
+				Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+				for (int i = 0; i < entities.length; i++) {
+					if (entities[i] == null)
+						continue;
+					if (propertyNames[i] == null) {
+						attachedEntities[i] = entities[i];
+						continue;
+					}
+					
+					StringBuilder sb = new StringBuilder(entities[i].getClass().getName());
+					for (String propertyName : propertyNames[i])
+						sb.append(':').append(propertyName);
+					String key = sb.toString();
+					
+					List<Integer> group = groups.get(key);
+					if (group == null) {
+						group = new ArrayList<Integer>();
+						groups.put(key, group);
+					}
+					group.add(i);
+				}
+				
+				Map<String, Method> getters = new HashMap<String, Method>();
+				for (List<Integer> group : groups.values()) {
+					String[] fetch = propertyNames[group.get(0)];
+					Object[] groupEntities = new Object[group.size()];
+					for (int i = 0; i < groupEntities.length; i++)
+						groupEntities[i] = entities[group.get(i)];
+					
+					Object[] fetchedEntities = fetchEntities(groupEntities, fetch);
+					for (int i = 0; i < groupEntities.length; i++) {
+						attachedEntities[group.get(i)] = fetchedEntities[i];
+						if (fetchedEntities[i] != null)
+							initializeProperties(groupEntities[i], fetchedEntities[i], fetch, getter, getters);
+					}
+				}
+			    
+	            tm.commit(tx);
+		    }
+		    catch (Exception e) {
+		    	log.error(e, "Error during lazy-initialization of %d entities", entities.length);
+		        tm.rollback(tx);
+		    }
+        }
+        finally {
+        	close();
+        }
+        
+        return attachedEntities;
+	}
+	
+	protected void initializeProperties(Object entity, Object attachedEntity, String[] propertyNames, ClassGetter getter, Map<String, Method> getters) throws Exception {
+        for (int i = 0; i < propertyNames.length; i++) {
+        	Object initializedObj = attachedEntity;
+        	String[] pnames = propertyNames[i].split("\\.");
+        	for (int j = 0; j < pnames.length && initializedObj != null; j++) {
+        		String key = initializedObj.getClass().getName() + '#' + pnames[j];
+        		Method getterMethod = getters.get(key);
+        		if (getterMethod == null) {
+        			getterMethod = Reflections.getGetterMethod(initializedObj.getClass(), pnames[j]);
+        			getters.put(key, getterMethod);
+        		}
+        		initializedObj = getterMethod.invoke(initializedObj);
+        	}
+        	
+            //This is here to make sure the list is forced to return a value while operating inside of a 
+            //session. Forcing the  initialization of object.
+            if (getter != null)
+                getter.initialize(entity, propertyNames[i], initializedObj);
+        }
+	}
+	
 	protected abstract void close();
 	
     /**
@@ -112,4 +200,50 @@ public abstract class AbstractTidePersistenceManager implements TidePersistenceM
      */
 	public abstract Object fetchEntity(Object entity, String[] fetch);
 	
+    /**
+     * Fetch entities of the same class with their lazy properties from the persistence context.
+     * Default implementation calls {@link #fetchEntity(Object, String[])} for each entity.
+     * @param entities entities to load
+     * @param fetch array of property names to fetch
+     * @return the entities with the persistence context, in the same order.
+     */
+	protected Object[] fetchEntities(Object[] entities, String[] fetch) {
+		Object[] fetchedEntities = new Object[entities.length];
+		for (int i = 0; i < entities.length; i++)
+			fetchedEntities[i] = fetchEntity(entities[i], fetch);
+		return fetchedEntities;
+	}
+	
+	/**
+	 * Returns the subset of entities that have an identifier.
+	 */
+	protected static List<Object> getIdentifiedEntities(Object[] entities) {
+		List<Object> identifiedEntities = new ArrayList<Object>(entities.length);
+		for (Object entity : entities) {
+			if (new Entity(entity).getIdentifier() != null)
+				identifiedEntities.add(entity);
+		}
+		return identifiedEntities;
+	}
+	
+	/**
+	 * Matches fetched entities with the requested ones by identifier.
+	 */
+	protected static Object[] matchFetchedEntities(Object[] entities, Collection<?> fetchedEntities) {
+		Map<Object, Object> fetchedById = new HashMap<Object, Object>();
+		for (Object fetchedEntity : fetchedEntities)
+			fetchedById.put(new Entity(fetchedEntity).getIdentifier(), fetchedEntity);
+		
+		Object[] matchedEntities = new Object[entities.length];
+		for (int i = 0; i < entities.length; i++) {
+			Object id = new Entity(entities[i]).getIdentifier();
+			if (id != null) {
+				matchedEntities[i] = fetchedById.get(id);
+				if (matchedEntities[i] == null)
+					log.warn("Could not find entity %s to initialize, id: %s", entities[i].getClass().getName(), id);
+			}
+		}
+		return matchedEntities;
+	}
+	
 }
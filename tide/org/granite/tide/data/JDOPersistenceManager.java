@@ -20,6 +20,9 @@
 
 package org.granite.tide.data;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.jdo.PersistenceManager;
 import javax.jdo.PersistenceManagerFactory;
 import javax.jdo.Transaction;
@@ -74,6 +77,32 @@ public class JDOPersistenceManager extends AbstractTidePersistenceManager implem
 		
 		return pm.getObjectById(id);
 	}
+	
+    /**
+     * Finds the entities with the JDO persistence manager, in one call.
+     * @return the entities
+     */
+	@Override
+	protected Object[] fetchEntities(Object[] entities, String[] fetch) {
+		Object[] fetchedEntities = new Object[entities.length];
+		
+		List<Object> ids = new ArrayList<Object>(entities.length);
+		List<Integer> indexes = new ArrayList<Integer>(entities.length);
+		for (int i = 0; i < entities.length; i++) {
+			Object id = pm.getObjectId(entities[i]);
+			if (id != null) {
+				ids.add(id);
+				indexes.add(i);
+			}
+		}
+		
+		if (!ids.isEmpty()) {
+			Object[] objects = pm.getObjectsById(ids.toArray());
+			for (int i = 0; i < objects.length; i++)
+				fetchedEntities[indexes.get(i)] = objects[i];
+		}
+		return fetchedEntities;
+	}
 
 	
 	public static class JDOTransactionManager implements TideTransactionManager {
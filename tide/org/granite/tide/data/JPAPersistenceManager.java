@@ -123,4 +123,24 @@ public class JPAPersistenceManager extends AbstractTidePersistenceManager implem
         return entity;
 	}
 
+	@Override
+	protected Object[] fetchEntities(Object[] entities, String[] fetch) {
+		initEntityManager();
+		
+		if (entities.length < 2 || fetch == null || fetch.length == 0 || entityManager.getDelegate().getClass().getName().indexOf(".hibernate.") < 0)
+			return super.fetchEntities(entities, fetch);
+		
+		List<Object> identifiedEntities = getIdentifiedEntities(entities);
+		if (identifiedEntities.isEmpty())
+			return new Object[entities.length];
+		
+		List<?> results = null;
+		for (String f : fetch) {
+	        Query q = entityManager.createQuery("select distinct e from " + entities[0].getClass().getName() + " e left join fetch e." + f + " where e in (:entities)");
+	        q.setParameter("entities", identifiedEntities);
+	        results = q.getResultList();
+		}
+		return matchFetchedEntities(entities, results);
+	}
+
 }